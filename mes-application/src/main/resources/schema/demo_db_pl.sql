@@ -790,6 +790,250 @@ CREATE FUNCTION prepare_superadmin() RETURNS void
  $$;
 
 
+--
+-- Name: rebuild_resourcestockledger(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION rebuild_resourcestockledger() RETURNS void
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    LOCK TABLE materialflowresources_resourcestockledger IN EXCLUSIVE MODE;
+
+    DELETE FROM materialflowresources_resourcestockledger;
+
+    INSERT INTO materialflowresources_resourcestockledger
+        (location_id, product_id, quantity, quantityinadditionalunit, reservedquantity, orderedquantity, minimumstate)
+    SELECT location_id, product_id, quantity, quantityinadditionalunit, reservedquantity, orderedquantity, minimumstate
+    FROM materialflowresources_resourcestockledgersource;
+END;
+$$;
+
+
+--
+-- Name: resourcestockledger_apply(bigint, bigint, numeric, numeric, numeric, numeric, numeric); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION resourcestockledger_apply(_location_id bigint, _product_id bigint, _quantity numeric, _quantityinadditionalunit numeric, _reservedquantity numeric, _orderedquantity numeric, _minimumstate numeric) RETURNS void
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    IF _location_id IS NULL OR _product_id IS NULL THEN
+        RETURN;
+    END IF;
+
+    IF COALESCE(_quantity, 0) = 0 AND COALESCE(_quantityinadditionalunit, 0) = 0 AND COALESCE(_reservedquantity, 0) = 0
+        AND COALESCE(_orderedquantity, 0) = 0 AND COALESCE(_minimumstate, 0) = 0 THEN
+        RETURN;
+    END IF;
+
+    INSERT INTO materialflowresources_resourcestockledger AS ledger
+        (location_id, product_id, quantity, quantityinadditionalunit, reservedquantity, orderedquantity, minimumstate)
+    VALUES (_location_id, _product_id, COALESCE(_quantity, 0), COALESCE(_quantityinadditionalunit, 0),
+        COALESCE(_reservedquantity, 0), COALESCE(_orderedquantity, 0), COALESCE(_minimumstate, 0))
+    ON CONFLICT (location_id, product_id) DO UPDATE
+    SET quantity = ledger.quantity + EXCLUDED.quantity,
+        quantityinadditionalunit = ledger.quantityinadditionalunit + EXCLUDED.quantityinadditionalunit,
+        reservedquantity = ledger.reservedquantity + EXCLUDED.reservedquantity,
+        orderedquantity = ledger.orderedquantity + EXCLUDED.orderedquantity,
+        minimumstate = ledger.minimumstate + EXCLUDED.minimumstate;
+END;
+$$;
+
+
+--
+-- Name: resourcestockledger_delivery_counted(boolean, character varying); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION resourcestockledger_delivery_counted(_active boolean, _state character varying) RETURNS boolean
+    LANGUAGE plpgsql IMMUTABLE
+    AS $$
+BEGIN
+    RETURN COALESCE(_active AND _state IN ('01draft', '02prepared', '03duringCorrection', '05approved'), false);
+END;
+$$;
+
+
+--
+-- Name: resourcestockledger_delivery_location(bigint); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION resourcestockledger_delivery_location(_delivery_id bigint) RETURNS bigint
+    LANGUAGE plpgsql
+    AS $$
+DECLARE
+    _location_id bigint;
+BEGIN
+    SELECT location_id INTO _location_id
+    FROM deliveries_delivery
+    WHERE id = _delivery_id AND resourcestockledger_delivery_counted(active, state);
+
+    RETURN _location_id;
+END;
+$$;
+
+
+--
+-- Name: resourcestockledger_delivery_trigger(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION resourcestockledger_delivery_trigger() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+DECLARE
+    _old_location_id bigint;
+    _new_location_id bigint;
+    _product record;
+BEGIN
+    IF resourcestockledger_delivery_counted(OLD.active, OLD.state) THEN
+        _old_location_id := OLD.location_id;
+    END IF;
+
+    IF TG_OP = 'UPDATE' THEN
+        IF resourcestockledger_delivery_counted(NEW.active, NEW.state) THEN
+            _new_location_id := NEW.location_id;
+        END IF;
+    END IF;
+
+    IF _old_location_id IS NOT DISTINCT FROM _new_location_id THEN
+        RETURN OLD;
+    END IF;
+
+    FOR _product IN SELECT product_id, SUM(orderedquantity) AS orderedquantity
+                    FROM deliveries_orderedproduct
+                    WHERE delivery_id = OLD.id
+                    GROUP BY product_id
+    LOOP
+        PERFORM resourcestockledger_apply(_old_location_id, _product.product_id, 0, 0, 0, -_product.orderedquantity, 0);
+        PERFORM resourcestockledger_apply(_new_location_id, _product.product_id, 0, 0, 0, _product.orderedquantity, 0);
+    END LOOP;
+
+    RETURN OLD;
+END;
+$$;
+
+
+--
+-- Name: resourcestockledger_minimumstate_trigger(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION resourcestockledger_minimumstate_trigger() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    IF TG_OP = 'UPDATE' THEN
+        IF NEW.location_id IS NOT DISTINCT FROM OLD.location_id AND NEW.product_id IS NOT DISTINCT FROM OLD.product_id THEN
+            PERFORM resourcestockledger_apply(NEW.location_id, NEW.product_id, 0, 0, 0, 0,
+                COALESCE(NEW.minimumstate, 0) - COALESCE(OLD.minimumstate, 0));
+
+            RETURN NULL;
+        END IF;
+    END IF;
+
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        PERFORM resourcestockledger_apply(OLD.location_id, OLD.product_id, 0, 0, 0, 0, -OLD.minimumstate);
+    END IF;
+
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        PERFORM resourcestockledger_apply(NEW.location_id, NEW.product_id, 0, 0, 0, 0, NEW.minimumstate);
+    END IF;
+
+    RETURN NULL;
+END;
+$$;
+
+
+--
+-- Name: resourcestockledger_orderedproduct_trigger(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION resourcestockledger_orderedproduct_trigger() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    IF TG_OP = 'UPDATE' THEN
+        IF NEW.delivery_id IS NOT DISTINCT FROM OLD.delivery_id AND NEW.product_id IS NOT DISTINCT FROM OLD.product_id
+            AND NEW.orderedquantity IS NOT DISTINCT FROM OLD.orderedquantity THEN
+            RETURN NULL;
+        END IF;
+    END IF;
+
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        PERFORM resourcestockledger_apply(resourcestockledger_delivery_location(OLD.delivery_id), OLD.product_id, 0, 0, 0,
+            -OLD.orderedquantity, 0);
+    END IF;
+
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        PERFORM resourcestockledger_apply(resourcestockledger_delivery_location(NEW.delivery_id), NEW.product_id, 0, 0, 0,
+            NEW.orderedquantity, 0);
+    END IF;
+
+    RETURN NULL;
+END;
+$$;
+
+
+--
+-- Name: resourcestockledger_reservation_trigger(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION resourcestockledger_reservation_trigger() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    IF TG_OP = 'UPDATE' THEN
+        IF NEW.location_id IS NOT DISTINCT FROM OLD.location_id AND NEW.product_id IS NOT DISTINCT FROM OLD.product_id THEN
+            PERFORM resourcestockledger_apply(NEW.location_id, NEW.product_id, 0, 0,
+                COALESCE(NEW.quantity, 0) - COALESCE(OLD.quantity, 0), 0, 0);
+
+            RETURN NULL;
+        END IF;
+    END IF;
+
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        PERFORM resourcestockledger_apply(OLD.location_id, OLD.product_id, 0, 0, -OLD.quantity, 0, 0);
+    END IF;
+
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        PERFORM resourcestockledger_apply(NEW.location_id, NEW.product_id, 0, 0, NEW.quantity, 0, 0);
+    END IF;
+
+    RETURN NULL;
+END;
+$$;
+
+
+--
+-- Name: resourcestockledger_resource_trigger(); Type: FUNCTION; Schema: public; Owner: -
+--
+
+CREATE FUNCTION resourcestockledger_resource_trigger() RETURNS trigger
+    LANGUAGE plpgsql
+    AS $$
+BEGIN
+    IF TG_OP = 'UPDATE' THEN
+        IF NEW.location_id IS NOT DISTINCT FROM OLD.location_id AND NEW.product_id IS NOT DISTINCT FROM OLD.product_id THEN
+            PERFORM resourcestockledger_apply(NEW.location_id, NEW.product_id,
+                COALESCE(NEW.quantity, 0) - COALESCE(OLD.quantity, 0),
+                COALESCE(NEW.quantityinadditionalunit, 0) - COALESCE(OLD.quantityinadditionalunit, 0), 0, 0, 0);
+
+            RETURN NULL;
+        END IF;
+    END IF;
+
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        PERFORM resourcestockledger_apply(OLD.location_id, OLD.product_id, -OLD.quantity, -OLD.quantityinadditionalunit, 0, 0, 0);
+    END IF;
+
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        PERFORM resourcestockledger_apply(NEW.location_id, NEW.product_id, NEW.quantity, NEW.quantityinadditionalunit, 0, 0, 0);
+    END IF;
+
+    RETURN NULL;
+END;
+$$;
+
+
 --
 -- Name: update_productionpershift_progressforday(); Type: FUNCTION; Schema: public; Owner: -
 --
@@ -4067,6 +4311,44 @@ CREATE SEQUENCE costcalculation_costcalculation_id_seq
 ALTER SEQUENCE costcalculation_costcalculation_id_seq OWNED BY costcalculation_costcalculation.id;
 
 
+--
+-- Name: costcalculation_technologycost; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE costcalculation_technologycost (
+    id bigint NOT NULL,
+    technology_id bigint,
+    product_id bigint,
+    quantity numeric(19,5),
+    materialcosts numeric(19,5),
+    operationscosts numeric(19,5),
+    totalcosts numeric(19,5),
+    costperunit numeric(19,5),
+    calculationdate timestamp without time zone,
+    errormessage character varying(255),
+    entityversion bigint DEFAULT 0
+);
+
+
+--
+-- Name: costcalculation_technologycost_id_seq; Type: SEQUENCE; Schema: public; Owner: -
+--
+
+CREATE SEQUENCE costcalculation_technologycost_id_seq
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+
+--
+-- Name: costcalculation_technologycost_id_seq; Type: SEQUENCE OWNED BY; Schema: public; Owner: -
+--
+
+ALTER SEQUENCE costcalculation_technologycost_id_seq OWNED BY costcalculation_technologycost.id;
+
+
 --
 -- Name: costnormsformaterials_technologyinstoperproductincomp; Type: TABLE; Schema: public; Owner: -
 --
@@ -9071,6 +9353,21 @@ CREATE SEQUENCE materialflowresources_resourcestock_id_seq
 ALTER SEQUENCE materialflowresources_resourcestock_id_seq OWNED BY materialflowresources_resourcestock.id;
 
 
+--
+-- Name: materialflowresources_resourcestockledger; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE materialflowresources_resourcestockledger (
+    location_id bigint NOT NULL,
+    product_id bigint NOT NULL,
+    quantity numeric DEFAULT 0 NOT NULL,
+    quantityinadditionalunit numeric DEFAULT 0 NOT NULL,
+    reservedquantity numeric DEFAULT 0 NOT NULL,
+    orderedquantity numeric DEFAULT 0 NOT NULL,
+    minimumstate numeric DEFAULT 0 NOT NULL
+);
+
+
 --
 -- Name: warehouseminimalstate_warehouseminimumstate; Type: TABLE; Schema: public; Owner: -
 --
@@ -9094,53 +9391,22 @@ CREATE TABLE warehouseminimalstate_warehouseminimumstate (
 --
 
 CREATE VIEW materialflowresources_resourcestockdto AS
- WITH minimum_states AS (
-         SELECT warehouseminimalstate_warehouseminimumstate.product_id,
-            warehouseminimalstate_warehouseminimumstate.location_id,
-            sum(warehouseminimalstate_warehouseminimumstate.minimumstate) AS quantity
-           FROM warehouseminimalstate_warehouseminimumstate
-          GROUP BY warehouseminimalstate_warehouseminimumstate.product_id, warehouseminimalstate_warehouseminimumstate.location_id
-        ), quantities AS (
-         SELECT materialflowresources_resource.product_id,
-            materialflowresources_resource.location_id,
-            sum(materialflowresources_resource.quantity) AS quantity,
-            sum(materialflowresources_resource.quantityinadditionalunit) AS quantityinadditionalunit
-           FROM materialflowresources_resource
-          GROUP BY materialflowresources_resource.product_id, materialflowresources_resource.location_id
-        ), reserved_quantities AS (
-         SELECT materialflowresources_reservation.product_id,
-            materialflowresources_reservation.location_id,
-            sum(materialflowresources_reservation.quantity) AS quantity
-           FROM materialflowresources_reservation
-          GROUP BY materialflowresources_reservation.product_id, materialflowresources_reservation.location_id
-        ), ordered_quantities AS (
-         SELECT dop.product_id,
-            dd.location_id,
-            sum(dop.orderedquantity) AS quantity
-           FROM (deliveries_orderedproduct dop
-             JOIN deliveries_delivery dd ON ((dop.delivery_id = dd.id)))
-          WHERE ((dd.active = true) AND ((dd.state)::text = ANY (ARRAY[('01draft'::character varying)::text, ('02prepared'::character varying)::text, ('03duringCorrection'::character varying)::text, ('05approved'::character varying)::text])))
-          GROUP BY dop.product_id, dd.location_id
-        )
  SELECT rs.id,
     (rs.location_id)::integer AS location_id,
     (rs.product_id)::integer AS product_id,
-    COALESCE(oq.quantity, (0)::numeric) AS orderedquantity,
-    COALESCE(ms.quantity, (0)::numeric) AS minimumstate,
-    COALESCE(q.quantity, (0)::numeric) AS quantity,
-    COALESCE(q.quantityinadditionalunit, (0)::numeric) AS quantityinadditionalunit,
-    COALESCE(rq.quantity, (0)::numeric) AS reservedquantity,
-    (COALESCE(q.quantity, (0)::numeric) - COALESCE(rq.quantity, (0)::numeric)) AS availablequantity,
+    COALESCE(ledger.orderedquantity, (0)::numeric) AS orderedquantity,
+    COALESCE(ledger.minimumstate, (0)::numeric) AS minimumstate,
+    COALESCE(ledger.quantity, (0)::numeric) AS quantity,
+    COALESCE(ledger.quantityinadditionalunit, (0)::numeric) AS quantityinadditionalunit,
+    COALESCE(ledger.reservedquantity, (0)::numeric) AS reservedquantity,
+    (COALESCE(ledger.quantity, (0)::numeric) - COALESCE(ledger.reservedquantity, (0)::numeric)) AS availablequantity,
     location.number AS locationnumber,
     location.name AS locationname,
     product.number AS productnumber,
     product.name AS productname,
     product.unit AS productunit
-   FROM ((((((materialflowresources_resourcestock rs
-     LEFT JOIN ordered_quantities oq ON (((oq.product_id = rs.product_id) AND (oq.location_id = rs.location_id))))
-     LEFT JOIN minimum_states ms ON (((ms.product_id = rs.product_id) AND (ms.location_id = rs.location_id))))
-     LEFT JOIN quantities q ON (((q.product_id = rs.product_id) AND (q.location_id = rs.location_id))))
-     LEFT JOIN reserved_quantities rq ON (((rq.product_id = rs.product_id) AND (rq.location_id = rs.location_id))))
+   FROM (((materialflowresources_resourcestock rs
+     LEFT JOIN materialflowresources_resourcestockledger ledger ON (((ledger.location_id = rs.location_id) AND (ledger.product_id = rs.product_id))))
      JOIN materialflow_location location ON ((location.id = rs.location_id)))
      JOIN basic_product product ON ((product.id = rs.product_id)));
 
@@ -9169,6 +9435,59 @@ CREATE SEQUENCE materialflowresources_resourcestockdto_internal_id_seq
     CACHE 1;
 
 
+--
+-- Name: materialflowresources_resourcestockledgersource; Type: VIEW; Schema: public; Owner: -
+--
+
+CREATE VIEW materialflowresources_resourcestockledgersource AS
+ SELECT stock.location_id,
+    stock.product_id,
+    sum(stock.quantity) AS quantity,
+    sum(stock.quantityinadditionalunit) AS quantityinadditionalunit,
+    sum(stock.reservedquantity) AS reservedquantity,
+    sum(stock.orderedquantity) AS orderedquantity,
+    sum(stock.minimumstate) AS minimumstate
+   FROM ( SELECT resource.location_id,
+            resource.product_id,
+            COALESCE(resource.quantity, (0)::numeric) AS quantity,
+            COALESCE(resource.quantityinadditionalunit, (0)::numeric) AS quantityinadditionalunit,
+            (0)::numeric AS reservedquantity,
+            (0)::numeric AS orderedquantity,
+            (0)::numeric AS minimumstate
+           FROM materialflowresources_resource resource
+        UNION ALL
+         SELECT reservation.location_id,
+            reservation.product_id,
+            0,
+            0,
+            COALESCE(reservation.quantity, (0)::numeric),
+            0,
+            0
+           FROM materialflowresources_reservation reservation
+        UNION ALL
+         SELECT dd.location_id,
+            dop.product_id,
+            0,
+            0,
+            0,
+            COALESCE(dop.orderedquantity, (0)::numeric),
+            0
+           FROM (deliveries_orderedproduct dop
+             JOIN deliveries_delivery dd ON ((dop.delivery_id = dd.id)))
+          WHERE resourcestockledger_delivery_counted(dd.active, dd.state)
+        UNION ALL
+         SELECT minimumstate.location_id,
+            minimumstate.product_id,
+            0,
+            0,
+            0,
+            0,
+            COALESCE(minimumstate.minimumstate, (0)::numeric)
+           FROM warehouseminimalstate_warehouseminimumstate minimumstate) stock
+  WHERE ((stock.location_id IS NOT NULL) AND (stock.product_id IS NOT NULL))
+  GROUP BY stock.location_id, stock.product_id;
+
+
 --
 -- Name: materialflowresources_stocktaking; Type: TABLE; Schema: public; Owner: -
 --
@@ -13959,6 +14278,113 @@ CREATE SEQUENCE productioncounting_settrackingoperationproductincomponents_id_s
 ALTER SEQUENCE productioncounting_settrackingoperationproductincomponents_id_s OWNED BY productioncounting_settrackingoperationproductincomponents.id;
 
 
+--
+-- Name: productioncounting_orderbalanceproductquantity; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE productioncounting_orderbalanceproductquantity (
+    id bigint NOT NULL,
+    order_id bigint,
+    technologyoperationcomponent_id bigint,
+    product_id bigint,
+    role character varying(255),
+    usedquantity numeric(19,5),
+    wastesquantity numeric(19,5),
+    wasteusedquantity numeric(19,5),
+    wasteunit character varying(255),
+    trackingscount integer,
+    entityversion bigint DEFAULT 0
+);
+
+
+--
+-- Name: productioncounting_orderbalanceproductquantity_id_seq; Type: SEQUENCE; Schema: public; Owner: -
+--
+
+CREATE SEQUENCE productioncounting_orderbalanceproductquantity_id_seq
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+
+--
+-- Name: productioncounting_orderbalanceproductquantity_id_seq; Type: SEQUENCE OWNED BY; Schema: public; Owner: -
+--
+
+ALTER SEQUENCE productioncounting_orderbalanceproductquantity_id_seq OWNED BY productioncounting_orderbalanceproductquantity.id;
+
+
+--
+-- Name: productioncounting_orderbalanceoperationtime; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE productioncounting_orderbalanceoperationtime (
+    id bigint NOT NULL,
+    order_id bigint,
+    technologyoperationcomponent_id bigint,
+    executedoperationcycles numeric(19,5),
+    machinetime integer,
+    labortime integer,
+    trackingscount integer,
+    entityversion bigint DEFAULT 0
+);
+
+
+--
+-- Name: productioncounting_orderbalanceoperationtime_id_seq; Type: SEQUENCE; Schema: public; Owner: -
+--
+
+CREATE SEQUENCE productioncounting_orderbalanceoperationtime_id_seq
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+
+--
+-- Name: productioncounting_orderbalanceoperationtime_id_seq; Type: SEQUENCE OWNED BY; Schema: public; Owner: -
+--
+
+ALTER SEQUENCE productioncounting_orderbalanceoperationtime_id_seq OWNED BY productioncounting_orderbalanceoperationtime.id;
+
+
+--
+-- Name: productioncounting_orderbalancestafftime; Type: TABLE; Schema: public; Owner: -
+--
+
+CREATE TABLE productioncounting_orderbalancestafftime (
+    id bigint NOT NULL,
+    order_id bigint,
+    technologyoperationcomponent_id bigint,
+    worker_id bigint,
+    labortime integer,
+    trackingscount integer,
+    entityversion bigint DEFAULT 0
+);
+
+
+--
+-- Name: productioncounting_orderbalancestafftime_id_seq; Type: SEQUENCE; Schema: public; Owner: -
+--
+
+CREATE SEQUENCE productioncounting_orderbalancestafftime_id_seq
+    START WITH 1
+    INCREMENT BY 1
+    NO MINVALUE
+    NO MAXVALUE
+    CACHE 1;
+
+
+--
+-- Name: productioncounting_orderbalancestafftime_id_seq; Type: SEQUENCE OWNED BY; Schema: public; Owner: -
+--
+
+ALTER SEQUENCE productioncounting_orderbalancestafftime_id_seq OWNED BY productioncounting_orderbalancestafftime.id;
+
+
 --
 -- Name: productioncounting_staffworktime; Type: TABLE; Schema: public; Owner: -
 --
@@ -18026,6 +18452,13 @@ ALTER TABLE ONLY costcalculation_componentcost ALTER COLUMN id SET DEFAULT nextv
 ALTER TABLE ONLY costcalculation_costcalculation ALTER COLUMN id SET DEFAULT nextval('costcalculation_costcalculation_id_seq'::regclass);
 
 
+--
+-- Name: costcalculation_technologycost id; Type: DEFAULT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY costcalculation_technologycost ALTER COLUMN id SET DEFAULT nextval('costcalculation_technologycost_id_seq'::regclass);
+
+
 --
 -- Name: costnormsformaterials_technologyinstoperproductincomp id; Type: DEFAULT; Schema: public; Owner: -
 --
@@ -19265,6 +19698,27 @@ ALTER TABLE ONLY productioncounting_settechnologyincomponents ALTER COLUMN id SE
 ALTER TABLE ONLY productioncounting_settrackingoperationproductincomponents ALTER COLUMN id SET DEFAULT nextval('productioncounting_settrackingoperationproductincomponents_id_s'::regclass);
 
 
+--
+-- Name: productioncounting_orderbalanceproductquantity id; Type: DEFAULT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_orderbalanceproductquantity ALTER COLUMN id SET DEFAULT nextval('productioncounting_orderbalanceproductquantity_id_seq'::regclass);
+
+
+--
+-- Name: productioncounting_orderbalanceoperationtime id; Type: DEFAULT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_orderbalanceoperationtime ALTER COLUMN id SET DEFAULT nextval('productioncounting_orderbalanceoperationtime_id_seq'::regclass);
+
+
+--
+-- Name: productioncounting_orderbalancestafftime id; Type: DEFAULT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_orderbalancestafftime ALTER COLUMN id SET DEFAULT nextval('productioncounting_orderbalancestafftime_id_seq'::regclass);
+
+
 --
 -- Name: productioncounting_staffworktime id; Type: DEFAULT; Schema: public; Owner: -
 --
@@ -21591,6 +22045,21 @@ COPY costcalculation_costcalculation (id, number, product_id, defaulttechnology_
 SELECT pg_catalog.setval('costcalculation_costcalculation_id_seq', 1, false);
 
 
+--
+-- Data for Name: costcalculation_technologycost; Type: TABLE DATA; Schema: public; Owner: -
+--
+
+COPY costcalculation_technologycost (id, technology_id, product_id, quantity, materialcosts, operationscosts, totalcosts, costperunit, calculationdate, errormessage, entityversion) FROM stdin;
+\.
+
+
+--
+-- Name: costcalculation_technologycost_id_seq; Type: SEQUENCE SET; Schema: public; Owner: -
+--
+
+SELECT pg_catalog.setval('costcalculation_technologycost_id_seq', 1, false);
+
+
 --
 -- Data for Name: costnormsformaterials_technologyinstoperproductincomp; Type: TABLE DATA; Schema: public; Owner: -
 --
@@ -25081,6 +25550,51 @@ COPY productioncounting_settrackingoperationproductincomponents (id, trackingope
 SELECT pg_catalog.setval('productioncounting_settrackingoperationproductincomponents_id_s', 1, false);
 
 
+--
+-- Data for Name: productioncounting_orderbalanceproductquantity; Type: TABLE DATA; Schema: public; Owner: -
+--
+
+COPY productioncounting_orderbalanceproductquantity (id, order_id, technologyoperationcomponent_id, product_id, role, usedquantity, wastesquantity, wasteusedquantity, wasteunit, trackingscount, entityversion) FROM stdin;
+\.
+
+
+--
+-- Name: productioncounting_orderbalanceproductquantity_id_seq; Type: SEQUENCE SET; Schema: public; Owner: -
+--
+
+SELECT pg_catalog.setval('productioncounting_orderbalanceproductquantity_id_seq', 1, false);
+
+
+--
+-- Data for Name: productioncounting_orderbalanceoperationtime; Type: TABLE DATA; Schema: public; Owner: -
+--
+
+COPY productioncounting_orderbalanceoperationtime (id, order_id, technologyoperationcomponent_id, executedoperationcycles, machinetime, labortime, trackingscount, entityversion) FROM stdin;
+\.
+
+
+--
+-- Name: productioncounting_orderbalanceoperationtime_id_seq; Type: SEQUENCE SET; Schema: public; Owner: -
+--
+
+SELECT pg_catalog.setval('productioncounting_orderbalanceoperationtime_id_seq', 1, false);
+
+
+--
+-- Data for Name: productioncounting_orderbalancestafftime; Type: TABLE DATA; Schema: public; Owner: -
+--
+
+COPY productioncounting_orderbalancestafftime (id, order_id, technologyoperationcomponent_id, worker_id, labortime, trackingscount, entityversion) FROM stdin;
+\.
+
+
+--
+-- Name: productioncounting_orderbalancestafftime_id_seq; Type: SEQUENCE SET; Schema: public; Owner: -
+--
+
+SELECT pg_catalog.setval('productioncounting_orderbalancestafftime_id_seq', 1, false);
+
+
 --
 -- Data for Name: productioncounting_staffworktime; Type: TABLE DATA; Schema: public; Owner: -
 --
@@ -27971,6 +28485,14 @@ ALTER TABLE ONLY costcalculation_costcalculation
     ADD CONSTRAINT costcalculation_costcalculation_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: costcalculation_technologycost costcalculation_technologycost_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY costcalculation_technologycost
+    ADD CONSTRAINT costcalculation_technologycost_pkey PRIMARY KEY (id);
+
+
 --
 -- Name: costnormsforoperation_calculationoperationcomponent costnormsforoperation_calculationoperationcomponent_pkey; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -28979,6 +29501,14 @@ ALTER TABLE ONLY materialflowresources_resourcestock
     ADD CONSTRAINT materialflowresources_resourcestock_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: materialflowresources_resourcestockledger materialflowresources_resourcestockledger_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY materialflowresources_resourcestockledger
+    ADD CONSTRAINT materialflowresources_resourcestockledger_pkey PRIMARY KEY (location_id, product_id);
+
+
 --
 -- Name: materialflowresources_stocktaking materialflowresources_stocktaking_pkey; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -29771,6 +30301,30 @@ ALTER TABLE ONLY productioncounting_settrackingoperationproductincomponents
     ADD CONSTRAINT productioncounting_settrackingoperationproductincomponents_pkey PRIMARY KEY (id);
 
 
+--
+-- Name: productioncounting_orderbalanceproductquantity productioncounting_orderbalanceproductquantity_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_orderbalanceproductquantity
+    ADD CONSTRAINT productioncounting_orderbalanceproductquantity_pkey PRIMARY KEY (id);
+
+
+--
+-- Name: productioncounting_orderbalanceoperationtime productioncounting_orderbalanceoperationtime_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_orderbalanceoperationtime
+    ADD CONSTRAINT productioncounting_orderbalanceoperationtime_pkey PRIMARY KEY (id);
+
+
+--
+-- Name: productioncounting_orderbalancestafftime productioncounting_orderbalancestafftime_pkey; Type: CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_orderbalancestafftime
+    ADD CONSTRAINT productioncounting_orderbalancestafftime_pkey PRIMARY KEY (id);
+
+
 --
 -- Name: productioncounting_staffworktime productioncounting_staffworktime_pkey; Type: CONSTRAINT; Schema: public; Owner: -
 --
@@ -30712,6 +31266,27 @@ CREATE TRIGGER assignmenttoshift_assignmenttoshift_trigger_externalnumber BEFORE
 CREATE TRIGGER cmmsmachineparts_maintenanceevent_trigger_number BEFORE INSERT ON cmmsmachineparts_maintenanceevent FOR EACH ROW EXECUTE PROCEDURE generate_and_set_maintenanceevent_number_trigger();
 
 
+--
+-- Name: deliveries_delivery deliveries_delivery_trigger_resourcestockledger_delete; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER deliveries_delivery_trigger_resourcestockledger_delete BEFORE DELETE ON deliveries_delivery FOR EACH ROW EXECUTE PROCEDURE resourcestockledger_delivery_trigger();
+
+
+--
+-- Name: deliveries_delivery deliveries_delivery_trigger_resourcestockledger_update; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER deliveries_delivery_trigger_resourcestockledger_update AFTER UPDATE OF state, location_id, active ON deliveries_delivery FOR EACH ROW EXECUTE PROCEDURE resourcestockledger_delivery_trigger();
+
+
+--
+-- Name: deliveries_orderedproduct deliveries_orderedproduct_trigger_resourcestockledger; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER deliveries_orderedproduct_trigger_resourcestockledger AFTER INSERT OR DELETE OR UPDATE ON deliveries_orderedproduct FOR EACH ROW EXECUTE PROCEDURE resourcestockledger_orderedproduct_trigger();
+
+
 --
 -- Name: goodfood_confectionprotocol goodfood_confectionprotocol_trigger_externalnumber; Type: TRIGGER; Schema: public; Owner: -
 --
@@ -30740,6 +31315,20 @@ CREATE TRIGGER goodfood_pallet_trigger_externalnumber BEFORE INSERT ON goodfood_
 CREATE TRIGGER materialflowresources_document_trigger_number BEFORE INSERT ON materialflowresources_document FOR EACH ROW EXECUTE PROCEDURE generate_and_set_document_number_trigger();
 
 
+--
+-- Name: materialflowresources_reservation materialflowresources_reservation_trigger_resourcestockledger; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER materialflowresources_reservation_trigger_resourcestockledger AFTER INSERT OR DELETE OR UPDATE ON materialflowresources_reservation FOR EACH ROW EXECUTE PROCEDURE resourcestockledger_reservation_trigger();
+
+
+--
+-- Name: materialflowresources_resource materialflowresources_resource_trigger_resourcestockledger; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER materialflowresources_resource_trigger_resourcestockledger AFTER INSERT OR DELETE OR UPDATE ON materialflowresources_resource FOR EACH ROW EXECUTE PROCEDURE resourcestockledger_resource_trigger();
+
+
 --
 -- Name: repairs_repairorder repairs_repairorder_trigger_number; Type: TRIGGER; Schema: public; Owner: -
 --
@@ -30747,6 +31336,13 @@ CREATE TRIGGER materialflowresources_document_trigger_number BEFORE INSERT ON ma
 CREATE TRIGGER repairs_repairorder_trigger_number BEFORE INSERT ON repairs_repairorder FOR EACH ROW EXECUTE PROCEDURE generate_and_set_repairorder_number_trigger();
 
 
+--
+-- Name: warehouseminimalstate_warehouseminimumstate warehouseminimumstate_trigger_resourcestockledger; Type: TRIGGER; Schema: public; Owner: -
+--
+
+CREATE TRIGGER warehouseminimumstate_trigger_resourcestockledger AFTER INSERT OR DELETE OR UPDATE ON warehouseminimalstate_warehouseminimumstate FOR EACH ROW EXECUTE PROCEDURE resourcestockledger_minimumstate_trigger();
+
+
 --
 -- Name: jointable_action_subassembly action_subassembly_action_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
 --
@@ -31603,6 +32199,22 @@ ALTER TABLE ONLY costcalculation_componentcost
     ADD CONSTRAINT componentcost_product_fkey FOREIGN KEY (product_id) REFERENCES basic_product(id) DEFERRABLE;
 
 
+--
+-- Name: costcalculation_technologycost technologycost_technology_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY costcalculation_technologycost
+    ADD CONSTRAINT technologycost_technology_fkey FOREIGN KEY (technology_id) REFERENCES technologies_technology(id) DEFERRABLE;
+
+
+--
+-- Name: costcalculation_technologycost technologycost_product_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY costcalculation_technologycost
+    ADD CONSTRAINT technologycost_product_fkey FOREIGN KEY (product_id) REFERENCES basic_product(id) DEFERRABLE;
+
+
 --
 -- Name: basicproductioncounting_productioncountingquantity componentslocation_productioncountingquantity_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
 --
@@ -35035,6 +35647,112 @@ ALTER TABLE ONLY productioncounting_trackingoperationproductoutcomponent
     ADD CONSTRAINT pc_ropoc_batch_fk FOREIGN KEY (batch_id) REFERENCES advancedgenealogy_batch(id) DEFERRABLE;
 
 
+--
+-- Name: productioncounting_orderbalanceproductquantity_order_id_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX productioncounting_orderbalanceproductquantity_order_id_idx ON productioncounting_orderbalanceproductquantity USING btree (order_id);
+
+
+--
+-- Name: productioncounting_orderbalanceoperationtime_order_id_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX productioncounting_orderbalanceoperationtime_order_id_idx ON productioncounting_orderbalanceoperationtime USING btree (order_id);
+
+
+--
+-- Name: productioncounting_orderbalancestafftime_order_id_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX productioncounting_orderbalancestafftime_order_id_idx ON productioncounting_orderbalancestafftime USING btree (order_id);
+
+
+--
+-- Name: materialflowresources_resourcestock_location_id_product_id_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX materialflowresources_resourcestock_location_id_product_id_idx ON materialflowresources_resourcestock USING btree (location_id, product_id);
+
+
+--
+-- Name: deliveries_orderedproduct_delivery_id_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX deliveries_orderedproduct_delivery_id_idx ON deliveries_orderedproduct USING btree (delivery_id);
+
+
+--
+-- Name: costcalculation_technologycost_technology_id_idx; Type: INDEX; Schema: public; Owner: -
+--
+
+CREATE INDEX costcalculation_technologycost_technology_id_idx ON costcalculation_technologycost USING btree (technology_id);
+
+
+--
+-- Name: productioncounting_orderbalanceproductquantity pc_obpq_orders_order_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_orderbalanceproductquantity
+    ADD CONSTRAINT pc_obpq_orders_order_fkey FOREIGN KEY (order_id) REFERENCES orders_order(id) DEFERRABLE;
+
+
+--
+-- Name: productioncounting_orderbalanceproductquantity pc_obpq_technologies_toc_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_orderbalanceproductquantity
+    ADD CONSTRAINT pc_obpq_technologies_toc_fkey FOREIGN KEY (technologyoperationcomponent_id) REFERENCES technologies_technologyoperationcomponent(id) DEFERRABLE;
+
+
+--
+-- Name: productioncounting_orderbalanceproductquantity pc_obpq_basic_product_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_orderbalanceproductquantity
+    ADD CONSTRAINT pc_obpq_basic_product_fkey FOREIGN KEY (product_id) REFERENCES basic_product(id) DEFERRABLE;
+
+
+--
+-- Name: productioncounting_orderbalanceoperationtime pc_obot_orders_order_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_orderbalanceoperationtime
+    ADD CONSTRAINT pc_obot_orders_order_fkey FOREIGN KEY (order_id) REFERENCES orders_order(id) DEFERRABLE;
+
+
+--
+-- Name: productioncounting_orderbalanceoperationtime pc_obot_technologies_toc_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_orderbalanceoperationtime
+    ADD CONSTRAINT pc_obot_technologies_toc_fkey FOREIGN KEY (technologyoperationcomponent_id) REFERENCES technologies_technologyoperationcomponent(id) DEFERRABLE;
+
+
+--
+-- Name: productioncounting_orderbalancestafftime pc_obst_orders_order_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_orderbalancestafftime
+    ADD CONSTRAINT pc_obst_orders_order_fkey FOREIGN KEY (order_id) REFERENCES orders_order(id) DEFERRABLE;
+
+
+--
+-- Name: productioncounting_orderbalancestafftime pc_obst_technologies_toc_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_orderbalancestafftime
+    ADD CONSTRAINT pc_obst_technologies_toc_fkey FOREIGN KEY (technologyoperationcomponent_id) REFERENCES technologies_technologyoperationcomponent(id) DEFERRABLE;
+
+
+--
+-- Name: productioncounting_orderbalancestafftime pc_obst_basic_staff_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
+--
+
+ALTER TABLE ONLY productioncounting_orderbalancestafftime
+    ADD CONSTRAINT pc_obst_basic_staff_fkey FOREIGN KEY (worker_id) REFERENCES basic_staff(id) DEFERRABLE;
+
+
 --
 -- Name: productioncounting_staffworktime pc_swt_basic_staff_fkey; Type: FK CONSTRAINT; Schema: public; Owner: -
 --
@@ -0,0 +1,148 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.benchmarks.technologies;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentEntityType;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.dto.QuantitiesAccumulator;
+
+/**
+ * Compares summing needed quantities of many orders by product with {@link QuantitiesAccumulator} and with the containers used
+ * before it. Run with: mvn -P benchmarks package && java -jar mes-benchmarks/target/benchmarks.jar QuantitiesBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuantitiesBenchmark {
+
+    private static final MathContext MATH_CONTEXT = MathContext.DECIMAL64;
+
+    @Param({ "10", "100" })
+    private int ordersCount;
+
+    @Param({ "200", "2000" })
+    private int componentsCount;
+
+    private List<OperationProductComponentWithQuantityContainer> containersForOrders;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(13);
+
+        containersForOrders = Lists.newArrayListWithCapacity(ordersCount);
+
+        for (int order = 0; order < ordersCount; order++) {
+            OperationProductComponentWithQuantityContainer container = new OperationProductComponentWithQuantityContainer();
+
+            for (int component = 0; component < componentsCount; component++) {
+                long productId = random.nextInt(componentsCount / 2) + 1L;
+                long operationComponentId = component + 1L;
+                BigDecimal quantity = BigDecimal.valueOf(random.nextInt(1_000_000), random.nextInt(6));
+
+                container.put(new OperationProductComponentHolder(productId, operationComponentId, null, null,
+                        OperationProductComponentEntityType.OPERATION_PRODUCT_IN_COMPONENT), quantity);
+            }
+
+            containersForOrders.add(container);
+        }
+    }
+
+    @Benchmark
+    public OperationProductComponentWithQuantityContainer groupWithContainer() {
+        OperationProductComponentWithQuantityContainer grouped = new OperationProductComponentWithQuantityContainer();
+
+        for (OperationProductComponentWithQuantityContainer container : containersForOrders) {
+            for (Map.Entry<OperationProductComponentHolder, BigDecimal> quantity : container.asMap().entrySet()) {
+                grouped.add(quantity.getKey(), quantity.getValue(), MATH_CONTEXT);
+            }
+        }
+
+        return grouped;
+    }
+
+    @Benchmark
+    public Map<Long, BigDecimal> sumWithHashMap() {
+        Map<Long, BigDecimal> productWithQuantities = Maps.newHashMap();
+
+        for (OperationProductComponentWithQuantityContainer container : containersForOrders) {
+            for (Map.Entry<OperationProductComponentHolder, BigDecimal> quantity : container.asMap().entrySet()) {
+                Long productId = quantity.getKey().getProductId();
+                BigDecimal newQuantity = quantity.getValue();
+                BigDecimal oldQuantity = productWithQuantities.get(productId);
+
+                if (oldQuantity != null) {
+                    newQuantity = newQuantity.add(oldQuantity);
+                }
+
+                productWithQuantities.put(productId, newQuantity);
+            }
+        }
+
+        return productWithQuantities;
+    }
+
+    @Benchmark
+    public QuantitiesAccumulator sumWithAccumulator() {
+        QuantitiesAccumulator productWithQuantities = new QuantitiesAccumulator(componentsCount);
+
+        for (OperationProductComponentWithQuantityContainer container : containersForOrders) {
+            for (Map.Entry<OperationProductComponentHolder, BigDecimal> quantity : container.asMap().entrySet()) {
+                productWithQuantities.add(quantity.getKey().getProductId(), quantity.getValue());
+            }
+        }
+
+        return productWithQuantities;
+    }
+
+    @Benchmark
+    public Map<Long, BigDecimal> sumWithAccumulatorToMap() {
+        return sumWithAccumulator().toMap();
+    }
+
+}
@@ -64,4 +64,10 @@ public interface ShiftsService {
 
     Optional<DateTime> getNearestWorkingDate(final DateTime dateFrom, final List<Entity> shifts);
 
+    /**
+     * Works as {@link #getNearestWorkingDate(DateTime, List)}, but answers from the compiled working time calendar of given
+     * shifts, so it is cheap to call for many dates.
+     */
+    Optional<DateTime> findNextWorkingDate(final DateTime dateFrom, final List<Entity> shifts);
+
 }
@@ -30,31 +30,39 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 import org.joda.time.DateTime;
-import org.joda.time.DateTimeConstants;
 import org.joda.time.IllegalFieldValueException;
 import org.joda.time.Interval;
 import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
 import org.joda.time.LocalTime;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.qcadoo.commons.dateTime.TimeRange;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ShiftFields;
 import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
 import com.qcadoo.mes.basic.constants.TimetableExceptionType;
 import com.qcadoo.mes.basic.shift.Shift;
+import com.qcadoo.mes.basic.shift.WorkingTimeCalendar;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -93,15 +101,30 @@ public class ShiftsServiceImpl implements ShiftsService {
 
     private static final String FROM_DATE_FIELD = "fromDate";
 
-    private static final long STEP = DateTimeConstants.MILLIS_PER_WEEK;
-
     private static final long MAX_TIMESTAMP = new DateTime(2100, 1, 1, 0, 0, 0, 0).toDate().getTime();
 
     private static final long MIN_TIMESTAMP = new DateTime(2000, 1, 1, 0, 0, 0, 0).toDate().getTime();
 
+    private static final int MAX_CACHED_SHIFTS_CALENDARS = 16;
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    private final AtomicLong shiftsCalendarVersion = new AtomicLong();
+
+    private volatile WorkingTimeCalendar shiftsCalendar;
+
+    // each calendar spans MIN_TIMESTAMP to MAX_TIMESTAMP, so only recently used sets of shifts are kept
+    private final Map<Set<Long>, WorkingTimeCalendar> shiftsCalendarsByIds = Collections
+            .synchronizedMap(new LinkedHashMap<Set<Long>, WorkingTimeCalendar>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Set<Long>, WorkingTimeCalendar> eldest) {
+                    return size() > MAX_CACHED_SHIFTS_CALENDARS;
+                }
+
+            });
+
     private static final String[] WEEK_DAYS = { L_MONDAY, L_TUESDAY, L_WENSDAY, L_THURSDAY, L_FRIDAY, L_SATURDAY, L_SUNDAY };
 
     private static final Map<Integer, String> DAY_OF_WEEK = buildDayNumToNameMap();
@@ -201,6 +224,21 @@ public class ShiftsServiceImpl implements ShiftsService {
         return Optional.of(result);
     }
 
+    @Override
+    public Optional<DateTime> findNextWorkingDate(final DateTime dateFrom, final List<Entity> shifts) {
+        if ((dateFrom.getMillis() < MIN_TIMESTAMP) || (dateFrom.getMillis() >= MAX_TIMESTAMP)) {
+            return getNearestWorkingDate(dateFrom, shifts);
+        }
+
+        OptionalLong nextWorkingDate = getShiftsCalendar(shifts).findNextWorkingInstant(dateFrom.getMillis());
+
+        if (nextWorkingDate.isPresent()) {
+            return Optional.of(dateFrom.withMillis(nextWorkingDate.getAsLong()));
+        }
+
+        return Optional.empty();
+    }
+
     private List<Interval> manageExceptions(List<Interval> shiftWorkTimes, final Shift shift, final DateTime currentDate,
             final DateTime baseDate) {
         List<Entity> exceptions = shift.getEntity().getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS).stream()
@@ -407,23 +445,13 @@ public class ShiftsServiceImpl implements ShiftsService {
                 .getTotalNumberOfEntities() == 0) {
             return null;
         }
-        long start = dateFrom.getTime();
-        long remaining = seconds;
-        while (remaining >= 0) {
-            List<ShiftsServiceImpl.ShiftHour> hours = getHoursForAllShifts(new Date(start), new Date(start + STEP));
-            for (ShiftsServiceImpl.ShiftHour hour : hours) {
-                long diff = (hour.getDateTo().getTime() - hour.getDateFrom().getTime()) / 1000;
-                if (diff >= remaining) {
-                    return new Date(hour.getDateFrom().getTime() + (remaining * 1000));
-                } else {
-                    remaining -= diff;
-                }
-            }
-            start += STEP;
-            if (start > MAX_TIMESTAMP) {
-                return null;
-            }
+
+        OptionalLong dateTo = getShiftsCalendar().addWorkingTime(dateFrom.getTime(), seconds * 1000);
+
+        if (dateTo.isPresent()) {
+            return new Date(dateTo.getAsLong());
         }
+
         return null;
     }
 
@@ -433,25 +461,162 @@ public class ShiftsServiceImpl implements ShiftsService {
                 .getTotalNumberOfEntities() == 0) {
             return null;
         }
-        long stop = dateTo.getTime();
-        long remaining = seconds;
-        while (remaining >= 0) {
-            List<ShiftsServiceImpl.ShiftHour> hours = getHoursForAllShifts(new Date(stop - STEP), new Date(stop));
-            for (int i = hours.size() - 1; i >= 0; i--) {
-                ShiftsServiceImpl.ShiftHour hour = hours.get(i);
-                long diff = (hour.getDateTo().getTime() - hour.getDateFrom().getTime()) / 1000;
-                if (diff >= remaining) {
-                    return new Date(hour.getDateTo().getTime() - (remaining * 1000));
-                } else {
-                    remaining -= diff;
+
+        OptionalLong dateFrom = getShiftsCalendar().subtractWorkingTime(dateTo.getTime(), seconds * 1000);
+
+        if (dateFrom.isPresent()) {
+            return new Date(dateFrom.getAsLong());
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns working time of all shifts, compiled from MIN_TIMESTAMP to MAX_TIMESTAMP. Compiled calendar is kept until any
+     * shift or shift timetable exception changes.
+     */
+    public WorkingTimeCalendar getShiftsCalendar() {
+        WorkingTimeCalendar calendar = shiftsCalendar;
+
+        if (calendar == null) {
+            long version = shiftsCalendarVersion.get();
+
+            calendar = compileShiftsCalendar(getShifts());
+
+            synchronized (shiftsCalendarVersion) {
+                if (version == shiftsCalendarVersion.get()) {
+                    shiftsCalendar = calendar;
                 }
             }
-            stop -= STEP;
-            if (stop < MIN_TIMESTAMP) {
-                return null;
+        }
+
+        return calendar;
+    }
+
+    /**
+     * Returns working time of given shifts. Calendars of the last MAX_CACHED_SHIFTS_CALENDARS sets of saved shifts are kept
+     * until any shift or shift timetable exception changes.
+     */
+    public WorkingTimeCalendar getShiftsCalendar(final Collection<Entity> shifts) {
+        Set<Long> shiftIds = Sets.newHashSet();
+
+        for (Entity shift : shifts) {
+            if (shift.getId() == null) {
+                return compileShiftsCalendar(shifts);
             }
+
+            shiftIds.add(shift.getId());
+        }
+
+        WorkingTimeCalendar calendar = shiftsCalendarsByIds.get(shiftIds);
+
+        if (calendar == null) {
+            long version = shiftsCalendarVersion.get();
+
+            calendar = compileShiftsCalendar(shifts);
+
+            synchronized (shiftsCalendarVersion) {
+                if (version == shiftsCalendarVersion.get()) {
+                    shiftsCalendarsByIds.put(shiftIds, calendar);
+                }
+            }
+        }
+
+        return calendar;
+    }
+
+    private WorkingTimeCalendar compileShiftsCalendar(final Collection<Entity> shifts) {
+        List<WorkingTimeCalendar> calendars = Lists.newArrayList();
+
+        for (Entity shift : shifts) {
+            calendars.add(compileShiftCalendar(shift));
+        }
+
+        return calendars.isEmpty() ? WorkingTimeCalendar.empty() : WorkingTimeCalendar.union(calendars);
+    }
+
+    public WorkingTimeCalendar compileShiftCalendar(final Entity shift) {
+        List<LocalTime[][]> hoursForDays = Lists.newArrayList();
+
+        for (String day : WEEK_DAYS) {
+            if ((Boolean) shift.getField(day + WORKING_LITERAL)
+                    && StringUtils.hasText(shift.getStringField(day + HOURS_LITERAL))) {
+                hoursForDays.add(convertDayHoursToInt(shift.getStringField(day + HOURS_LITERAL)));
+            } else {
+                hoursForDays.add(new LocalTime[][] {});
+            }
+        }
+
+        List<long[]> workTimes = Lists.newArrayList();
+        List<long[]> freeTimes = Lists.newArrayList();
+
+        LocalDate lastDay = new LocalDate(MAX_TIMESTAMP).plusWeeks(1);
+
+        for (LocalDate day = new LocalDate(MIN_TIMESTAMP).minusDays(1); !day.isAfter(lastDay); day = day.plusDays(1)) {
+            for (LocalTime[] dayHour : hoursForDays.get(day.getDayOfWeek() - 1)) {
+                LocalDate dayTo = dayHour[0].isAfter(dayHour[1]) ? day.plusDays(1) : day;
+
+                workTimes.add(new long[] { toMillis(day, dayHour[0]), toMillis(dayTo, dayHour[1]) });
+            }
+        }
+
+        for (Entity exception : shift.getHasManyField(TIMETABLE_EXCEPTIONS_FIELD)) {
+            long[] exceptionTime = { exception.getDateField(FROM_DATE_FIELD).getTime(),
+                    exception.getDateField(TO_DATE_FIELD).getTime() };
+
+            if (TimetableExceptionType.WORK_TIME.getStringValue().equals(exception.getStringField(TYPE_FIELD))) {
+                workTimes.add(exceptionTime);
+            } else if (TimetableExceptionType.FREE_TIME.getStringValue().equals(exception.getStringField(TYPE_FIELD))) {
+                freeTimes.add(exceptionTime);
+            }
+        }
+
+        return WorkingTimeCalendar.of(workTimes).without(freeTimes);
+    }
+
+    private long toMillis(final LocalDate day, final LocalTime time) {
+        LocalDateTime dateTime = day.toLocalDateTime(time);
+
+        try {
+            return dateTime.toDateTime().getMillis();
+        } catch (IllegalArgumentException e) {
+            // time skipped by daylight saving change
+            return dateTime.plusHours(1).toDateTime().getMillis();
+        }
+    }
+
+    public void onShiftsCalendarChange(final DataDefinition dataDefinition, final Entity entity) {
+        invalidateShiftsCalendar();
+    }
+
+    public boolean onShiftsCalendarDelete(final DataDefinition dataDefinition, final Entity entity) {
+        invalidateShiftsCalendar();
+
+        return true;
+    }
+
+    public void invalidateShiftsCalendar() {
+        clearShiftsCalendar();
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // calendar compiled by other threads before commit still holds previous shifts
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    clearShiftsCalendar();
+                }
+
+            });
+        }
+    }
+
+    private void clearShiftsCalendar() {
+        synchronized (shiftsCalendarVersion) {
+            shiftsCalendarVersion.incrementAndGet();
+            shiftsCalendar = null;
+            shiftsCalendarsByIds.clear();
         }
-        return null;
     }
 
     @Override
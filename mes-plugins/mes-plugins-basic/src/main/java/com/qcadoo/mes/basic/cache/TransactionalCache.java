@@ -0,0 +1,197 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.cache;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Bounded in-memory cache of values read from database, for services which invalidate entries from model hooks.
+ *
+ * Invalidated entries are removed immediately and once more when the current transaction completes, so that values loaded
+ * by other transactions in the meantime are not kept either. Entries invalidated in the current transaction are always loaded
+ * again and never stored, so uncommitted values are neither shared nor hidden by values cached by other transactions. A
+ * value loaded while any entry was being invalidated is not stored either. When the cache is full it is cleared.
+ *
+ * @param <K>
+ *            type of key, has to implement equals and hashCode
+ * @param <V>
+ *            type of cached value, loaders must not return null
+ */
+public class TransactionalCache<K, V> {
+
+    private final int maxSize;
+
+    private final Map<K, V> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong version = new AtomicLong();
+
+    public TransactionalCache(final int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public V get(final K key, final Supplier<V> loader) {
+        return get(key, loader, value -> true);
+    }
+
+    /**
+     * Returns value cached for key or loads it. Loaded value is stored only if it's cacheable, wasn't invalidated in the
+     * current transaction and no entry was invalidated during loading.
+     */
+    public V get(final K key, final Supplier<V> loader, final Predicate<? super V> cacheable) {
+        Invalidations<K, V> invalidations = getInvalidations();
+
+        V value = entries.get(key);
+
+        if (value != null && !matches(invalidations, key, value)) {
+            return value;
+        }
+
+        long currentVersion = version.get();
+
+        value = loader.get();
+
+        if (cacheable.test(value) && !matches(invalidations, key, value) && (currentVersion == version.get())) {
+            if (entries.size() >= maxSize) {
+                entries.clear();
+            }
+
+            entries.putIfAbsent(key, value);
+        }
+
+        return value;
+    }
+
+    public void invalidate(final K key) {
+        version.incrementAndGet();
+        entries.remove(key);
+
+        Invalidations<K, V> invalidations = getOrRegisterInvalidations();
+
+        if (invalidations != null) {
+            invalidations.keys.add(key);
+        }
+    }
+
+    /**
+     * Invalidates all entries matching given predicate, e.g. all entries of one product or all entries depending on changed
+     * entity.
+     */
+    public void invalidateIf(final BiPredicate<? super K, ? super V> predicate) {
+        version.incrementAndGet();
+        removeIf(predicate);
+
+        Invalidations<K, V> invalidations = getOrRegisterInvalidations();
+
+        if (invalidations != null) {
+            invalidations.predicates.add(predicate);
+        }
+    }
+
+    public void invalidateAll() {
+        version.incrementAndGet();
+        entries.clear();
+
+        Invalidations<K, V> invalidations = getOrRegisterInvalidations();
+
+        if (invalidations != null) {
+            invalidations.all = true;
+        }
+    }
+
+    private void removeIf(final BiPredicate<? super K, ? super V> predicate) {
+        entries.entrySet().removeIf(entry -> predicate.test(entry.getKey(), entry.getValue()));
+    }
+
+    private boolean matches(final Invalidations<K, V> invalidations, final K key, final V value) {
+        return (invalidations != null) && invalidations.matches(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Invalidations<K, V> getInvalidations() {
+        return (Invalidations<K, V>) TransactionSynchronizationManager.getResource(this);
+    }
+
+    private Invalidations<K, V> getOrRegisterInvalidations() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+
+        Invalidations<K, V> invalidations = getInvalidations();
+
+        if (invalidations == null) {
+            Invalidations<K, V> newInvalidations = new Invalidations<>();
+
+            TransactionSynchronizationManager.bindResource(this, newInvalidations);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(TransactionalCache.this);
+
+                    version.incrementAndGet();
+
+                    if (newInvalidations.all) {
+                        entries.clear();
+                    } else {
+                        entries.keySet().removeAll(newInvalidations.keys);
+                        newInvalidations.predicates.forEach(TransactionalCache.this::removeIf);
+                    }
+                }
+
+            });
+
+            invalidations = newInvalidations;
+        }
+
+        return invalidations;
+    }
+
+    private static final class Invalidations<K, V> {
+
+        private final Set<K> keys = Sets.newHashSet();
+
+        private final List<BiPredicate<? super K, ? super V>> predicates = Lists.newArrayList();
+
+        private boolean all;
+
+        private boolean matches(final K key, final V value) {
+            return all || keys.contains(key) || predicates.stream().anyMatch(predicate -> predicate.test(key, value));
+        }
+
+    }
+
+}
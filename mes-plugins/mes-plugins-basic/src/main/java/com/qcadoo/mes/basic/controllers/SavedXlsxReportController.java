@@ -0,0 +1,103 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.controllers;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import com.google.common.io.Files;
+import com.qcadoo.mes.basic.print.xls.XlsxDocumentService;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Prints XLSX documents generated by {@link XlsxDocumentService}, in the same way as the framework prints saved PDF and XLS
+ * reports. Reports generated before they were written as XLSX only have a XLS file, which is printed instead.
+ */
+@Controller
+public class SavedXlsxReportController {
+
+    private static final String L_GENERATED = "generated";
+
+    private static final String L_FILE_NAME = "fileName";
+
+    private static final String L_XLS_EXTENSION = "xls";
+
+    private static final String L_XLS_CONTENT_TYPE = "application/vnd.ms-excel";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    public static String getUrl(final String pluginIdentifier, final String modelName, final Long id) {
+        return "/generateSavedXlsxReport/" + pluginIdentifier + "/" + modelName + "." + XlsxDocumentService.XLSX_EXTENSION
+                + "?id=" + id;
+    }
+
+    @RequestMapping(value = "/generateSavedXlsxReport/{pluginIdentifier}/{modelName}.xlsx", method = RequestMethod.GET)
+    public void printReport(@PathVariable("pluginIdentifier") final String pluginIdentifier,
+            @PathVariable("modelName") final String modelName, @RequestParam("id") final Long id,
+            final HttpServletResponse response) throws IOException {
+        DataDefinition dataDefinition = dataDefinitionService.get(pluginIdentifier, modelName);
+        Entity entity = (dataDefinition == null) ? null : dataDefinition.get(id);
+
+        if ((entity == null) || !entity.getBooleanField(L_GENERATED) || (entity.getStringField(L_FILE_NAME) == null)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+
+            return;
+        }
+
+        String contentType = XlsxDocumentService.XLSX_CONTENT_TYPE;
+        File file = new File(XlsxDocumentService.getFileName(entity.getStringField(L_FILE_NAME)));
+
+        if (!file.exists()) {
+            contentType = L_XLS_CONTENT_TYPE;
+            file = new File(entity.getStringField(L_FILE_NAME) + "." + L_XLS_EXTENSION);
+        }
+
+        if (!file.exists()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+
+            return;
+        }
+
+        response.setContentType(contentType);
+        response.setHeader("Content-disposition", "attachment; filename=" + file.getName());
+        response.setContentLength((int) file.length());
+
+        Files.copy(file, response.getOutputStream());
+
+        response.flushBuffer();
+    }
+
+}
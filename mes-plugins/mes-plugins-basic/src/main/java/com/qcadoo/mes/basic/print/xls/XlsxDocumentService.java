@@ -0,0 +1,141 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.print.xls;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchRestrictions;
+
+/**
+ * Base of reports written as streamed XLSX workbooks. Only a window of rows is kept in memory, the rest is flushed to
+ * temporary files, so reports aren't limited by heap size nor by 65536 rows of a XLS sheet.
+ *
+ * It's the SXSSF counterpart of {@link com.qcadoo.report.api.xls.XlsDocumentService}: reports move to it by extending this
+ * class and writing rows through {@link XlsxSheetWriter} instead of HSSF sheets. The document is saved as
+ * <code>fileName.xlsx</code> and printed by {@link com.qcadoo.mes.basic.controllers.SavedXlsxReportController}.
+ */
+public abstract class XlsxDocumentService {
+
+    public static final String XLSX_EXTENSION = "xlsx";
+
+    public static final String XLSX_CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    private static final String L_FILE_NAME = "fileName";
+
+    private static final int ROW_ACCESS_WINDOW_SIZE = 100;
+
+    private static final int PREFETCH_BATCH_SIZE = 1000;
+
+    public void generateDocument(final Entity entity, final Locale locale) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_ACCESS_WINDOW_SIZE);
+        workbook.setCompressTempFiles(true);
+
+        try {
+            XlsxSheetWriter sheet = createSheet(workbook, getReportTitle(locale));
+
+            addHeader(sheet, locale, entity);
+            addSeries(sheet, entity);
+            addExtraSheets(workbook, entity, locale);
+
+            try (OutputStream outputStream = new FileOutputStream(getFileName(entity.getStringField(L_FILE_NAME)))) {
+                workbook.write(outputStream);
+            }
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    public static String getFileName(final String fileName) {
+        return fileName + "." + XLSX_EXTENSION;
+    }
+
+    public abstract String getReportTitle(final Locale locale);
+
+    protected abstract void addHeader(final XlsxSheetWriter sheet, final Locale locale, final Entity entity);
+
+    protected abstract void addSeries(final XlsxSheetWriter sheet, final Entity entity);
+
+    protected void addExtraSheets(final SXSSFWorkbook workbook, final Entity entity, final Locale locale) {
+    }
+
+    protected XlsxSheetWriter createSheet(final SXSSFWorkbook workbook, final String title) {
+        return new XlsxSheetWriter(workbook.createSheet(title));
+    }
+
+    protected CellStyle createHeaderStyle(final Workbook workbook) {
+        Font font = workbook.createFont();
+        font.setBoldweight(Font.BOLDWEIGHT_BOLD);
+
+        CellStyle style = workbook.createCellStyle();
+        style.setFont(font);
+        style.setAlignment(CellStyle.ALIGN_LEFT);
+        style.setFillForegroundColor(IndexedColors.GREY_25_PERCENT.getIndex());
+        style.setFillPattern(CellStyle.SOLID_FOREGROUND);
+        style.setBorderBottom(CellStyle.BORDER_THIN);
+
+        return style;
+    }
+
+    /**
+     * Reads entities with given ids in batches, so that rows don't have to look them up one by one.
+     * 
+     * @param dataDefinition
+     *            data definition of entities
+     * @param ids
+     *            ids of entities
+     * @return entities by id
+     */
+    protected Map<Long, Entity> getEntitiesByIds(final DataDefinition dataDefinition, final Collection<Long> ids) {
+        Map<Long, Entity> entities = Maps.newHashMapWithExpectedSize(ids.size());
+
+        for (List<Long> batch : Iterables.partition(ids, PREFETCH_BATCH_SIZE)) {
+            List<Entity> batchEntities = dataDefinition.find().add(SearchRestrictions.in("id", Lists.newArrayList(batch)))
+                    .list().getEntities();
+
+            for (Entity batchEntity : batchEntities) {
+                entities.put(batchEntity.getId(), batchEntity);
+            }
+        }
+
+        return entities;
+    }
+
+}
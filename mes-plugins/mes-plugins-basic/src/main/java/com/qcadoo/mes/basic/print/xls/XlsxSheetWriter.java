@@ -0,0 +1,109 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.print.xls;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+/**
+ * Writes rows of a streamed sheet one after another and keeps track of the widest value of every column, so that column
+ * widths are set as values are written, without rescanning rows, which are already flushed to disk.
+ */
+public final class XlsxSheetWriter {
+
+    private static final int MAX_COLUMN_CHARS = 255;
+
+    private static final int CHAR_WIDTH = 256;
+
+    private static final int PADDING_CHARS = 2;
+
+    private final Sheet sheet;
+
+    private int rowNum;
+
+    private int[] columnChars = new int[16];
+
+    XlsxSheetWriter(final Sheet sheet) {
+        this.sheet = sheet;
+    }
+
+    public Sheet getSheet() {
+        return sheet;
+    }
+
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    public Row createRow() {
+        return sheet.createRow(rowNum++);
+    }
+
+    public Cell createCell(final Row row, final int column, final String value, final CellStyle style) {
+        Cell cell = row.createCell(column);
+
+        if (value != null) {
+            cell.setCellValue(value);
+        }
+        if (style != null) {
+            cell.setCellStyle(style);
+        }
+
+        measure(column, value == null ? 0 : value.length());
+
+        return cell;
+    }
+
+    public Cell createCell(final Row row, final int column, final BigDecimal value, final CellStyle style) {
+        Cell cell = row.createCell(column);
+
+        if (value != null) {
+            cell.setCellValue(value.doubleValue());
+        }
+        if (style != null) {
+            cell.setCellStyle(style);
+        }
+
+        measure(column, value == null ? 0 : value.toPlainString().length());
+
+        return cell;
+    }
+
+    private void measure(final int column, final int chars) {
+        if (column >= columnChars.length) {
+            columnChars = Arrays.copyOf(columnChars, Math.max(column + 1, columnChars.length * 2));
+        }
+        if (chars > columnChars[column] && columnChars[column] < MAX_COLUMN_CHARS) {
+            columnChars[column] = Math.min(chars, MAX_COLUMN_CHARS);
+
+            sheet.setColumnWidth(column, Math.min(columnChars[column] + PADDING_CHARS, MAX_COLUMN_CHARS) * CHAR_WIDTH);
+        }
+    }
+
+}
@@ -0,0 +1,260 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.OptionalLong;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Immutable set of working time intervals, kept as sorted, non-overlapping arrays of epoch millis together with the amount of
+ * working time preceding each interval. Queries are answered by binary search, so one compiled calendar can be shared between
+ * threads and asked many times, e.g. while scheduling all operations of an order.
+ */
+public final class WorkingTimeCalendar {
+
+    private static final WorkingTimeCalendar EMPTY = new WorkingTimeCalendar(new long[0], new long[0]);
+
+    private final long[] starts;
+
+    private final long[] ends;
+
+    // workBefore[i] - working millis in intervals 0..i-1, workBefore[size] - total working millis
+    private final long[] workBefore;
+
+    private WorkingTimeCalendar(final long[] starts, final long[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+        this.workBefore = new long[starts.length + 1];
+
+        for (int i = 0; i < starts.length; i++) {
+            workBefore[i + 1] = workBefore[i] + ends[i] - starts[i];
+        }
+    }
+
+    public static WorkingTimeCalendar empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Builds calendar from the given [from, to) intervals, which may be unordered, overlapping or empty.
+     */
+    public static WorkingTimeCalendar of(final List<long[]> intervals) {
+        List<long[]> sorted = Lists.newArrayListWithCapacity(intervals.size());
+
+        for (long[] interval : intervals) {
+            if (interval[1] > interval[0]) {
+                sorted.add(interval);
+            }
+        }
+
+        sorted.sort(Comparator.comparingLong(interval -> interval[0]));
+
+        long[] starts = new long[sorted.size()];
+        long[] ends = new long[sorted.size()];
+        int size = 0;
+
+        for (long[] interval : sorted) {
+            if ((size > 0) && (interval[0] <= ends[size - 1])) {
+                ends[size - 1] = Math.max(ends[size - 1], interval[1]);
+            } else {
+                starts[size] = interval[0];
+                ends[size] = interval[1];
+                size++;
+            }
+        }
+
+        if (size == 0) {
+            return EMPTY;
+        }
+
+        return new WorkingTimeCalendar(Arrays.copyOf(starts, size), Arrays.copyOf(ends, size));
+    }
+
+    public static WorkingTimeCalendar union(final Collection<WorkingTimeCalendar> calendars) {
+        if (calendars.size() == 1) {
+            return calendars.iterator().next();
+        }
+
+        List<long[]> intervals = Lists.newArrayList();
+
+        for (WorkingTimeCalendar calendar : calendars) {
+            calendar.addIntervalsTo(intervals);
+        }
+
+        return of(intervals);
+    }
+
+    /**
+     * Returns calendar without the given [from, to) intervals.
+     */
+    public WorkingTimeCalendar without(final List<long[]> intervals) {
+        WorkingTimeCalendar removed = of(intervals);
+
+        if (removed.isEmpty() || isEmpty()) {
+            return this;
+        }
+
+        List<long[]> result = Lists.newArrayListWithCapacity(size());
+        int first = 0;
+
+        for (int i = 0; i < starts.length; i++) {
+            long current = starts[i];
+
+            while ((first < removed.size()) && (removed.ends[first] <= current)) {
+                first++;
+            }
+
+            for (int r = first; (r < removed.size()) && (removed.starts[r] < ends[i]) && (current < ends[i]); r++) {
+                if (removed.starts[r] > current) {
+                    result.add(new long[] { current, removed.starts[r] });
+                }
+
+                current = Math.max(current, removed.ends[r]);
+            }
+
+            if (current < ends[i]) {
+                result.add(new long[] { current, ends[i] });
+            }
+        }
+
+        return of(result);
+    }
+
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * Finds the first working instant not earlier than the given one.
+     * 
+     * @return given instant if it is working time, start of the next working interval otherwise, or empty if calendar ends
+     *         earlier
+     */
+    public OptionalLong findNextWorkingInstant(final long from) {
+        int next = upperBound(ends, 0, ends.length, from);
+
+        if (next == ends.length) {
+            return OptionalLong.empty();
+        }
+
+        return OptionalLong.of(Math.max(from, starts[next]));
+    }
+
+    /**
+     * Finds the instant at which the given amount of working time, counted from the given instant, is completed.
+     * 
+     * @return instant, or empty if calendar ends earlier
+     */
+    public OptionalLong addWorkingTime(final long from, final long millis) {
+        int first = upperBound(ends, 0, ends.length, from);
+
+        if ((millis < 0) || (first == ends.length)) {
+            return OptionalLong.empty();
+        }
+
+        long target = workBefore[first] + Math.max(0, from - starts[first]) + millis;
+        int last = lowerBound(workBefore, first + 1, workBefore.length, target);
+
+        if (last == workBefore.length) {
+            return OptionalLong.empty();
+        }
+
+        return OptionalLong.of(starts[last - 1] + target - workBefore[last - 1]);
+    }
+
+    /**
+     * Finds the instant from which the given amount of working time is completed at the given instant.
+     * 
+     * @return instant, or empty if calendar starts later
+     */
+    public OptionalLong subtractWorkingTime(final long to, final long millis) {
+        int last = lowerBound(starts, 0, starts.length, to) - 1;
+
+        if ((millis < 0) || (last < 0)) {
+            return OptionalLong.empty();
+        }
+
+        long target = workBefore[last] + Math.min(to, ends[last]) - starts[last] - millis;
+
+        if (target < 0) {
+            return OptionalLong.empty();
+        }
+
+        int first = upperBound(workBefore, 0, last + 1, target) - 1;
+
+        return OptionalLong.of(starts[first] + target - workBefore[first]);
+    }
+
+    private void addIntervalsTo(final List<long[]> intervals) {
+        for (int i = 0; i < starts.length; i++) {
+            intervals.add(new long[] { starts[i], ends[i] });
+        }
+    }
+
+    // first index in [from, to) with values[index] >= key, or to
+    private static int lowerBound(final long[] values, final int from, final int to, final long key) {
+        int low = from;
+        int high = to;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (values[middle] < key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    // first index in [from, to) with values[index] > key, or to
+    private static int upperBound(final long[] values, final int from, final int to, final long key) {
+        int low = from;
+        int high = to;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (values[middle] <= key) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+}
@@ -0,0 +1,173 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.basic.constants.ShiftFields;
+import com.qcadoo.mes.basic.constants.ShiftTimetableExceptionFields;
+import com.qcadoo.mes.basic.constants.TimetableExceptionType;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+
+public class ShiftsServiceNextWorkingDateTest {
+
+    private static final String[] WEEK_DAYS = { "monday", "tuesday", "wensday", "thursday", "friday", "saturday", "sunday" };
+
+    private DateTimeZone defaultZone;
+
+    private ShiftsServiceImpl shiftsService;
+
+    private List<Entity> shifts;
+
+    @Before
+    public void init() {
+        defaultZone = DateTimeZone.getDefault();
+        DateTimeZone.setDefault(DateTimeZone.UTC);
+
+        shiftsService = new ShiftsServiceImpl();
+
+        Entity dayShift = mockShift(1L, new String[] { "06:00-14:00", "06:00-14:00", "06:00-14:00", "06:00-14:00", "06:00-14:00",
+                null, null }, Lists.newArrayList(
+                mockTimetableException(TimetableExceptionType.FREE_TIME, date(4, 8, 0), date(4, 12, 0)),
+                mockTimetableException(TimetableExceptionType.WORK_TIME, date(7, 10, 0), date(7, 13, 0))));
+        Entity eveningShift = mockShift(2L, new String[] { "18:00-20:00, 21:00-23:00", "18:00-20:00, 21:00-23:00",
+                "18:00-20:00, 21:00-23:00", "18:00-20:00, 21:00-23:00", "18:00-20:00, 21:00-23:00", "18:00-20:00, 21:00-23:00",
+                null }, Lists.newArrayList(mockTimetableException(TimetableExceptionType.FREE_TIME, date(10, 0, 0),
+                date(10, 23, 59))));
+        Entity nightShift = mockShift(3L, new String[] { null, null, null, null, null, null, "22:00-04:00" },
+                Lists.<Entity> newArrayList());
+
+        shifts = Lists.newArrayList(dayShift, eveningShift, nightShift);
+    }
+
+    @After
+    public void restoreTimeZone() {
+        DateTimeZone.setDefault(defaultZone);
+    }
+
+    @Test
+    public final void shouldFindSameDatesAsNearestWorkingDate() {
+        for (DateTime dateFrom = date(1, 0, 0); dateFrom.isBefore(date(15, 0, 0)); dateFrom = dateFrom.plusMinutes(47)) {
+            // when
+            Optional<DateTime> expected = shiftsService.getNearestWorkingDate(dateFrom, shifts);
+            Optional<DateTime> result = shiftsService.findNextWorkingDate(dateFrom, shifts);
+
+            // then
+            assertEquals("Next working date for " + dateFrom, expected.get().getMillis(), result.get().getMillis());
+        }
+    }
+
+    @Test
+    public final void shouldFindSameDatesAsNearestWorkingDateForSingleShift() {
+        List<Entity> singleShift = Collections.singletonList(shifts.get(1));
+
+        for (DateTime dateFrom = date(1, 0, 0); dateFrom.isBefore(date(15, 0, 0)); dateFrom = dateFrom.plusMinutes(29)) {
+            // when
+            Optional<DateTime> expected = shiftsService.getNearestWorkingDate(dateFrom, singleShift);
+            Optional<DateTime> result = shiftsService.findNextWorkingDate(dateFrom, singleShift);
+
+            // then
+            assertEquals("Next working date for " + dateFrom, expected.get().getMillis(), result.get().getMillis());
+        }
+    }
+
+    @Test
+    public final void shouldReturnGivenDateWhenItIsWorkingTime() {
+        // given
+        DateTime dateFrom = date(2, 7, 15);
+
+        // when
+        Optional<DateTime> result = shiftsService.findNextWorkingDate(dateFrom, shifts);
+
+        // then
+        assertEquals(dateFrom, result.get());
+    }
+
+    @Test
+    public final void shouldReturnEmptyResultWhenShiftsDoNotWork() {
+        // given
+        Entity shift = mockShift(4L, new String[7], Lists.<Entity> newArrayList());
+
+        // when
+        Optional<DateTime> result = shiftsService.findNextWorkingDate(date(2, 7, 15), Arrays.asList(shift));
+
+        // then
+        assertFalse(result.isPresent());
+    }
+
+    private DateTime date(final int dayOfMay, final int hour, final int minute) {
+        return new DateTime(2016, 5, dayOfMay, hour, minute, DateTimeZone.UTC);
+    }
+
+    private Entity mockShift(final Long id, final String[] hours, final List<Entity> timetableExceptions) {
+        Entity shift = mock(Entity.class);
+
+        given(shift.getId()).willReturn(id);
+        given(shift.copy()).willReturn(shift);
+
+        for (int i = 0; i < WEEK_DAYS.length; i++) {
+            given(shift.getField(WEEK_DAYS[i] + "Working")).willReturn(hours[i] != null);
+            given(shift.getBooleanField(WEEK_DAYS[i] + "Working")).willReturn(hours[i] != null);
+            given(shift.getStringField(WEEK_DAYS[i] + "Hours")).willReturn(hours[i]);
+        }
+
+        EntityList timetableExceptionsList = mockEntityList(timetableExceptions);
+        given(shift.getHasManyField(ShiftFields.TIMETABLE_EXCEPTIONS)).willReturn(timetableExceptionsList);
+
+        return shift;
+    }
+
+    private EntityList mockEntityList(final List<Entity> entities) {
+        EntityList entityList = mock(EntityList.class);
+        given(entityList.iterator()).willAnswer(invocation -> entities.iterator());
+        given(entityList.stream()).willAnswer(invocation -> entities.stream());
+        given(entityList.isEmpty()).willReturn(entities.isEmpty());
+        return entityList;
+    }
+
+    private Entity mockTimetableException(final TimetableExceptionType type, final DateTime from, final DateTime to) {
+        Entity timetableException = mock(Entity.class);
+        given(timetableException.getStringField(ShiftTimetableExceptionFields.TYPE)).willReturn(type.getStringValue());
+        given(timetableException.getDateField(ShiftTimetableExceptionFields.FROM_DATE)).willReturn(from.toDate());
+        given(timetableException.getDateField(ShiftTimetableExceptionFields.TO_DATE)).willReturn(to.toDate());
+        return timetableException;
+    }
+
+}
@@ -0,0 +1,203 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class TransactionalCacheTest {
+
+    private TransactionalCache<Long, Object> cache;
+
+    private AtomicInteger loads;
+
+    private Supplier<Object> loader;
+
+    @Before
+    public void init() {
+        cache = new TransactionalCache<>(3);
+        loads = new AtomicInteger();
+        loader = () -> {
+            loads.incrementAndGet();
+
+            return new Object();
+        };
+    }
+
+    @After
+    public void clear() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        TransactionSynchronizationManager.unbindResourceIfPossible(cache);
+    }
+
+    @Test
+    public void shouldLoadValueOnlyOnce() {
+        // when
+        Object first = cache.get(1L, loader);
+        Object second = cache.get(1L, loader);
+
+        // then
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void shouldNotStoreValueWhichIsNotCacheable() {
+        // when
+        cache.get(1L, loader, value -> false);
+        cache.get(1L, loader, value -> false);
+
+        // then
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void shouldReloadInvalidatedValues() {
+        // given
+        cache.get(1L, loader);
+        cache.get(2L, loader);
+        cache.get(3L, loader);
+
+        // when
+        cache.invalidate(1L);
+        cache.invalidateIf((key, value) -> key == 2L);
+
+        cache.get(1L, loader);
+        cache.get(2L, loader);
+        cache.get(3L, loader);
+
+        // then
+        assertEquals(5, loads.get());
+    }
+
+    @Test
+    public void shouldReloadAllValuesAfterInvalidateAll() {
+        // given
+        cache.get(1L, loader);
+        cache.get(2L, loader);
+
+        // when
+        cache.invalidateAll();
+
+        cache.get(1L, loader);
+        cache.get(2L, loader);
+
+        // then
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void shouldClearCacheWhenFull() {
+        // given
+        cache.get(1L, loader);
+        cache.get(2L, loader);
+        cache.get(3L, loader);
+
+        // when
+        cache.get(4L, loader);
+
+        cache.get(1L, loader);
+        cache.get(4L, loader);
+
+        // then
+        assertEquals(5, loads.get());
+    }
+
+    @Test
+    public void shouldNotStoreValuesInvalidatedInCurrentTransactionUntilItCompletes() {
+        // given
+        TransactionSynchronizationManager.initSynchronization();
+
+        cache.get(1L, loader);
+        cache.get(2L, loader);
+
+        // when
+        cache.invalidate(1L);
+        cache.invalidateIf((key, value) -> key == 2L);
+
+        Object first = cache.get(1L, loader);
+        Object second = cache.get(1L, loader);
+
+        cache.get(2L, loader);
+        cache.get(2L, loader);
+
+        // then
+        assertNotSame(first, second);
+        assertEquals(6, loads.get());
+
+        // when
+        completeTransaction();
+
+        cache.get(1L, loader);
+        cache.get(1L, loader);
+
+        // then
+        assertEquals(7, loads.get());
+    }
+
+    @Test
+    public void shouldDropValuesLoadedByOtherTransactionsWhenTransactionCompletes() {
+        // given
+        TransactionSynchronizationManager.initSynchronization();
+
+        cache.invalidate(1L);
+
+        Object invalidations = TransactionSynchronizationManager.unbindResource(cache);
+
+        Object loadedByOtherTransaction = cache.get(1L, loader);
+
+        TransactionSynchronizationManager.bindResource(cache, invalidations);
+
+        // when
+        completeTransaction();
+
+        Object loadedAfterCompletion = cache.get(1L, loader);
+
+        // then
+        assertNotSame(loadedByOtherTransaction, loadedAfterCompletion);
+        assertEquals(2, loads.get());
+    }
+
+    private void completeTransaction() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.print.xls;
+
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+public class XlsxSheetWriterTest {
+
+    private XlsxSheetWriter sheetWriter;
+
+    @Mock
+    private Sheet sheet;
+
+    @Mock
+    private Row row;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        sheetWriter = new XlsxSheetWriter(sheet);
+
+        given(sheet.createRow(anyInt())).willReturn(row);
+        given(row.createCell(anyInt())).willAnswer(invocation -> mock(Cell.class));
+    }
+
+    @Test
+    public final void shouldCreateRowsOneAfterAnother() {
+        // when
+        sheetWriter.createRow();
+        sheetWriter.createRow();
+
+        // then
+        verify(sheet).createRow(0);
+        verify(sheet).createRow(1);
+    }
+
+    @Test
+    public final void shouldWidenColumnOnlyForWiderValues() {
+        // when
+        sheetWriter.createCell(row, 0, "abcd", null);
+        sheetWriter.createCell(row, 0, "ab", null);
+        sheetWriter.createCell(row, 0, "abcdef", null);
+
+        // then
+        verify(sheet).setColumnWidth(0, 6 * 256);
+        verify(sheet, never()).setColumnWidth(0, 4 * 256);
+        verify(sheet).setColumnWidth(0, 8 * 256);
+    }
+
+    @Test
+    public final void shouldMeasureNumbersAndColumnsBeyondInitialCapacity() {
+        // when
+        sheetWriter.createCell(row, 40, new BigDecimal("1234.50000"), null);
+
+        // then
+        verify(sheet).setColumnWidth(40, 12 * 256);
+    }
+
+    @Test
+    public final void shouldLimitColumnWidth() {
+        // when
+        sheetWriter.createCell(row, 1, StringUtils.repeat("x", 1000), null);
+        sheetWriter.createCell(row, 1, StringUtils.repeat("x", 2000), null);
+
+        // then
+        verify(sheet).setColumnWidth(1, 255 * 256);
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.basic.shift;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.OptionalLong;
+
+import org.junit.Test;
+
+public class WorkingTimeCalendarTest {
+
+    private final WorkingTimeCalendar calendar = WorkingTimeCalendar.of(Arrays.asList(new long[] { 30, 40 }, new long[] { 10, 20 },
+            new long[] { 15, 25 }, new long[] { 50, 50 }));
+
+    @Test
+    public final void shouldMergeOverlappingIntervals() {
+        // then
+        assertEquals(2, calendar.size());
+        assertEquals(OptionalLong.of(40), calendar.addWorkingTime(0, 25));
+    }
+
+    @Test
+    public final void shouldAddWorkingTime() {
+        // then
+        assertEquals(OptionalLong.of(10), calendar.addWorkingTime(0, 0));
+        assertEquals(OptionalLong.of(17), calendar.addWorkingTime(12, 5));
+        assertEquals(OptionalLong.of(25), calendar.addWorkingTime(12, 13));
+        assertEquals(OptionalLong.of(31), calendar.addWorkingTime(12, 14));
+        assertEquals(OptionalLong.of(35), calendar.addWorkingTime(25, 5));
+        assertFalse(calendar.addWorkingTime(12, 24).isPresent());
+        assertFalse(calendar.addWorkingTime(40, 0).isPresent());
+    }
+
+    @Test
+    public final void shouldSubtractWorkingTime() {
+        // then
+        assertEquals(OptionalLong.of(40), calendar.subtractWorkingTime(100, 0));
+        assertEquals(OptionalLong.of(30), calendar.subtractWorkingTime(100, 10));
+        assertEquals(OptionalLong.of(24), calendar.subtractWorkingTime(35, 6));
+        assertEquals(OptionalLong.of(10), calendar.subtractWorkingTime(35, 20));
+        assertFalse(calendar.subtractWorkingTime(35, 21).isPresent());
+        assertFalse(calendar.subtractWorkingTime(10, 0).isPresent());
+    }
+
+    @Test
+    public final void shouldFindNextWorkingInstant() {
+        // then
+        assertEquals(OptionalLong.of(10), calendar.findNextWorkingInstant(0));
+        assertEquals(OptionalLong.of(12), calendar.findNextWorkingInstant(12));
+        assertEquals(OptionalLong.of(30), calendar.findNextWorkingInstant(25));
+        assertFalse(calendar.findNextWorkingInstant(40).isPresent());
+    }
+
+    @Test
+    public final void shouldRemoveIntervals() {
+        // when
+        WorkingTimeCalendar withoutBreaks = calendar.without(Arrays.asList(new long[] { 12, 14 }, new long[] { 20, 32 },
+                new long[] { 38, 45 }));
+
+        // then
+        assertEquals(3, withoutBreaks.size());
+        assertEquals(OptionalLong.of(34), withoutBreaks.addWorkingTime(0, 10));
+        assertEquals(OptionalLong.of(38), withoutBreaks.addWorkingTime(0, 14));
+        assertFalse(withoutBreaks.addWorkingTime(0, 15).isPresent());
+    }
+
+    @Test
+    public final void shouldReturnEmptyCalendarWhenThereAreNoIntervals() {
+        // when
+        WorkingTimeCalendar empty = WorkingTimeCalendar.of(Collections.emptyList());
+
+        // then
+        assertTrue(empty.isEmpty());
+        assertFalse(empty.addWorkingTime(0, 0).isPresent());
+        assertFalse(empty.subtractWorkingTime(0, 0).isPresent());
+    }
+
+}
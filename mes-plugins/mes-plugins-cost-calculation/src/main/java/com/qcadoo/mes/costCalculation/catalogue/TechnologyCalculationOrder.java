@@ -0,0 +1,129 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation.catalogue;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+
+/**
+ * Splits technologies into levels, so that sub-technologies (technologies of components) come before technologies using
+ * them. Technologies of one level don't depend on each other and can be calculated in parallel.
+ *
+ * Technologies depending on each other in a cycle can't be ordered, they form the last level.
+ */
+final class TechnologyCalculationOrder {
+
+    private final List<List<Long>> levels;
+
+    private final List<Long> cyclicTechnologiesIds;
+
+    private TechnologyCalculationOrder(final List<List<Long>> levels, final List<Long> cyclicTechnologiesIds) {
+        this.levels = levels;
+        this.cyclicTechnologiesIds = cyclicTechnologiesIds;
+    }
+
+    /**
+     * @param technologiesIds
+     *            technologies to order
+     * @param subTechnologiesIds
+     *            sub-technologies of each technology, the ones outside of technologiesIds are ignored
+     */
+    static TechnologyCalculationOrder of(final Collection<Long> technologiesIds, final Multimap<Long, Long> subTechnologiesIds) {
+        Set<Long> remainingTechnologiesIds = Sets.newHashSet(technologiesIds);
+        Map<Long, Integer> unresolvedCounts = Maps.newHashMap();
+        Multimap<Long, Long> dependentTechnologiesIds = HashMultimap.create();
+
+        for (Long technologyId : remainingTechnologiesIds) {
+            int unresolvedCount = 0;
+
+            for (Long subTechnologyId : Sets.newHashSet(subTechnologiesIds.get(technologyId))) {
+                if (!subTechnologyId.equals(technologyId) && remainingTechnologiesIds.contains(subTechnologyId)) {
+                    dependentTechnologiesIds.put(subTechnologyId, technologyId);
+
+                    unresolvedCount++;
+                }
+            }
+
+            unresolvedCounts.put(technologyId, unresolvedCount);
+        }
+
+        List<List<Long>> levels = Lists.newArrayList();
+        List<Long> level = Lists.newArrayList();
+
+        for (Long technologyId : remainingTechnologiesIds) {
+            if (unresolvedCounts.get(technologyId) == 0) {
+                level.add(technologyId);
+            }
+        }
+
+        while (!level.isEmpty()) {
+            Collections.sort(level);
+            levels.add(level);
+            remainingTechnologiesIds.removeAll(level);
+
+            List<Long> nextLevel = Lists.newArrayList();
+
+            for (Long technologyId : level) {
+                for (Long dependentTechnologyId : dependentTechnologiesIds.get(technologyId)) {
+                    int unresolvedCount = unresolvedCounts.get(dependentTechnologyId) - 1;
+
+                    unresolvedCounts.put(dependentTechnologyId, unresolvedCount);
+
+                    if (unresolvedCount == 0) {
+                        nextLevel.add(dependentTechnologyId);
+                    }
+                }
+            }
+
+            level = nextLevel;
+        }
+
+        List<Long> cyclicTechnologiesIds = Lists.newArrayList(remainingTechnologiesIds);
+        Collections.sort(cyclicTechnologiesIds);
+
+        if (!cyclicTechnologiesIds.isEmpty()) {
+            levels.add(cyclicTechnologiesIds);
+        }
+
+        return new TechnologyCalculationOrder(levels, cyclicTechnologiesIds);
+    }
+
+    List<List<Long>> getLevels() {
+        return levels;
+    }
+
+    List<Long> getCyclicTechnologiesIds() {
+        return cyclicTechnologiesIds;
+    }
+
+}
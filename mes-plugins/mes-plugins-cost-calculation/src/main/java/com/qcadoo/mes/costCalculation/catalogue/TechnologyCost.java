@@ -0,0 +1,110 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation.catalogue;
+
+import java.math.BigDecimal;
+
+/**
+ * Costs of one technology calculated for the cost catalogue (technologyCost model).
+ */
+public final class TechnologyCost {
+
+    private final Long technologyId;
+
+    private final Long productId;
+
+    private final BigDecimal quantity;
+
+    private final BigDecimal materialCosts;
+
+    private final BigDecimal operationsCosts;
+
+    private final BigDecimal totalCosts;
+
+    private final BigDecimal costPerUnit;
+
+    private final String errorMessage;
+
+    private TechnologyCost(final Long technologyId, final Long productId, final BigDecimal quantity,
+            final BigDecimal materialCosts, final BigDecimal operationsCosts, final BigDecimal totalCosts,
+            final BigDecimal costPerUnit, final String errorMessage) {
+        this.technologyId = technologyId;
+        this.productId = productId;
+        this.quantity = quantity;
+        this.materialCosts = materialCosts;
+        this.operationsCosts = operationsCosts;
+        this.totalCosts = totalCosts;
+        this.costPerUnit = costPerUnit;
+        this.errorMessage = errorMessage;
+    }
+
+    public static TechnologyCost calculated(final Long technologyId, final Long productId, final BigDecimal quantity,
+            final BigDecimal materialCosts, final BigDecimal operationsCosts, final BigDecimal totalCosts,
+            final BigDecimal costPerUnit) {
+        return new TechnologyCost(technologyId, productId, quantity, materialCosts, operationsCosts, totalCosts, costPerUnit,
+                null);
+    }
+
+    public static TechnologyCost failed(final Long technologyId, final Long productId, final BigDecimal quantity,
+            final String errorMessage) {
+        return new TechnologyCost(technologyId, productId, quantity, null, null, null, null, errorMessage);
+    }
+
+    public Long getTechnologyId() {
+        return technologyId;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public BigDecimal getQuantity() {
+        return quantity;
+    }
+
+    public BigDecimal getMaterialCosts() {
+        return materialCosts;
+    }
+
+    public BigDecimal getOperationsCosts() {
+        return operationsCosts;
+    }
+
+    public BigDecimal getTotalCosts() {
+        return totalCosts;
+    }
+
+    public BigDecimal getCostPerUnit() {
+        return costPerUnit;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public boolean isValid() {
+        return errorMessage == null;
+    }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation.catalogue;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.qcadoo.mes.costNormsForMaterials.ProductsCostCalculationService;
+import com.qcadoo.mes.operationCostCalculations.OperationsCostCalculationService;
+import com.qcadoo.mes.operationCostCalculations.dto.OperationsCostEstimate;
+import com.qcadoo.mes.operationCostCalculations.dto.OperationsCostParameters;
+import com.qcadoo.mes.technologies.ProductQuantitiesService;
+import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.NumberService;
+
+/**
+ * Calculates catalogue costs of a single technology: operations costs estimated in memory and costs of components needed
+ * for the given quantity. Components produced by already calculated sub-technologies are priced with their catalogue cost per
+ * unit, the other ones with cost norms of the product.
+ */
+@Service
+public class TechnologyCostCalculator {
+
+    private static final String L_TECHNOLOGY_NOT_FOUND = "costCalculation.technologyCost.error.technologyNotFound";
+
+    private static final String L_QUANTITY_REQUIRED = "costCalculation.technologyCost.error.quantityRequired";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private OperationsCostCalculationService operationsCostCalculationService;
+
+    @Autowired
+    private ProductsCostCalculationService productsCostCalculationService;
+
+    @Autowired
+    private ProductQuantitiesService productQuantitiesService;
+
+    @Autowired
+    private NumberService numberService;
+
+    @Transactional(readOnly = true)
+    public TechnologyCost calculate(final Long technologyId, final BigDecimal quantity, final String calculateMaterialCostsMode,
+            final OperationsCostParameters operationsCostParameters, final Map<Long, BigDecimal> subAssemblyUnitCosts) {
+        Entity technology = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_TECHNOLOGY).get(technologyId);
+
+        if (technology == null) {
+            return TechnologyCost.failed(technologyId, null, quantity, L_TECHNOLOGY_NOT_FOUND);
+        }
+
+        Long productId = technology.getBelongsToField(TechnologyFields.PRODUCT).getId();
+
+        if (BigDecimal.ZERO.compareTo(BigDecimalUtils.convertNullToZero(quantity)) >= 0) {
+            return TechnologyCost.failed(technologyId, productId, quantity, L_QUANTITY_REQUIRED);
+        }
+
+        OperationsCostEstimate operationsCostEstimate = operationsCostCalculationService.estimateOperationsCost(technology,
+                quantity, operationsCostParameters);
+
+        if (!operationsCostEstimate.isValid()) {
+            return TechnologyCost.failed(technologyId, productId, quantity, operationsCostEstimate.getErrorMessage());
+        }
+
+        BigDecimal materialCosts = calculateMaterialCosts(technology, quantity, calculateMaterialCostsMode, subAssemblyUnitCosts);
+        BigDecimal operationsCosts = operationsCostEstimate.getTotalOperationsCosts();
+        BigDecimal totalCosts = materialCosts.add(operationsCosts, numberService.getMathContext());
+        BigDecimal costPerUnit = totalCosts.divide(quantity, numberService.getMathContext());
+
+        return TechnologyCost.calculated(technologyId, productId, quantity, numberService.setScale(materialCosts),
+                numberService.setScale(operationsCosts), numberService.setScale(totalCosts), numberService.setScale(costPerUnit));
+    }
+
+    private BigDecimal calculateMaterialCosts(final Entity technology, final BigDecimal quantity,
+            final String calculateMaterialCostsMode, final Map<Long, BigDecimal> subAssemblyUnitCosts) {
+        Map<Long, BigDecimal> neededProductQuantities = productQuantitiesService.getNeededProductQuantities(technology, quantity,
+                MrpAlgorithm.ONLY_COMPONENTS);
+
+        BigDecimal materialCosts = BigDecimal.ZERO;
+
+        for (Map.Entry<Long, BigDecimal> neededProductQuantity : neededProductQuantities.entrySet()) {
+            BigDecimal subAssemblyUnitCost = subAssemblyUnitCosts.get(neededProductQuantity.getKey());
+            BigDecimal productCost;
+
+            if (subAssemblyUnitCost == null) {
+                productCost = productsCostCalculationService.calculateProductCostForGivenQuantity(
+                        productQuantitiesService.getProduct(neededProductQuantity.getKey()), neededProductQuantity.getValue(),
+                        calculateMaterialCostsMode);
+            } else {
+                productCost = subAssemblyUnitCost.multiply(neededProductQuantity.getValue(), numberService.getMathContext());
+            }
+
+            materialCosts = materialCosts.add(productCost, numberService.getMathContext());
+        }
+
+        return materialCosts;
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation.catalogue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Progress and timings of one cost catalogue recalculation, updated by the running job and read by the UI.
+ */
+public class TechnologyCostCatalogueProgress {
+
+    private final Date startDate = new Date();
+
+    private volatile Date finishDate;
+
+    private volatile boolean failed;
+
+    private final AtomicInteger technologies = new AtomicInteger();
+
+    private final AtomicInteger levels = new AtomicInteger();
+
+    private final AtomicInteger calculatedLevels = new AtomicInteger();
+
+    private final AtomicInteger calculatedTechnologies = new AtomicInteger();
+
+    private final AtomicInteger failedTechnologies = new AtomicInteger();
+
+    private final AtomicInteger cyclicTechnologies = new AtomicInteger();
+
+    private final AtomicLong loadingNanos = new AtomicLong();
+
+    private final AtomicLong calculationNanos = new AtomicLong();
+
+    private final AtomicLong writingNanos = new AtomicLong();
+
+    void planned(final int technologies, final int levels, final int cyclicTechnologies) {
+        this.technologies.set(technologies);
+        this.levels.set(levels);
+        this.cyclicTechnologies.set(cyclicTechnologies);
+    }
+
+    void technologyCalculated(final TechnologyCost technologyCost) {
+        calculatedTechnologies.incrementAndGet();
+
+        if (!technologyCost.isValid()) {
+            failedTechnologies.incrementAndGet();
+        }
+    }
+
+    void levelCalculated() {
+        calculatedLevels.incrementAndGet();
+    }
+
+    void addLoadingNanos(final long nanos) {
+        loadingNanos.addAndGet(nanos);
+    }
+
+    void addCalculationNanos(final long nanos) {
+        calculationNanos.addAndGet(nanos);
+    }
+
+    void addWritingNanos(final long nanos) {
+        writingNanos.addAndGet(nanos);
+    }
+
+    void finish(final boolean failed) {
+        this.failed = failed;
+        this.finishDate = new Date();
+    }
+
+    public boolean isRunning() {
+        return finishDate == null;
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public int getTechnologies() {
+        return technologies.get();
+    }
+
+    public int getCalculatedTechnologies() {
+        return calculatedTechnologies.get();
+    }
+
+    public int getFailedTechnologies() {
+        return failedTechnologies.get();
+    }
+
+    public Map<String, Object> getSnapshot() {
+        long elapsedMillis = (finishDate == null ? new Date() : finishDate).getTime() - startDate.getTime();
+        int calculated = calculatedTechnologies.get();
+        long calculationMillis = TimeUnit.NANOSECONDS.toMillis(calculationNanos.get());
+
+        Map<String, Object> snapshot = Maps.newLinkedHashMap();
+
+        snapshot.put("startDate", startDate);
+        snapshot.put("finishDate", finishDate);
+        snapshot.put("running", isRunning());
+        snapshot.put("failed", failed);
+        snapshot.put("technologies", technologies.get());
+        snapshot.put("calculatedTechnologies", calculated);
+        snapshot.put("failedTechnologies", failedTechnologies.get());
+        snapshot.put("cyclicTechnologies", cyclicTechnologies.get());
+        snapshot.put("levels", levels.get());
+        snapshot.put("calculatedLevels", calculatedLevels.get());
+        snapshot.put("loadingMillis", TimeUnit.NANOSECONDS.toMillis(loadingNanos.get()));
+        snapshot.put("calculationMillis", calculationMillis);
+        snapshot.put("writingMillis", TimeUnit.NANOSECONDS.toMillis(writingNanos.get()));
+        snapshot.put("elapsedMillis", elapsedMillis);
+        snapshot.put("technologiesPerSecond", getTechnologiesPerSecond(calculated, calculationMillis));
+
+        return snapshot;
+    }
+
+    private BigDecimal getTechnologiesPerSecond(final int calculated, final long millis) {
+        if (millis == 0) {
+            return BigDecimal.ZERO;
+        }
+
+        return BigDecimal.valueOf(calculated).multiply(BigDecimal.valueOf(TimeUnit.SECONDS.toMillis(1)))
+                .divide(BigDecimal.valueOf(millis), 2, RoundingMode.HALF_UP);
+    }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation.catalogue;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.qcadoo.mes.costCalculation.constants.TechnologyCostFields;
+
+@Repository
+public class TechnologyCostCatalogueRepository {
+
+    private static final String L_TECHNOLOGIES_IDS = "technologiesIds";
+
+    private static final String L_TECHNOLOGY_ID = "technologyId";
+
+    private static final String L_PRODUCT_ID = "productId";
+
+    private static final String L_CALCULATION_DATE = "calculationDate";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    /**
+     * @return products of accepted technologies, keyed by technology id
+     */
+    public Map<Long, Long> findAcceptedTechnologies() {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT t.id AS technologyId, t.product_id AS productId ");
+        query.append("FROM technologies_technology t ");
+        appendAcceptedTechnologiesWhereClause(query);
+        query.append("ORDER BY t.id");
+
+        Map<Long, Long> productsIds = Maps.newLinkedHashMap();
+
+        jdbcTemplate.query(query.toString(), Collections.<String, Object> emptyMap(),
+                rs -> productsIds.put(rs.getLong(L_TECHNOLOGY_ID), rs.getLong(L_PRODUCT_ID)));
+
+        return productsIds;
+    }
+
+    /**
+     * @return accepted technology producing each product (master technology, or the one with the greatest number when there is
+     *         no accepted master), keyed by product id
+     */
+    public Map<Long, Long> findTechnologiesByProduct() {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT DISTINCT ON (t.product_id) t.product_id AS productId, t.id AS technologyId ");
+        query.append("FROM technologies_technology t ");
+        appendAcceptedTechnologiesWhereClause(query);
+        query.append("ORDER BY t.product_id, t.master DESC, t.number DESC");
+
+        Map<Long, Long> technologiesIds = Maps.newHashMap();
+
+        jdbcTemplate.query(query.toString(), Collections.<String, Object> emptyMap(),
+                rs -> technologiesIds.put(rs.getLong(L_PRODUCT_ID), rs.getLong(L_TECHNOLOGY_ID)));
+
+        return technologiesIds;
+    }
+
+    /**
+     * @return products going into operations of accepted technologies, keyed by technology id
+     */
+    public Multimap<Long, Long> findInputProducts() {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT DISTINCT toc.technology_id AS technologyId, opic.product_id AS productId ");
+        query.append("FROM technologies_operationproductincomponent opic ");
+        query.append("JOIN technologies_technologyoperationcomponent toc ON toc.id = opic.operationcomponent_id ");
+        query.append("JOIN technologies_technology t ON t.id = toc.technology_id ");
+        appendAcceptedTechnologiesWhereClause(query);
+
+        Multimap<Long, Long> productsIds = HashMultimap.create();
+
+        jdbcTemplate.query(query.toString(), Collections.<String, Object> emptyMap(),
+                rs -> productsIds.put(rs.getLong(L_TECHNOLOGY_ID), rs.getLong(L_PRODUCT_ID)));
+
+        return productsIds;
+    }
+
+    /**
+     * Replaces catalogue entries of given technologies.
+     */
+    @Transactional
+    public void save(final List<TechnologyCost> technologyCosts, final Date calculationDate) {
+        if (technologyCosts.isEmpty()) {
+            return;
+        }
+
+        List<Long> technologiesIds = technologyCosts.stream().map(TechnologyCost::getTechnologyId)
+                .collect(Collectors.toList());
+
+        jdbcTemplate.update("DELETE FROM costcalculation_technologycost WHERE technology_id IN (:technologiesIds)",
+                new MapSqlParameterSource(L_TECHNOLOGIES_IDS, technologiesIds));
+
+        StringBuilder query = new StringBuilder();
+
+        query.append("INSERT INTO costcalculation_technologycost ");
+        query.append("(technology_id, product_id, quantity, materialcosts, operationscosts, totalcosts, costperunit, ");
+        query.append("calculationdate, errormessage) ");
+        query.append("VALUES (:technology, :product, :quantity, :materialCosts, :operationsCosts, :totalCosts, :costPerUnit, ");
+        query.append(":calculationDate, :errorMessage)");
+
+        SqlParameterSource[] params = technologyCosts.stream()
+                .map(technologyCost -> new MapSqlParameterSource()
+                        .addValue(TechnologyCostFields.TECHNOLOGY, technologyCost.getTechnologyId())
+                        .addValue(TechnologyCostFields.PRODUCT, technologyCost.getProductId())
+                        .addValue(TechnologyCostFields.QUANTITY, technologyCost.getQuantity())
+                        .addValue(TechnologyCostFields.MATERIAL_COSTS, technologyCost.getMaterialCosts())
+                        .addValue(TechnologyCostFields.OPERATIONS_COSTS, technologyCost.getOperationsCosts())
+                        .addValue(TechnologyCostFields.TOTAL_COSTS, technologyCost.getTotalCosts())
+                        .addValue(TechnologyCostFields.COST_PER_UNIT, technologyCost.getCostPerUnit())
+                        .addValue(TechnologyCostFields.CALCULATION_DATE, calculationDate)
+                        .addValue(TechnologyCostFields.ERROR_MESSAGE, technologyCost.getErrorMessage()))
+                .toArray(SqlParameterSource[]::new);
+
+        jdbcTemplate.batchUpdate(query.toString(), params);
+    }
+
+    /**
+     * Removes catalogue entries which weren't written by the recalculation of given date (e.g. of technologies which aren't
+     * accepted anymore).
+     */
+    @Transactional
+    public void deleteOutdated(final Date calculationDate) {
+        jdbcTemplate.update(
+                "DELETE FROM costcalculation_technologycost WHERE calculationdate IS NULL OR calculationdate < :calculationDate",
+                new MapSqlParameterSource(L_CALCULATION_DATE, calculationDate));
+    }
+
+    private void appendAcceptedTechnologiesWhereClause(final StringBuilder query) {
+        query.append("WHERE t.state = '02accepted' AND t.active = true AND t.technologytype IS NULL ");
+    }
+
+}
@@ -0,0 +1,345 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation.catalogue;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.costCalculation.constants.CalculateMaterialCostsMode;
+import com.qcadoo.mes.costCalculation.constants.SourceOfOperationCosts;
+import com.qcadoo.mes.costNormsForOperation.constants.CalculateOperationCostMode;
+import com.qcadoo.mes.operationCostCalculations.dto.OperationsCostParameters;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Recalculates the cost catalogue (technologyCost) of all accepted technologies in background.
+ *
+ * Technologies are calculated level by level, sub-technologies first (see {@link TechnologyCalculationOrder}), so that cost
+ * per unit of a component produced by a sub-technology is taken from the catalogue calculated a level before instead of
+ * product cost norms. Technologies of a level are calculated by a pool of workers (costCatalogueWorkers property) and their
+ * costs are written in batches once the level is done. Entries of technologies which weren't calculated by a successful run
+ * are removed at its end.
+ *
+ * Costs are calculated for the costCatalogueQuantity property (1 by default), without setup (TPZ) and additional times,
+ * with material costs mode, source of operation costs and production line taken from parameters.
+ */
+@Service
+public class TechnologyCostCatalogueService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TechnologyCostCatalogueService.class);
+
+    private static final int WRITE_BATCH_SIZE = 500;
+
+    private static final String L_CALCULATION_FAILED = "costCalculation.technologyCost.error.calculationFailed";
+
+    private static final String L_CALCULATE_MATERIAL_COSTS_MODE_PB = "calculateMaterialCostsModePB";
+
+    private static final String L_SOURCE_OF_OPERATION_COSTS_PB = "sourceOfOperationCostsPB";
+
+    private static final String L_DEFAULT_PRODUCTION_LINE = "defaultProductionLine";
+
+    @Value("${costCatalogueWorkers:4}")
+    private int workers;
+
+    @Value("${costCatalogueQuantity:1}")
+    private BigDecimal quantity;
+
+    @Autowired
+    private TechnologyCostCatalogueRepository technologyCostCatalogueRepository;
+
+    @Autowired
+    private TechnologyCostCalculator technologyCostCalculator;
+
+    @Autowired
+    private ParameterService parameterService;
+
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(new CostCatalogueThreadFactory("cost-catalogue"));
+
+    private ExecutorService workersPool;
+
+    private final AtomicReference<TechnologyCostCatalogueProgress> lastProgress = new AtomicReference<>();
+
+    /**
+     * @return false if a recalculation is already running
+     */
+    public boolean startRecalculation() {
+        TechnologyCostCatalogueProgress previousProgress = lastProgress.get();
+
+        if ((previousProgress != null) && previousProgress.isRunning()) {
+            return false;
+        }
+
+        TechnologyCostCatalogueProgress progress = new TechnologyCostCatalogueProgress();
+
+        if (!lastProgress.compareAndSet(previousProgress, progress)) {
+            return false;
+        }
+
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+        Locale locale = LocaleContextHolder.getLocale();
+
+        runner.execute(() -> {
+            SecurityContextHolder.setContext(securityContext);
+            LocaleContextHolder.setLocale(locale);
+
+            try {
+                recalculate(progress, securityContext, locale);
+            } finally {
+                SecurityContextHolder.clearContext();
+                LocaleContextHolder.resetLocaleContext();
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * @return progress of the running or the last finished recalculation
+     */
+    public Optional<TechnologyCostCatalogueProgress> getProgress() {
+        return Optional.fromNullable(lastProgress.get());
+    }
+
+    @PostConstruct
+    public void init() {
+        workersPool = Executors.newFixedThreadPool(Math.max(workers, 1), new CostCatalogueThreadFactory("cost-catalogue-worker"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        runner.shutdownNow();
+        workersPool.shutdownNow();
+    }
+
+    private void recalculate(final TechnologyCostCatalogueProgress progress, final SecurityContext securityContext,
+            final Locale locale) {
+        boolean failed = true;
+
+        try {
+            long loadingStart = System.nanoTime();
+
+            Map<Long, Long> productsIds = technologyCostCatalogueRepository.findAcceptedTechnologies();
+            Map<Long, Long> technologiesByProduct = technologyCostCatalogueRepository.findTechnologiesByProduct();
+            Multimap<Long, Long> subTechnologiesIds = getSubTechnologiesIds(
+                    technologyCostCatalogueRepository.findInputProducts(), technologiesByProduct);
+
+            TechnologyCalculationOrder calculationOrder = TechnologyCalculationOrder.of(productsIds.keySet(), subTechnologiesIds);
+
+            if (!calculationOrder.getCyclicTechnologiesIds().isEmpty()) {
+                LOG.warn(String.format("Technologies %s use each other's products, their components are priced with cost norms",
+                        calculationOrder.getCyclicTechnologiesIds()));
+            }
+
+            progress.planned(productsIds.size(), calculationOrder.getLevels().size(),
+                    calculationOrder.getCyclicTechnologiesIds().size());
+
+            Entity parameter = parameterService.getParameter();
+            String calculateMaterialCostsMode = getCalculateMaterialCostsMode(parameter);
+            OperationsCostParameters operationsCostParameters = getOperationsCostParameters(parameter);
+
+            progress.addLoadingNanos(System.nanoTime() - loadingStart);
+
+            Map<Long, BigDecimal> subAssemblyUnitCosts = new ConcurrentHashMap<>();
+            Date calculationDate = new Date();
+
+            for (List<Long> level : calculationOrder.getLevels()) {
+                long calculationStart = System.nanoTime();
+
+                List<TechnologyCost> technologyCosts = calculateLevel(level, productsIds, calculateMaterialCostsMode,
+                        operationsCostParameters, subAssemblyUnitCosts, securityContext, locale, progress);
+
+                progress.addCalculationNanos(System.nanoTime() - calculationStart);
+
+                long writingStart = System.nanoTime();
+
+                for (List<TechnologyCost> batch : Lists.partition(technologyCosts, WRITE_BATCH_SIZE)) {
+                    technologyCostCatalogueRepository.save(batch, calculationDate);
+                }
+
+                progress.addWritingNanos(System.nanoTime() - writingStart);
+
+                for (TechnologyCost technologyCost : technologyCosts) {
+                    Long productId = technologyCost.getProductId();
+
+                    if (technologyCost.isValid()
+                            && technologyCost.getTechnologyId().equals(technologiesByProduct.get(productId))) {
+                        subAssemblyUnitCosts.put(productId, technologyCost.getCostPerUnit());
+                    }
+                }
+
+                progress.levelCalculated();
+            }
+
+            technologyCostCatalogueRepository.deleteOutdated(calculationDate);
+
+            failed = false;
+
+            LOG.info(String.format("Cost catalogue recalculated: %s", progress.getSnapshot()));
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+
+            LOG.warn("Cost catalogue recalculation was interrupted", exception);
+        } catch (ExecutionException | RuntimeException exception) {
+            LOG.error("Can't recalculate cost catalogue", exception);
+        } finally {
+            progress.finish(failed);
+        }
+    }
+
+    private List<TechnologyCost> calculateLevel(final List<Long> level, final Map<Long, Long> productsIds,
+            final String calculateMaterialCostsMode, final OperationsCostParameters operationsCostParameters,
+            final Map<Long, BigDecimal> subAssemblyUnitCosts, final SecurityContext securityContext, final Locale locale,
+            final TechnologyCostCatalogueProgress progress) throws InterruptedException, ExecutionException {
+        List<Future<TechnologyCost>> futures = Lists.newArrayListWithCapacity(level.size());
+
+        try {
+            for (Long technologyId : level) {
+                futures.add(workersPool.submit(() -> calculate(technologyId, productsIds.get(technologyId),
+                        calculateMaterialCostsMode, operationsCostParameters, subAssemblyUnitCosts, securityContext, locale,
+                        progress)));
+            }
+
+            List<TechnologyCost> technologyCosts = Lists.newArrayListWithCapacity(level.size());
+
+            for (Future<TechnologyCost> future : futures) {
+                technologyCosts.add(future.get());
+            }
+
+            return technologyCosts;
+        } finally {
+            // pool outlives the run, so calculations of a failed level mustn't be left running
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private TechnologyCost calculate(final Long technologyId, final Long productId, final String calculateMaterialCostsMode,
+            final OperationsCostParameters operationsCostParameters, final Map<Long, BigDecimal> subAssemblyUnitCosts,
+            final SecurityContext securityContext, final Locale locale, final TechnologyCostCatalogueProgress progress) {
+        SecurityContextHolder.setContext(securityContext);
+        LocaleContextHolder.setLocale(locale);
+
+        TechnologyCost technologyCost;
+
+        try {
+            technologyCost = technologyCostCalculator.calculate(technologyId, quantity, calculateMaterialCostsMode,
+                    operationsCostParameters, subAssemblyUnitCosts);
+        } catch (RuntimeException exception) {
+            LOG.warn(String.format("Can't calculate catalogue costs of technology %d", technologyId), exception);
+
+            technologyCost = TechnologyCost.failed(technologyId, productId, quantity, L_CALCULATION_FAILED);
+        } finally {
+            SecurityContextHolder.clearContext();
+            LocaleContextHolder.resetLocaleContext();
+        }
+
+        progress.technologyCalculated(technologyCost);
+
+        return technologyCost;
+    }
+
+    private Multimap<Long, Long> getSubTechnologiesIds(final Multimap<Long, Long> inputProductsIds,
+            final Map<Long, Long> technologiesByProduct) {
+        Multimap<Long, Long> subTechnologiesIds = HashMultimap.create();
+
+        for (Map.Entry<Long, Long> inputProductId : inputProductsIds.entries()) {
+            Long subTechnologyId = technologiesByProduct.get(inputProductId.getValue());
+
+            if (subTechnologyId != null) {
+                subTechnologiesIds.put(inputProductId.getKey(), subTechnologyId);
+            }
+        }
+
+        return subTechnologiesIds;
+    }
+
+    private String getCalculateMaterialCostsMode(final Entity parameter) {
+        String calculateMaterialCostsMode = parameter.getStringField(L_CALCULATE_MATERIAL_COSTS_MODE_PB);
+
+        if ((calculateMaterialCostsMode == null)
+                || CalculateMaterialCostsMode.COST_FOR_ORDER.getStringValue().equals(calculateMaterialCostsMode)) {
+            return CalculateMaterialCostsMode.NOMINAL.getStringValue();
+        }
+
+        return calculateMaterialCostsMode;
+    }
+
+    private OperationsCostParameters getOperationsCostParameters(final Entity parameter) {
+        String sourceOfOperationCosts = parameter.getStringField(L_SOURCE_OF_OPERATION_COSTS_PB);
+        boolean hourlyCostFromOperation = (sourceOfOperationCosts == null)
+                || !SourceOfOperationCosts.PARAMETERS.equals(SourceOfOperationCosts.parseString(sourceOfOperationCosts));
+
+        return OperationsCostParameters.builder(CalculateOperationCostMode.HOURLY).includeTPZ(false)
+                .includeAdditionalTime(false).productionLine(parameter.getBelongsToField(L_DEFAULT_PRODUCTION_LINE))
+                .hourlyCostFromOperation(hourlyCostFromOperation).build();
+    }
+
+    private static final class CostCatalogueThreadFactory implements ThreadFactory {
+
+        private final String prefix;
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        private CostCatalogueThreadFactory(final String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, prefix + "-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+
+    }
+
+}
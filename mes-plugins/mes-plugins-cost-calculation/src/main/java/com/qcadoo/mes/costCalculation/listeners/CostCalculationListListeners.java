@@ -0,0 +1,52 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation.listeners;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.costCalculation.catalogue.TechnologyCostCatalogueProgress;
+import com.qcadoo.mes.costCalculation.catalogue.TechnologyCostCatalogueService;
+import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ComponentState.MessageType;
+import com.qcadoo.view.api.ViewDefinitionState;
+
+@Service
+public class CostCalculationListListeners {
+
+    @Autowired
+    private TechnologyCostCatalogueService technologyCostCatalogueService;
+
+    public void recalculateTechnologyCosts(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        if (technologyCostCatalogueService.startRecalculation()) {
+            state.addMessage("costCalculation.costCalculationList.info.technologyCostsRecalculationStarted", MessageType.INFO);
+        } else {
+            TechnologyCostCatalogueProgress progress = technologyCostCatalogueService.getProgress().get();
+
+            state.addMessage("costCalculation.costCalculationList.info.technologyCostsRecalculationInProgress", MessageType.INFO,
+                    String.valueOf(progress.getCalculatedTechnologies()), String.valueOf(progress.getTechnologies()));
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.costCalculation.catalogue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+
+public class TechnologyCalculationOrderTest {
+
+    @Test
+    public void shouldCalculateSubTechnologiesFirst() {
+        // given
+        Multimap<Long, Long> subTechnologiesIds = HashMultimap.create();
+        subTechnologiesIds.put(1L, 2L);
+        subTechnologiesIds.put(1L, 3L);
+        subTechnologiesIds.put(2L, 3L);
+        subTechnologiesIds.put(4L, 99L);
+
+        // when
+        TechnologyCalculationOrder calculationOrder = TechnologyCalculationOrder.of(Arrays.asList(1L, 2L, 3L, 4L),
+                subTechnologiesIds);
+
+        // then
+        assertEquals(Arrays.asList(Arrays.asList(3L, 4L), Collections.singletonList(2L), Collections.singletonList(1L)),
+                calculationOrder.getLevels());
+        assertTrue(calculationOrder.getCyclicTechnologiesIds().isEmpty());
+    }
+
+    @Test
+    public void shouldCalculateCyclicTechnologiesLast() {
+        // given
+        Multimap<Long, Long> subTechnologiesIds = HashMultimap.create();
+        subTechnologiesIds.put(1L, 2L);
+        subTechnologiesIds.put(2L, 1L);
+        subTechnologiesIds.put(3L, 3L);
+
+        // when
+        TechnologyCalculationOrder calculationOrder = TechnologyCalculationOrder.of(Arrays.asList(1L, 2L, 3L),
+                subTechnologiesIds);
+
+        // then
+        assertEquals(Arrays.asList(Collections.singletonList(3L), Arrays.asList(1L, 2L)), calculationOrder.getLevels());
+        assertEquals(Arrays.asList(1L, 2L), calculationOrder.getCyclicTechnologiesIds());
+    }
+
+}
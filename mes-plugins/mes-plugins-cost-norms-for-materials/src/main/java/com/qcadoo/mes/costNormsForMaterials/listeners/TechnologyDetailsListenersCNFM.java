@@ -33,6 +33,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.costNormsForProduct.constants.ProductFieldsCNFP;
+import com.qcadoo.mes.technologies.TechnologyProductTypes;
 import com.qcadoo.mes.technologies.TechnologyService;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
@@ -93,6 +94,8 @@ public class TechnologyDetailsListenersCNFM {
                     .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS));
         }
 
+        TechnologyProductTypes productTypes = technologyService.getProductTypes(technology);
+
         List<Entity> products = Lists.newArrayList();
 
         for (Entity operationProductInComponent : operationProductInComponents) {
@@ -100,7 +103,7 @@ public class TechnologyDetailsListenersCNFM {
         }
 
         for (Entity product : products) {
-            if (technologyService.getProductType(product, technology).equals(TechnologyService.L_01_COMPONENT)
+            if (productTypes.getProductType(product.getId()).equals(TechnologyService.L_01_COMPONENT)
                     && ((product.getField(ProductFieldsCNFP.COST_FOR_NUMBER) == null)
                             || (product.getField(ProductFieldsCNFP.NOMINAL_COST) == null)
                             || (product.getField(ProductFieldsCNFP.LAST_PURCHASE_COST) == null) || (product
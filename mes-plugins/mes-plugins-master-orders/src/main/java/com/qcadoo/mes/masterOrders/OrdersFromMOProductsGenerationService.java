@@ -161,7 +161,7 @@ public class OrdersFromMOProductsGenerationService {
         if (previousOrder.isPresent()) {
             Integer changeoverDurationInMillis = getChangeoverDurationInMillis(previousOrder.get(), order);
             List<Entity> shifts = getAllShifts();
-            Optional<DateTime> maybeDate = shiftsService.getNearestWorkingDate(
+            Optional<DateTime> maybeDate = shiftsService.findNextWorkingDate(
                     new DateTime(previousOrder.get().getDateField(OrderFields.FINISH_DATE)), shifts);
             if (maybeDate.isPresent()) {
                 return calculateOrderStartDate(maybeDate.get().toDate(), changeoverDurationInMillis);
@@ -235,32 +235,12 @@ public class DocumentPositionService {
     }
 
     public void updateDocumentPositionsNumbers(final Long documentId) {
-        String query = "SELECT p.*, p.document_id AS document, product.number AS product, product.unit, additionalcode.code AS additionalcode, palletnumber.number AS palletnumber, "
-                + "location.number AS storagelocationnumber\n"
-                + "	FROM materialflowresources_position p\n"
-                + "	LEFT JOIN basic_product product ON (p.product_id = product.id)\n"
-                + "	LEFT JOIN basic_additionalcode additionalcode ON (p.additionalcode_id = additionalcode.id)\n"
-                + "	LEFT JOIN basic_palletnumber palletnumber ON (p.palletnumber_id = palletnumber.id)\n"
-                + "	LEFT JOIN materialflowresources_storagelocation location ON (p.storagelocation_id = location.id) WHERE p.document_id = :documentId ORDER BY p.number";
-
-        List<DocumentPositionDTO> list = jdbcTemplate.query(query, Collections.singletonMap("documentId", documentId),
-                new BeanPropertyRowMapper(DocumentPositionDTO.class));
-        int index = 1;
-
-        for (DocumentPositionDTO documentPositionDTO : list) {
-            documentPositionDTO.setNumber(index);
+        String query = "UPDATE materialflowresources_position p SET number = numbered.rownumber "
+                + "FROM (SELECT id, row_number() OVER (ORDER BY number, id) AS rownumber "
+                + "FROM materialflowresources_position WHERE document_id = :documentId) numbered "
+                + "WHERE p.id = numbered.id AND p.number IS DISTINCT FROM numbered.rownumber";
 
-            Map<String, Object> parameters = Maps.newHashMap();
-
-            parameters.put("number", documentPositionDTO.getNumber());
-            parameters.put("id", documentPositionDTO.getId());
-
-            String _query = "UPDATE materialflowresources_position SET number = :number WHERE id = :id ";
-
-            jdbcTemplate.update(_query, parameters);
-
-            index++;
-        }
+        jdbcTemplate.update(query, Collections.singletonMap("documentId", documentId));
     }
 
     public Long findDocumentByPosition(final Long positionId) {
@@ -234,8 +234,11 @@ public class DocumentPositionValidator {
             }
         }
 
-        String query = "SELECT availableQuantity FROM materialflowresources_resourcestockdto "
-                + "WHERE product_id = :product_id AND location_id = :location_id";
+        String query = "SELECT COALESCE(ledger.quantity, 0) - COALESCE(ledger.reservedquantity, 0) AS availableQuantity "
+                + "FROM materialflowresources_resourcestock rs "
+                + "LEFT JOIN materialflowresources_resourcestockledger ledger "
+                + "ON ledger.location_id = rs.location_id AND ledger.product_id = rs.product_id "
+                + "WHERE rs.product_id = :product_id AND rs.location_id = :location_id LIMIT 1";
 
         Map<String, Object> params = Maps.newHashMap();
 
@@ -7,6 +7,7 @@ import org.springframework.stereotype.Service;
 
 import com.qcadoo.mes.materialFlowResources.constants.ReservationFields;
 import com.qcadoo.mes.materialFlowResources.service.ResourceReservationsService;
+import com.qcadoo.mes.materialFlowResources.service.ResourceStockCache;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 
@@ -16,7 +17,12 @@ public class ReservationHooks {
     @Autowired
     private ResourceReservationsService resourceReservationsService;
 
+    @Autowired
+    private ResourceStockCache resourceStockCache;
+
     public void onSave(DataDefinition reservationDD, Entity reservation) {
+        invalidateResourceStock(reservation);
+
         Entity newResource = reservation.getBelongsToField(ReservationFields.RESOURCE);
         Entity oldResource = null;
         Entity oldReservation = null;
@@ -26,6 +32,8 @@ public class ReservationHooks {
             oldReservation = reservationDD.get(reservation.getId());
             oldQuantity = oldReservation.getDecimalField(ReservationFields.QUANTITY);
             oldResource = oldReservation.getBelongsToField(ReservationFields.RESOURCE);
+
+            invalidateResourceStock(oldReservation);
         }
         BigDecimal quantityToAdd = newQuantity.subtract(oldQuantity);
 
@@ -43,6 +51,17 @@ public class ReservationHooks {
         }
     }
 
+    public boolean onDelete(DataDefinition reservationDD, Entity reservation) {
+        invalidateResourceStock(reservation);
+
+        return true;
+    }
+
+    private void invalidateResourceStock(final Entity reservation) {
+        resourceStockCache.invalidate(reservation.getBelongsToField(ReservationFields.LOCATION),
+                reservation.getBelongsToField(ReservationFields.PRODUCT));
+    }
+
     public void onCreate(DataDefinition reservationDD, Entity reservation) {
     }
 
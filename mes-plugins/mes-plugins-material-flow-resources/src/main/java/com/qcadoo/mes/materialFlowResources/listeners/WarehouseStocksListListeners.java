@@ -0,0 +1,53 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.listeners;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.materialFlowResources.service.ResourceStockLedgerService;
+import com.qcadoo.view.api.ComponentState;
+import com.qcadoo.view.api.ComponentState.MessageType;
+import com.qcadoo.view.api.ViewDefinitionState;
+
+@Service
+public class WarehouseStocksListListeners {
+
+    @Autowired
+    private ResourceStockLedgerService resourceStockLedgerService;
+
+    public void rebuildStock(final ViewDefinitionState view, final ComponentState state, final String[] args) {
+        int inconsistencies = resourceStockLedgerService.checkAndRebuild();
+
+        if (inconsistencies == 0) {
+            view.addMessage("materialFlowResources.warehouseStocksList.info.stockConsistent", MessageType.INFO);
+        } else {
+            view.addMessage("materialFlowResources.warehouseStocksList.success.stockRebuilt", MessageType.SUCCESS,
+                    String.valueOf(inconsistencies));
+        }
+
+        state.performEvent(view, "refresh");
+    }
+
+}
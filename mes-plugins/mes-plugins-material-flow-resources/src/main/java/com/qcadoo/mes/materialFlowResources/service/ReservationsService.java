@@ -43,6 +43,9 @@ public class ReservationsService {
     @Autowired
     private MultiTenantService multiTenantService;
 
+    @Autowired
+    private ResourceStockCache resourceStockCache;
+
     private final static String L_QUANTITY = "quantity";
 
     public void cleanReservationsTrigger() {
@@ -87,6 +90,8 @@ public class ReservationsService {
 
         jdbcTemplate.update(query, params);
         resourceReservationsService.updateResourceQuantites(params, BigDecimalUtils.convertNullToZero(params.get(L_QUANTITY)));
+
+        invalidateResourceStock(params.get("product_id"));
     }
 
     /**
@@ -161,6 +166,9 @@ public class ReservationsService {
 
             jdbcTemplate.update(query, params);
 
+            invalidateResourceStock(oldPosition.get("product_id"));
+            invalidateResourceStock(params.get("product_id"));
+
             if (oldResourceId != null && newResourceId != null) {
                 if (oldResourceId.compareTo(newResourceId) != 0) {
                     resourceReservationsService.updateResourceQuantites(params, newQuantity);
@@ -226,6 +234,14 @@ public class ReservationsService {
         jdbcTemplate.update(query, params);
         resourceReservationsService.updateResourceQuantites(params,
                 BigDecimalUtils.convertNullToZero(params.get(L_QUANTITY)).negate());
+
+        invalidateResourceStock(params.get("product_id"));
+    }
+
+    private void invalidateResourceStock(final Object productId) {
+        if (productId != null) {
+            resourceStockCache.invalidateProduct(((Number) productId).longValue());
+        }
     }
 
     /**
@@ -30,18 +30,22 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.hibernate.exception.LockAcquisitionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.qcadoo.mes.basic.CalculationQuantityService;
 import com.qcadoo.mes.basic.ParameterService;
@@ -60,6 +64,7 @@ import com.qcadoo.mes.materialFlowResources.exceptions.InvalidResourceException;
 import com.qcadoo.mes.materialFlowResources.helpers.NotEnoughResourcesErrorMessageCopyToEntityHelper;
 import com.qcadoo.mes.materialFlowResources.helpers.NotEnoughResourcesErrorMessageHolder;
 import com.qcadoo.mes.materialFlowResources.helpers.NotEnoughResourcesErrorMessageHolderFactory;
+import com.qcadoo.mes.technologies.dto.QuantitiesAccumulator;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -111,6 +116,12 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     @Autowired
     private CalculationQuantityService calculationQuantityService;
 
+    @Autowired
+    private ResourcesConsumptionBatchService resourcesConsumptionBatchService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     @Override
     @Transactional
     public void createResources(final Entity document) {
@@ -266,72 +277,65 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
     }
 
-    public Multimap<Long, BigDecimal> getQuantitiesInWarehouse(final Entity warehouse,
+    /**
+     * Returns available quantities of resources in warehouse for products of given positions, taking into account conversion
+     * of each position. Quantities are computed with one grouped query and summed per product id; like before, quantity of a
+     * product is added once for each of its positions.
+     */
+    public QuantitiesAccumulator getQuantitiesInWarehouse(final Entity warehouse,
             final Multimap<Entity, Entity> productsAndPositions) {
-        Multimap<Long, BigDecimal> result = ArrayListMultimap.create();
+        QuantitiesAccumulator result = new QuantitiesAccumulator(productsAndPositions.keySet().size());
 
-        for (Map.Entry<Entity, Entity> productAndPosition : productsAndPositions.entries()) {
-            Entity additionalCode = productAndPosition.getValue().getBelongsToField(PositionFields.ADDITIONAL_CODE);
-            BigDecimal conversion = productAndPosition.getValue().getDecimalField(PositionFields.CONVERSION);
+        if (productsAndPositions.isEmpty()) {
+            return result;
+        }
 
-            List<Entity> resources = Lists.newArrayList();
+        Map<BigDecimal, QuantitiesAccumulator> quantitiesByConversion = getAvailableQuantitiesByConversion(warehouse,
+                productsAndPositions.keySet());
 
-            if (additionalCode != null) {
-                SearchCriteriaBuilder scb = getSearchCriteriaForResourceForProductAndWarehouse(productAndPosition.getKey(),
-                        warehouse);
+        for (Map.Entry<Entity, Entity> productAndPosition : productsAndPositions.entries()) {
+            Entity product = productAndPosition.getKey();
 
-                if (!StringUtils.isEmpty(productAndPosition.getKey().getStringField(ProductFields.ADDITIONAL_UNIT))) {
-                    scb.add(SearchRestrictions.eq(ResourceFields.CONVERSION, conversion));
-                } else {
-                    scb.add(SearchRestrictions.eq(ResourceFields.CONVERSION, BigDecimal.ONE));
-                }
+            BigDecimal conversion = BigDecimal.ONE;
 
-                resources = scb.add(SearchRestrictions.belongsTo(ResourceFields.ADDITIONAL_CODE, additionalCode)).list()
-                        .getEntities();
+            if (!StringUtils.isEmpty(product.getStringField(ProductFields.ADDITIONAL_UNIT))) {
+                conversion = productAndPosition.getValue().getDecimalField(PositionFields.CONVERSION);
+            }
 
-                scb = getSearchCriteriaForResourceForProductAndWarehouse(productAndPosition.getKey(), warehouse);
+            QuantitiesAccumulator quantities = Objects.isNull(conversion) ? null
+                    : quantitiesByConversion.get(conversion.stripTrailingZeros());
+            BigDecimal quantity = Objects.isNull(quantities) ? null : quantities.get(product.getId());
 
-                if (!StringUtils.isEmpty(productAndPosition.getKey().getStringField(ProductFields.ADDITIONAL_UNIT))) {
-                    scb.add(SearchRestrictions.eq(ResourceFields.CONVERSION, conversion));
-                } else {
-                    scb.add(SearchRestrictions.eq(ResourceFields.CONVERSION, BigDecimal.ONE));
-                }
+            result.add(product.getId(), Objects.isNull(quantity) ? BigDecimal.ZERO : quantity);
+        }
 
-                resources
-                        .addAll(scb
-                                .add(SearchRestrictions.or(SearchRestrictions.isNull(ResourceFields.ADDITIONAL_CODE),
-                                        SearchRestrictions.ne("additionalCode.id", additionalCode.getId())))
-                                .list().getEntities());
-            }
+        return result;
+    }
 
-            if (resources.isEmpty()) {
-                SearchCriteriaBuilder scb = getSearchCriteriaForResourceForProductAndWarehouse(productAndPosition.getKey(),
-                        warehouse);
+    private Map<BigDecimal, QuantitiesAccumulator> getAvailableQuantitiesByConversion(final Entity warehouse,
+            final Set<Entity> products) {
+        String query = "SELECT product_id, conversion, SUM(availablequantity) AS availablequantity "
+                + "FROM materialflowresources_resource WHERE location_id = :locationId AND product_id IN (:productIds) "
+                + "AND availablequantity > 0 GROUP BY product_id, conversion";
 
-                if (!StringUtils.isEmpty(productAndPosition.getKey().getStringField(ProductFields.ADDITIONAL_UNIT))) {
-                    scb.add(SearchRestrictions.eq(ResourceFields.CONVERSION, conversion));
-                } else {
-                    scb.add(SearchRestrictions.eq(ResourceFields.CONVERSION, BigDecimal.ONE));
-                }
+        Map<String, Object> params = Maps.newHashMap();
 
-                resources = scb.list().getEntities();
-            }
+        params.put("locationId", warehouse.getId());
+        params.put("productIds", products.stream().map(Entity::getId).collect(Collectors.toSet()));
 
-            if (result.containsKey(productAndPosition.getKey().getId())) {
-                BigDecimal currentQuantity = result.get(productAndPosition.getKey().getId()).stream().reduce(BigDecimal.ZERO,
-                        BigDecimal::add);
+        // there are only a few distinct conversions, product ids are kept in accumulators without boxing
+        Map<BigDecimal, QuantitiesAccumulator> quantities = Maps.newHashMap();
 
-                result.put(productAndPosition.getKey().getId(),
-                        (resources.stream().map(res -> res.getDecimalField(ResourceFields.AVAILABLE_QUANTITY))
-                                .reduce(BigDecimal.ZERO, BigDecimal::add)).add(currentQuantity));
-            } else {
-                result.put(productAndPosition.getKey().getId(),
-                        resources.stream().map(res -> res.getDecimalField(ResourceFields.AVAILABLE_QUANTITY))
-                                .reduce(BigDecimal.ZERO, BigDecimal::add));
+        jdbcTemplate.query(query, params, rs -> {
+            BigDecimal conversion = rs.getBigDecimal("conversion");
+
+            if (Objects.nonNull(conversion)) {
+                quantities.computeIfAbsent(conversion.stripTrailingZeros(), value -> new QuantitiesAccumulator()).add(
+                        rs.getLong("product_id"), rs.getBigDecimal("availablequantity"));
             }
-        }
+        });
 
-        return result;
+        return quantities;
     }
 
     private Multimap<Entity, Entity> getProductsAndPositionsFromDocument(final Entity document) {
@@ -344,11 +348,10 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         return map;
     }
 
-    private BigDecimal getQuantityOfProductFromMultimap(final Multimap<Long, BigDecimal> quantitiesForWarehouse,
-            final Entity product) {
-        List<BigDecimal> quantities = Lists.newArrayList(quantitiesForWarehouse.get(product.getId()));
+    private BigDecimal getQuantityOfProduct(final QuantitiesAccumulator quantitiesForWarehouse, final Entity product) {
+        BigDecimal quantity = quantitiesForWarehouse.get(product.getId());
 
-        return quantities.stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+        return Objects.isNull(quantity) ? BigDecimal.ZERO : quantity;
     }
 
     private void updateResourcesForReleaseDocuments(final Entity document) {
@@ -361,37 +364,56 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         NotEnoughResourcesErrorMessageHolder errorMessageHolder = notEnoughResourcesErrorMessageHolderFactory.create();
 
-        Multimap<Long, BigDecimal> quantitiesForWarehouse = getQuantitiesInWarehouse(warehouse,
+        QuantitiesAccumulator quantitiesForWarehouse = getQuantitiesInWarehouse(warehouse,
                 getProductsAndPositionsFromDocument(document));
 
-        for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
+        List<Entity> positions = document.getHasManyField(DocumentFields.POSITIONS);
+
+        ResourcesConsumptionBatch resourcesConsumptionBatch = resourcesConsumptionBatchService.prepareBatch(warehouse, positions,
+                warehouseAlgorithm);
+
+        Map<Entity, List<Entity>> generatedPositionsForPositions = Maps.newIdentityHashMap();
+
+        for (Entity position : positions) {
             Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-            List<Entity> generatedPositions = updateResources(warehouse, position, warehouseAlgorithm);
+            List<Entity> generatedPositions = updateResources(warehouse, position, resourcesConsumptionBatch);
 
             enoughResources = enoughResources && position.isValid();
 
             if (!position.isValid()) {
-                BigDecimal quantityInWarehouse = getQuantityOfProductFromMultimap(quantitiesForWarehouse, product);
+                BigDecimal quantityInWarehouse = getQuantityOfProduct(quantitiesForWarehouse, product);
 
                 BigDecimal quantity = position.getDecimalField(QUANTITY);
 
                 errorMessageHolder.addErrorEntry(product, quantity.subtract(quantityInWarehouse, numberService.getMathContext()));
             } else {
-                if (generatedPositions.size() > 1) {
-                    if (Objects.nonNull(position.getId())) {
-                        position.getDataDefinition().delete(position.getId());
-                    }
-                    for (Entity newPosition : generatedPositions) {
-                        newPosition.setField(PositionFields.DOCUMENT, document);
-                        Entity saved = newPosition.getDataDefinition().save(newPosition);
-                        addPositionErrors(document, saved);
-                    }
-                } else {
-                    copyPositionValues(position, generatedPositions.get(0));
-                    Entity saved = position.getDataDefinition().save(position);
+                generatedPositionsForPositions.put(position, generatedPositions);
+            }
+        }
+
+        resourcesConsumptionBatchService.flush(resourcesConsumptionBatch);
+
+        for (Entity position : positions) {
+            List<Entity> generatedPositions = generatedPositionsForPositions.get(position);
+
+            if (Objects.isNull(generatedPositions)) {
+                continue;
+            }
+
+            if (generatedPositions.size() > 1) {
+                if (Objects.nonNull(position.getId())) {
+                    position.getDataDefinition().delete(position.getId());
+                }
+                for (Entity newPosition : generatedPositions) {
+                    newPosition.setField(PositionFields.DOCUMENT, document);
+                    Entity saved = newPosition.getDataDefinition().save(newPosition);
                     addPositionErrors(document, saved);
                 }
+            } else {
+                copyPositionValues(position, generatedPositions.get(0));
+                Entity saved = position.getDataDefinition().save(position);
+                addPositionErrors(document, saved);
             }
         }
 
@@ -431,12 +453,12 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
     }
 
     private List<Entity> updateResources(final Entity warehouse, final Entity position,
-            final WarehouseAlgorithm warehouseAlgorithm) {
+            final ResourcesConsumptionBatch resourcesConsumptionBatch) {
         List<Entity> newPositions = Lists.newArrayList();
 
         Entity product = position.getBelongsToField(PositionFields.PRODUCT);
 
-        List<Entity> resources = getResourcesForWarehouseProductAndAlgorithm(warehouse, product, position, warehouseAlgorithm);
+        List<Entity> resources = getResourcesForPosition(product, position, resourcesConsumptionBatch);
 
         reservationsService.deleteReservationFromDocumentPosition(position);
 
@@ -469,11 +491,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 quantity = quantity.subtract(resourceAvailableQuantity, numberService.getMathContext());
 
                 if (resourceQuantity.compareTo(resourceAvailableQuantity) <= 0) {
-                    Entity palletNumberToDispose = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
-
-                    resource.getDataDefinition().delete(resource.getId());
-
-                    palletNumberDisposalService.tryToDispose(palletNumberToDispose);
+                    resourcesConsumptionBatch.markAsDeleted(resource);
                 } else {
                     BigDecimal newResourceQuantity = resourceQuantity.subtract(resourceAvailableQuantity);
                     BigDecimal quantityInAdditionalUnit = calculationQuantityService
@@ -483,11 +501,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                     resource.setField(ResourceFields.QUANTITY, newResourceQuantity);
                     resource.setField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, quantityInAdditionalUnit);
 
-                    Entity savedResource = resource.getDataDefinition().save(resource);
-
-                    if (!savedResource.isValid()) {
-                        throw new InvalidResourceException(savedResource);
-                    }
+                    resourcesConsumptionBatch.markAsUpdated(resource);
                 }
 
                 newPosition.setField(PositionFields.QUANTITY, numberService.setScale(resourceAvailableQuantity));
@@ -511,11 +525,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
                 resource.setField(ResourceFields.QUANTITY, numberService.setScale(resourceQuantity));
                 resource.setField(ResourceFields.AVAILABLE_QUANTITY, resourceAvailableQuantity);
 
-                Entity savedResource = resource.getDataDefinition().save(resource);
-
-                if (!savedResource.isValid()) {
-                    throw new InvalidResourceException(savedResource);
-                }
+                resourcesConsumptionBatch.markAsUpdated(resource);
 
                 newPosition.setField(PositionFields.QUANTITY, numberService.setScale(quantity));
 
@@ -533,6 +543,30 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
         return Lists.newArrayList(position);
     }
 
+    private List<Entity> getResourcesForPosition(final Entity product, final Entity position,
+            final ResourcesConsumptionBatch resourcesConsumptionBatch) {
+        Entity resource = position.getBelongsToField(PositionFields.RESOURCE);
+
+        if (resource != null && resource.getId() != null) {
+            resource = resourcesConsumptionBatch.getResource(resource.getId());
+        }
+
+        if (resource != null) {
+            Entity reservation = reservationsService.getReservationForPosition(position);
+
+            if (reservation != null) {
+                BigDecimal reservationQuantity = reservation.getDecimalField(ReservationFields.QUANTITY);
+                BigDecimal resourceAvailableQuantity = resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY);
+
+                resource.setField(ResourceFields.AVAILABLE_QUANTITY, resourceAvailableQuantity.add(reservationQuantity));
+            }
+
+            return Lists.newArrayList(resource);
+        }
+
+        return resourcesConsumptionBatch.getResourcesForPosition(product, position);
+    }
+
     private void moveResourcesForTransferDocument(final Entity document) {
         Entity warehouseFrom = document.getBelongsToField(DocumentFields.LOCATION_FROM);
         Entity warehouseTo = document.getBelongsToField(DocumentFields.LOCATION_TO);
@@ -546,7 +580,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
 
         NotEnoughResourcesErrorMessageHolder errorMessageHolder = notEnoughResourcesErrorMessageHolderFactory.create();
 
-        Multimap<Long, BigDecimal> quantitiesForWarehouse = getQuantitiesInWarehouse(warehouseFrom,
+        QuantitiesAccumulator quantitiesForWarehouse = getQuantitiesInWarehouse(warehouseFrom,
                 getProductsAndPositionsFromDocument(document));
 
         for (Entity position : document.getHasManyField(DocumentFields.POSITIONS)) {
@@ -557,7 +591,7 @@ public class ResourceManagementServiceImpl implements ResourceManagementService
             enoughResources = enoughResources && position.isValid();
 
             if (!position.isValid()) {
-                BigDecimal quantityInWarehouse = getQuantityOfProductFromMultimap(quantitiesForWarehouse, product);
+                BigDecimal quantityInWarehouse = getQuantityOfProduct(quantitiesForWarehouse, product);
 
                 BigDecimal quantity = position.getDecimalField(QUANTITY);
 
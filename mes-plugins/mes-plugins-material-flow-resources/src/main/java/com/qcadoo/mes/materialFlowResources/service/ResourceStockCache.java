@@ -0,0 +1,103 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.basic.cache.TransactionalCache;
+import com.qcadoo.mes.materialFlowResources.dto.ResourceStockDto;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Cache of resource stock read from stock ledger (see {@link ResourceStockLedgerService}), keyed by location and product ids.
+ *
+ * Entries are removed by resource and reservation save paths, see {@link TransactionalCache} for how invalidation interacts
+ * with the current transaction.
+ */
+@Service
+public class ResourceStockCache {
+
+    private static final int MAX_SIZE = 10000;
+
+    private final TransactionalCache<StockKey, Optional<ResourceStockDto>> stocks = new TransactionalCache<>(MAX_SIZE);
+
+    public Optional<ResourceStockDto> get(final long locationId, final long productId,
+            final Supplier<Optional<ResourceStockDto>> loader) {
+        return stocks.get(new StockKey(locationId, productId), loader);
+    }
+
+    public void invalidate(final Entity location, final Entity product) {
+        if (location == null || location.getId() == null || product == null || product.getId() == null) {
+            return;
+        }
+
+        invalidate(location.getId(), product.getId());
+    }
+
+    public void invalidate(final long locationId, final long productId) {
+        stocks.invalidate(new StockKey(locationId, productId));
+    }
+
+    public void invalidateProduct(final long productId) {
+        stocks.invalidateIf((key, stock) -> key.productId == productId);
+    }
+
+    public void invalidateAll() {
+        stocks.invalidateAll();
+    }
+
+    private static final class StockKey {
+
+        private final long locationId;
+
+        private final long productId;
+
+        private StockKey(final long locationId, final long productId) {
+            this.locationId = locationId;
+            this.productId = productId;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            StockKey that = (StockKey) o;
+            return locationId == that.locationId && productId == that.productId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(locationId) + Long.hashCode(productId);
+        }
+
+    }
+
+}
@@ -0,0 +1,102 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Stock ledger (materialflowresources_resourcestockledger) holds quantity, reserved, ordered and minimum state sums per
+ * location and product. It is kept current by database triggers on resources, reservations, ordered products, deliveries and
+ * minimum states; materialflowresources_resourcestockledgersource recomputes the same sums from those tables and is used only
+ * to check and rebuild the ledger.
+ */
+@Service
+public class ResourceStockLedgerService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResourceStockLedgerService.class);
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ResourceStockCache resourceStockCache;
+
+    @Transactional(readOnly = true)
+    public List<Map<String, Object>> findInconsistencies() {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT COALESCE(ledger.location_id, source.location_id) AS locationId, ");
+        query.append("COALESCE(ledger.product_id, source.product_id) AS productId, ");
+        query.append("ledger.quantity AS ledgerQuantity, source.quantity AS quantity, ");
+        query.append("ledger.reservedquantity AS ledgerReservedQuantity, source.reservedquantity AS reservedQuantity, ");
+        query.append("ledger.orderedquantity AS ledgerOrderedQuantity, source.orderedquantity AS orderedQuantity, ");
+        query.append("ledger.minimumstate AS ledgerMinimumState, source.minimumstate AS minimumState ");
+        query.append("FROM materialflowresources_resourcestockledger ledger ");
+        query.append("FULL JOIN materialflowresources_resourcestockledgersource source ");
+        query.append("ON source.location_id = ledger.location_id AND source.product_id = ledger.product_id ");
+        query.append("WHERE COALESCE(ledger.quantity, 0) <> COALESCE(source.quantity, 0) ");
+        query.append("OR COALESCE(ledger.quantityinadditionalunit, 0) <> COALESCE(source.quantityinadditionalunit, 0) ");
+        query.append("OR COALESCE(ledger.reservedquantity, 0) <> COALESCE(source.reservedquantity, 0) ");
+        query.append("OR COALESCE(ledger.orderedquantity, 0) <> COALESCE(source.orderedquantity, 0) ");
+        query.append("OR COALESCE(ledger.minimumstate, 0) <> COALESCE(source.minimumstate, 0) ");
+        query.append("ORDER BY locationId, productId");
+
+        return jdbcTemplate.queryForList(query.toString(), Collections.emptyMap());
+    }
+
+    @Transactional
+    public void rebuild() {
+        jdbcTemplate.getJdbcOperations().execute("SELECT rebuild_resourcestockledger()");
+
+        resourceStockCache.invalidateAll();
+    }
+
+    @Transactional
+    public int checkAndRebuild() {
+        List<Map<String, Object>> inconsistencies = findInconsistencies();
+
+        if (inconsistencies.isEmpty()) {
+            return 0;
+        }
+
+        for (Map<String, Object> inconsistency : inconsistencies) {
+            LOG.warn("Stock ledger differs from resources for location " + inconsistency.get("locationId") + " and product "
+                    + inconsistency.get("productId") + ": " + inconsistency);
+        }
+
+        rebuild();
+
+        return inconsistencies.size();
+    }
+
+}
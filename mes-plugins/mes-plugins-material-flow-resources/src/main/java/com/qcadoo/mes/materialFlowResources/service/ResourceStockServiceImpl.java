@@ -28,6 +28,9 @@ public class ResourceStockServiceImpl implements ResourceStockService {
     @Autowired
     private NamedParameterJdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private ResourceStockCache resourceStockCache;
+
     @Override
     public void createResourceStock(final Entity resource) {
         Entity product = resource.getBelongsToField(ResourceFields.PRODUCT);
@@ -40,6 +43,8 @@ public class ResourceStockServiceImpl implements ResourceStockService {
             stock.setField(ResourceStockFields.LOCATION, location);
             stock.setField(ResourceStockFields.PRODUCT, product);
             resourceStockDD.save(stock);
+
+            resourceStockCache.invalidate(location, product);
         }
     }
 
@@ -63,16 +68,25 @@ public class ResourceStockServiceImpl implements ResourceStockService {
         return quantity;
     }
 
-    private Optional<ResourceStockDto> getResourceStockForProductAndLocation(Entity product, Entity location) {
+    private Optional<ResourceStockDto> getResourceStockForProductAndLocation(final Entity product, final Entity location) {
+        return resourceStockCache.get(location.getId(), product.getId(),
+                () -> getResourceStockForProductAndLocationFromDatabase(product, location));
+    }
+
+    private Optional<ResourceStockDto> getResourceStockForProductAndLocationFromDatabase(final Entity product,
+            final Entity location) {
         StringBuilder query = new StringBuilder();
-        query.append("SELECT rs.* ");
-        query.append("FROM materialflowresources_resourcestockdto rs ");
+        query.append("SELECT COALESCE(ledger.quantity, 0) AS quantity, ");
+        query.append("COALESCE(ledger.quantity, 0) - COALESCE(ledger.reservedquantity, 0) AS availableQuantity ");
+        query.append("FROM materialflowresources_resourcestock rs ");
+        query.append("LEFT JOIN materialflowresources_resourcestockledger ledger ");
+        query.append("ON ledger.location_id = rs.location_id AND ledger.product_id = rs.product_id ");
         query.append("WHERE rs.location_id = :locationId AND rs.product_id = :productId ");
         query.append("LIMIT 1");
 
         Map<String, Object> params = Maps.newHashMap();
-        params.put("locationId", location.getId().intValue());
-        params.put("productId", product.getId().intValue());
+        params.put("locationId", location.getId());
+        params.put("productId", product.getId());
         List<ResourceStockDto> resourceStock = jdbcTemplate.query(query.toString(), params,
                 BeanPropertyRowMapper.newInstance(ResourceStockDto.class));
         if(resourceStock.isEmpty()){
@@ -0,0 +1,171 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Holds resources prefetched for one release document. Candidates are kept in the order defined by the warehouse algorithm,
+ * quantities are changed in memory and written back at once by {@link ResourcesConsumptionBatchService#flush}.
+ */
+public class ResourcesConsumptionBatch {
+
+    private final Map<Long, List<Entity>> resourcesByProduct;
+
+    private final Map<Long, Entity> resourcesById;
+
+    private final boolean fillResourceIrrespectiveOfConversion;
+
+    private final Map<Long, Entity> resourcesToUpdate = Maps.newLinkedHashMap();
+
+    private final Set<Long> resourcesToDelete = Sets.newLinkedHashSet();
+
+    private final List<Entity> palletNumbersToDispose = Lists.newArrayList();
+
+    ResourcesConsumptionBatch(final Map<Long, List<Entity>> resourcesByProduct, final Map<Long, Entity> resourcesById,
+            final boolean fillResourceIrrespectiveOfConversion) {
+        this.resourcesByProduct = resourcesByProduct;
+        this.resourcesById = resourcesById;
+        this.fillResourceIrrespectiveOfConversion = fillResourceIrrespectiveOfConversion;
+    }
+
+    public Entity getResource(final Long resourceId) {
+        if (resourcesToDelete.contains(resourceId)) {
+            return null;
+        }
+
+        return resourcesById.get(resourceId);
+    }
+
+    /**
+     * Returns resources which can be used for position, in the same order as queries used by warehouse algorithms: resources
+     * with matching conversion first (those with position's additional code before the others), then - if enabled in document
+     * position parameters - resources with different conversion.
+     */
+    public List<Entity> getResourcesForPosition(final Entity product, final Entity position) {
+        List<Entity> resources = resourcesByProduct.getOrDefault(product.getId(), Lists.newArrayList()).stream()
+                .filter(resource -> !resourcesToDelete.contains(resource.getId()))
+                .filter(resource -> BigDecimal.ZERO.compareTo(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)) < 0)
+                .collect(Collectors.toList());
+
+        Entity additionalCode = position.getBelongsToField(PositionFields.ADDITIONAL_CODE);
+        BigDecimal conversion = getConversion(product, position);
+
+        List<Entity> result = getResourcesForCodeAndConversion(resources, additionalCode,
+                resource -> conversionEquals(resource, conversion));
+
+        if (fillResourceIrrespectiveOfConversion) {
+            result.addAll(getResourcesForCodeAndConversion(resources, additionalCode,
+                    resource -> !conversionEquals(resource, conversion)));
+        }
+
+        return result;
+    }
+
+    private List<Entity> getResourcesForCodeAndConversion(final List<Entity> resources, final Entity additionalCode,
+            final Predicate<Entity> conversionMatches) {
+        List<Entity> matchingResources = resources.stream().filter(conversionMatches).collect(Collectors.toList());
+
+        if (additionalCode == null) {
+            return matchingResources;
+        }
+
+        List<Entity> result = matchingResources.stream().filter(resource -> hasAdditionalCode(resource, additionalCode))
+                .collect(Collectors.toList());
+
+        result.addAll(matchingResources.stream().filter(resource -> !hasAdditionalCode(resource, additionalCode))
+                .collect(Collectors.toList()));
+
+        return result;
+    }
+
+    private boolean hasAdditionalCode(final Entity resource, final Entity additionalCode) {
+        Entity resourceAdditionalCode = resource.getBelongsToField(ResourceFields.ADDITIONAL_CODE);
+
+        return resourceAdditionalCode != null && additionalCode.getId().equals(resourceAdditionalCode.getId());
+    }
+
+    private BigDecimal getConversion(final Entity product, final Entity position) {
+        if (StringUtils.isNotEmpty(product.getStringField(ProductFields.ADDITIONAL_UNIT))) {
+            return position.getDecimalField(PositionFields.CONVERSION);
+        }
+
+        return BigDecimal.ONE;
+    }
+
+    private boolean conversionEquals(final Entity resource, final BigDecimal conversion) {
+        BigDecimal resourceConversion = resource.getDecimalField(ResourceFields.CONVERSION);
+
+        if (resourceConversion == null || conversion == null) {
+            return Objects.equals(resourceConversion, conversion);
+        }
+
+        return resourceConversion.compareTo(conversion) == 0;
+    }
+
+    public void markAsUpdated(final Entity resource) {
+        resourcesToUpdate.put(resource.getId(), resource);
+    }
+
+    public void markAsDeleted(final Entity resource) {
+        resourcesToUpdate.remove(resource.getId());
+        resourcesToDelete.add(resource.getId());
+
+        Entity palletNumber = resource.getBelongsToField(ResourceFields.PALLET_NUMBER);
+
+        if (palletNumber != null) {
+            palletNumbersToDispose.add(palletNumber);
+        }
+    }
+
+    Collection<Entity> getResourcesToUpdate() {
+        return resourcesToUpdate.values();
+    }
+
+    Set<Long> getResourcesToDelete() {
+        return resourcesToDelete;
+    }
+
+    List<Entity> getPalletNumbersToDispose() {
+        return palletNumbersToDispose;
+    }
+
+}
@@ -0,0 +1,296 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.ParameterFieldsMFR;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.constants.WarehouseAlgorithm;
+import com.qcadoo.mes.materialFlowResources.exceptions.InvalidResourceException;
+import com.qcadoo.mes.materialFlowResources.hooks.ResourceModelValidators;
+import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchOrders;
+import com.qcadoo.model.api.search.SearchRestrictions;
+
+@Service
+public class ResourcesConsumptionBatchService {
+
+    private static final String L_FILL_RESOURCE_IRRESPECTIVE_OF_CONVERSION = "fillResourceIrrespectiveOfConversion";
+
+    private static final String L_ID = "id";
+
+    private static final String L_PRODUCT_ID = "product.id";
+
+    private static final String L_IDS = "ids";
+
+    private static final String L_OUT_OF_RANGE_TO_SMALL = "qcadooView.validate.field.error.outOfRange.toSmall";
+
+    private static final String L_INVALID_SCALE_MAX = "qcadooView.validate.field.error.invalidScale.max";
+
+    private static final String L_INVALID_PRECISION_MAX = "qcadooView.validate.field.error.invalidPrecision.max";
+
+    // the same limits as validatesScale and validatesUnscaledValue of resource model quantities
+    private static final int L_MAX_SCALE = 5;
+
+    private static final int L_MAX_UNSCALED_VALUE = 9;
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private ParameterService parameterService;
+
+    @Autowired
+    private PalletNumberDisposalService palletNumberDisposalService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ResourceStockCache resourceStockCache;
+
+    @Autowired
+    private ResourceModelValidators resourceModelValidators;
+
+    /**
+     * Loads all resources from warehouse for products of given positions with one query, ordered according to warehouse
+     * algorithm, together with resources already assigned to positions.
+     */
+    public ResourcesConsumptionBatch prepareBatch(final Entity warehouse, final List<Entity> positions,
+            final WarehouseAlgorithm warehouseAlgorithm) {
+        Set<Long> productIds = positions.stream().map(position -> position.getBelongsToField(PositionFields.PRODUCT).getId())
+                .collect(Collectors.toSet());
+        Set<Long> assignedResourceIds = positions.stream().map(position -> position.getBelongsToField(PositionFields.RESOURCE))
+                .filter(Objects::nonNull).map(Entity::getId).filter(Objects::nonNull).collect(Collectors.toSet());
+
+        Map<Long, List<Entity>> resourcesByProduct = Maps.newHashMap();
+        Map<Long, Entity> resourcesById = Maps.newHashMap();
+
+        if (!productIds.isEmpty()) {
+            SearchCriteriaBuilder scb = getResourceDD().find().add(SearchRestrictions.belongsTo(ResourceFields.LOCATION, warehouse))
+                    .add(SearchRestrictions.in(L_PRODUCT_ID, productIds))
+                    .add(SearchRestrictions.gt(ResourceFields.AVAILABLE_QUANTITY, BigDecimal.ZERO));
+
+            addAlgorithmOrders(scb, warehouseAlgorithm);
+
+            for (Entity resource : scb.list().getEntities()) {
+                resourcesById.put(resource.getId(), resource);
+                resourcesByProduct.computeIfAbsent(resource.getBelongsToField(ResourceFields.PRODUCT).getId(),
+                        productId -> Lists.newArrayList()).add(resource);
+            }
+        }
+
+        assignedResourceIds.removeAll(resourcesById.keySet());
+
+        if (!assignedResourceIds.isEmpty()) {
+            getResourceDD().find().add(SearchRestrictions.in(L_ID, assignedResourceIds)).list().getEntities()
+                    .forEach(resource -> resourcesById.put(resource.getId(), resource));
+        }
+
+        return new ResourcesConsumptionBatch(resourcesByProduct, resourcesById, isFillResourceIrrespectiveOfConversion());
+    }
+
+    private void addAlgorithmOrders(final SearchCriteriaBuilder scb, final WarehouseAlgorithm warehouseAlgorithm) {
+        if (WarehouseAlgorithm.LIFO.equals(warehouseAlgorithm)) {
+            scb.addOrder(SearchOrders.desc(ResourceFields.TIME));
+        } else if (WarehouseAlgorithm.FEFO.equals(warehouseAlgorithm)) {
+            scb.addOrder(SearchOrders.asc(ResourceFields.EXPIRATION_DATE)).addOrder(
+                    SearchOrders.asc(ResourceFields.AVAILABLE_QUANTITY));
+        } else if (WarehouseAlgorithm.LEFO.equals(warehouseAlgorithm)) {
+            scb.addOrder(SearchOrders.desc(ResourceFields.EXPIRATION_DATE)).addOrder(
+                    SearchOrders.asc(ResourceFields.AVAILABLE_QUANTITY));
+        } else {
+            scb.addOrder(SearchOrders.asc(ResourceFields.TIME));
+        }
+
+        scb.addOrder(SearchOrders.asc(L_ID));
+    }
+
+    private boolean isFillResourceIrrespectiveOfConversion() {
+        Entity documentPositionParameters = parameterService.getParameter().getBelongsToField(
+                ParameterFieldsMFR.DOCUMENT_POSITION_PARAMETERS);
+
+        return documentPositionParameters.getBooleanField(L_FILL_RESOURCE_IRRESPECTIVE_OF_CONVERSION);
+    }
+
+    /**
+     * Takes reserved quantities of changed resources from database (reservations of positions are removed while the batch is
+     * used), checks the resources with field and model validators of resource model, writes them with JDBC batch and removes
+     * used up resources through data definition, then disposes pallet numbers which are no longer used.
+     *
+     * @throws InvalidResourceException
+     *             if any of changed resources is invalid, nothing is written then
+     */
+    public void flush(final ResourcesConsumptionBatch batch) {
+        refreshReservedQuantities(batch.getResourcesToUpdate());
+
+        validateResources(batch.getResourcesToUpdate());
+
+        updateResources(batch);
+        deleteResources(batch.getResourcesToDelete());
+
+        batch.getResourcesToUpdate().forEach(this::invalidateResourceStock);
+
+        batch.getPalletNumbersToDispose().forEach(palletNumberDisposalService::tryToDispose);
+    }
+
+    private void refreshReservedQuantities(final Collection<Entity> resources) {
+        if (resources.isEmpty()) {
+            return;
+        }
+
+        Set<Long> resourceIds = resources.stream().map(Entity::getId).collect(Collectors.toSet());
+        Map<Long, BigDecimal> reservedQuantities = Maps.newHashMap();
+
+        jdbcTemplate.query("SELECT id, reservedquantity FROM materialflowresources_resource WHERE id IN (:ids)",
+                new MapSqlParameterSource(L_IDS, resourceIds),
+                (RowCallbackHandler) resultSet -> reservedQuantities.put(resultSet.getLong(L_ID),
+                        BigDecimalUtils.convertNullToZero(resultSet.getBigDecimal("reservedquantity"))));
+
+        for (Entity resource : resources) {
+            BigDecimal reservedQuantity = reservedQuantities.get(resource.getId());
+
+            if (reservedQuantity != null) {
+                resource.setField(ResourceFields.RESERVED_QUANTITY, reservedQuantity);
+                resource.setField(ResourceFields.AVAILABLE_QUANTITY,
+                        resource.getDecimalField(ResourceFields.QUANTITY).subtract(reservedQuantity));
+            }
+        }
+    }
+
+    void validateResources(final Collection<Entity> resources) {
+        DataDefinition resourceDD = getResourceDD();
+
+        for (Entity resource : resources) {
+            boolean isValid = checkQuantity(resourceDD, resource, ResourceFields.QUANTITY, false, true);
+
+            isValid = checkQuantity(resourceDD, resource, ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT, true, true) && isValid;
+            isValid = checkQuantity(resourceDD, resource, ResourceFields.RESERVED_QUANTITY, true, false) && isValid;
+            isValid = checkQuantity(resourceDD, resource, ResourceFields.AVAILABLE_QUANTITY, true, false) && isValid;
+            isValid = isValid && resourceModelValidators.validatesWith(resourceDD, resource);
+
+            if (!isValid) {
+                throw new InvalidResourceException(resource);
+            }
+        }
+    }
+
+    private boolean checkQuantity(final DataDefinition resourceDD, final Entity resource, final String fieldName,
+            final boolean nullable, final boolean exclusively) {
+        BigDecimal quantity = resource.getDecimalField(fieldName);
+
+        if (quantity == null) {
+            if (!nullable) {
+                resource.addError(resourceDD.getField(fieldName), "qcadooView.validate.field.error.missing");
+            }
+
+            return nullable;
+        }
+
+        int comparison = quantity.compareTo(BigDecimal.ZERO);
+
+        if (comparison < 0 || (exclusively && comparison == 0)) {
+            resource.addError(resourceDD.getField(fieldName), L_OUT_OF_RANGE_TO_SMALL);
+
+            return false;
+        }
+
+        if (quantity.scale() > L_MAX_SCALE) {
+            resource.addError(resourceDD.getField(fieldName), L_INVALID_SCALE_MAX, String.valueOf(L_MAX_SCALE));
+
+            return false;
+        }
+
+        if (quantity.precision() - quantity.scale() > L_MAX_UNSCALED_VALUE) {
+            resource.addError(resourceDD.getField(fieldName), L_INVALID_PRECISION_MAX, String.valueOf(L_MAX_UNSCALED_VALUE));
+
+            return false;
+        }
+
+        return true;
+    }
+
+    private void invalidateResourceStock(final Entity resource) {
+        resourceStockCache.invalidate(resource.getBelongsToField(ResourceFields.LOCATION),
+                resource.getBelongsToField(ResourceFields.PRODUCT));
+    }
+
+    private void updateResources(final ResourcesConsumptionBatch batch) {
+        if (batch.getResourcesToUpdate().isEmpty()) {
+            return;
+        }
+
+        // reserved quantity is left as it is in database, available quantity is computed from it
+        String query = "UPDATE materialflowresources_resource SET quantity = :quantity, "
+                + "availablequantity = :quantity - COALESCE(reservedquantity, 0), "
+                + "quantityinadditionalunit = :quantityInAdditionalUnit WHERE id = :id";
+
+        SqlParameterSource[] params = batch.getResourcesToUpdate().stream()
+                .map(resource -> new MapSqlParameterSource().addValue(L_ID, resource.getId())
+                        .addValue(ResourceFields.QUANTITY, resource.getDecimalField(ResourceFields.QUANTITY))
+                        .addValue(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT,
+                                resource.getDecimalField(ResourceFields.QUANTITY_IN_ADDITIONAL_UNIT)))
+                .toArray(SqlParameterSource[]::new);
+
+        jdbcTemplate.batchUpdate(query, params);
+    }
+
+    private void deleteResources(final Set<Long> resourceIds) {
+        if (resourceIds.isEmpty()) {
+            return;
+        }
+
+        // cascades and resource model hooks are run by data definition
+        getResourceDD().delete(resourceIds.toArray(new Long[] {}));
+    }
+
+    private DataDefinition getResourceDD() {
+        return dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_RESOURCE);
+    }
+
+}
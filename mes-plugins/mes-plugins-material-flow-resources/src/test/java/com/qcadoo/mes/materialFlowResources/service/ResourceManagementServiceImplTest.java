@@ -0,0 +1,158 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.technologies.dto.QuantitiesAccumulator;
+import com.qcadoo.model.api.Entity;
+
+public class ResourceManagementServiceImplTest {
+
+    private ResourceManagementServiceImpl resourceManagementService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private Entity warehouse;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        resourceManagementService = new ResourceManagementServiceImpl();
+
+        ReflectionTestUtils.setField(resourceManagementService, "jdbcTemplate", jdbcTemplate);
+
+        given(warehouse.getId()).willReturn(1L);
+    }
+
+    @Test
+    public void shouldAddQuantityOfProductForEachOfItsPositions() throws Exception {
+        // given
+        Entity product = mockProduct(11L, null);
+
+        Multimap<Entity, Entity> productsAndPositions = ArrayListMultimap.create();
+
+        productsAndPositions.put(product, mockPosition(null));
+        productsAndPositions.put(product, mockPosition(null));
+
+        stubResources(mockRow(11L, new BigDecimal("1.000"), BigDecimal.valueOf(5)));
+
+        // when
+        QuantitiesAccumulator quantities = resourceManagementService.getQuantitiesInWarehouse(warehouse, productsAndPositions);
+
+        // then
+        assertEquals(BigDecimal.TEN, quantities.get(11L));
+    }
+
+    @Test
+    public void shouldTakeQuantityOfResourcesWithConversionOfPosition() throws Exception {
+        // given
+        Entity productWithAdditionalUnit = mockProduct(11L, "kg");
+        Entity productWithoutResources = mockProduct(12L, null);
+
+        Multimap<Entity, Entity> productsAndPositions = ArrayListMultimap.create();
+
+        productsAndPositions.put(productWithAdditionalUnit, mockPosition(new BigDecimal("2.50")));
+        productsAndPositions.put(productWithoutResources, mockPosition(null));
+
+        stubResources(mockRow(11L, new BigDecimal("2.5"), BigDecimal.valueOf(7)),
+                mockRow(11L, BigDecimal.ONE, BigDecimal.valueOf(100)));
+
+        // when
+        QuantitiesAccumulator quantities = resourceManagementService.getQuantitiesInWarehouse(warehouse, productsAndPositions);
+
+        // then
+        assertEquals(BigDecimal.valueOf(7), quantities.get(11L));
+        assertEquals(BigDecimal.ZERO, quantities.get(12L));
+        assertNull(quantities.get(13L));
+    }
+
+    private void stubResources(final ResultSet... rows) {
+        List<ResultSet> resultSets = Lists.newArrayList(rows);
+
+        doAnswer(invocation -> {
+            for (ResultSet resultSet : resultSets) {
+                ((RowCallbackHandler) invocation.getArguments()[2]).processRow(resultSet);
+            }
+
+            return null;
+        }).when(jdbcTemplate).query(anyString(), anyMapOf(String.class, Object.class), any(RowCallbackHandler.class));
+    }
+
+    private ResultSet mockRow(final Long productId, final BigDecimal conversion, final BigDecimal availableQuantity)
+            throws Exception {
+        ResultSet resultSet = mock(ResultSet.class);
+
+        given(resultSet.getLong("product_id")).willReturn(productId);
+        given(resultSet.getBigDecimal("conversion")).willReturn(conversion);
+        given(resultSet.getBigDecimal("availablequantity")).willReturn(availableQuantity);
+
+        return resultSet;
+    }
+
+    private Entity mockProduct(final Long id, final String additionalUnit) {
+        Entity product = mock(Entity.class);
+
+        given(product.getId()).willReturn(id);
+        given(product.getStringField(ProductFields.ADDITIONAL_UNIT)).willReturn(additionalUnit);
+
+        return product;
+    }
+
+    private Entity mockPosition(final BigDecimal conversion) {
+        Entity position = mock(Entity.class);
+
+        given(position.getDecimalField(PositionFields.CONVERSION)).willReturn(conversion);
+
+        return position;
+    }
+
+}
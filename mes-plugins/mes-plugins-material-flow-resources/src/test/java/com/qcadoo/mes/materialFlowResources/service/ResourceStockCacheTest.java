@@ -0,0 +1,87 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.qcadoo.mes.materialFlowResources.dto.ResourceStockDto;
+
+public class ResourceStockCacheTest {
+
+    private ResourceStockCache resourceStockCache;
+
+    private AtomicInteger loads;
+
+    private Supplier<Optional<ResourceStockDto>> loader;
+
+    @Before
+    public void init() {
+        resourceStockCache = new ResourceStockCache();
+        loads = new AtomicInteger();
+        loader = () -> {
+            loads.incrementAndGet();
+
+            return Optional.of(new ResourceStockDto());
+        };
+    }
+
+    @Test
+    public void shouldLoadStockOnlyOnce() {
+        // when
+        Optional<ResourceStockDto> first = resourceStockCache.get(1L, 2L, loader);
+        Optional<ResourceStockDto> second = resourceStockCache.get(1L, 2L, loader);
+
+        // then
+        assertSame(first, second);
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void shouldReloadStockAfterInvalidation() {
+        // given
+        resourceStockCache.get(1L, 2L, loader);
+        resourceStockCache.get(1L, 3L, loader);
+        resourceStockCache.get(4L, 3L, loader);
+
+        // when
+        resourceStockCache.invalidate(1L, 2L);
+        resourceStockCache.invalidateProduct(3L);
+
+        resourceStockCache.get(1L, 2L, loader);
+        resourceStockCache.get(1L, 3L, loader);
+        resourceStockCache.get(4L, 3L, loader);
+
+        // then
+        assertEquals(6, loads.get());
+    }
+
+}
@@ -0,0 +1,265 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.fail;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.materialFlowResources.constants.MaterialFlowResourcesConstants;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.mes.materialFlowResources.exceptions.InvalidResourceException;
+import com.qcadoo.mes.materialFlowResources.hooks.ResourceModelValidators;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.FieldDefinition;
+
+public class ResourcesConsumptionBatchServiceTest {
+
+    private ResourcesConsumptionBatchService resourcesConsumptionBatchService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private ResourceStockCache resourceStockCache;
+
+    @Mock
+    private PalletNumberDisposalService palletNumberDisposalService;
+
+    @Mock
+    private ResourceModelValidators resourceModelValidators;
+
+    @Mock
+    private DataDefinition resourceDD;
+
+    @Mock
+    private FieldDefinition fieldDefinition;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        resourcesConsumptionBatchService = new ResourcesConsumptionBatchService();
+
+        ReflectionTestUtils.setField(resourcesConsumptionBatchService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(resourcesConsumptionBatchService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(resourcesConsumptionBatchService, "resourceStockCache", resourceStockCache);
+        ReflectionTestUtils.setField(resourcesConsumptionBatchService, "palletNumberDisposalService",
+                palletNumberDisposalService);
+        ReflectionTestUtils.setField(resourcesConsumptionBatchService, "resourceModelValidators", resourceModelValidators);
+
+        given(dataDefinitionService.get(MaterialFlowResourcesConstants.PLUGIN_IDENTIFIER,
+                MaterialFlowResourcesConstants.MODEL_RESOURCE)).willReturn(resourceDD);
+        given(resourceDD.getField(anyString())).willReturn(fieldDefinition);
+        given(resourceModelValidators.validatesWith(Matchers.eq(resourceDD), any(Entity.class))).willReturn(true);
+    }
+
+    @Test
+    public void shouldThrowInvalidResourceExceptionAndWriteNothingWhenReservedQuantityIsNegative() {
+        // given
+        Entity valid = mockResource(1L, BigDecimal.TEN, BigDecimal.ZERO, BigDecimal.TEN);
+        Entity invalid = mockResource(2L, BigDecimal.TEN, BigDecimal.ONE.negate(), BigDecimal.TEN);
+        Entity usedUp = mockResource(3L, BigDecimal.ONE, BigDecimal.ZERO, BigDecimal.ZERO);
+
+        ResourcesConsumptionBatch batch = createBatch(valid, invalid, usedUp);
+
+        batch.markAsUpdated(valid);
+        batch.markAsUpdated(invalid);
+        batch.markAsDeleted(usedUp);
+
+        // when
+        try {
+            resourcesConsumptionBatchService.flush(batch);
+
+            fail();
+        } catch (InvalidResourceException e) {
+            // then
+            verify(invalid).addError(fieldDefinition, "qcadooView.validate.field.error.outOfRange.toSmall");
+            verify(jdbcTemplate, never()).batchUpdate(anyString(), any(SqlParameterSource[].class));
+            verify(resourceDD, never()).delete(Matchers.<Long> anyVararg());
+        }
+    }
+
+    @Test
+    public void shouldThrowInvalidResourceExceptionWhenQuantityIsZero() {
+        // given
+        Entity invalid = mockResource(1L, BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO);
+
+        ResourcesConsumptionBatch batch = createBatch(invalid);
+
+        batch.markAsUpdated(invalid);
+
+        // when
+        try {
+            resourcesConsumptionBatchService.flush(batch);
+
+            fail();
+        } catch (InvalidResourceException e) {
+            // then
+            verify(jdbcTemplate, never()).batchUpdate(anyString(), any(SqlParameterSource[].class));
+        }
+    }
+
+    @Test
+    public void shouldDeleteUsedUpResourcesThroughDataDefinition() {
+        // given
+        Entity changed = mockResource(1L, BigDecimal.TEN, BigDecimal.ZERO, BigDecimal.TEN);
+        Entity usedUp = mockResource(2L, BigDecimal.ONE, BigDecimal.ZERO, BigDecimal.ZERO);
+
+        ResourcesConsumptionBatch batch = createBatch(changed, usedUp);
+
+        batch.markAsUpdated(changed);
+        batch.markAsDeleted(usedUp);
+
+        // when
+        resourcesConsumptionBatchService.flush(batch);
+
+        // then
+        verify(jdbcTemplate).batchUpdate(anyString(), any(SqlParameterSource[].class));
+        verify(resourceDD).delete(2L);
+    }
+
+    @Test
+    public void shouldThrowInvalidResourceExceptionWhenQuantityScaleIsTooBig() {
+        // given
+        Entity invalid = mockResource(1L, new BigDecimal("1.123456"), BigDecimal.ZERO, new BigDecimal("1.123456"));
+
+        ResourcesConsumptionBatch batch = createBatch(invalid);
+
+        batch.markAsUpdated(invalid);
+
+        // when
+        try {
+            resourcesConsumptionBatchService.flush(batch);
+
+            fail();
+        } catch (InvalidResourceException e) {
+            // then
+            verify(invalid).addError(fieldDefinition, "qcadooView.validate.field.error.invalidScale.max", "5");
+            verify(jdbcTemplate, never()).batchUpdate(anyString(), any(SqlParameterSource[].class));
+        }
+    }
+
+    @Test
+    public void shouldThrowInvalidResourceExceptionWhenResourceModelValidatorsFail() {
+        // given
+        Entity invalid = mockResource(1L, BigDecimal.TEN, BigDecimal.ZERO, BigDecimal.TEN);
+
+        ResourcesConsumptionBatch batch = createBatch(invalid);
+
+        batch.markAsUpdated(invalid);
+
+        given(resourceModelValidators.validatesWith(resourceDD, invalid)).willReturn(false);
+
+        // when
+        try {
+            resourcesConsumptionBatchService.flush(batch);
+
+            fail();
+        } catch (InvalidResourceException e) {
+            // then
+            verify(jdbcTemplate, never()).batchUpdate(anyString(), any(SqlParameterSource[].class));
+        }
+    }
+
+    @Test
+    public void shouldTakeReservedQuantityFromDatabase() throws Exception {
+        // given
+        Entity changed = mockResource(1L, BigDecimal.TEN, BigDecimal.ONE, BigDecimal.valueOf(9));
+
+        ResourcesConsumptionBatch batch = createBatch(changed);
+
+        batch.markAsUpdated(changed);
+
+        ResultSet resultSet = mock(ResultSet.class);
+
+        given(resultSet.getLong("id")).willReturn(1L);
+        given(resultSet.getBigDecimal("reservedquantity")).willReturn(BigDecimal.valueOf(3));
+
+        doAnswer(invocation -> {
+            ((RowCallbackHandler) invocation.getArguments()[2]).processRow(resultSet);
+
+            return null;
+        }).when(jdbcTemplate).query(anyString(), any(SqlParameterSource.class), any(RowCallbackHandler.class));
+
+        // when
+        resourcesConsumptionBatchService.flush(batch);
+
+        // then
+        verify(changed).setField(ResourceFields.RESERVED_QUANTITY, BigDecimal.valueOf(3));
+        verify(changed).setField(ResourceFields.AVAILABLE_QUANTITY, BigDecimal.valueOf(7));
+        verify(jdbcTemplate).batchUpdate(anyString(), any(SqlParameterSource[].class));
+    }
+
+    private ResourcesConsumptionBatch createBatch(final Entity... resources) {
+        Map<Long, Entity> resourcesById = Maps.newHashMap();
+
+        for (Entity resource : resources) {
+            resourcesById.put(resource.getId(), resource);
+        }
+
+        Map<Long, List<Entity>> resourcesByProduct = Maps.newHashMap();
+
+        return new ResourcesConsumptionBatch(resourcesByProduct, resourcesById, false);
+    }
+
+    private Entity mockResource(final Long id, final BigDecimal quantity, final BigDecimal reservedQuantity,
+            final BigDecimal availableQuantity) {
+        Entity resource = mock(Entity.class);
+
+        given(resource.getId()).willReturn(id);
+        given(resource.getDecimalField(ResourceFields.QUANTITY)).willReturn(quantity);
+        given(resource.getDecimalField(ResourceFields.RESERVED_QUANTITY)).willReturn(reservedQuantity);
+        given(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)).willReturn(availableQuantity);
+
+        return resource;
+    }
+
+}
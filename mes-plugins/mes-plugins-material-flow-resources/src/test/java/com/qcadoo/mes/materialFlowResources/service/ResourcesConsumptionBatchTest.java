@@ -0,0 +1,153 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.materialFlowResources.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.materialFlowResources.constants.PositionFields;
+import com.qcadoo.mes.materialFlowResources.constants.ResourceFields;
+import com.qcadoo.model.api.Entity;
+
+public class ResourcesConsumptionBatchTest {
+
+    private static final Long L_PRODUCT_ID = 1L;
+
+    private Entity product;
+
+    private Entity position;
+
+    private Entity additionalCode;
+
+    @Before
+    public void init() {
+        product = mockEntity(L_PRODUCT_ID);
+        position = mockEntity(null);
+        additionalCode = mockEntity(10L);
+
+        given(product.getStringField(ProductFields.ADDITIONAL_UNIT)).willReturn(null);
+    }
+
+    @Test
+    public void shouldReturnResourcesWithPositionAdditionalCodeFirst() {
+        // given
+        Entity first = mockResource(1L, BigDecimal.ONE, null);
+        Entity second = mockResource(2L, BigDecimal.ONE, additionalCode);
+        Entity third = mockResource(3L, BigDecimal.ONE, null);
+
+        given(position.getBelongsToField(PositionFields.ADDITIONAL_CODE)).willReturn(additionalCode);
+
+        ResourcesConsumptionBatch batch = createBatch(false, first, second, third);
+
+        // when
+        List<Entity> resources = batch.getResourcesForPosition(product, position);
+
+        // then
+        assertEquals(Lists.newArrayList(second, first, third), resources);
+    }
+
+    @Test
+    public void shouldSkipResourcesWithDifferentConversionUnlessEnabled() {
+        // given
+        Entity first = mockResource(1L, new BigDecimal("2"), null);
+        Entity second = mockResource(2L, BigDecimal.ONE, null);
+
+        // when
+        List<Entity> resourcesWithConversion = createBatch(false, first, second).getResourcesForPosition(product, position);
+        List<Entity> allResources = createBatch(true, first, second).getResourcesForPosition(product, position);
+
+        // then
+        assertEquals(Lists.newArrayList(second), resourcesWithConversion);
+        assertEquals(Lists.newArrayList(second, first), allResources);
+    }
+
+    @Test
+    public void shouldNotReturnUsedUpResources() {
+        // given
+        Entity first = mockResource(1L, BigDecimal.ONE, null);
+        Entity second = mockResource(2L, BigDecimal.ONE, null);
+        Entity third = mockResource(3L, BigDecimal.ONE, null);
+
+        ResourcesConsumptionBatch batch = createBatch(false, first, second, third);
+
+        given(second.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)).willReturn(BigDecimal.ZERO);
+
+        // when
+        batch.markAsUpdated(second);
+        batch.markAsDeleted(third);
+
+        // then
+        assertEquals(Lists.newArrayList(first), batch.getResourcesForPosition(product, position));
+        assertSame(second, batch.getResource(2L));
+        assertNull(batch.getResource(3L));
+        assertEquals(1, batch.getResourcesToUpdate().size());
+        assertEquals(1, batch.getResourcesToDelete().size());
+    }
+
+    private ResourcesConsumptionBatch createBatch(final boolean fillResourceIrrespectiveOfConversion, final Entity... resources) {
+        Map<Long, Entity> resourcesById = Maps.newHashMap();
+
+        for (Entity resource : resources) {
+            resourcesById.put(resource.getId(), resource);
+        }
+
+        Map<Long, List<Entity>> resourcesByProduct = Maps.newHashMap();
+
+        resourcesByProduct.put(L_PRODUCT_ID, Lists.newArrayList(resources));
+
+        return new ResourcesConsumptionBatch(resourcesByProduct, resourcesById, fillResourceIrrespectiveOfConversion);
+    }
+
+    private Entity mockResource(final Long id, final BigDecimal conversion, final Entity additionalCode) {
+        Entity resource = mockEntity(id);
+
+        given(resource.getDecimalField(ResourceFields.AVAILABLE_QUANTITY)).willReturn(BigDecimal.TEN);
+        given(resource.getDecimalField(ResourceFields.CONVERSION)).willReturn(conversion);
+        given(resource.getBelongsToField(ResourceFields.ADDITIONAL_CODE)).willReturn(additionalCode);
+
+        return resource;
+    }
+
+    private Entity mockEntity(final Long id) {
+        Entity entity = mock(Entity.class);
+
+        given(entity.getId()).willReturn(id);
+
+        return entity;
+    }
+
+}
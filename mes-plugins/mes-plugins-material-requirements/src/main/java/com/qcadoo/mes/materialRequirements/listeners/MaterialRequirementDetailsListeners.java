@@ -36,6 +36,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.lowagie.text.DocumentException;
 import com.qcadoo.localization.api.utils.DateUtils;
+import com.qcadoo.mes.basic.controllers.SavedXlsxReportController;
 import com.qcadoo.mes.materialRequirements.MaterialRequirementService;
 import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementsConstants;
 import com.qcadoo.mes.orders.util.OrderHelperService;
@@ -51,6 +52,8 @@ import com.qcadoo.view.api.components.FormComponent;
 @Service
 public class MaterialRequirementDetailsListeners {
 
+    private static final String L_XLS = "xls";
+
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
@@ -67,8 +70,13 @@ public class MaterialRequirementDetailsListeners {
     private OrderHelperService orderHelperService;
 
     public void printMaterialRequirement(final ViewDefinitionState view, final ComponentState state, final String[] args) {
-        reportService.printGeneratedReport(view, state, new String[] { args[0], MaterialRequirementsConstants.PLUGIN_IDENTIFIER,
-                MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT });
+        if (L_XLS.equals(args[0])) {
+            view.redirectTo(SavedXlsxReportController.getUrl(MaterialRequirementsConstants.PLUGIN_IDENTIFIER,
+                    MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT, (Long) state.getFieldValue()), true, false);
+        } else {
+            reportService.printGeneratedReport(view, state, new String[] { args[0],
+                    MaterialRequirementsConstants.PLUGIN_IDENTIFIER, MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT });
+        }
     }
 
     // TODO KRNA generic candidate
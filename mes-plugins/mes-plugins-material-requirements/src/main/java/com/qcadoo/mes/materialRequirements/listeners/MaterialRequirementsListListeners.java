@@ -26,6 +26,7 @@ package com.qcadoo.mes.materialRequirements.listeners;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.qcadoo.mes.basic.controllers.SavedXlsxReportController;
 import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementsConstants;
 import com.qcadoo.report.api.ReportService;
 import com.qcadoo.view.api.ComponentState;
@@ -34,12 +35,19 @@ import com.qcadoo.view.api.ViewDefinitionState;
 @Service
 public class MaterialRequirementsListListeners {
 
+    private static final String L_XLS = "xls";
+
     @Autowired
     private ReportService reportService;
 
     public void printMaterialRequirement(final ViewDefinitionState view, final ComponentState state, final String[] args) {
-        reportService.printGeneratedReport(view, state, new String[] { args[0], MaterialRequirementsConstants.PLUGIN_IDENTIFIER,
-                MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT });
+        if (L_XLS.equals(args[0])) {
+            view.redirectTo(SavedXlsxReportController.getUrl(MaterialRequirementsConstants.PLUGIN_IDENTIFIER,
+                    MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT, (Long) state.getFieldValue()), true, false);
+        } else {
+            reportService.printGeneratedReport(view, state, new String[] { args[0],
+                    MaterialRequirementsConstants.PLUGIN_IDENTIFIER, MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT });
+        }
     }
 
 }
@@ -31,6 +31,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.lowagie.text.DocumentException;
+import com.qcadoo.mes.basic.controllers.SavedXlsxReportController;
 import com.qcadoo.mes.materialRequirements.MaterialRequirementService;
 import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementsConstants;
 import com.qcadoo.mes.orders.util.OrderReportService;
@@ -43,6 +44,8 @@ import com.qcadoo.view.api.utils.NumberGeneratorService;
 @Service
 public class OrdersPlanningListListenersMR {
 
+    private static final String L_XLS = "xls";
+
     @Autowired
     private NumberGeneratorService numberGeneratorService;
 
@@ -61,10 +64,16 @@ public class OrdersPlanningListListenersMR {
 
         try {
             materialRequirementService.generateMaterialRequirementDocuments(state, materialRequirement);
-            view.redirectTo(
-                    "/generateSavedReport/" + MaterialRequirementsConstants.PLUGIN_IDENTIFIER + "/"
-                            + MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT + "." + args[0] + "?id="
-                            + materialRequirement.getId(), true, false);
+
+            if (L_XLS.equals(args[0])) {
+                view.redirectTo(SavedXlsxReportController.getUrl(MaterialRequirementsConstants.PLUGIN_IDENTIFIER,
+                        MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT, materialRequirement.getId()), true, false);
+            } else {
+                view.redirectTo(
+                        "/generateSavedReport/" + MaterialRequirementsConstants.PLUGIN_IDENTIFIER + "/"
+                                + MaterialRequirementsConstants.MODEL_MATERIAL_REQUIREMENT + "." + args[0] + "?id="
+                                + materialRequirement.getId(), true, false);
+            }
         } catch (IOException e) {
             throw new IllegalStateException(e.getMessage(), e);
         } catch (DocumentException e) {
@@ -29,25 +29,25 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import org.apache.poi.hssf.usermodel.HSSFCell;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.constants.BasicConstants;
 import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.basic.print.xls.XlsxDocumentService;
+import com.qcadoo.mes.basic.print.xls.XlsxSheetWriter;
 import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
 import com.qcadoo.mes.materialRequirements.constants.MaterialRequirementFields;
-import com.qcadoo.mes.technologies.ProductQuantitiesService;
 import com.qcadoo.mes.technologies.constants.MrpAlgorithm;
+import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.NumberService;
-import com.qcadoo.report.api.xls.XlsDocumentService;
-import com.qcadoo.report.api.xls.XlsHelper;
 
 @Service
-public final class MaterialRequirementXlsService extends XlsDocumentService {
+public final class MaterialRequirementXlsService extends XlsxDocumentService {
 
     @Autowired
     private TranslationService translationService;
@@ -56,34 +56,25 @@ public final class MaterialRequirementXlsService extends XlsDocumentService {
     private NumberService numberService;
 
     @Autowired
-    private XlsHelper xlsHelper;
-
-    @Autowired
-    private ProductQuantitiesService productQuantitiesService;
+    private DataDefinitionService dataDefinitionService;
 
     @Autowired
     private BasicProductionCountingService basicProductionCountingService;
 
     @Override
-    protected void addHeader(final HSSFSheet sheet, final Locale locale, final Entity materialRequirement) {
-        HSSFRow header = sheet.createRow(0);
-        HSSFCell cell0 = header.createCell(0);
-        cell0.setCellValue(translationService.translate("basic.product.number.label", locale));
-        xlsHelper.setCellStyle(sheet, cell0);
-        HSSFCell cell1 = header.createCell(1);
-        cell1.setCellValue(translationService.translate("basic.product.name.label", locale));
-        xlsHelper.setCellStyle(sheet, cell1);
-        HSSFCell cell2 = header.createCell(2);
-        cell2.setCellValue(translationService.translate("technologies.technologyOperationComponent.quantity.label", locale));
-        xlsHelper.setCellStyle(sheet, cell2);
-        HSSFCell cell3 = header.createCell(3);
-        cell3.setCellValue(translationService.translate("basic.product.unit.label", locale));
-        xlsHelper.setCellStyle(sheet, cell3);
+    protected void addHeader(final XlsxSheetWriter sheet, final Locale locale, final Entity materialRequirement) {
+        CellStyle headerStyle = createHeaderStyle(sheet.getSheet().getWorkbook());
+
+        Row header = sheet.createRow();
+        sheet.createCell(header, 0, translationService.translate("basic.product.number.label", locale), headerStyle);
+        sheet.createCell(header, 1, translationService.translate("basic.product.name.label", locale), headerStyle);
+        sheet.createCell(header, 2,
+                translationService.translate("technologies.technologyOperationComponent.quantity.label", locale), headerStyle);
+        sheet.createCell(header, 3, translationService.translate("basic.product.unit.label", locale), headerStyle);
     }
 
     @Override
-    protected void addSeries(final HSSFSheet sheet, final Entity materialRequirement) {
-        int rowNum = 1;
+    protected void addSeries(final XlsxSheetWriter sheet, final Entity materialRequirement) {
         List<Entity> orders = materialRequirement.getManyToManyField(MaterialRequirementFields.ORDERS);
         MrpAlgorithm algorithm = MrpAlgorithm.parseString(materialRequirement
                 .getStringField(MaterialRequirementFields.MRP_ALGORITHM));
@@ -91,24 +82,24 @@ public final class MaterialRequirementXlsService extends XlsDocumentService {
         Map<Long, BigDecimal> neededProductQuantities = basicProductionCountingService.getNeededProductQuantities(orders,
                 algorithm);
 
+        Map<Long, Entity> products = getEntitiesByIds(
+                dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT),
+                neededProductQuantities.keySet());
+
         for (Entry<Long, BigDecimal> neededProductQuantity : neededProductQuantities.entrySet()) {
-            Entity product = productQuantitiesService.getProduct(neededProductQuantity.getKey());
+            Entity product = products.get(neededProductQuantity.getKey());
 
-            HSSFRow row = sheet.createRow(rowNum++);
-            row.createCell(0).setCellValue(product.getStringField(ProductFields.NUMBER));
-            row.createCell(1).setCellValue(product.getStringField(ProductFields.NAME));
-            row.createCell(2).setCellValue(numberService.setScale(neededProductQuantity.getValue()).doubleValue());
+            Row row = sheet.createRow();
+            sheet.createCell(row, 0, product.getStringField(ProductFields.NUMBER), null);
+            sheet.createCell(row, 1, product.getStringField(ProductFields.NAME), null);
+            sheet.createCell(row, 2, numberService.setScale(neededProductQuantity.getValue()), null);
             String unit = product.getStringField(ProductFields.UNIT);
             if (unit == null) {
-                row.createCell(3).setCellValue("");
+                sheet.createCell(row, 3, "", null);
             } else {
-                row.createCell(3).setCellValue(unit);
+                sheet.createCell(row, 3, unit, null);
             }
         }
-        sheet.autoSizeColumn((short) 0);
-        sheet.autoSizeColumn((short) 1);
-        sheet.autoSizeColumn((short) 2);
-        sheet.autoSizeColumn((short) 3);
     }
 
     @Override
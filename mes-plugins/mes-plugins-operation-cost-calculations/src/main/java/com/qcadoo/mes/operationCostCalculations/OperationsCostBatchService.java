@@ -0,0 +1,171 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationCostCalculations;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.operationCostCalculations.dto.OperationsCostEstimate;
+import com.qcadoo.mes.operationCostCalculations.dto.OperationsCostParameters;
+import com.qcadoo.mes.operationCostCalculations.dto.OperationsCostQuery;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Prices many technologies and quantities at once, in parallel and without saving anything.
+ *
+ * Every query is estimated in its own read only transaction by one of the workers (operationsCostWorkers property), so a failing
+ * technology doesn't stop the others - it gets an estimate with error message instead.
+ */
+@Service
+public class OperationsCostBatchService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OperationsCostBatchService.class);
+
+    private static final String L_ESTIMATION_FAILED = "operationCostCalculations.estimation.failed";
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private OperationsCostCalculationService operationsCostCalculationService;
+
+    @Value("${operationsCostWorkers:4}")
+    private int workers;
+
+    private ExecutorService executor;
+
+    @PostConstruct
+    public void init() {
+        executor = Executors.newFixedThreadPool(Math.max(workers, 1), new OperationsCostThreadFactory());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return estimates in the order of given queries
+     */
+    public List<OperationsCostEstimate> estimateOperationsCosts(final List<OperationsCostQuery> queries,
+            final OperationsCostParameters parameters) {
+        if (queries.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        SecurityContext securityContext = SecurityContextHolder.getContext();
+        Locale locale = LocaleContextHolder.getLocale();
+
+        List<Future<OperationsCostEstimate>> futures = Lists.newArrayListWithCapacity(queries.size());
+
+        try {
+            for (OperationsCostQuery query : queries) {
+                futures.add(executor.submit(() -> estimate(query, parameters, securityContext, locale)));
+            }
+
+            List<OperationsCostEstimate> estimates = Lists.newArrayListWithCapacity(queries.size());
+
+            for (Future<OperationsCostEstimate> future : futures) {
+                estimates.add(future.get());
+            }
+
+            return estimates;
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Operations cost estimation was interrupted", exception);
+        } catch (ExecutionException exception) {
+            throw new IllegalStateException("Operations cost estimation failed", exception.getCause());
+        } finally {
+            // workers are shared, so estimates nobody waits for anymore mustn't keep them busy
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    private OperationsCostEstimate estimate(final OperationsCostQuery query, final OperationsCostParameters parameters,
+            final SecurityContext securityContext, final Locale locale) {
+        SecurityContextHolder.setContext(securityContext);
+        LocaleContextHolder.setLocale(locale);
+
+        try {
+            Entity technology = getTechnologyDD().get(query.getTechnologyId());
+
+            if (technology == null) {
+                return OperationsCostEstimate.builder(query.getTechnologyId(), query.getQuantity()).buildFailed(
+                        L_ESTIMATION_FAILED);
+            }
+
+            return operationsCostCalculationService.estimateOperationsCost(technology, query.getQuantity(), parameters);
+        } catch (RuntimeException exception) {
+            LOG.warn(String.format("Can't estimate operations cost of technology %d", query.getTechnologyId()), exception);
+
+            return OperationsCostEstimate.builder(query.getTechnologyId(), query.getQuantity()).buildFailed(L_ESTIMATION_FAILED);
+        } finally {
+            SecurityContextHolder.clearContext();
+            LocaleContextHolder.resetLocaleContext();
+        }
+    }
+
+    private DataDefinition getTechnologyDD() {
+        return dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER, TechnologiesConstants.MODEL_TECHNOLOGY);
+    }
+
+    private static final class OperationsCostThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "operations-cost-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+
+    }
+
+}
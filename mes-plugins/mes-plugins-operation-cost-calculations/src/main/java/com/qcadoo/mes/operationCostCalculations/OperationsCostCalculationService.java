@@ -28,6 +28,8 @@ import java.util.Map;
 
 import org.springframework.stereotype.Service;
 
+import com.qcadoo.mes.operationCostCalculations.dto.OperationsCostEstimate;
+import com.qcadoo.mes.operationCostCalculations.dto.OperationsCostParameters;
 import com.qcadoo.mes.operationTimeCalculations.dto.OperationTimesContainer;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityTreeNode;
@@ -43,6 +45,22 @@ public interface OperationsCostCalculationService {
      */
     void calculateOperationsCost(final Entity costCalculationOrProductionBalance, boolean hourlyCostFromOperation);
 
+    /**
+     * Estimates operations costs over technology operation components tree, without creating calculation operation
+     * components. Nothing is saved.
+     * 
+     * @param technology
+     *            technology
+     * @param quantity
+     *            quantity
+     * @param parameters
+     *            calculation settings
+     * 
+     * @return estimate
+     */
+    OperationsCostEstimate estimateOperationsCost(final Entity technology, final BigDecimal quantity,
+            final OperationsCostParameters parameters);
+
     /**
      * 
      * @param calculationOperationComponent
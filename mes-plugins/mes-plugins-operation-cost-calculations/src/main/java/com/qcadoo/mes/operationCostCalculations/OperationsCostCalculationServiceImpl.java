@@ -32,6 +32,7 @@ import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -39,6 +40,8 @@ import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.costNormsForOperation.constants.CalculateOperationCostMode;
 import com.qcadoo.mes.costNormsForOperation.constants.CalculationOperationComponentFields;
 import com.qcadoo.mes.costNormsForOperation.constants.TechnologyOperationComponentFieldsCNFO;
+import com.qcadoo.mes.operationCostCalculations.dto.OperationsCostEstimate;
+import com.qcadoo.mes.operationCostCalculations.dto.OperationsCostParameters;
 import com.qcadoo.mes.operationTimeCalculations.OperationWorkTime;
 import com.qcadoo.mes.operationTimeCalculations.OperationWorkTimeService;
 import com.qcadoo.mes.operationTimeCalculations.dto.OperationTimes;
@@ -48,6 +51,7 @@ import com.qcadoo.mes.technologies.ProductQuantitiesService;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentType;
 import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
 import com.qcadoo.model.api.BigDecimalUtils;
 import com.qcadoo.model.api.DataDefinition;
@@ -221,12 +225,78 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
         return productQuantitiesService.getProductComponentQuantities(technology, quantity);
     }
 
+    @Override
+    @Transactional(readOnly = true)
+    public OperationsCostEstimate estimateOperationsCost(final Entity technology, final BigDecimal quantity,
+            final OperationsCostParameters parameters) {
+        checkArgument(technology != null, "technology is null");
+        checkArgument(parameters != null, "parameters are null");
+
+        BigDecimal plannedQuantity = BigDecimalUtils.convertNullToZero(quantity);
+        OperationsCostEstimate.Builder estimate = OperationsCostEstimate.builder(technology.getId(), plannedQuantity);
+
+        EntityTree technologyOperationComponents = technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
+
+        if (technologyOperationComponents == null || technologyOperationComponents.isEmpty()) {
+            return estimate.buildFailed("costCalculation.lackOfTreeComponents");
+        }
+
+        EntityTreeNode root = technologyOperationComponents.getRoot();
+        Map<Long, BigDecimal> operationRuns = productQuantitiesService.getProductComponentQuantities(technology,
+                plannedQuantity).getOperationRuns();
+
+        if (CalculateOperationCostMode.PIECEWORK.equals(parameters.getCalculateOperationCostMode())) {
+            BigDecimal totalPieceworkCost = estimatePieceworkCosts(root, parameters.getProductionCostMargin(), operationRuns,
+                    estimate);
+
+            estimate.totalPieceworkCosts(numberService.setScale(totalPieceworkCost));
+        } else if (CalculateOperationCostMode.HOURLY.equals(parameters.getCalculateOperationCostMode())) {
+            Map<Long, Integer> workstations = getWorkstationsFromTechnology(technology, parameters.getProductionLine());
+
+            OperationTimesContainer operationTimes = new OperationTimesContainer();
+            estimateOperationTimes(root, operationRuns, parameters, workstations, operationTimes);
+
+            Map<String, BigDecimal> resultsMap = estimateHourlyCosts(root, parameters.getProductionCostMargin(),
+                    operationTimes, parameters.isHourlyCostFromOperation(), estimate);
+
+            estimate.totalHourlyCosts(
+                    numberService.setScale(resultsMap.get(CalculationOperationComponentFields.MACHINE_HOURLY_COST)),
+                    numberService.setScale(resultsMap.get(CalculationOperationComponentFields.LABOR_HOURLY_COST)));
+        } else {
+            throw new IllegalStateException("Unsupported calculateOperationCostMode");
+        }
+
+        return estimate.build();
+    }
+
+    private void estimateOperationTimes(final EntityTreeNode technologyOperationComponent,
+            final Map<Long, BigDecimal> operationRuns, final OperationsCostParameters parameters,
+            final Map<Long, Integer> workstations, final OperationTimesContainer operationTimes) {
+        for (EntityTreeNode child : technologyOperationComponent.getChildren()) {
+            estimateOperationTimes(getOperationNode(child), operationRuns, parameters, workstations, operationTimes);
+        }
+
+        OperationWorkTime operationWorkTime = operationWorkTimeService.estimateOperationWorkTime(technologyOperationComponent,
+                BigDecimalUtils.convertNullToZero(operationRuns.get(technologyOperationComponent.getId())),
+                parameters.isIncludeTPZ(), parameters.isIncludeAdditionalTime(),
+                workstations.get(technologyOperationComponent.getId()), false);
+
+        operationTimes.add(technologyOperationComponent, operationWorkTime);
+    }
+
     @Override
     public Map<String, BigDecimal> estimateCostCalculationForHourly(final EntityTreeNode calculationOperationComponent,
             final BigDecimal productionCostMargin, final BigDecimal plannedQuantity,
             final OperationTimesContainer realizationTimes, final boolean hourlyCostFromOperation) {
         checkArgument(calculationOperationComponent != null, "given operationComponent is empty");
 
+        return estimateHourlyCosts(calculationOperationComponent, productionCostMargin, realizationTimes,
+                hourlyCostFromOperation, null);
+    }
+
+    private Map<String, BigDecimal> estimateHourlyCosts(final EntityTreeNode operationComponent,
+            final BigDecimal productionCostMargin, final OperationTimesContainer realizationTimes,
+            final boolean hourlyCostFromOperation, final OperationsCostEstimate.Builder estimate) {
         Map<String, BigDecimal> costs = Maps.newHashMapWithExpectedSize(L_COST_KEYS.size());
 
         MathContext mathContext = numberService.getMathContext();
@@ -235,9 +305,9 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
             costs.put(costKey, BigDecimal.ZERO);
         }
 
-        for (EntityTreeNode child : calculationOperationComponent.getChildren()) {
-            Map<String, BigDecimal> unitCosts = estimateCostCalculationForHourly(child, productionCostMargin, plannedQuantity,
-                    realizationTimes, hourlyCostFromOperation);
+        for (EntityTreeNode child : operationComponent.getChildren()) {
+            Map<String, BigDecimal> unitCosts = estimateHourlyCosts(getOperationNode(child), productionCostMargin,
+                    realizationTimes, hourlyCostFromOperation, estimate);
 
             for (String costKey : L_COST_KEYS) {
                 BigDecimal unitCost = costs.get(costKey).add(unitCosts.get(costKey), mathContext);
@@ -246,10 +316,18 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
             }
         }
 
-        OperationTimes operationTimes = realizationTimes.get(calculationOperationComponent.getId());
-        Map<String, BigDecimal> costsForSingleOperation = estimateHourlyCostCalculationForSingleOperation(operationTimes,
-                productionCostMargin, hourlyCostFromOperation);
-        saveGeneratedValues(costsForSingleOperation, calculationOperationComponent, true, operationTimes.getTimes(), null);
+        OperationTimes operationTimes = realizationTimes.get(operationComponent.getId());
+        Map<String, BigDecimal> costsForSingleOperation = estimateHourlyCostCalculationForSingleOperation(
+                getTechnologyOperationComponent(operationComponent), operationTimes.getTimes(), productionCostMargin,
+                hourlyCostFromOperation);
+        Map<String, BigDecimal> generatedValues = getGeneratedValues(costsForSingleOperation, true, operationTimes.getTimes(),
+                null);
+
+        if (estimate == null) {
+            saveGeneratedValues(operationComponent, generatedValues);
+        } else {
+            estimate.addOperationCosts(operationComponent.getId(), generatedValues);
+        }
 
         costs.put(L_MACHINE_HOURLY_COST,
                 costs.get(L_MACHINE_HOURLY_COST).add(costsForSingleOperation.get(L_OPERATION_MACHINE_COST), mathContext));
@@ -259,18 +337,12 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
         return costs;
     }
 
-    private Map<String, BigDecimal> estimateHourlyCostCalculationForSingleOperation(final OperationTimes operationTimes,
-            final BigDecimal productionCostMargin, boolean hourlyCostFromOperation) {
+    private Map<String, BigDecimal> estimateHourlyCostCalculationForSingleOperation(final Entity technologyOperationComponent,
+            final OperationWorkTime operationWorkTimes, final BigDecimal productionCostMargin, boolean hourlyCostFromOperation) {
         Map<String, BigDecimal> costs = Maps.newHashMap();
 
         MathContext mathContext = numberService.getMathContext();
 
-        Entity calculationOperationComponent = operationTimes.getOperation();
-        Entity technologyOperationComponent = calculationOperationComponent
-                .getBelongsToField(CalculationOperationComponentFields.TECHNOLOGY_OPERATION_COMPONENT);
-
-        OperationWorkTime operationWorkTimes = operationTimes.getTimes();
-
         BigDecimal machineHourlyCost = BigDecimal.ZERO;
         BigDecimal laborHourlyCost = BigDecimal.ZERO;
         if (hourlyCostFromOperation) {
@@ -321,38 +393,47 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
     @Override
     public BigDecimal estimateCostCalculationForPieceWork(final EntityTreeNode calculationOperationComponent,
             final BigDecimal productionCostMargin, final BigDecimal plannedQuantity, final Map<Long, BigDecimal> operationRuns) {
+        return estimatePieceworkCosts(calculationOperationComponent, productionCostMargin, operationRuns, null);
+    }
 
+    private BigDecimal estimatePieceworkCosts(final EntityTreeNode operationComponent, final BigDecimal productionCostMargin,
+            final Map<Long, BigDecimal> operationRuns, final OperationsCostEstimate.Builder estimate) {
         BigDecimal cost = BigDecimal.ZERO;
 
-        for (EntityTreeNode child : calculationOperationComponent.getChildren()) {
-            cost = cost.add(estimateCostCalculationForPieceWork(child, productionCostMargin, plannedQuantity, operationRuns),
+        for (EntityTreeNode child : operationComponent.getChildren()) {
+            cost = cost.add(estimatePieceworkCosts(getOperationNode(child), productionCostMargin, operationRuns, estimate),
                     numberService.getMathContext());
         }
 
         // FIXME MAKU unnecessary mapping of whole entity - we need only their id! We can increase performance by replacing line
         // below by a query projection
-        Entity technologyOperationComponent = calculationOperationComponent
-                .getBelongsToField(CalculationOperationComponentFields.TECHNOLOGY_OPERATION_COMPONENT);
+        Entity technologyOperationComponent = getTechnologyOperationComponent(operationComponent);
 
         BigDecimal operationRunsForOperation = operationRuns.get(technologyOperationComponent.getId());
 
         Map<String, BigDecimal> costsForSingleOperation = estimatePieceworkCostCalculationForSingleOperation(
-                calculationOperationComponent, productionCostMargin, operationRunsForOperation);
+                operationComponent, productionCostMargin, operationRunsForOperation);
 
         cost = cost.add(costsForSingleOperation.get(L_OPERATION_COST));
-        saveGeneratedValues(costsForSingleOperation, calculationOperationComponent, false, null, operationRunsForOperation);
+        Map<String, BigDecimal> generatedValues = getGeneratedValues(costsForSingleOperation, false, null,
+                operationRunsForOperation);
+
+        if (estimate == null) {
+            saveGeneratedValues(operationComponent, generatedValues);
+        } else {
+            estimate.addOperationCosts(operationComponent.getId(), generatedValues);
+        }
 
         return cost;
     }
 
-    private Map<String, BigDecimal> estimatePieceworkCostCalculationForSingleOperation(
-            final EntityTreeNode calculationOperationComponent, final BigDecimal productionCostMargin,
-            final BigDecimal operationRuns) {
+    private Map<String, BigDecimal> estimatePieceworkCostCalculationForSingleOperation(final Entity operationComponent,
+            final BigDecimal productionCostMargin, final BigDecimal operationRuns) {
         Map<String, BigDecimal> costs = Maps.newHashMap();
 
-        BigDecimal pieceworkCost = BigDecimalUtils.convertNullToZero(calculationOperationComponent
+        BigDecimal pieceworkCost = BigDecimalUtils.convertNullToZero(operationComponent
                 .getDecimalField(CalculationOperationComponentFields.PIECEWORK_COST));
-        BigDecimal numberOfOperations = BigDecimalUtils.convertNullToOne(calculationOperationComponent
+        BigDecimal numberOfOperations = BigDecimalUtils.convertNullToOne(operationComponent
                 .getField(CalculationOperationComponentFields.NUMBER_OF_OPERATIONS));
 
         BigDecimal pieceworkCostPerOperation = pieceworkCost.divide(numberOfOperations, numberService.getMathContext());
@@ -371,39 +452,63 @@ public class OperationsCostCalculationServiceImpl implements OperationsCostCalcu
         return costs;
     }
 
-    private void saveGeneratedValues(final Map<String, BigDecimal> costs, final Entity calculationOperationComponent,
-            boolean areHourly, final OperationWorkTime operationWorkTimes, final BigDecimal operationRuns) {
+    private Map<String, BigDecimal> getGeneratedValues(final Map<String, BigDecimal> costs, boolean areHourly,
+            final OperationWorkTime operationWorkTimes, final BigDecimal operationRuns) {
+        Map<String, BigDecimal> generatedValues = Maps.newHashMap();
+
         if (areHourly) {
-            calculationOperationComponent.setField(CalculationOperationComponentFields.DURATION, new BigDecimal(
-                    operationWorkTimes.getDuration(), numberService.getMathContext()));
-            calculationOperationComponent.setField(CalculationOperationComponentFields.MACHINE_HOURLY_COST,
-                    costs.get(L_MACHINE_HOURLY_COST));
-            calculationOperationComponent.setField(CalculationOperationComponentFields.LABOR_HOURLY_COST,
-                    costs.get(L_LABOR_HOURLY_COST));
-            calculationOperationComponent.setField(CalculationOperationComponentFields.TOTAL_MACHINE_OPERATION_COST,
+            generatedValues.put(CalculationOperationComponentFields.DURATION, new BigDecimal(operationWorkTimes.getDuration(),
+                    numberService.getMathContext()));
+            generatedValues.put(CalculationOperationComponentFields.MACHINE_HOURLY_COST, costs.get(L_MACHINE_HOURLY_COST));
+            generatedValues.put(CalculationOperationComponentFields.LABOR_HOURLY_COST, costs.get(L_LABOR_HOURLY_COST));
+            generatedValues.put(CalculationOperationComponentFields.TOTAL_MACHINE_OPERATION_COST,
                     costs.get(L_OPERATION_MACHINE_COST));
-            calculationOperationComponent.setField(CalculationOperationComponentFields.TOTAL_LABOR_OPERATION_COST,
+            generatedValues.put(CalculationOperationComponentFields.TOTAL_LABOR_OPERATION_COST,
                     costs.get(L_OPERATION_LABOR_COST));
-            calculationOperationComponent.setField(CalculationOperationComponentFields.TOTAL_MACHINE_OPERATION_COST_WITH_MARGIN,
+            generatedValues.put(CalculationOperationComponentFields.TOTAL_MACHINE_OPERATION_COST_WITH_MARGIN,
                     costs.get(L_TOTAL_MACHINE_OPERATION_COST_WITH_MARGIN));
-            calculationOperationComponent.setField(CalculationOperationComponentFields.TOTAL_LABOR_OPERATION_COST_WITH_MARGIN,
+            generatedValues.put(CalculationOperationComponentFields.TOTAL_LABOR_OPERATION_COST_WITH_MARGIN,
                     costs.get(L_TOTAL_LABOR_OPERATION_COST_WITH_MARGIN));
         } else {
-            calculationOperationComponent.setField(CalculationOperationComponentFields.PIECES,
-                    numberService.setScale(operationRuns));
+            generatedValues.put(CalculationOperationComponentFields.PIECES, numberService.setScale(operationRuns));
         }
 
         BigDecimal operationCost = costs.get(L_OPERATION_COST);
         BigDecimal operationMarginCost = costs.get(L_OPERATION_MARGIN_COST);
 
-        calculationOperationComponent.setField(CalculationOperationComponentFields.OPERATION_COST,
-                numberService.setScale(operationCost));
-        calculationOperationComponent.setField(CalculationOperationComponentFields.OPERATION_MARGIN_COST,
+        generatedValues.put(CalculationOperationComponentFields.OPERATION_COST, numberService.setScale(operationCost));
+        generatedValues.put(CalculationOperationComponentFields.OPERATION_MARGIN_COST,
                 numberService.setScale(operationMarginCost));
-        calculationOperationComponent.setField(CalculationOperationComponentFields.TOTAL_OPERATION_COST,
+        generatedValues.put(CalculationOperationComponentFields.TOTAL_OPERATION_COST,
                 numberService.setScale(operationCost.add(operationMarginCost, numberService.getMathContext())));
 
-        calculationOperationComponent.getDataDefinition().save(calculationOperationComponent);
+        return generatedValues;
+    }
+
+    private void saveGeneratedValues(final Entity operationComponent, final Map<String, BigDecimal> generatedValues) {
+        for (Map.Entry<String, BigDecimal> generatedValue : generatedValues.entrySet()) {
+            operationComponent.setField(generatedValue.getKey(), generatedValue.getValue());
+        }
+
+        operationComponent.getDataDefinition().save(operationComponent);
+    }
+
+    private Entity getTechnologyOperationComponent(final Entity operationComponent) {
+        if (TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT.equals(operationComponent.getDataDefinition().getName())) {
+            return operationComponent;
+        }
+
+        return operationComponent.getBelongsToField(CalculationOperationComponentFields.TECHNOLOGY_OPERATION_COMPONENT);
+    }
+
+    private EntityTreeNode getOperationNode(final EntityTreeNode operationComponent) {
+        if (TechnologyOperationComponentType.REFERENCE_TECHNOLOGY.getStringValue().equals(
+                operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE))) {
+            return operationComponent.getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY)
+                    .getTreeField(TechnologyFields.OPERATION_COMPONENTS).getRoot();
+        }
+
+        return operationComponent;
     }
 
     private Map<Long, Integer> getWorkstationsMapsForOperationsComponent(final Entity costCalculationOrProductionBalance,
@@ -0,0 +1,160 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationCostCalculations.dto;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.qcadoo.model.api.BigDecimalUtils;
+
+/**
+ * Result of an operations cost estimation which isn't stored in calculation operation components.
+ *
+ * Costs of single operations are keyed by technology operation component id and use the same field names as calculation
+ * operation component (pieces or duration and hourly costs, operationCost, operationMarginCost, totalOperationCost).
+ */
+public final class OperationsCostEstimate {
+
+    private final Long technologyId;
+
+    private final BigDecimal quantity;
+
+    private final BigDecimal totalPieceworkCosts;
+
+    private final BigDecimal totalMachineHourlyCosts;
+
+    private final BigDecimal totalLaborHourlyCosts;
+
+    private final Map<Long, Map<String, BigDecimal>> operationsCosts;
+
+    private final String errorMessage;
+
+    private OperationsCostEstimate(final Builder builder, final String errorMessage) {
+        this.technologyId = builder.technologyId;
+        this.quantity = builder.quantity;
+        this.totalPieceworkCosts = builder.totalPieceworkCosts;
+        this.totalMachineHourlyCosts = builder.totalMachineHourlyCosts;
+        this.totalLaborHourlyCosts = builder.totalLaborHourlyCosts;
+        this.operationsCosts = ImmutableMap.copyOf(builder.operationsCosts);
+        this.errorMessage = errorMessage;
+    }
+
+    public Long getTechnologyId() {
+        return technologyId;
+    }
+
+    public BigDecimal getQuantity() {
+        return quantity;
+    }
+
+    public BigDecimal getTotalPieceworkCosts() {
+        return totalPieceworkCosts;
+    }
+
+    public BigDecimal getTotalMachineHourlyCosts() {
+        return totalMachineHourlyCosts;
+    }
+
+    public BigDecimal getTotalLaborHourlyCosts() {
+        return totalLaborHourlyCosts;
+    }
+
+    /**
+     * @return piecework costs or sum of machine and labor hourly costs, depending on calculation mode
+     */
+    public BigDecimal getTotalOperationsCosts() {
+        return totalPieceworkCosts.add(totalMachineHourlyCosts).add(totalLaborHourlyCosts);
+    }
+
+    public Map<Long, Map<String, BigDecimal>> getOperationsCosts() {
+        return operationsCosts;
+    }
+
+    public Map<String, BigDecimal> getOperationCosts(final Long technologyOperationComponentId) {
+        return operationsCosts.get(technologyOperationComponentId);
+    }
+
+    public boolean isValid() {
+        return errorMessage == null;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public static Builder builder(final Long technologyId, final BigDecimal quantity) {
+        return new Builder(technologyId, quantity);
+    }
+
+    public static final class Builder {
+
+        private final Long technologyId;
+
+        private final BigDecimal quantity;
+
+        private BigDecimal totalPieceworkCosts = BigDecimal.ZERO;
+
+        private BigDecimal totalMachineHourlyCosts = BigDecimal.ZERO;
+
+        private BigDecimal totalLaborHourlyCosts = BigDecimal.ZERO;
+
+        private final Map<Long, Map<String, BigDecimal>> operationsCosts = Maps.newHashMap();
+
+        private Builder(final Long technologyId, final BigDecimal quantity) {
+            this.technologyId = technologyId;
+            this.quantity = quantity;
+        }
+
+        public Builder totalPieceworkCosts(final BigDecimal totalPieceworkCosts) {
+            this.totalPieceworkCosts = BigDecimalUtils.convertNullToZero(totalPieceworkCosts);
+
+            return this;
+        }
+
+        public Builder totalHourlyCosts(final BigDecimal totalMachineHourlyCosts, final BigDecimal totalLaborHourlyCosts) {
+            this.totalMachineHourlyCosts = BigDecimalUtils.convertNullToZero(totalMachineHourlyCosts);
+            this.totalLaborHourlyCosts = BigDecimalUtils.convertNullToZero(totalLaborHourlyCosts);
+
+            return this;
+        }
+
+        public Builder addOperationCosts(final Long technologyOperationComponentId, final Map<String, BigDecimal> costs) {
+            operationsCosts.put(technologyOperationComponentId, ImmutableMap.copyOf(costs));
+
+            return this;
+        }
+
+        public OperationsCostEstimate build() {
+            return new OperationsCostEstimate(this, null);
+        }
+
+        public OperationsCostEstimate buildFailed(final String errorMessage) {
+            return new OperationsCostEstimate(this, errorMessage);
+        }
+
+    }
+
+}
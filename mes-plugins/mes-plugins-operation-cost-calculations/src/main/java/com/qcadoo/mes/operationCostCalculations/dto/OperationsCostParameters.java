@@ -0,0 +1,143 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationCostCalculations.dto;
+
+import java.math.BigDecimal;
+
+import com.google.common.base.Preconditions;
+import com.qcadoo.mes.costNormsForOperation.constants.CalculateOperationCostMode;
+import com.qcadoo.model.api.BigDecimalUtils;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Settings of an operations cost estimation, the same as the ones taken from cost calculation entity.
+ */
+public final class OperationsCostParameters {
+
+    private final CalculateOperationCostMode calculateOperationCostMode;
+
+    private final BigDecimal productionCostMargin;
+
+    private final boolean includeTPZ;
+
+    private final boolean includeAdditionalTime;
+
+    private final Entity productionLine;
+
+    private final boolean hourlyCostFromOperation;
+
+    private OperationsCostParameters(final Builder builder) {
+        this.calculateOperationCostMode = builder.calculateOperationCostMode;
+        this.productionCostMargin = builder.productionCostMargin;
+        this.includeTPZ = builder.includeTPZ;
+        this.includeAdditionalTime = builder.includeAdditionalTime;
+        this.productionLine = builder.productionLine;
+        this.hourlyCostFromOperation = builder.hourlyCostFromOperation;
+    }
+
+    public CalculateOperationCostMode getCalculateOperationCostMode() {
+        return calculateOperationCostMode;
+    }
+
+    public BigDecimal getProductionCostMargin() {
+        return productionCostMargin;
+    }
+
+    public boolean isIncludeTPZ() {
+        return includeTPZ;
+    }
+
+    public boolean isIncludeAdditionalTime() {
+        return includeAdditionalTime;
+    }
+
+    public Entity getProductionLine() {
+        return productionLine;
+    }
+
+    public boolean isHourlyCostFromOperation() {
+        return hourlyCostFromOperation;
+    }
+
+    public static Builder builder(final CalculateOperationCostMode calculateOperationCostMode) {
+        return new Builder(calculateOperationCostMode);
+    }
+
+    public static final class Builder {
+
+        private final CalculateOperationCostMode calculateOperationCostMode;
+
+        private BigDecimal productionCostMargin = BigDecimal.ZERO;
+
+        private boolean includeTPZ;
+
+        private boolean includeAdditionalTime;
+
+        private Entity productionLine;
+
+        private boolean hourlyCostFromOperation = true;
+
+        private Builder(final CalculateOperationCostMode calculateOperationCostMode) {
+            Preconditions.checkNotNull(calculateOperationCostMode, "Missing calculate operation cost mode!");
+
+            this.calculateOperationCostMode = calculateOperationCostMode;
+        }
+
+        public Builder productionCostMargin(final BigDecimal productionCostMargin) {
+            this.productionCostMargin = BigDecimalUtils.convertNullToZero(productionCostMargin);
+
+            return this;
+        }
+
+        public Builder includeTPZ(final boolean includeTPZ) {
+            this.includeTPZ = includeTPZ;
+
+            return this;
+        }
+
+        public Builder includeAdditionalTime(final boolean includeAdditionalTime) {
+            this.includeAdditionalTime = includeAdditionalTime;
+
+            return this;
+        }
+
+        public Builder productionLine(final Entity productionLine) {
+            this.productionLine = productionLine;
+
+            return this;
+        }
+
+        public Builder hourlyCostFromOperation(final boolean hourlyCostFromOperation) {
+            this.hourlyCostFromOperation = hourlyCostFromOperation;
+
+            return this;
+        }
+
+        public OperationsCostParameters build() {
+            return new OperationsCostParameters(this);
+        }
+
+    }
+
+}
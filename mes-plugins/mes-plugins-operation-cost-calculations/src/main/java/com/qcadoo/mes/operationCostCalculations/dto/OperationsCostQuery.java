@@ -0,0 +1,55 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationCostCalculations.dto;
+
+import java.math.BigDecimal;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Technology and quantity to be priced by {@link com.qcadoo.mes.operationCostCalculations.OperationsCostBatchService}.
+ */
+public final class OperationsCostQuery {
+
+    private final Long technologyId;
+
+    private final BigDecimal quantity;
+
+    public OperationsCostQuery(final Long technologyId, final BigDecimal quantity) {
+        Preconditions.checkNotNull(technologyId, "Missing technology id!");
+        Preconditions.checkNotNull(quantity, "Missing quantity!");
+
+        this.technologyId = technologyId;
+        this.quantity = quantity;
+    }
+
+    public Long getTechnologyId() {
+        return technologyId;
+    }
+
+    public BigDecimal getQuantity() {
+        return quantity;
+    }
+
+}
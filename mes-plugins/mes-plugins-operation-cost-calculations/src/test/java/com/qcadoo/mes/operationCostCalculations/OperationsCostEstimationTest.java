@@ -0,0 +1,170 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationCostCalculations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.costNormsForOperation.constants.CalculateOperationCostMode;
+import com.qcadoo.mes.costNormsForOperation.constants.CalculationOperationComponentFields;
+import com.qcadoo.mes.operationCostCalculations.dto.OperationsCostEstimate;
+import com.qcadoo.mes.operationCostCalculations.dto.OperationsCostParameters;
+import com.qcadoo.mes.technologies.ProductQuantitiesService;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.api.EntityTreeNode;
+import com.qcadoo.model.api.NumberService;
+
+public class OperationsCostEstimationTest {
+
+    private static final Long L_TECHNOLOGY_ID = 1L;
+
+    private static final Long L_ROOT_ID = 11L;
+
+    private static final Long L_CHILD_ID = 12L;
+
+    private OperationsCostCalculationService operationsCostCalculationService;
+
+    @Mock
+    private NumberService numberService;
+
+    @Mock
+    private ProductQuantitiesService productQuantitiesService;
+
+    @Mock
+    private Entity technology;
+
+    @Mock
+    private EntityTree operationComponents;
+
+    @Mock
+    private EntityTreeNode root, child;
+
+    @Mock
+    private DataDefinition technologyOperationComponentDD;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        operationsCostCalculationService = new OperationsCostCalculationServiceImpl();
+
+        setField(operationsCostCalculationService, "numberService", numberService);
+        setField(operationsCostCalculationService, "productQuantitiesService", productQuantitiesService);
+
+        given(numberService.getMathContext()).willReturn(MathContext.DECIMAL64);
+        given(numberService.setScale(any(BigDecimal.class))).willAnswer(
+                invocation -> ((BigDecimal) invocation.getArguments()[0]).setScale(5, BigDecimal.ROUND_HALF_EVEN));
+
+        given(technology.getId()).willReturn(L_TECHNOLOGY_ID);
+        given(technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS)).willReturn(operationComponents);
+        given(operationComponents.getRoot()).willReturn(root);
+
+        stubOperationComponent(root, L_ROOT_ID, new BigDecimal("10"), BigDecimal.ONE);
+        stubOperationComponent(child, L_CHILD_ID, new BigDecimal("6"), new BigDecimal("2"));
+
+        given(root.getChildren()).willReturn(Lists.newArrayList(child));
+        given(child.getChildren()).willReturn(Collections.<EntityTreeNode> emptyList());
+
+        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+        operationRuns.put(L_ROOT_ID, new BigDecimal("5"));
+        operationRuns.put(L_CHILD_ID, new BigDecimal("4"));
+
+        given(productQuantitiesService.getProductComponentQuantities(technology, new BigDecimal("5"))).willReturn(
+                new ProductQuantitiesHolder(new OperationProductComponentWithQuantityContainer(), operationRuns));
+    }
+
+    private void stubOperationComponent(final EntityTreeNode operationComponent, final Long id, final BigDecimal pieceworkCost,
+            final BigDecimal numberOfOperations) {
+        given(operationComponent.getId()).willReturn(id);
+        given(operationComponent.getDataDefinition()).willReturn(technologyOperationComponentDD);
+        given(operationComponent.getStringField("entityType")).willReturn("operation");
+        given(operationComponent.getDecimalField(CalculationOperationComponentFields.PIECEWORK_COST)).willReturn(pieceworkCost);
+        given(operationComponent.getField(CalculationOperationComponentFields.NUMBER_OF_OPERATIONS)).willReturn(
+                numberOfOperations);
+        given(technologyOperationComponentDD.getName()).willReturn("technologyOperationComponent");
+    }
+
+    @Test
+    public void shouldEstimatePieceworkCostsWithoutSavingOperationComponents() {
+        // given
+        OperationsCostParameters parameters = OperationsCostParameters.builder(CalculateOperationCostMode.PIECEWORK)
+                .productionCostMargin(new BigDecimal("10")).build();
+
+        // when
+        OperationsCostEstimate estimate = operationsCostCalculationService.estimateOperationsCost(technology,
+                new BigDecimal("5"), parameters);
+
+        // then
+        assertTrue(estimate.isValid());
+        assertEquals(new BigDecimal("62.00000"), estimate.getTotalPieceworkCosts());
+        assertEquals(new BigDecimal("12.00000"),
+                estimate.getOperationCosts(L_CHILD_ID).get(CalculationOperationComponentFields.OPERATION_COST));
+        assertEquals(new BigDecimal("55.00000"),
+                estimate.getOperationCosts(L_ROOT_ID).get(CalculationOperationComponentFields.TOTAL_OPERATION_COST));
+
+        verify(technologyOperationComponentDD, never()).save(any(Entity.class));
+        verify(root, never()).setField(eq(CalculationOperationComponentFields.OPERATION_COST), any());
+    }
+
+    @Test
+    public void shouldReturnFailedEstimateForTechnologyWithoutOperations() {
+        // given
+        given(operationComponents.isEmpty()).willReturn(true);
+
+        OperationsCostParameters parameters = OperationsCostParameters.builder(CalculateOperationCostMode.PIECEWORK).build();
+
+        // when
+        OperationsCostEstimate estimate = operationsCostCalculationService.estimateOperationsCost(technology,
+                new BigDecimal("5"), parameters);
+
+        // then
+        assertFalse(estimate.isValid());
+        assertEquals("costCalculation.lackOfTreeComponents", estimate.getErrorMessage());
+    }
+
+}
@@ -36,6 +36,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -44,10 +46,9 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.qcadoo.localization.api.utils.DateUtils;
-import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.technologies.ProductQuantitiesService;
-import com.qcadoo.mes.technologies.ProductionLinesService;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentEntityType;
@@ -64,6 +65,12 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
 
     private static final String L_ORDER = "order";
 
+    private static final String L_OPERATION_OFF_SET = "operationOffSet";
+
+    private static final String L_EFFECTIVE_OPERATION_REALIZATION_TIME = "effectiveOperationRealizationTime";
+
+    private static final String L_DEFAULT_QUANTITY = "56";
+
     @Autowired
     private ProductQuantitiesService productQuantitiesService;
 
@@ -71,10 +78,7 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
     private NumberService numberService;
 
     @Autowired
-    private ProductionLinesService productionLinesService;
-
-    @Autowired
-    private ParameterService parameterService;
+    private WorkstationTypesCountCache workstationTypesCountCache;
 
     @Override
     public Object setDateToField(final Date date) {
@@ -152,28 +156,30 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
         productQuantitiesService
                 .getProductComponentQuantities(technology, plannedQuantity, operationRunsFromProductionQuantities);
 
+        OperationTimesEvaluation evaluation = new OperationTimesEvaluation(operationRunsFromProductionQuantities,
+                productionLine, null);
+
         for (Entity operationComponent : operationComponents) {
-            evaluateTimesConsideringOperationCanBeReferencedTechnology(operationDurations, operationComponent, includeTpz,
-                    includeAdditionalTime, operationRunsFromProductionQuantities, productionLine, maxForWorkstation);
+            evaluateTimesConsideringOperationCanBeReferencedTechnology(evaluation, operationDurations, operationComponent,
+                    includeTpz, includeAdditionalTime, maxForWorkstation);
         }
 
         return operationDurations;
     }
 
-    private void evaluateTimesConsideringOperationCanBeReferencedTechnology(final Map<Entity, Integer> operationDurations,
-            final Entity operationComponent, final boolean includeTpz, final boolean includeAdditionalTime,
-            final Map<Long, BigDecimal> operationRuns, final Entity productionLine, final boolean maxForWorkstation) {
+    private void evaluateTimesConsideringOperationCanBeReferencedTechnology(final OperationTimesEvaluation evaluation,
+            final Map<Entity, Integer> operationDurations, final Entity operationComponent, final boolean includeTpz,
+            final boolean includeAdditionalTime, final boolean maxForWorkstation) {
         String entityType = operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE);
 
         if (TechnologyOperationComponentEntityType.REFERENCE_TECHNOLOGY.getStringValue().equals(entityType)) {
-            for (Entity operComp : operationComponent.getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY)
-                    .getTreeField(TechnologyFields.OPERATION_COMPONENTS)) {
-                evaluateTimesConsideringOperationCanBeReferencedTechnology(operationDurations, operComp, includeTpz,
-                        includeAdditionalTime, operationRuns, productionLine, maxForWorkstation);
+            for (Entity operComp : evaluation.getReferencedOperationComponents(operationComponent)) {
+                evaluateTimesConsideringOperationCanBeReferencedTechnology(evaluation, operationDurations, operComp, includeTpz,
+                        includeAdditionalTime, maxForWorkstation);
             }
         } else {
-            int duration = evaluateSingleOperationTime(operationComponent, includeTpz, includeAdditionalTime, operationRuns,
-                    productionLine, maxForWorkstation);
+            int duration = evaluation.evaluateSingleOperationTime(operationComponent, includeTpz, includeAdditionalTime,
+                    maxForWorkstation);
 
             operationDurations.put(operationComponent, duration);
 
@@ -183,65 +189,23 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
     private int evaluateOperationTime(final Entity operationComponent, final boolean includeTpz,
             final boolean includeAdditionalTime, final Map<Long, BigDecimal> operationRuns, final Entity productionLine,
             final boolean maxForWorkstation, final OperationProductComponentWithQuantityContainer productComponentQuantities) {
-        String entityType = operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE);
-
-        if (TechnologyOperationComponentEntityType.REFERENCE_TECHNOLOGY.getStringValue().equals(entityType)) {
-            EntityTreeNode actualOperationComponent = operationComponent
-                    .getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY)
-                    .getTreeField(TechnologyFields.OPERATION_COMPONENTS).getRoot();
-
-            return evaluateOperationTime(actualOperationComponent, includeTpz, includeAdditionalTime, operationRuns,
-                    productionLine, maxForWorkstation, productComponentQuantities);
-        } else if (TechnologyOperationComponentEntityType.OPERATION.getStringValue().equals(entityType)) {
-            int operationTime = evaluateSingleOperationTime(operationComponent, includeTpz, includeAdditionalTime, operationRuns,
-                    productionLine, maxForWorkstation);
-            int offset = 0;
-
-            List<Entity> childs = Lists.newArrayList(operationComponent.getHasManyField("children"));
-            for (Entity child : childs) {
-                int childTime = evaluateOperationTime(child, includeTpz, includeAdditionalTime, operationRuns, productionLine,
-                        maxForWorkstation, productComponentQuantities);
-
-                if ("02specified".equals(child.getStringField("nextOperationAfterProducedType"))) {
-
-                    int childTimeTotal = evaluateSingleOperationTime(child, includeTpz, includeAdditionalTime, operationRuns,
-                            productionLine, true);
-                    int childTimeForQuantity = evaluateSingleOperationTimeIncludedNextOperationAfterProducedQuantity(child,
-                            includeTpz, false, operationRuns, productionLine, true, productComponentQuantities);
-
-                    int difference = childTimeTotal - childTimeForQuantity;
-                    childTime -= difference;
-                }
-
-                if (childTime > offset) {
-                    offset = childTime;
-                }
-            }
-
-            if (TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT.equals(operationComponent.getDataDefinition()
-                    .getName())) {
-                Entity techOperCompTimeCalculation = operationComponent
-                        .getBelongsToField(TechnologyOperationComponentFieldsTNFO.TECH_OPER_COMP_TIME_CALCULATION);
+        OperationTimesEvaluation evaluation = new OperationTimesEvaluation(operationRuns, productionLine,
+                productComponentQuantities);
 
-                if (techOperCompTimeCalculation != null) {
-                    techOperCompTimeCalculation.setField("operationOffSet", offset);
-                    techOperCompTimeCalculation.setField("effectiveOperationRealizationTime", operationTime);
+        int operationTime = evaluation.evaluateOperationTime(operationComponent, includeTpz, includeAdditionalTime,
+                maxForWorkstation);
 
-                    techOperCompTimeCalculation.getDataDefinition().save(techOperCompTimeCalculation);
-                }
-            }
+        evaluation.saveTimeCalculations();
 
-            return offset + operationTime;
-        }
-
-        throw new IllegalStateException("entityType has to be either operation or referenceTechnology");
+        return operationTime;
     }
 
-    private Integer retrieveWorkstationTypesCount(final Entity operationComponent, final Entity productionLine) {
+    private Integer retrieveWorkstationTypesCount(final Entity operationComponent, final Entity productionLine,
+            final boolean workstationsQuantityFromProductionLine) {
         if (StringUtils.isEmpty(operationComponent.getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY)
                 .getStringField(TechnologyFields.TECHNOLOGY_TYPE))) {
-            if (parameterService.getParameter().getBooleanField("workstationsQuantityFromProductionLine")) {
-                return productionLinesService.getWorkstationTypesCount(operationComponent, productionLine);
+            if (workstationsQuantityFromProductionLine) {
+                return workstationTypesCountCache.getWorkstationTypesCount(operationComponent, productionLine);
             } else {
                 return getIntegerValue(operationComponent
                         .getIntegerField(TechnologyOperationComponentFields.QUANTITY_OF_WORKSTATIONS));
@@ -254,68 +218,36 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
 
     }
 
+    private boolean isWorkstationsQuantityFromProductionLine() {
+        return workstationTypesCountCache.isWorkstationsQuantityFromProductionLine();
+    }
+
     @Override
-    public int evaluateSingleOperationTime(Entity operationComponent, final boolean includeTpz,
+    public int evaluateSingleOperationTime(final Entity operationComponent, final boolean includeTpz,
             final boolean includeAdditionalTime, final Map<Long, BigDecimal> operationRuns, final Entity productionLine,
             final boolean maxForWorkstation) {
-        operationComponent = operationComponent.getDataDefinition().get(operationComponent.getId());
-
-        BigDecimal cycles = operationRuns.get(operationComponent.getId());
-        if (cycles == null) {
-            Map<Long, BigDecimal> operationRunsFromProductionQuantities = Maps.newHashMap();
-
-            OperationProductComponentWithQuantityContainer productComponentQuantities = productQuantitiesService
-                    .getProductComponentQuantities(operationComponent
-                            .getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY),
-                            new BigDecimal("56", numberService.getMathContext()), operationRunsFromProductionQuantities);
-            cycles = operationRunsFromProductionQuantities.get(operationComponent.getId());
-        }
-        return evaluateOperationDurationOutOfCycles(cycles, operationComponent, productionLine, maxForWorkstation, includeTpz,
-                includeAdditionalTime);
+        return new OperationTimesEvaluation(operationRuns, productionLine, null).evaluateSingleOperationTime(operationComponent,
+                includeTpz, includeAdditionalTime, maxForWorkstation);
     }
 
     @Override
-    public int evaluateSingleOperationTimeIncludedNextOperationAfterProducedQuantity(Entity operationComponent,
+    public int evaluateSingleOperationTimeIncludedNextOperationAfterProducedQuantity(final Entity operationComponent,
             final boolean includeTpz, final boolean includeAdditionalTime, final Map<Long, BigDecimal> operationRuns,
             final Entity productionLine, final boolean maxForWorkstation,
             final OperationProductComponentWithQuantityContainer productComponentQuantities) {
-        operationComponent = operationComponent.getDataDefinition().get(operationComponent.getId());
-        BigDecimal cycles = BigDecimal.ONE;
-        BigDecimal nextOperationAfterProducedQuantity = BigDecimalUtils.convertNullToZero(operationComponent
-                .getDecimalField("nextOperationAfterProducedQuantity"));
-        BigDecimal productComponentQuantity = productComponentQuantities.get(getOutputProduct(operationComponent));
-        Entity technologyOperationComponent = getTechnologyOperationComponent(operationComponent);
-
-        if (nextOperationAfterProducedQuantity.compareTo(productComponentQuantity) != 1) {
-            cycles = getQuantityCyclesNeededToProducedNextOperationAfterProducedQuantity(technologyOperationComponent,
-                    nextOperationAfterProducedQuantity);
-        } else {
-            cycles = operationRuns.get(technologyOperationComponent.getId());
-        }
-        return evaluateOperationDurationOutOfCycles(cycles, operationComponent, productionLine, maxForWorkstation, includeTpz,
-                includeAdditionalTime);
-    }
-
-    private Entity getTechnologyOperationComponent(final Entity operationComponent) {
-        return operationComponent;
-    }
-
-    private Entity getOutputProduct(final Entity operationComponent) {
-        return productQuantitiesService.getOutputProductsFromOperationComponent(operationComponent);
+        return new OperationTimesEvaluation(operationRuns, productionLine, productComponentQuantities)
+                .evaluateSingleOperationTimeIncludedNextOperationAfterProducedQuantity(operationComponent, includeTpz,
+                        includeAdditionalTime, maxForWorkstation);
     }
 
     private BigDecimal getQuantityCyclesNeededToProducedNextOperationAfterProducedQuantity(final Entity operationComponent,
-            final BigDecimal nextOperationAfterProducedQuantity) {
+            final BigDecimal nextOperationAfterProducedQuantity, final Map<Long, BigDecimal> operationRunsForOneMainProduct,
+            final OperationProductComponentWithQuantityContainer productQuantitiesForOneMainProduct,
+            final Entity outputProduct) {
         MathContext mc = numberService.getMathContext();
-        Entity technology = operationComponent.getBelongsToField("technology");
 
-        Map<Long, BigDecimal> operationRunsFromProductionQuantities = Maps.newHashMap();
-
-        OperationProductComponentWithQuantityContainer productQuantities = productQuantitiesService
-                .getProductComponentQuantities(technology, BigDecimal.ONE, operationRunsFromProductionQuantities);
-
-        BigDecimal operationsRunsForOneMainProduct = operationRunsFromProductionQuantities.get(operationComponent.getId());
-        BigDecimal quantityOutputProductProduced = productQuantities.get(getOutputProduct(operationComponent));
+        BigDecimal operationsRunsForOneMainProduct = operationRunsForOneMainProduct.get(operationComponent.getId());
+        BigDecimal quantityOutputProductProduced = productQuantitiesForOneMainProduct.get(outputProduct);
         BigDecimal cycles = operationsRunsForOneMainProduct.multiply(nextOperationAfterProducedQuantity, mc).divide(
                 quantityOutputProductProduced, mc);
 
@@ -326,9 +258,18 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
     public int evaluateOperationDurationOutOfCycles(final BigDecimal cycles, final Entity operationComponent,
             final Entity productionLine, final boolean maxForWorkstation, final boolean includeTpz,
             final boolean includeAdditionalTime) {
+        Integer workstationsCount = retrieveWorkstationTypesCount(operationComponent, productionLine,
+                isWorkstationsQuantityFromProductionLine());
+
+        return evaluateOperationDurationOutOfCycles(cycles, operationComponent, workstationsCount, maxForWorkstation,
+                includeTpz, includeAdditionalTime);
+    }
+
+    private int evaluateOperationDurationOutOfCycles(final BigDecimal cycles, final Entity operationComponent,
+            final Integer workstationsCount, final boolean maxForWorkstation, final boolean includeTpz,
+            final boolean includeAdditionalTime) {
         boolean isTjDivisable = operationComponent.getBooleanField("isTjDivisible");
 
-        Integer workstationsCount = retrieveWorkstationTypesCount(operationComponent, productionLine);
         BigDecimal cyclesPerOperation = cycles;
 
         if (maxForWorkstation) {
@@ -375,4 +316,245 @@ public class OrderRealizationTimeServiceImpl implements OrderRealizationTimeServ
             Entity productionLine) {
         return estimateOperationTimeConsumption(operationComponent, plannedQuantity, true, true, productionLine);
     }
+
+    /**
+     * Single evaluation of operation times for one technology (and technologies referenced by it).
+     *
+     * Everything, which doesn't depend on the visited node's position in the tree, is computed at most once per evaluation:
+     * operation components read from the database, single operation times, workstation counts, output products, product
+     * quantities of technologies and trees of referenced technologies. Time calculation entities are collected while the tree
+     * is traversed and saved at the end, only when their values have changed.
+     */
+    private final class OperationTimesEvaluation {
+
+        private final Map<Long, BigDecimal> operationRuns;
+
+        private final Entity productionLine;
+
+        private final OperationProductComponentWithQuantityContainer productComponentQuantities;
+
+        private final Map<Long, Entity> operationComponents = Maps.newHashMap();
+
+        private final Map<Long, Integer> singleOperationTimes = Maps.newHashMap();
+
+        private final Map<Long, Integer> workstationsCounts = Maps.newHashMap();
+
+        private final Map<Long, Entity> outputProducts = Maps.newHashMap();
+
+        private final Map<Long, Map<Long, BigDecimal>> defaultOperationRunsByTechnology = Maps.newHashMap();
+
+        private final Map<Long, Map<Long, BigDecimal>> operationRunsForOneMainProductByTechnology = Maps.newHashMap();
+
+        private final Map<Long, OperationProductComponentWithQuantityContainer> productQuantitiesForOneMainProductByTechnology = Maps
+                .newHashMap();
+
+        private final Map<Long, List<Entity>> referencedOperationComponents = Maps.newHashMap();
+
+        private final Map<Long, Entity> timeCalculations = Maps.newLinkedHashMap();
+
+        private final Set<Long> changedTimeCalculationsIds = Sets.newHashSet();
+
+        private Boolean workstationsQuantityFromProductionLine;
+
+        private OperationTimesEvaluation(final Map<Long, BigDecimal> operationRuns, final Entity productionLine,
+                final OperationProductComponentWithQuantityContainer productComponentQuantities) {
+            this.operationRuns = operationRuns;
+            this.productionLine = productionLine;
+            this.productComponentQuantities = productComponentQuantities;
+        }
+
+        private int evaluateOperationTime(final Entity operationComponent, final boolean includeTpz,
+                final boolean includeAdditionalTime, final boolean maxForWorkstation) {
+            String entityType = operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE);
+
+            if (TechnologyOperationComponentEntityType.REFERENCE_TECHNOLOGY.getStringValue().equals(entityType)) {
+                EntityTreeNode actualOperationComponent = operationComponent
+                        .getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY)
+                        .getTreeField(TechnologyFields.OPERATION_COMPONENTS).getRoot();
+
+                return evaluateOperationTime(actualOperationComponent, includeTpz, includeAdditionalTime, maxForWorkstation);
+            } else if (TechnologyOperationComponentEntityType.OPERATION.getStringValue().equals(entityType)) {
+                int operationTime = evaluateSingleOperationTime(operationComponent, includeTpz, includeAdditionalTime,
+                        maxForWorkstation);
+                int offset = 0;
+
+                List<Entity> childs = Lists.newArrayList(operationComponent.getHasManyField("children"));
+                for (Entity child : childs) {
+                    int childTime = evaluateOperationTime(child, includeTpz, includeAdditionalTime, maxForWorkstation);
+
+                    if ("02specified".equals(child.getStringField("nextOperationAfterProducedType"))) {
+
+                        int childTimeTotal = evaluateSingleOperationTime(child, includeTpz, includeAdditionalTime, true);
+                        int childTimeForQuantity = evaluateSingleOperationTimeIncludedNextOperationAfterProducedQuantity(child,
+                                includeTpz, false, true);
+
+                        int difference = childTimeTotal - childTimeForQuantity;
+                        childTime -= difference;
+                    }
+
+                    if (childTime > offset) {
+                        offset = childTime;
+                    }
+                }
+
+                if (TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT.equals(operationComponent.getDataDefinition()
+                        .getName())) {
+                    Entity techOperCompTimeCalculation = operationComponent
+                            .getBelongsToField(TechnologyOperationComponentFieldsTNFO.TECH_OPER_COMP_TIME_CALCULATION);
+
+                    if (techOperCompTimeCalculation != null) {
+                        setTimeCalculation(techOperCompTimeCalculation, offset, operationTime);
+                    }
+                }
+
+                return offset + operationTime;
+            }
+
+            throw new IllegalStateException("entityType has to be either operation or referenceTechnology");
+        }
+
+        private List<Entity> getReferencedOperationComponents(final Entity operationComponent) {
+            Entity referenceTechnology = operationComponent
+                    .getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY);
+
+            return referencedOperationComponents.computeIfAbsent(referenceTechnology.getId(),
+                    id -> Lists.newArrayList(referenceTechnology.getTreeField(TechnologyFields.OPERATION_COMPONENTS)));
+        }
+
+        private int evaluateSingleOperationTime(final Entity operationComponent, final boolean includeTpz,
+                final boolean includeAdditionalTime, final boolean maxForWorkstation) {
+            Long key = singleOperationTimeKey(operationComponent.getId(), includeTpz, includeAdditionalTime, maxForWorkstation);
+
+            Integer operationTime = singleOperationTimes.get(key);
+
+            if (operationTime == null) {
+                Entity operationComponentFromDB = getOperationComponent(operationComponent);
+
+                BigDecimal cycles = operationRuns.get(operationComponentFromDB.getId());
+                if (cycles == null) {
+                    cycles = getDefaultOperationRuns(operationComponentFromDB).get(operationComponentFromDB.getId());
+                }
+
+                operationTime = evaluateOperationDurationOutOfCycles(cycles, operationComponentFromDB,
+                        getWorkstationsCount(operationComponentFromDB), maxForWorkstation, includeTpz, includeAdditionalTime);
+
+                singleOperationTimes.put(key, operationTime);
+            }
+
+            return operationTime;
+        }
+
+        private int evaluateSingleOperationTimeIncludedNextOperationAfterProducedQuantity(final Entity operationComponent,
+                final boolean includeTpz, final boolean includeAdditionalTime, final boolean maxForWorkstation) {
+            Entity operationComponentFromDB = getOperationComponent(operationComponent);
+            BigDecimal cycles;
+            BigDecimal nextOperationAfterProducedQuantity = BigDecimalUtils.convertNullToZero(operationComponentFromDB
+                    .getDecimalField("nextOperationAfterProducedQuantity"));
+            Entity outputProduct = getOutputProduct(operationComponentFromDB);
+            BigDecimal productComponentQuantity = productComponentQuantities.get(outputProduct);
+
+            if (nextOperationAfterProducedQuantity.compareTo(productComponentQuantity) != 1) {
+                Long technologyId = operationComponentFromDB.getBelongsToField(TECHNOLOGY).getId();
+
+                Map<Long, BigDecimal> operationRunsForOneMainProduct = getOperationRunsForOneMainProduct(
+                        operationComponentFromDB);
+                OperationProductComponentWithQuantityContainer productQuantitiesForOneMainProduct =
+                        productQuantitiesForOneMainProductByTechnology.get(technologyId);
+
+                cycles = getQuantityCyclesNeededToProducedNextOperationAfterProducedQuantity(operationComponentFromDB,
+                        nextOperationAfterProducedQuantity, operationRunsForOneMainProduct, productQuantitiesForOneMainProduct,
+                        outputProduct);
+            } else {
+                cycles = operationRuns.get(operationComponentFromDB.getId());
+            }
+
+            return evaluateOperationDurationOutOfCycles(cycles, operationComponentFromDB,
+                    getWorkstationsCount(operationComponentFromDB), maxForWorkstation, includeTpz, includeAdditionalTime);
+        }
+
+        private Long singleOperationTimeKey(final Long operationComponentId, final boolean includeTpz,
+                final boolean includeAdditionalTime, final boolean maxForWorkstation) {
+            return (operationComponentId << 3) | (includeTpz ? 4L : 0L) | (includeAdditionalTime ? 2L : 0L)
+                    | (maxForWorkstation ? 1L : 0L);
+        }
+
+        private Entity getOperationComponent(final Entity operationComponent) {
+            return operationComponents.computeIfAbsent(operationComponent.getId(),
+                    id -> operationComponent.getDataDefinition().get(id));
+        }
+
+        private Integer getWorkstationsCount(final Entity operationComponent) {
+            return workstationsCounts.computeIfAbsent(operationComponent.getId(),
+                    id -> retrieveWorkstationTypesCount(operationComponent, productionLine,
+                            isWorkstationsQuantityFromProductionLine()));
+        }
+
+        private boolean isWorkstationsQuantityFromProductionLine() {
+            if (workstationsQuantityFromProductionLine == null) {
+                workstationsQuantityFromProductionLine = OrderRealizationTimeServiceImpl.this
+                        .isWorkstationsQuantityFromProductionLine();
+            }
+
+            return workstationsQuantityFromProductionLine;
+        }
+
+        private Entity getOutputProduct(final Entity operationComponent) {
+            return outputProducts.computeIfAbsent(operationComponent.getId(),
+                    id -> productQuantitiesService.getOutputProductsFromOperationComponent(operationComponent));
+        }
+
+        private Map<Long, BigDecimal> getDefaultOperationRuns(final Entity operationComponent) {
+            Entity technology = operationComponent.getBelongsToField(TECHNOLOGY);
+
+            return defaultOperationRunsByTechnology.computeIfAbsent(technology.getId(), id -> {
+                Map<Long, BigDecimal> operationRunsFromProductionQuantities = Maps.newHashMap();
+
+                productQuantitiesService.getProductComponentQuantities(technology,
+                        new BigDecimal(L_DEFAULT_QUANTITY, numberService.getMathContext()),
+                        operationRunsFromProductionQuantities);
+
+                return operationRunsFromProductionQuantities;
+            });
+        }
+
+        private Map<Long, BigDecimal> getOperationRunsForOneMainProduct(final Entity operationComponent) {
+            Entity technology = operationComponent.getBelongsToField(TECHNOLOGY);
+
+            return operationRunsForOneMainProductByTechnology.computeIfAbsent(technology.getId(), id -> {
+                Map<Long, BigDecimal> operationRunsFromProductionQuantities = Maps.newHashMap();
+
+                productQuantitiesForOneMainProductByTechnology.put(id, productQuantitiesService.getProductComponentQuantities(
+                        technology, BigDecimal.ONE, operationRunsFromProductionQuantities));
+
+                return operationRunsFromProductionQuantities;
+            });
+        }
+
+        private void setTimeCalculation(final Entity techOperCompTimeCalculation, final int offset, final int operationTime) {
+            Entity timeCalculation = timeCalculations.computeIfAbsent(techOperCompTimeCalculation.getId(),
+                    id -> techOperCompTimeCalculation);
+
+            if (!Objects.equals(timeCalculation.getField(L_OPERATION_OFF_SET), offset)
+                    || !Objects.equals(timeCalculation.getField(L_EFFECTIVE_OPERATION_REALIZATION_TIME), operationTime)) {
+                changedTimeCalculationsIds.add(timeCalculation.getId());
+            }
+
+            timeCalculation.setField(L_OPERATION_OFF_SET, offset);
+            timeCalculation.setField(L_EFFECTIVE_OPERATION_REALIZATION_TIME, operationTime);
+        }
+
+        /**
+         * Saves only time calculations whose values were changed by the evaluation, through the data definition, so entities
+         * loaded in the current session and saved later keep the same values as the database.
+         */
+        private void saveTimeCalculations() {
+            for (Long timeCalculationId : changedTimeCalculationsIds) {
+                Entity timeCalculation = timeCalculations.get(timeCalculationId);
+
+                timeCalculation.getDataDefinition().save(timeCalculation);
+            }
+        }
+
+    }
+
 }
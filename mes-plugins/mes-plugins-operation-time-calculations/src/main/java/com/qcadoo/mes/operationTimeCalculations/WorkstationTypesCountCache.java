@@ -0,0 +1,144 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationTimeCalculations;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.basic.cache.TransactionalCache;
+import com.qcadoo.mes.productionLines.constants.ProductionLineFields;
+import com.qcadoo.mes.productionLines.constants.WorkstationTypeComponentFields;
+import com.qcadoo.mes.technologies.ProductionLinesService;
+import com.qcadoo.mes.technologies.constants.OperationFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Cache of workstation type counts of production lines, keyed by production line id, and of the
+ * workstationsQuantityFromProductionLine parameter, so that scheduling many orders on the same line doesn't read them for
+ * every operation component.
+ *
+ * Entries are removed by production line, workstation type component and parameter hooks, see {@link TransactionalCache} for
+ * how invalidation interacts with the current transaction.
+ */
+@Service
+public class WorkstationTypesCountCache {
+
+    private static final String L_WORKSTATIONS_QUANTITY_FROM_PRODUCTION_LINE = "workstationsQuantityFromProductionLine";
+
+    private static final int MAX_SIZE = 1000;
+
+    @Autowired
+    private ParameterService parameterService;
+
+    @Autowired
+    private ProductionLinesService productionLinesService;
+
+    private final TransactionalCache<Long, ProductionLineWorkstationTypes> productionLines = new TransactionalCache<>(MAX_SIZE);
+
+    private final TransactionalCache<String, Boolean> parameters = new TransactionalCache<>(1);
+
+    public boolean isWorkstationsQuantityFromProductionLine() {
+        return parameters.get(L_WORKSTATIONS_QUANTITY_FROM_PRODUCTION_LINE, this::readWorkstationsQuantityFromProductionLine);
+    }
+
+    private boolean readWorkstationsQuantityFromProductionLine() {
+        return parameterService.getParameter().getBooleanField(L_WORKSTATIONS_QUANTITY_FROM_PRODUCTION_LINE);
+    }
+
+    public Integer getWorkstationTypesCount(final Entity operationComponent, final Entity productionLine) {
+        Long productionLineId = productionLine.getId();
+
+        if (productionLineId == null) {
+            return productionLinesService.getWorkstationTypesCount(operationComponent, productionLine);
+        }
+
+        ProductionLineWorkstationTypes workstationTypes = productionLines.get(productionLineId,
+                () -> ProductionLineWorkstationTypes.read(productionLine));
+
+        Entity workstationType = operationComponent.getBelongsToField(TechnologyOperationComponentFields.OPERATION)
+                .getBelongsToField(OperationFields.WORKSTATION_TYPE);
+
+        return workstationTypes.getCount(workstationType);
+    }
+
+    public void invalidateProductionLine(final Entity productionLine) {
+        if (productionLine != null && productionLine.getId() != null) {
+            invalidateProductionLine(productionLine.getId());
+        }
+    }
+
+    public void invalidateProductionLine(final Long productionLineId) {
+        productionLines.invalidate(productionLineId);
+    }
+
+    public void invalidateParameter() {
+        parameters.invalidateAll();
+    }
+
+    private static final class ProductionLineWorkstationTypes {
+
+        private final Map<Long, Integer> quantities;
+
+        private final Integer quantityForOtherWorkstationTypes;
+
+        private ProductionLineWorkstationTypes(final Map<Long, Integer> quantities,
+                final Integer quantityForOtherWorkstationTypes) {
+            this.quantities = quantities;
+            this.quantityForOtherWorkstationTypes = quantityForOtherWorkstationTypes;
+        }
+
+        private static ProductionLineWorkstationTypes read(final Entity productionLine) {
+            Map<Long, Integer> quantities = Maps.newHashMap();
+
+            for (Entity workstationTypeComponent : productionLine
+                    .getHasManyField(ProductionLineFields.WORKSTATION_TYPE_COMPONENTS)) {
+                Long workstationTypeId = workstationTypeComponent.getBelongsToField(
+                        WorkstationTypeComponentFields.WORKSTATIONTYPE).getId();
+
+                if (!quantities.containsKey(workstationTypeId)) {
+                    quantities.put(workstationTypeId,
+                            (Integer) workstationTypeComponent.getField(WorkstationTypeComponentFields.QUANTITY));
+                }
+            }
+
+            return new ProductionLineWorkstationTypes(quantities,
+                    productionLine.getIntegerField(ProductionLineFields.QUANTITY_FOR_OTHER_WORKSTATION_TYPES));
+        }
+
+        private Integer getCount(final Entity workstationType) {
+            if (workstationType != null && quantities.containsKey(workstationType.getId())) {
+                return quantities.get(workstationType.getId());
+            }
+
+            return quantityForOtherWorkstationTypes;
+        }
+
+    }
+
+}
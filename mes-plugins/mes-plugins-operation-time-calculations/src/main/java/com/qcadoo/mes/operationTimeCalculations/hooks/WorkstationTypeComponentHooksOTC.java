@@ -0,0 +1,65 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationTimeCalculations.hooks;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.operationTimeCalculations.WorkstationTypesCountCache;
+import com.qcadoo.mes.productionLines.constants.WorkstationTypeComponentFields;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+
+@Service
+public class WorkstationTypeComponentHooksOTC {
+
+    @Autowired
+    private WorkstationTypesCountCache workstationTypesCountCache;
+
+    public void onSave(final DataDefinition workstationTypeComponentDD, final Entity workstationTypeComponent) {
+        invalidateProductionLine(workstationTypeComponentDD, workstationTypeComponent);
+    }
+
+    public boolean onDelete(final DataDefinition workstationTypeComponentDD, final Entity workstationTypeComponent) {
+        invalidateProductionLine(workstationTypeComponentDD, workstationTypeComponent);
+
+        return true;
+    }
+
+    private void invalidateProductionLine(final DataDefinition workstationTypeComponentDD,
+            final Entity workstationTypeComponent) {
+        workstationTypesCountCache.invalidateProductionLine(workstationTypeComponent
+                .getBelongsToField(WorkstationTypeComponentFields.PRODUCTIONLINE));
+
+        if (workstationTypeComponent.getId() != null) {
+            Entity workstationTypeComponentFromDB = workstationTypeComponentDD.get(workstationTypeComponent.getId());
+
+            if (workstationTypeComponentFromDB != null) {
+                workstationTypesCountCache.invalidateProductionLine(workstationTypeComponentFromDB
+                        .getBelongsToField(WorkstationTypeComponentFields.PRODUCTIONLINE));
+            }
+        }
+    }
+
+}
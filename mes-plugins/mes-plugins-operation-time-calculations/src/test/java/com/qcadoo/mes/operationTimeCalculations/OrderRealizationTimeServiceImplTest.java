@@ -44,7 +44,6 @@ import org.mockito.MockitoAnnotations;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import com.qcadoo.mes.technologies.ProductQuantitiesService;
-import com.qcadoo.mes.technologies.ProductionLinesService;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityList;
@@ -71,7 +70,7 @@ public class OrderRealizationTimeServiceImplTest {
     private ProductQuantitiesService productQuantitiesService;
 
     @Mock
-    private ProductionLinesService productionLinesService;
+    private WorkstationTypesCountCache workstationTypesCountCache;
 
     @Mock
     private NumberService numberService;
@@ -141,13 +140,13 @@ public class OrderRealizationTimeServiceImplTest {
         ReflectionTestUtils.setField(orderRealizationTimeServiceImpl, "operationRunsField", operationRuns);
         ReflectionTestUtils.setField(orderRealizationTimeServiceImpl, "productQuantitiesService", productQuantitiesService);
         ReflectionTestUtils.setField(orderRealizationTimeServiceImpl, "numberService", numberService);
-        ReflectionTestUtils.setField(orderRealizationTimeServiceImpl, "productionLinesService", productionLinesService);
+        ReflectionTestUtils.setField(orderRealizationTimeServiceImpl, "workstationTypesCountCache", workstationTypesCountCache);
 
         mathContext = MathContext.DECIMAL64;
         when(numberService.getMathContext()).thenReturn(mathContext);
 
-        when(productionLinesService.getWorkstationTypesCount(opComp1, productionLine)).thenReturn(1);
-        when(productionLinesService.getWorkstationTypesCount(opComp2, productionLine)).thenReturn(1);
+        when(workstationTypesCountCache.getWorkstationTypesCount(opComp1, productionLine)).thenReturn(1);
+        when(workstationTypesCountCache.getWorkstationTypesCount(opComp2, productionLine)).thenReturn(1);
     }
 
     @Test
@@ -172,8 +171,8 @@ public class OrderRealizationTimeServiceImplTest {
         boolean includeAdditionalTime = true;
         BigDecimal plannedQuantity = new BigDecimal(1);
 
-        when(productionLinesService.getWorkstationTypesCount(opComp1, productionLine)).thenReturn(2);
-        when(productionLinesService.getWorkstationTypesCount(opComp2, productionLine)).thenReturn(2);
+        when(workstationTypesCountCache.getWorkstationTypesCount(opComp1, productionLine)).thenReturn(2);
+        when(workstationTypesCountCache.getWorkstationTypesCount(opComp2, productionLine)).thenReturn(2);
 
         // when
         int time = orderRealizationTimeServiceImpl.estimateOperationTimeConsumption(opComp1, plannedQuantity, includeTpz,
@@ -190,8 +189,8 @@ public class OrderRealizationTimeServiceImplTest {
         boolean includeAdditionalTime = true;
         BigDecimal plannedQuantity = new BigDecimal(1);
 
-        when(productionLinesService.getWorkstationTypesCount(opComp1, productionLine)).thenReturn(2);
-        when(productionLinesService.getWorkstationTypesCount(opComp2, productionLine)).thenReturn(2);
+        when(workstationTypesCountCache.getWorkstationTypesCount(opComp1, productionLine)).thenReturn(2);
+        when(workstationTypesCountCache.getWorkstationTypesCount(opComp2, productionLine)).thenReturn(2);
 
         // when
         int time = orderRealizationTimeServiceImpl.estimateMaxOperationTimeConsumptionForWorkstation(opComp1, plannedQuantity,
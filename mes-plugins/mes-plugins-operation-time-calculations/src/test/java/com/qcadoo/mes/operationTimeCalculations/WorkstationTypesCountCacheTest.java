@@ -0,0 +1,221 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.operationTimeCalculations;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.mes.basic.ParameterService;
+import com.qcadoo.mes.operationTimeCalculations.hooks.ParameterHooksOTC;
+import com.qcadoo.mes.operationTimeCalculations.hooks.ProductionLineHooksOTC;
+import com.qcadoo.mes.operationTimeCalculations.hooks.WorkstationTypeComponentHooksOTC;
+import com.qcadoo.mes.productionLines.constants.ProductionLineFields;
+import com.qcadoo.mes.productionLines.constants.WorkstationTypeComponentFields;
+import com.qcadoo.mes.technologies.ProductionLinesService;
+import com.qcadoo.mes.technologies.constants.OperationFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.testing.model.EntityListMock;
+
+public class WorkstationTypesCountCacheTest {
+
+    private static final Long L_PRODUCTION_LINE_ID = 1L;
+
+    private static final Long L_OTHER_PRODUCTION_LINE_ID = 2L;
+
+    private static final Long L_WORKSTATION_TYPE_ID = 3L;
+
+    private static final Long L_WORKSTATION_TYPE_COMPONENT_ID = 4L;
+
+    private WorkstationTypesCountCache workstationTypesCountCache;
+
+    private ParameterHooksOTC parameterHooksOTC;
+
+    private ProductionLineHooksOTC productionLineHooksOTC;
+
+    private WorkstationTypeComponentHooksOTC workstationTypeComponentHooksOTC;
+
+    @Mock
+    private ParameterService parameterService;
+
+    @Mock
+    private ProductionLinesService productionLinesService;
+
+    @Mock
+    private Entity parameter, productionLine, otherProductionLine, operationComponent, operation, workstationType,
+            workstationTypeComponent, workstationTypeComponentFromDB;
+
+    @Mock
+    private DataDefinition dataDefinition;
+
+    @Before
+    public void init() {
+        MockitoAnnotations.initMocks(this);
+
+        workstationTypesCountCache = new WorkstationTypesCountCache();
+
+        ReflectionTestUtils.setField(workstationTypesCountCache, "parameterService", parameterService);
+        ReflectionTestUtils.setField(workstationTypesCountCache, "productionLinesService", productionLinesService);
+
+        parameterHooksOTC = new ParameterHooksOTC();
+        productionLineHooksOTC = new ProductionLineHooksOTC();
+        workstationTypeComponentHooksOTC = new WorkstationTypeComponentHooksOTC();
+
+        ReflectionTestUtils.setField(parameterHooksOTC, "workstationTypesCountCache", workstationTypesCountCache);
+        ReflectionTestUtils.setField(productionLineHooksOTC, "workstationTypesCountCache", workstationTypesCountCache);
+        ReflectionTestUtils.setField(workstationTypeComponentHooksOTC, "workstationTypesCountCache", workstationTypesCountCache);
+
+        given(parameterService.getParameter()).willReturn(parameter);
+        given(parameter.getBooleanField("workstationsQuantityFromProductionLine")).willReturn(true);
+
+        given(operationComponent.getBelongsToField(TechnologyOperationComponentFields.OPERATION)).willReturn(operation);
+        given(operation.getBelongsToField(OperationFields.WORKSTATION_TYPE)).willReturn(workstationType);
+        given(workstationType.getId()).willReturn(L_WORKSTATION_TYPE_ID);
+
+        mockProductionLine(productionLine, L_PRODUCTION_LINE_ID, 5);
+        mockProductionLine(otherProductionLine, L_OTHER_PRODUCTION_LINE_ID, 7);
+
+        given(workstationTypeComponent.getId()).willReturn(L_WORKSTATION_TYPE_COMPONENT_ID);
+        given(workstationTypeComponent.getBelongsToField(WorkstationTypeComponentFields.PRODUCTIONLINE)).willReturn(
+                productionLine);
+        given(workstationTypeComponentFromDB.getBelongsToField(WorkstationTypeComponentFields.PRODUCTIONLINE)).willReturn(
+                otherProductionLine);
+        given(dataDefinition.get(L_WORKSTATION_TYPE_COMPONENT_ID)).willReturn(workstationTypeComponentFromDB);
+    }
+
+    private void mockProductionLine(final Entity line, final Long id, final Integer quantity) {
+        Entity component = mock(Entity.class);
+
+        given(component.getBelongsToField(WorkstationTypeComponentFields.WORKSTATIONTYPE)).willReturn(workstationType);
+        given(component.getField(WorkstationTypeComponentFields.QUANTITY)).willReturn(quantity);
+
+        given(line.getId()).willReturn(id);
+        given(line.getHasManyField(ProductionLineFields.WORKSTATION_TYPE_COMPONENTS)).willAnswer(
+                invocation -> EntityListMock.create(Collections.singletonList(component)));
+    }
+
+    @Test
+    public void shouldReadParameterAgainAfterParameterSave() {
+        // given
+        workstationTypesCountCache.isWorkstationsQuantityFromProductionLine();
+        workstationTypesCountCache.isWorkstationsQuantityFromProductionLine();
+
+        given(parameter.getBooleanField("workstationsQuantityFromProductionLine")).willReturn(false);
+
+        // when
+        boolean cachedValue = workstationTypesCountCache.isWorkstationsQuantityFromProductionLine();
+
+        parameterHooksOTC.onSave(dataDefinition, parameter);
+
+        boolean valueAfterSave = workstationTypesCountCache.isWorkstationsQuantityFromProductionLine();
+
+        // then
+        assertTrue(cachedValue);
+        assertFalse(valueAfterSave);
+        verify(parameterService, times(2)).getParameter();
+    }
+
+    @Test
+    public void shouldReadProductionLineAgainAfterProductionLineSaveAndDelete() {
+        // given
+        workstationTypesCountCache.getWorkstationTypesCount(operationComponent, productionLine);
+        workstationTypesCountCache.getWorkstationTypesCount(operationComponent, productionLine);
+
+        // when
+        productionLineHooksOTC.onSave(dataDefinition, productionLine);
+
+        workstationTypesCountCache.getWorkstationTypesCount(operationComponent, productionLine);
+
+        productionLineHooksOTC.onDelete(dataDefinition, productionLine);
+
+        Integer count = workstationTypesCountCache.getWorkstationTypesCount(operationComponent, productionLine);
+
+        // then
+        assertEquals(Integer.valueOf(5), count);
+        verify(productionLine, times(3)).getHasManyField(ProductionLineFields.WORKSTATION_TYPE_COMPONENTS);
+    }
+
+    @Test
+    public void shouldReadOldAndNewProductionLineAgainAfterWorkstationTypeComponentSave() {
+        // given
+        workstationTypesCountCache.getWorkstationTypesCount(operationComponent, productionLine);
+        workstationTypesCountCache.getWorkstationTypesCount(operationComponent, otherProductionLine);
+
+        // when
+        workstationTypeComponentHooksOTC.onSave(dataDefinition, workstationTypeComponent);
+
+        workstationTypesCountCache.getWorkstationTypesCount(operationComponent, productionLine);
+        workstationTypesCountCache.getWorkstationTypesCount(operationComponent, otherProductionLine);
+
+        // then
+        verify(productionLine, times(2)).getHasManyField(ProductionLineFields.WORKSTATION_TYPE_COMPONENTS);
+        verify(otherProductionLine, times(2)).getHasManyField(ProductionLineFields.WORKSTATION_TYPE_COMPONENTS);
+    }
+
+    @Test
+    public void shouldReadProductionLineAgainAfterWorkstationTypeComponentDelete() {
+        // given
+        workstationTypesCountCache.getWorkstationTypesCount(operationComponent, productionLine);
+
+        // when
+        workstationTypeComponentHooksOTC.onDelete(dataDefinition, workstationTypeComponent);
+
+        Integer count = workstationTypesCountCache.getWorkstationTypesCount(operationComponent, productionLine);
+
+        // then
+        assertEquals(Integer.valueOf(5), count);
+        verify(productionLine, times(2)).getHasManyField(ProductionLineFields.WORKSTATION_TYPE_COMPONENTS);
+    }
+
+    @Test
+    public void shouldNotReadOtherProductionLinesAgainAfterProductionLineSave() {
+        // given
+        workstationTypesCountCache.getWorkstationTypesCount(operationComponent, productionLine);
+        workstationTypesCountCache.getWorkstationTypesCount(operationComponent, otherProductionLine);
+
+        // when
+        productionLineHooksOTC.onSave(dataDefinition, productionLine);
+
+        Integer count = workstationTypesCountCache.getWorkstationTypesCount(operationComponent, otherProductionLine);
+
+        // then
+        assertEquals(Integer.valueOf(7), count);
+        verify(otherProductionLine, times(1)).getHasManyField(ProductionLineFields.WORKSTATION_TYPE_COMPONENTS);
+    }
+
+}
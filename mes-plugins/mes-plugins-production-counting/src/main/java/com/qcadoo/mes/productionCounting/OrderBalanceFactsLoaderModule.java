@@ -0,0 +1,48 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.qcadoo.plugin.api.Module;
+
+/**
+ * Aggregates accepted production trackings of orders, which weren't aggregated by {@link OrderBalanceFactsService} yet (e.g.
+ * trackings accepted before aggregates were introduced).
+ */
+@Component
+public class OrderBalanceFactsLoaderModule extends Module {
+
+    @Autowired
+    private OrderBalanceFactsService orderBalanceFactsService;
+
+    @Override
+    @Transactional
+    public void multiTenantEnable() {
+        orderBalanceFactsService.buildMissing();
+    }
+
+}
@@ -0,0 +1,261 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.productionCounting.constants.ProductionTrackingFields;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Maintains per order aggregates of accepted production trackings (orderBalanceProductQuantity, orderBalanceOperationTime and
+ * orderBalanceStaffTime), so that production balance reports don't have to join all trackings and their components again.
+ *
+ * Quantities and times of a tracking are added to the aggregates of its order when it's accepted and subtracted when it's
+ * declined or corrected. Each aggregate row also counts the trackings it was summed from, rows which no tracking contributes
+ * to anymore are deleted.
+ */
+@Service
+public class OrderBalanceFactsService {
+
+    private static final String L_ORDER_ID = "orderId";
+
+    private static final String L_ORDERS_IDS = "ordersIds";
+
+    private static final String L_PRODUCTION_TRACKING_ID = "productionTrackingId";
+
+    private static final String L_SIGN = "sign";
+
+    private static final String L_TRACKINGS_COUNT = "trackingscount";
+
+    private static final String L_PRODUCT_QUANTITIES_TABLE = "productioncounting_orderbalanceproductquantity";
+
+    private static final String L_OPERATION_TIMES_TABLE = "productioncounting_orderbalanceoperationtime";
+
+    private static final String L_STAFF_TIMES_TABLE = "productioncounting_orderbalancestafftime";
+
+    private static final List<String> L_PRODUCT_QUANTITIES_KEYS = Lists.newArrayList("order_id",
+            "technologyoperationcomponent_id", "product_id", "role", "wasteunit");
+
+    private static final List<String> L_PRODUCT_QUANTITIES_VALUES = Lists.newArrayList("usedquantity", "wastesquantity",
+            "wasteusedquantity");
+
+    private static final List<String> L_OPERATION_TIMES_KEYS = Lists.newArrayList("order_id",
+            "technologyoperationcomponent_id");
+
+    private static final List<String> L_OPERATION_TIMES_VALUES = Lists.newArrayList("executedoperationcycles", "machinetime",
+            "labortime");
+
+    private static final List<String> L_STAFF_TIMES_KEYS = Lists.newArrayList("order_id", "technologyoperationcomponent_id",
+            "worker_id");
+
+    private static final List<String> L_STAFF_TIMES_VALUES = Lists.newArrayList("labortime");
+
+    private static final String L_PRODUCTION_TRACKING_WHERE_CLAUSE = "WHERE pt.id = :productionTrackingId ";
+
+    private static final String L_ACCEPTED_TRACKINGS_WHERE_CLAUSE = "WHERE pt.order_id IN (:ordersIds) "
+            + "AND pt.state = '02accepted' ";
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Transactional
+    public void addProductionTracking(final Entity productionTracking) {
+        applyProductionTracking(productionTracking, 1);
+    }
+
+    @Transactional
+    public void subtractProductionTracking(final Entity productionTracking) {
+        applyProductionTracking(productionTracking, -1);
+    }
+
+    private void applyProductionTracking(final Entity productionTracking, final int sign) {
+        Entity order = productionTracking.getBelongsToField(ProductionTrackingFields.ORDER);
+
+        if ((productionTracking.getId() == null) || (order == null) || (order.getId() == null)) {
+            return;
+        }
+
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        params.addValue(L_ORDER_ID, order.getId());
+        params.addValue(L_ORDERS_IDS, order.getId());
+        params.addValue(L_PRODUCTION_TRACKING_ID, productionTracking.getId());
+        params.addValue(L_SIGN, sign);
+
+        lockOrders(params);
+
+        applyFacts(L_PRODUCT_QUANTITIES_TABLE, L_PRODUCT_QUANTITIES_KEYS, L_PRODUCT_QUANTITIES_VALUES,
+                buildProductQuantitiesQuery(L_PRODUCTION_TRACKING_WHERE_CLAUSE), params);
+        applyFacts(L_OPERATION_TIMES_TABLE, L_OPERATION_TIMES_KEYS, L_OPERATION_TIMES_VALUES,
+                buildOperationTimesQuery(L_PRODUCTION_TRACKING_WHERE_CLAUSE), params);
+        applyFacts(L_STAFF_TIMES_TABLE, L_STAFF_TIMES_KEYS, L_STAFF_TIMES_VALUES,
+                buildStaffTimesQuery(L_PRODUCTION_TRACKING_WHERE_CLAUSE), params);
+    }
+
+    /**
+     * Builds aggregates for orders, which have accepted production trackings but weren't aggregated yet (e.g. trackings
+     * accepted before aggregates were introduced).
+     */
+    @Transactional
+    public void buildMissing() {
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT DISTINCT pt.order_id FROM productioncounting_productiontracking pt ");
+        query.append("WHERE pt.state = '02accepted' ");
+        query.append("AND NOT EXISTS (SELECT 1 FROM productioncounting_orderbalanceoperationtime obot ");
+        query.append("WHERE obot.order_id = pt.order_id) ");
+
+        List<Long> ordersIds = jdbcTemplate.queryForList(query.toString(), new MapSqlParameterSource(), Long.class);
+
+        if (!ordersIds.isEmpty()) {
+            rebuild(ordersIds);
+        }
+    }
+
+    /**
+     * Rebuilds aggregates of given orders from all their accepted production trackings.
+     */
+    @Transactional
+    public void rebuild(final Collection<Long> ordersIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource(L_ORDERS_IDS, ordersIds);
+
+        lockOrders(params);
+
+        rebuildFacts(L_PRODUCT_QUANTITIES_TABLE, L_PRODUCT_QUANTITIES_KEYS, L_PRODUCT_QUANTITIES_VALUES,
+                buildProductQuantitiesQuery(L_ACCEPTED_TRACKINGS_WHERE_CLAUSE), params);
+        rebuildFacts(L_OPERATION_TIMES_TABLE, L_OPERATION_TIMES_KEYS, L_OPERATION_TIMES_VALUES,
+                buildOperationTimesQuery(L_ACCEPTED_TRACKINGS_WHERE_CLAUSE), params);
+        rebuildFacts(L_STAFF_TIMES_TABLE, L_STAFF_TIMES_KEYS, L_STAFF_TIMES_VALUES,
+                buildStaffTimesQuery(L_ACCEPTED_TRACKINGS_WHERE_CLAUSE), params);
+    }
+
+    private void lockOrders(final MapSqlParameterSource params) {
+        // serializes concurrent changes of the same order, so none of them can overwrite the other with a stale sum
+        jdbcTemplate.queryForList("SELECT id FROM orders_order WHERE id IN (:ordersIds) ORDER BY id FOR UPDATE", params,
+                Long.class);
+    }
+
+    private void applyFacts(final String table, final List<String> keys, final List<String> values, final String factsQuery,
+            final MapSqlParameterSource params) {
+        StringBuilder update = new StringBuilder();
+        update.append("UPDATE ").append(table).append(" a SET ");
+        for (String value : values) {
+            update.append(value).append(" = COALESCE(a.").append(value).append(", 0) + :sign * COALESCE(f.").append(value)
+                    .append(", 0), ");
+        }
+        update.append("trackingscount = a.trackingscount + :sign * f.trackingscount ");
+        update.append("FROM (").append(factsQuery).append(") f ");
+        update.append("WHERE ").append(buildKeysMatchClause(keys)).append(" ");
+
+        jdbcTemplate.update(update.toString(), params);
+
+        StringBuilder insert = new StringBuilder();
+        insert.append("INSERT INTO ").append(table).append(" (").append(buildColumnsList(keys, values)).append(") ");
+        insert.append("SELECT ").append(keys.stream().map(key -> "f." + key).collect(Collectors.joining(", "))).append(", ");
+        insert.append(values.stream().map(value -> ":sign * f." + value).collect(Collectors.joining(", ")));
+        insert.append(", :sign * f.trackingscount ");
+        insert.append("FROM (").append(factsQuery).append(") f ");
+        insert.append("WHERE NOT EXISTS (SELECT 1 FROM ").append(table).append(" a WHERE ").append(buildKeysMatchClause(keys))
+                .append(") ");
+
+        jdbcTemplate.update(insert.toString(), params);
+
+        jdbcTemplate.update("DELETE FROM " + table + " WHERE order_id = :orderId AND trackingscount <= 0", params);
+    }
+
+    private void rebuildFacts(final String table, final List<String> keys, final List<String> values, final String factsQuery,
+            final MapSqlParameterSource params) {
+        jdbcTemplate.update("DELETE FROM " + table + " WHERE order_id IN (:ordersIds)", params);
+        jdbcTemplate.update("INSERT INTO " + table + " (" + buildColumnsList(keys, values) + ") " + factsQuery, params);
+    }
+
+    private String buildKeysMatchClause(final List<String> keys) {
+        return keys.stream().map(key -> "a." + key + " IS NOT DISTINCT FROM f." + key).collect(Collectors.joining(" AND "));
+    }
+
+    private String buildColumnsList(final List<String> keys, final List<String> values) {
+        List<String> columns = Lists.newArrayList(keys);
+
+        columns.addAll(values);
+        columns.add(L_TRACKINGS_COUNT);
+
+        return String.join(", ", columns);
+    }
+
+    private String buildProductQuantitiesQuery(final String whereClause) {
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT pt.order_id, pt.technologyoperationcomponent_id, topoc.product_id, '02produced' AS role, ");
+        query.append("NULL AS wasteunit, SUM(topoc.usedquantity) AS usedquantity, SUM(topoc.wastesquantity) AS wastesquantity, ");
+        query.append("NULL AS wasteusedquantity, COUNT(DISTINCT pt.id) AS trackingscount ");
+        query.append("FROM productioncounting_productiontracking pt ");
+        query.append(
+                "JOIN productioncounting_trackingoperationproductoutcomponent topoc ON topoc.productiontracking_id = pt.id ");
+        query.append(whereClause);
+        query.append("GROUP BY pt.order_id, pt.technologyoperationcomponent_id, topoc.product_id ");
+        query.append("UNION ALL ");
+        query.append("SELECT pt.order_id, pt.technologyoperationcomponent_id, topic.product_id, '01used', ");
+        query.append("topic.wasteunit, SUM(topic.usedquantity), NULL, SUM(topic.wasteusedquantity), COUNT(DISTINCT pt.id) ");
+        query.append("FROM productioncounting_productiontracking pt ");
+        query.append(
+                "JOIN productioncounting_trackingoperationproductincomponent topic ON topic.productiontracking_id = pt.id ");
+        query.append(whereClause);
+        query.append("GROUP BY pt.order_id, pt.technologyoperationcomponent_id, topic.product_id, topic.wasteunit ");
+
+        return query.toString();
+    }
+
+    private String buildOperationTimesQuery(final String whereClause) {
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT pt.order_id, pt.technologyoperationcomponent_id, ");
+        query.append("SUM(pt.executedoperationcycles) AS executedoperationcycles, SUM(pt.machinetime) AS machinetime, ");
+        query.append("SUM(pt.labortime) AS labortime, COUNT(pt.id) AS trackingscount ");
+        query.append("FROM productioncounting_productiontracking pt ");
+        query.append(whereClause);
+        query.append("GROUP BY pt.order_id, pt.technologyoperationcomponent_id ");
+
+        return query.toString();
+    }
+
+    private String buildStaffTimesQuery(final String whereClause) {
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT pt.order_id, pt.technologyoperationcomponent_id, swt.worker_id, ");
+        query.append("SUM(swt.labortime) AS labortime, COUNT(DISTINCT pt.id) AS trackingscount ");
+        query.append("FROM productioncounting_productiontracking pt ");
+        query.append("LEFT JOIN productioncounting_staffworktime swt ON swt.productionrecord_id = pt.id ");
+        query.append(whereClause);
+        query.append("GROUP BY pt.order_id, pt.technologyoperationcomponent_id, swt.worker_id ");
+
+        return query.toString();
+    }
+
+}
@@ -65,6 +65,12 @@ public final class ProductionCountingConstants {
 
     public static final String MODEL_STAFF_WORK_TIME = "staffWorkTime";
 
+    public static final String MODEL_ORDER_BALANCE_PRODUCT_QUANTITY = "orderBalanceProductQuantity";
+
+    public static final String MODEL_ORDER_BALANCE_OPERATION_TIME = "orderBalanceOperationTime";
+
+    public static final String MODEL_ORDER_BALANCE_STAFF_TIME = "orderBalanceStaffTime";
+
     public static final String MODEL_ANOMALY = "anomaly";
 
     public static final String MODEL_ANOMALY_EXPLANATION = "anomalyExplanation";
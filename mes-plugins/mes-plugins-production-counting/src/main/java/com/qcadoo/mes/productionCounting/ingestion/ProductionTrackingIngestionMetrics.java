@@ -0,0 +1,89 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.ingestion;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Throughput counters of production tracking ingestion, accumulated since application start.
+ */
+@Component
+public class ProductionTrackingIngestionMetrics {
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final AtomicLong receivedRecords = new AtomicLong();
+
+    private final AtomicLong appliedRecords = new AtomicLong();
+
+    private final AtomicLong rejectedRecords = new AtomicLong();
+
+    private final AtomicLong createdProductionTrackings = new AtomicLong();
+
+    private final AtomicLong processingNanos = new AtomicLong();
+
+    void record(final ProductionTrackingIngestionResult result, final long nanos) {
+        batches.incrementAndGet();
+        receivedRecords.addAndGet(result.getReceivedRecords());
+        appliedRecords.addAndGet(result.getAppliedRecords());
+        rejectedRecords.addAndGet(result.getRejectedRecords());
+        createdProductionTrackings.addAndGet(result.getProductionTrackingsIds().size());
+        processingNanos.addAndGet(nanos);
+    }
+
+    public Map<String, Object> getSnapshot() {
+        long received = receivedRecords.get();
+        long nanos = processingNanos.get();
+
+        Map<String, Object> snapshot = Maps.newLinkedHashMap();
+
+        snapshot.put("batches", batches.get());
+        snapshot.put("receivedRecords", received);
+        snapshot.put("appliedRecords", appliedRecords.get());
+        snapshot.put("rejectedRecords", rejectedRecords.get());
+        snapshot.put("createdProductionTrackings", createdProductionTrackings.get());
+        snapshot.put("processingMillis", TimeUnit.NANOSECONDS.toMillis(nanos));
+        snapshot.put("recordsPerSecond", getRecordsPerSecond(received, nanos));
+
+        return snapshot;
+    }
+
+    private BigDecimal getRecordsPerSecond(final long records, final long nanos) {
+        if (nanos == 0) {
+            return BigDecimal.ZERO;
+        }
+
+        return BigDecimal.valueOf(records).multiply(BigDecimal.valueOf(TimeUnit.SECONDS.toNanos(1)))
+                .divide(BigDecimal.valueOf(nanos), 2, RoundingMode.HALF_UP);
+    }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.ingestion;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+public class ProductionTrackingIngestionResult {
+
+    private final int receivedRecords;
+
+    private int appliedRecords;
+
+    private int rejectedRecords;
+
+    private final List<Long> productionTrackingsIds = Lists.newArrayList();
+
+    private final List<String> errors = Lists.newArrayList();
+
+    ProductionTrackingIngestionResult(final int receivedRecords) {
+        this.receivedRecords = receivedRecords;
+    }
+
+    void addApplied(final Long productionTrackingId, final int recordsCount) {
+        productionTrackingsIds.add(productionTrackingId);
+        appliedRecords += recordsCount;
+    }
+
+    void addRejected(final int recordsCount) {
+        rejectedRecords += recordsCount;
+    }
+
+    void addRejected(final int recordsCount, final String error) {
+        addRejected(recordsCount);
+        errors.add(error);
+    }
+
+    public int getReceivedRecords() {
+        return receivedRecords;
+    }
+
+    public int getAppliedRecords() {
+        return appliedRecords;
+    }
+
+    public int getRejectedRecords() {
+        return rejectedRecords;
+    }
+
+    public List<Long> getProductionTrackingsIds() {
+        return Collections.unmodifiableList(productionTrackingsIds);
+    }
+
+    public List<String> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+}
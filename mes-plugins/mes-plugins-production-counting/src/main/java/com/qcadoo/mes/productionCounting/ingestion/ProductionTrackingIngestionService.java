@@ -0,0 +1,454 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.ingestion;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.basic.constants.ProductFields;
+import com.qcadoo.mes.newstates.StateChangeResults;
+import com.qcadoo.mes.newstates.StateChangeTransactions;
+import com.qcadoo.mes.newstates.StateExecutorService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
+import com.qcadoo.mes.productionCounting.constants.OrderFieldsPC;
+import com.qcadoo.mes.productionCounting.constants.ProductionCountingConstants;
+import com.qcadoo.mes.productionCounting.constants.ProductionTrackingFields;
+import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductInComponentFields;
+import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductOutComponentFields;
+import com.qcadoo.mes.productionCounting.constants.TypeOfProductionRecording;
+import com.qcadoo.mes.productionCounting.hooks.helpers.OperationProductsExtractor;
+import com.qcadoo.mes.productionCounting.newstates.ProductionTrackingStateServiceMarker;
+import com.qcadoo.mes.productionCounting.states.constants.ProductionTrackingStateStringValues;
+import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchRestrictions;
+import com.qcadoo.model.api.validators.ErrorMessage;
+
+/**
+ * Applies production counts sent in batches by line terminals.
+ *
+ * Records are grouped per order and operation, validated for all groups at once, then each group is saved as one production
+ * tracking and all of them are accepted in batches.
+ *
+ * Trackings which could not be accepted are deleted again, so records reported as rejected leave nothing behind and can be
+ * safely sent once more. Trackings are accepted in batches committed one by one, so when acceptance fails part way, trackings
+ * accepted before are kept and reported as applied.
+ */
+@Service
+public class ProductionTrackingIngestionService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProductionTrackingIngestionService.class);
+
+    private static final String L_ID = "id";
+
+    private static final String L_PRODUCT = "product";
+
+    private static final String L_NO_OPERATION = "-";
+
+    private static final String L_ERROR = "productionCounting.productionTrackingIngestion.error";
+
+    private static final String L_INTERNAL_SERVER_ERROR = "states.messages.change.failure.internalServerError";
+
+    private static final List<String> L_ORDER_STATES_ALLOWING_TRACKING = Lists.newArrayList(OrderStateStringValues.IN_PROGRESS,
+            OrderStateStringValues.INTERRUPTED);
+
+    @Autowired
+    private DataDefinitionService dataDefinitionService;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private TranslationService translationService;
+
+    @Autowired
+    private OperationProductsExtractor operationProductsExtractor;
+
+    @Autowired
+    private StateExecutorService stateExecutorService;
+
+    @Autowired
+    private StateChangeTransactions stateChangeTransactions;
+
+    @Autowired
+    private ProductionTrackingIngestionMetrics productionTrackingIngestionMetrics;
+
+    public ProductionTrackingIngestionResult ingest(final Collection<ProductionTrackingRecordDTO> records) {
+        long start = System.nanoTime();
+
+        ProductionTrackingRecordsBatch batch = ProductionTrackingRecordsBatch.of(records);
+        ProductionTrackingIngestionResult result = new ProductionTrackingIngestionResult(batch.getRecordsCount());
+
+        if (batch.getInvalidRecordsCount() > 0) {
+            result.addRejected(batch.getInvalidRecordsCount(), translate(
+                    "productionCounting.productionTrackingIngestion.error.invalidRecords",
+                    String.valueOf(batch.getInvalidRecordsCount())));
+        }
+
+        if (!batch.getGroups().isEmpty()) {
+            List<Entity> productionTrackings = Lists.newArrayList();
+            Map<Long, ProductionTrackingRecordsBatch.Group> groupsByProductionTrackingId = Maps.newHashMap();
+
+            stateChangeTransactions.runInNewTransaction(() -> saveProductionTrackings(batch, result, productionTrackings,
+                    groupsByProductionTrackingId));
+
+            acceptProductionTrackings(productionTrackings, groupsByProductionTrackingId, result);
+        }
+
+        long nanos = System.nanoTime() - start;
+
+        productionTrackingIngestionMetrics.record(result, nanos);
+
+        LOGGER.debug("Ingested {} production tracking records ({} applied, {} rejected) in {} ms", result.getReceivedRecords(),
+                result.getAppliedRecords(), result.getRejectedRecords(), nanos / 1000000);
+
+        return result;
+    }
+
+    private void saveProductionTrackings(final ProductionTrackingRecordsBatch batch,
+            final ProductionTrackingIngestionResult result, final List<Entity> productionTrackings,
+            final Map<Long, ProductionTrackingRecordsBatch.Group> groupsByProductionTrackingId) {
+        Map<Long, Entity> orders = getEntitiesByIds(getOrderDD(), batch.getOrdersIds());
+        Map<Long, Entity> technologyOperationComponents = getEntitiesByIds(getTechnologyOperationComponentDD(),
+                batch.getTechnologyOperationComponentsIds());
+        Set<List<Long>> finalTrackings = getAcceptedFinalTrackings(batch.getOrdersIds());
+
+        DataDefinition productionTrackingDD = getProductionTrackingDD();
+
+        for (ProductionTrackingRecordsBatch.Group group : batch.getGroups()) {
+            Entity order = orders.get(group.getOrderId());
+            Entity technologyOperationComponent = technologyOperationComponents.get(group.getTechnologyOperationComponentId());
+
+            String error = validate(group, order, technologyOperationComponent, finalTrackings);
+
+            if (error != null) {
+                result.addRejected(group.getRecordsCount(), describeError(group, error));
+
+                continue;
+            }
+
+            Entity productionTracking = productionTrackingDD.create();
+
+            productionTracking.setField(ProductionTrackingFields.ORDER, order);
+            productionTracking.setField(ProductionTrackingFields.TECHNOLOGY_OPERATION_COMPONENT, technologyOperationComponent);
+            productionTracking.setField(ProductionTrackingFields.LAST_TRACKING, group.isLastTracking());
+            productionTracking.setField(ProductionTrackingFields.LABOR_TIME, group.getLaborTime());
+            productionTracking.setField(ProductionTrackingFields.MACHINE_TIME, group.getMachineTime());
+
+            error = fillTrackingOperationProductComponents(productionTracking, order, group);
+
+            if (error != null) {
+                result.addRejected(group.getRecordsCount(), describeError(group, error));
+
+                continue;
+            }
+
+            productionTracking = productionTrackingDD.save(productionTracking);
+
+            if (productionTracking.isValid()) {
+                productionTrackings.add(productionTracking);
+                groupsByProductionTrackingId.put(productionTracking.getId(), group);
+            } else {
+                result.addRejected(group.getRecordsCount(), describeError(group, describeErrors(productionTracking)));
+            }
+        }
+    }
+
+    private String validate(final ProductionTrackingRecordsBatch.Group group, final Entity order,
+            final Entity technologyOperationComponent, final Set<List<Long>> finalTrackings) {
+        if (order == null) {
+            return translate("productionCounting.productionTrackingIngestion.error.orderNotFound");
+        }
+        if (!L_ORDER_STATES_ALLOWING_TRACKING.contains(order.getStringField(OrderFields.STATE))) {
+            return translate("productionCounting.productionTracking.messages.error.orderIsNotStarted");
+        }
+
+        String typeOfProductionRecording = order.getStringField(OrderFieldsPC.TYPE_OF_PRODUCTION_RECORDING);
+
+        if (TypeOfProductionRecording.FOR_EACH.getStringValue().equals(typeOfProductionRecording)) {
+            if (technologyOperationComponent == null) {
+                return translate("productionCounting.productionTracking.messages.error.operationIsNotSet");
+            }
+            if (!belongsToTechnologyOfOrder(technologyOperationComponent, order)) {
+                return translate("productionCounting.productionTrackingIngestion.error.operationNotInOrder");
+            }
+        } else if (TypeOfProductionRecording.CUMULATED.getStringValue().equals(typeOfProductionRecording)) {
+            if (group.getTechnologyOperationComponentId() != null) {
+                return translate("productionCounting.productionTrackingIngestion.error.operationNotInOrder");
+            }
+        } else {
+            return translate("productionCounting.productionTrackingIngestion.error.typeOfProductionRecordingBasic");
+        }
+
+        if (finalTrackings.contains(Arrays.asList(group.getOrderId(), group.getTechnologyOperationComponentId()))) {
+            if (group.getTechnologyOperationComponentId() == null) {
+                return translate("productionCounting.productionTracking.messages.error.final");
+            } else {
+                return translate("productionCounting.productionTracking.messages.error.operationFinal");
+            }
+        }
+
+        return null;
+    }
+
+    private boolean belongsToTechnologyOfOrder(final Entity technologyOperationComponent, final Entity order) {
+        Entity technology = order.getBelongsToField(OrderFields.TECHNOLOGY);
+        Entity operationTechnology = technologyOperationComponent
+                .getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY);
+
+        return (technology != null) && (operationTechnology != null) && technology.getId().equals(operationTechnology.getId());
+    }
+
+    private String fillTrackingOperationProductComponents(final Entity productionTracking, final Entity order,
+            final ProductionTrackingRecordsBatch.Group group) {
+        OperationProductsExtractor.TrackingOperationProducts operationProducts = operationProductsExtractor
+                .getProductsByModelName(productionTracking);
+
+        List<Entity> inputs = Lists.newArrayList();
+        List<Entity> outputs = Lists.newArrayList();
+
+        if (order.getBooleanField(OrderFieldsPC.REGISTER_QUANTITY_IN_PRODUCT)) {
+            inputs = operationProducts.getInputComponents();
+        }
+        if (order.getBooleanField(OrderFieldsPC.REGISTER_QUANTITY_OUT_PRODUCT)) {
+            outputs = operationProducts.getOutputComponents();
+        }
+
+        Set<Long> untrackedProductsIds = Sets.newLinkedHashSet();
+
+        untrackedProductsIds.addAll(getUntrackedProductsIds(inputs, group.getUsedQuantities().keySet()));
+        untrackedProductsIds.addAll(getUntrackedProductsIds(outputs, group.getProducedQuantities().keySet()));
+        untrackedProductsIds.addAll(getUntrackedProductsIds(outputs, group.getWastesQuantities().keySet()));
+
+        if (!untrackedProductsIds.isEmpty()) {
+            return translate("productionCounting.productionTrackingIngestion.error.productNotTracked",
+                    untrackedProductsIds.stream().map(String::valueOf).collect(Collectors.joining(", ")));
+        }
+
+        for (Entity input : inputs) {
+            Entity product = input.getBelongsToField(TrackingOperationProductInComponentFields.PRODUCT);
+            BigDecimal usedQuantity = group.getUsedQuantities().get(product.getId());
+
+            if (usedQuantity != null) {
+                input.setField(TrackingOperationProductInComponentFields.USED_QUANTITY, usedQuantity);
+                input.setField(TrackingOperationProductInComponentFields.GIVEN_QUANTITY, usedQuantity);
+                input.setField(TrackingOperationProductInComponentFields.GIVEN_UNIT, product.getStringField(ProductFields.UNIT));
+            }
+        }
+
+        for (Entity output : outputs) {
+            Entity product = output.getBelongsToField(TrackingOperationProductOutComponentFields.PRODUCT);
+            BigDecimal usedQuantity = group.getProducedQuantities().get(product.getId());
+            BigDecimal wastesQuantity = group.getWastesQuantities().get(product.getId());
+
+            if (usedQuantity != null) {
+                output.setField(TrackingOperationProductOutComponentFields.USED_QUANTITY, usedQuantity);
+                output.setField(TrackingOperationProductOutComponentFields.GIVEN_QUANTITY, usedQuantity);
+                output.setField(TrackingOperationProductOutComponentFields.GIVEN_UNIT,
+                        product.getStringField(ProductFields.UNIT));
+            }
+            if (wastesQuantity != null) {
+                output.setField(TrackingOperationProductOutComponentFields.WASTES_QUANTITY, wastesQuantity);
+            }
+        }
+
+        productionTracking.setField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_IN_COMPONENTS, inputs);
+        productionTracking.setField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS, outputs);
+
+        return null;
+    }
+
+    private Set<Long> getUntrackedProductsIds(final List<Entity> trackingOperationProductComponents,
+            final Set<Long> productsIds) {
+        Set<Long> trackedProductsIds = trackingOperationProductComponents.stream()
+                .map(component -> component.getBelongsToField(L_PRODUCT).getId())
+                .collect(Collectors.toSet());
+
+        return Sets.difference(productsIds, trackedProductsIds);
+    }
+
+    private void acceptProductionTrackings(final List<Entity> productionTrackings,
+            final Map<Long, ProductionTrackingRecordsBatch.Group> groupsByProductionTrackingId,
+            final ProductionTrackingIngestionResult result) {
+        if (productionTrackings.isEmpty()) {
+            return;
+        }
+
+        StateChangeResults stateChangeResults = null;
+        Collection<Long> acceptedProductionTrackingsIds;
+
+        try {
+            stateChangeResults = stateExecutorService.changeState(ProductionTrackingStateServiceMarker.class,
+                    productionTrackings, ProductionTrackingStateStringValues.ACCEPTED);
+
+            acceptedProductionTrackingsIds = stateChangeResults.getSuccessfulIds();
+        } catch (RuntimeException e) {
+            LOGGER.error("Can't accept ingested production trackings", e);
+
+            // batches accepted before the failure are already committed, their trackings have to stay
+            acceptedProductionTrackingsIds = findAcceptedProductionTrackingsIds(productionTrackings.stream()
+                    .map(Entity::getId).collect(Collectors.toList()));
+        }
+
+        List<Long> notAcceptedProductionTrackingsIds = Lists.newArrayList();
+
+        for (Entity productionTracking : productionTrackings) {
+            ProductionTrackingRecordsBatch.Group group = groupsByProductionTrackingId.get(productionTracking.getId());
+
+            if (acceptedProductionTrackingsIds.contains(productionTracking.getId())) {
+                result.addApplied(productionTracking.getId(), group.getRecordsCount());
+            } else {
+                notAcceptedProductionTrackingsIds.add(productionTracking.getId());
+
+                String errors;
+
+                if (stateChangeResults == null) {
+                    errors = translate(L_INTERNAL_SERVER_ERROR);
+                } else {
+                    Entity notAcceptedProductionTracking = stateChangeResults.getEntity(productionTracking.getId());
+
+                    errors = describeErrors((notAcceptedProductionTracking == null) ? productionTracking
+                            : notAcceptedProductionTracking);
+                }
+
+                result.addRejected(group.getRecordsCount(), describeError(group, translate(
+                        "productionCounting.productionTrackingIngestion.error.notAccepted",
+                        productionTracking.getStringField(ProductionTrackingFields.NUMBER), errors)));
+            }
+        }
+
+        deleteProductionTrackings(notAcceptedProductionTrackingsIds);
+    }
+
+    private void deleteProductionTrackings(final List<Long> productionTrackingsIds) {
+        if (productionTrackingsIds.isEmpty()) {
+            return;
+        }
+
+        stateChangeTransactions.runInNewTransaction(() -> getProductionTrackingDD().delete(
+                productionTrackingsIds.toArray(new Long[productionTrackingsIds.size()])));
+    }
+
+    private Set<Long> findAcceptedProductionTrackingsIds(final List<Long> productionTrackingsIds) {
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("productionTrackingsIds", productionTrackingsIds);
+        params.put("state", ProductionTrackingStateStringValues.ACCEPTED);
+
+        return Sets.newHashSet(jdbcTemplate.queryForList(
+                "SELECT id FROM productioncounting_productiontracking WHERE id IN (:productionTrackingsIds) AND state = :state",
+                params, Long.class));
+    }
+
+    private Set<List<Long>> getAcceptedFinalTrackings(final Set<Long> ordersIds) {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT DISTINCT order_id, technologyoperationcomponent_id FROM productioncounting_productiontracking ");
+        query.append("WHERE order_id IN (:ordersIds) AND state = :state AND lasttracking AND NOT COALESCE(iscorrection, false)");
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("ordersIds", ordersIds);
+        params.put("state", ProductionTrackingStateStringValues.ACCEPTED);
+
+        Set<List<Long>> finalTrackings = Sets.newHashSet();
+
+        jdbcTemplate.query(query.toString(), new MapSqlParameterSource(params), resultSet -> {
+            Long technologyOperationComponentId = resultSet.getLong("technologyoperationcomponent_id");
+
+            finalTrackings.add(Arrays.asList(resultSet.getLong("order_id"),
+                    resultSet.wasNull() ? null : technologyOperationComponentId));
+        });
+
+        return finalTrackings;
+    }
+
+    private Map<Long, Entity> getEntitiesByIds(final DataDefinition dataDefinition, final Set<Long> ids) {
+        if (ids.isEmpty()) {
+            return Maps.newHashMap();
+        }
+
+        return dataDefinition.find().add(SearchRestrictions.in(L_ID, ids)).list().getEntities().stream()
+                .collect(Collectors.toMap(Entity::getId, Function.identity()));
+    }
+
+    private String describeError(final ProductionTrackingRecordsBatch.Group group, final String error) {
+        Long technologyOperationComponentId = group.getTechnologyOperationComponentId();
+
+        String operation = (technologyOperationComponentId == null) ? L_NO_OPERATION
+                : String.valueOf(technologyOperationComponentId);
+
+        return translate(L_ERROR, String.valueOf(group.getOrderId()), operation, error);
+    }
+
+    private String describeErrors(final Entity entity) {
+        List<ErrorMessage> errors = Lists.newArrayList(entity.getGlobalErrors());
+
+        errors.addAll(entity.getErrors().values());
+
+        return errors.stream().map(error -> translate(error.getMessage(), error.getVars())).collect(Collectors.joining(", "));
+    }
+
+    private String translate(final String messageKey, final String... args) {
+        return translationService.translate(messageKey, LocaleContextHolder.getLocale(), args);
+    }
+
+    private DataDefinition getProductionTrackingDD() {
+        return dataDefinitionService.get(ProductionCountingConstants.PLUGIN_IDENTIFIER,
+                ProductionCountingConstants.MODEL_PRODUCTION_TRACKING);
+    }
+
+    private DataDefinition getOrderDD() {
+        return dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER);
+    }
+
+    private DataDefinition getTechnologyOperationComponentDD() {
+        return dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT);
+    }
+
+}
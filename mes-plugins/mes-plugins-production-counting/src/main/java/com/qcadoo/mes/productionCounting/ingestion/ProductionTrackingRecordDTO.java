@@ -0,0 +1,117 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.ingestion;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Single production count sent by a line terminal. Quantities are keyed by product id; input products go to usedQuantities,
+ * output products to producedQuantities and wastesQuantities.
+ */
+public class ProductionTrackingRecordDTO {
+
+    private Long orderId;
+
+    private Long technologyOperationComponentId;
+
+    private Map<Long, BigDecimal> usedQuantities = Maps.newHashMap();
+
+    private Map<Long, BigDecimal> producedQuantities = Maps.newHashMap();
+
+    private Map<Long, BigDecimal> wastesQuantities = Maps.newHashMap();
+
+    private Integer laborTime;
+
+    private Integer machineTime;
+
+    private boolean lastTracking;
+
+    public Long getOrderId() {
+        return orderId;
+    }
+
+    public void setOrderId(final Long orderId) {
+        this.orderId = orderId;
+    }
+
+    public Long getTechnologyOperationComponentId() {
+        return technologyOperationComponentId;
+    }
+
+    public void setTechnologyOperationComponentId(final Long technologyOperationComponentId) {
+        this.technologyOperationComponentId = technologyOperationComponentId;
+    }
+
+    public Map<Long, BigDecimal> getUsedQuantities() {
+        return usedQuantities;
+    }
+
+    public void setUsedQuantities(final Map<Long, BigDecimal> usedQuantities) {
+        this.usedQuantities = usedQuantities;
+    }
+
+    public Map<Long, BigDecimal> getProducedQuantities() {
+        return producedQuantities;
+    }
+
+    public void setProducedQuantities(final Map<Long, BigDecimal> producedQuantities) {
+        this.producedQuantities = producedQuantities;
+    }
+
+    public Map<Long, BigDecimal> getWastesQuantities() {
+        return wastesQuantities;
+    }
+
+    public void setWastesQuantities(final Map<Long, BigDecimal> wastesQuantities) {
+        this.wastesQuantities = wastesQuantities;
+    }
+
+    public Integer getLaborTime() {
+        return laborTime;
+    }
+
+    public void setLaborTime(final Integer laborTime) {
+        this.laborTime = laborTime;
+    }
+
+    public Integer getMachineTime() {
+        return machineTime;
+    }
+
+    public void setMachineTime(final Integer machineTime) {
+        this.machineTime = machineTime;
+    }
+
+    public boolean isLastTracking() {
+        return lastTracking;
+    }
+
+    public void setLastTracking(final boolean lastTracking) {
+        this.lastTracking = lastTracking;
+    }
+
+}
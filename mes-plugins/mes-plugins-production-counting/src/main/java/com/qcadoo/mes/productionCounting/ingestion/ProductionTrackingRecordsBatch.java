@@ -0,0 +1,205 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.ingestion;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Records of one ingestion call grouped per order and operation. Each group becomes a single production tracking, so counts
+ * sent by terminals every few seconds don't create a tracking (and a state change) each.
+ */
+public class ProductionTrackingRecordsBatch {
+
+    private final Map<List<Long>, Group> groups = Maps.newLinkedHashMap();
+
+    private int recordsCount;
+
+    private int invalidRecordsCount;
+
+    public static ProductionTrackingRecordsBatch of(final Collection<ProductionTrackingRecordDTO> records) {
+        ProductionTrackingRecordsBatch batch = new ProductionTrackingRecordsBatch();
+
+        records.forEach(batch::add);
+
+        return batch;
+    }
+
+    private void add(final ProductionTrackingRecordDTO record) {
+        recordsCount++;
+
+        if (!isValid(record)) {
+            invalidRecordsCount++;
+
+            return;
+        }
+
+        List<Long> key = Arrays.asList(record.getOrderId(), record.getTechnologyOperationComponentId());
+
+        groups.computeIfAbsent(key, k -> new Group(record.getOrderId(), record.getTechnologyOperationComponentId())).add(record);
+    }
+
+    private boolean isValid(final ProductionTrackingRecordDTO record) {
+        return (record.getOrderId() != null) && areValid(record.getUsedQuantities())
+                && areValid(record.getProducedQuantities()) && areValid(record.getWastesQuantities())
+                && isNotNegative(record.getLaborTime()) && isNotNegative(record.getMachineTime());
+    }
+
+    private boolean areValid(final Map<Long, BigDecimal> quantities) {
+        if (quantities == null) {
+            return true;
+        }
+
+        return quantities.entrySet().stream().allMatch(quantity -> (quantity.getKey() != null) && (quantity.getValue() != null)
+                && (quantity.getValue().compareTo(BigDecimal.ZERO) >= 0));
+    }
+
+    private boolean isNotNegative(final Integer time) {
+        return (time == null) || (time >= 0);
+    }
+
+    public Collection<Group> getGroups() {
+        return Collections.unmodifiableCollection(groups.values());
+    }
+
+    public Set<Long> getOrdersIds() {
+        Set<Long> ordersIds = Sets.newHashSet();
+
+        groups.values().forEach(group -> ordersIds.add(group.getOrderId()));
+
+        return ordersIds;
+    }
+
+    public Set<Long> getTechnologyOperationComponentsIds() {
+        Set<Long> technologyOperationComponentsIds = Sets.newHashSet();
+
+        groups.values().stream().map(Group::getTechnologyOperationComponentId).filter(Objects::nonNull)
+                .forEach(technologyOperationComponentsIds::add);
+
+        return technologyOperationComponentsIds;
+    }
+
+    public int getRecordsCount() {
+        return recordsCount;
+    }
+
+    public int getInvalidRecordsCount() {
+        return invalidRecordsCount;
+    }
+
+    public static class Group {
+
+        private final Long orderId;
+
+        private final Long technologyOperationComponentId;
+
+        private final Map<Long, BigDecimal> usedQuantities = Maps.newLinkedHashMap();
+
+        private final Map<Long, BigDecimal> producedQuantities = Maps.newLinkedHashMap();
+
+        private final Map<Long, BigDecimal> wastesQuantities = Maps.newLinkedHashMap();
+
+        private int laborTime;
+
+        private int machineTime;
+
+        private boolean lastTracking;
+
+        private int recordsCount;
+
+        Group(final Long orderId, final Long technologyOperationComponentId) {
+            this.orderId = orderId;
+            this.technologyOperationComponentId = technologyOperationComponentId;
+        }
+
+        private void add(final ProductionTrackingRecordDTO record) {
+            addQuantities(usedQuantities, record.getUsedQuantities());
+            addQuantities(producedQuantities, record.getProducedQuantities());
+            addQuantities(wastesQuantities, record.getWastesQuantities());
+
+            if (record.getLaborTime() != null) {
+                laborTime += record.getLaborTime();
+            }
+            if (record.getMachineTime() != null) {
+                machineTime += record.getMachineTime();
+            }
+
+            lastTracking = lastTracking || record.isLastTracking();
+            recordsCount++;
+        }
+
+        private void addQuantities(final Map<Long, BigDecimal> sums, final Map<Long, BigDecimal> quantities) {
+            if (quantities != null) {
+                quantities.forEach((productId, quantity) -> sums.merge(productId, quantity, BigDecimal::add));
+            }
+        }
+
+        public Long getOrderId() {
+            return orderId;
+        }
+
+        public Long getTechnologyOperationComponentId() {
+            return technologyOperationComponentId;
+        }
+
+        public Map<Long, BigDecimal> getUsedQuantities() {
+            return Collections.unmodifiableMap(usedQuantities);
+        }
+
+        public Map<Long, BigDecimal> getProducedQuantities() {
+            return Collections.unmodifiableMap(producedQuantities);
+        }
+
+        public Map<Long, BigDecimal> getWastesQuantities() {
+            return Collections.unmodifiableMap(wastesQuantities);
+        }
+
+        public int getLaborTime() {
+            return laborTime;
+        }
+
+        public int getMachineTime() {
+            return machineTime;
+        }
+
+        public boolean isLastTracking() {
+            return lastTracking;
+        }
+
+        public int getRecordsCount() {
+            return recordsCount;
+        }
+
+    }
+
+}
@@ -54,6 +54,7 @@ import com.qcadoo.mes.productionCounting.constants.TrackingOperationProductOutCo
 import com.qcadoo.mes.productionCounting.print.utils.EntityProductInOutComparator;
 import com.qcadoo.mes.productionCounting.print.utils.EntityProductionTrackingComparator;
 import com.qcadoo.mes.productionCounting.states.constants.ProductionTrackingStateChangeFields;
+import com.qcadoo.mes.technologies.TechnologyProductTypes;
 import com.qcadoo.mes.technologies.TechnologyService;
 import com.qcadoo.mes.technologies.constants.OperationFields;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
@@ -326,6 +327,7 @@ public class ProductionTrackingReportPdfService extends PdfDocumentService {
             List<Entity> trackingOperationProductInComponents = Lists.newArrayList(productionTracking
                     .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_IN_COMPONENTS));
             Collections.sort(trackingOperationProductInComponents, new EntityProductInOutComparator());
+            TechnologyProductTypes productTypes = technologyService.getProductTypes(technology);
             for (Entity trackingOperationProductInComponent : trackingOperationProductInComponents) {
                 inputProductsTable.addCell(new Phrase(trackingOperationProductInComponent.getBelongsToField(
                         TrackingOperationProductInComponentFields.PRODUCT).getStringField(ProductFields.NUMBER), FontUtils
@@ -334,9 +336,8 @@ public class ProductionTrackingReportPdfService extends PdfDocumentService {
                         TrackingOperationProductInComponentFields.PRODUCT).getStringField(ProductFields.NAME), FontUtils
                         .getDejavuRegular9Dark()));
 
-                String type = technologyService.getProductType(
-                        trackingOperationProductInComponent.getBelongsToField(TrackingOperationProductInComponentFields.PRODUCT),
-                        technology);
+                String type = productTypes.getProductType(trackingOperationProductInComponent
+                        .getBelongsToField(TrackingOperationProductInComponentFields.PRODUCT).getId());
                 inputProductsTable.addCell(new Phrase(translationService.translate("basic.product.globalTypeOfMaterial.value."
                         + type, locale), FontUtils.getDejavuRegular9Dark()));
 
@@ -381,6 +382,7 @@ public class ProductionTrackingReportPdfService extends PdfDocumentService {
             List<Entity> trackingOperationProductOutComponents = Lists.newArrayList(productionTracking
                     .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS));
             Collections.sort(trackingOperationProductOutComponents, new EntityProductInOutComparator());
+            TechnologyProductTypes productTypes = technologyService.getProductTypes(technology);
             for (Entity trackingOperationProductOutComponent : trackingOperationProductOutComponents) {
                 outputProductsTable.addCell(new Phrase(trackingOperationProductOutComponent.getBelongsToField(
                         TrackingOperationProductOutComponentFields.PRODUCT).getStringField(ProductFields.NUMBER), FontUtils
@@ -389,8 +391,8 @@ public class ProductionTrackingReportPdfService extends PdfDocumentService {
                         TrackingOperationProductOutComponentFields.PRODUCT).getStringField(ProductFields.NAME), FontUtils
                         .getDejavuRegular9Dark()));
 
-                String type = technologyService.getProductType(trackingOperationProductOutComponent
-                        .getBelongsToField(TrackingOperationProductOutComponentFields.PRODUCT), technology);
+                String type = productTypes.getProductType(trackingOperationProductOutComponent
+                        .getBelongsToField(TrackingOperationProductOutComponentFields.PRODUCT).getId());
                 outputProductsTable.addCell(new Phrase(translationService.translate("basic.product.globalTypeOfMaterial.value."
                         + type, locale), FontUtils.getDejavuRegular9Dark()));
 
@@ -0,0 +1,66 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ *
+ * This file is part of Qcadoo.
+ *
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.states;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.newstates.StateChangeProgress;
+
+@Controller
+@RequestMapping("/rest/productionTrackings")
+public class ProductionTrackingStatesController {
+
+    @Autowired
+    private ProductionTrackingStatesHelper productionTrackingStatesHelper;
+
+    @RequestMapping(method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE, value = "{id}/accept")
+    public ResponseEntity<Map<String, Object>> accept(@PathVariable final Long id) {
+        Optional<StateChangeProgress> maybeProgress = productionTrackingStatesHelper.acceptInBackground(id);
+
+        if (!maybeProgress.isPresent()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        StateChangeProgress progress = maybeProgress.get();
+
+        Map<String, Object> response = Maps.newLinkedHashMap();
+
+        response.put("stateChangeId", progress.getStateChangeId());
+        response.put("status", progress.getStatus().getStringValue());
+
+        return new ResponseEntity<>(response, progress.isFinished() ? HttpStatus.CONFLICT : HttpStatus.ACCEPTED);
+    }
+
+}
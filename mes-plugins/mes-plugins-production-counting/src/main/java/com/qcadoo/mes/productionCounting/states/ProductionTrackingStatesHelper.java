@@ -23,11 +23,14 @@
  */
 package com.qcadoo.mes.productionCounting.states;
 
+import com.google.common.base.Optional;
+import com.qcadoo.mes.newstates.StateChangeProgress;
 import com.qcadoo.mes.newstates.StateExecutorService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.qcadoo.mes.productionCounting.constants.ProductionCountingConstants;
 import com.qcadoo.mes.productionCounting.newstates.ProductionTrackingStateServiceMarker;
@@ -78,6 +81,22 @@ public class ProductionTrackingStatesHelper {
         stateExecutorService.changeState(ProductionTrackingStateServiceMarker.class, productionTracking, ProductionTrackingState.DRAFT.getStringValue());
     }
 
+    /**
+     * Accepts production tracking in background, acceptance can be polled at /rest/stateChanges/{stateChangeId}.
+     */
+    @Transactional
+    public Optional<StateChangeProgress> acceptInBackground(final Long productionTrackingId) {
+        Entity productionTracking = dataDefinitionService.get(ProductionCountingConstants.PLUGIN_IDENTIFIER,
+                ProductionCountingConstants.MODEL_PRODUCTION_TRACKING).get(productionTrackingId);
+
+        if (productionTracking == null) {
+            return Optional.absent();
+        }
+
+        return Optional.of(stateExecutorService.changeStateInBackground(ProductionTrackingStateServiceMarker.class,
+                productionTracking, ProductionTrackingStateStringValues.ACCEPTED));
+    }
+
     public StateChangeContext findStateTransition(final Entity productionTracking) {
         Entity stateChangeEntity = findStateChangeEntity(productionTracking);
 
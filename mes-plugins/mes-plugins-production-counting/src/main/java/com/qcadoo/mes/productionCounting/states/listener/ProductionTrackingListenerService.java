@@ -30,11 +30,13 @@ import static com.qcadoo.mes.orders.states.constants.OrderState.COMPLETED;
 import java.math.BigDecimal;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.qcadoo.localization.api.TranslationService;
 import com.qcadoo.mes.basic.ParameterService;
 import com.qcadoo.mes.basicProductionCounting.BasicProductionCountingService;
@@ -43,6 +45,7 @@ import com.qcadoo.mes.basicProductionCounting.constants.OrderFieldsBPC;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.orders.states.aop.OrderStateChangeAspect;
 import com.qcadoo.mes.orders.states.constants.OrderState;
+import com.qcadoo.mes.productionCounting.OrderBalanceFactsService;
 import com.qcadoo.mes.productionCounting.ProductionCountingService;
 import com.qcadoo.mes.productionCounting.constants.OrderFieldsPC;
 import com.qcadoo.mes.productionCounting.constants.ParameterFieldsPC;
@@ -89,6 +92,9 @@ public final class ProductionTrackingListenerService {
     @Autowired
     private ParameterService parameterService;
 
+    @Autowired
+    private OrderBalanceFactsService orderBalanceFactsService;
+
     public void onChangeFromDraftToAny(final Entity productionTracking) {
         productionTracking.setField(ProductionTrackingFields.LAST_STATE_CHANGE_FAILS, false);
         productionTracking.setField(ProductionTrackingFields.LAST_STATE_CHANGE_FAIL_CAUSE, null);
@@ -108,12 +114,14 @@ public final class ProductionTrackingListenerService {
     public void onAccept(final Entity productionTracking) {
         updateBasicProductionCounting(productionTracking, new Addition());
         setOrderDoneAndWastesQuantity(productionTracking, new Addition());
+        orderBalanceFactsService.addProductionTracking(productionTracking);
         closeOrder(productionTracking);
     }
 
     public void onChangeFromAcceptedToDeclined(final Entity productionTracking) {
         updateBasicProductionCounting(productionTracking, new Substraction());
         setOrderDoneAndWastesQuantity(productionTracking, new Substraction());
+        orderBalanceFactsService.subtractProductionTracking(productionTracking);
     }
 
     private void checkIfRecordOperationProductComponentsWereFilled(final Entity productionTracking) {
@@ -253,48 +261,55 @@ public final class ProductionTrackingListenerService {
     private void updateBasicProductionCounting(final Entity productionTracking, final Operation operation) {
         final Entity order = productionTracking.getBelongsToField(ProductionTrackingFields.ORDER);
 
-        final List<Entity> basicProductionCountings = order.getHasManyField(OrderFieldsBPC.BASIC_PRODUCTION_COUNTINGS);
+        final Map<Long, Entity> basicProductionCountings = getBasicProductionCountingsByProduct(order);
+        final Map<Long, Entity> changedBasicProductionCountings = Maps.newLinkedHashMap();
 
         final List<Entity> trackingOperationProductInComponents = productionTracking
                 .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_IN_COMPONENTS);
         final List<Entity> trackingOperationProductOutComponents = productionTracking
                 .getHasManyField(ProductionTrackingFields.TRACKING_OPERATION_PRODUCT_OUT_COMPONENTS);
 
-        for (Entity trackingOperationProductInComponent : trackingOperationProductInComponents) {
-            Entity basicProductionCounting;
+        updateQuantities(trackingOperationProductInComponents, TrackingOperationProductInComponentFields.USED_QUANTITY,
+                BasicProductionCountingFields.USED_QUANTITY, basicProductionCountings, changedBasicProductionCountings,
+                operation);
+        updateQuantities(trackingOperationProductOutComponents, TrackingOperationProductOutComponentFields.USED_QUANTITY,
+                BasicProductionCountingFields.PRODUCED_QUANTITY, basicProductionCountings, changedBasicProductionCountings,
+                operation);
 
-            try {
-                basicProductionCounting = getBasicProductionCounting(trackingOperationProductInComponent,
-                        basicProductionCountings);
-            } catch (IllegalStateException e) {
-                continue;
-            }
+        for (Entity basicProductionCounting : changedBasicProductionCountings.values()) {
+            basicProductionCounting.getDataDefinition().save(basicProductionCounting);
+        }
+    }
 
-            final BigDecimal usedQuantity = basicProductionCounting.getDecimalField(BasicProductionCountingFields.USED_QUANTITY);
-            final BigDecimal productQuantity = trackingOperationProductInComponent
-                    .getDecimalField(TrackingOperationProductInComponentFields.USED_QUANTITY);
-            final BigDecimal result = operation.perform(usedQuantity, productQuantity);
+    private Map<Long, Entity> getBasicProductionCountingsByProduct(final Entity order) {
+        final Map<Long, Entity> basicProductionCountings = Maps.newHashMap();
 
-            basicProductionCounting.setField(BasicProductionCountingFields.USED_QUANTITY, result);
-            basicProductionCounting = basicProductionCounting.getDataDefinition().save(basicProductionCounting);
+        for (Entity basicProductionCounting : order.getHasManyField(OrderFieldsBPC.BASIC_PRODUCTION_COUNTINGS)) {
+            basicProductionCountings.putIfAbsent(
+                    basicProductionCounting.getBelongsToField(BasicProductionCountingFields.PRODUCT).getId(),
+                    basicProductionCounting);
         }
 
-        for (Entity trackingOperationProductOutComponent : trackingOperationProductOutComponents) {
-            Entity productionCounting;
+        return basicProductionCountings;
+    }
+
+    private void updateQuantities(final List<Entity> trackingOperationProductComponents, final String quantityFieldName,
+            final String basicProductionCountingFieldName, final Map<Long, Entity> basicProductionCountings,
+            final Map<Long, Entity> changedBasicProductionCountings, final Operation operation) {
+        for (Entity trackingOperationProductComponent : trackingOperationProductComponents) {
+            final Entity basicProductionCounting = basicProductionCountings
+                    .get(trackingOperationProductComponent.getBelongsToField(L_PRODUCT).getId());
 
-            try {
-                productionCounting = getBasicProductionCounting(trackingOperationProductOutComponent, basicProductionCountings);
-            } catch (IllegalStateException e) {
+            if (basicProductionCounting == null) {
                 continue;
             }
 
-            final BigDecimal usedQuantity = productionCounting.getDecimalField(BasicProductionCountingFields.PRODUCED_QUANTITY);
-            final BigDecimal productQuantity = trackingOperationProductOutComponent
-                    .getDecimalField(TrackingOperationProductOutComponentFields.USED_QUANTITY);
-            final BigDecimal result = operation.perform(usedQuantity, productQuantity);
+            final BigDecimal quantity = basicProductionCounting.getDecimalField(basicProductionCountingFieldName);
+            final BigDecimal productQuantity = trackingOperationProductComponent.getDecimalField(quantityFieldName);
 
-            productionCounting.setField(BasicProductionCountingFields.PRODUCED_QUANTITY, result);
-            productionCounting = productionCounting.getDataDefinition().save(productionCounting);
+            basicProductionCounting.setField(basicProductionCountingFieldName, operation.perform(quantity, productQuantity));
+
+            changedBasicProductionCountings.put(basicProductionCounting.getId(), basicProductionCounting);
         }
     }
 
@@ -317,22 +332,10 @@ public final class ProductionTrackingListenerService {
 
     }
 
-    private Entity getBasicProductionCounting(final Entity trackingOperationProductComponent,
-            final List<Entity> basicProductionCountings) {
-        Entity product = trackingOperationProductComponent.getBelongsToField(L_PRODUCT);
-
-        for (Entity basicProductionCounting : basicProductionCountings) {
-            if (basicProductionCounting.getBelongsToField(BasicProductionCountingFields.PRODUCT).getId().equals(product.getId())) {
-                return basicProductionCounting;
-            }
-        }
-
-        throw new IllegalStateException("No basic production counting found for product");
-    }
-
     public void onCorrected(final Entity productionTracking) {
         updateBasicProductionCounting(productionTracking, new Substraction());
         setOrderDoneAndWastesQuantity(productionTracking, new Substraction());
+        orderBalanceFactsService.subtractProductionTracking(productionTracking);
     }
 
     private interface Operation {
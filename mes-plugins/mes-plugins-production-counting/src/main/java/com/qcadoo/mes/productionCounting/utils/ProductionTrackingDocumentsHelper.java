@@ -17,16 +17,17 @@ import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
 import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.model.api.BigDecimalUtils;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.search.JoinType;
-import com.qcadoo.model.api.search.SearchQueryBuilder;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.search.SearchResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
@@ -57,6 +58,9 @@ public class ProductionTrackingDocumentsHelper {
     @Autowired
     private TechnologyService technologyService;
 
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
     public void fillProductsOutFromSet(Multimap<Long, Entity> groupedRecordOutProducts) {
         Map<Long, Entity> productsToRemove = Maps.newHashMap();
 
@@ -305,93 +309,101 @@ public class ProductionTrackingDocumentsHelper {
 
     public List<Long> findProductsWithInsufficientQuantity(final Entity productionTracking,
             final Multimap<Long, Entity> groupedRecordInProducts, final List<Entity> recordOutProducts) {
-        boolean enoughResources = true;
         List<Long> ids = Lists.newArrayList();
-        Map<Entity, Map<Entity, BigDecimal>> productsNotInStock = findProductsNotInStock(groupedRecordInProducts);
-        for (Entity warehouseFrom : productsNotInStock.keySet()) {
-            for (Entity productNotInStock : productsNotInStock.get(warehouseFrom).keySet()) {
-                boolean productInTrackingOperationProductOut = false;
-                for (Entity recordOutProduct : recordOutProducts) {
-                    if (productNotInStock.getBelongsToField(TrackingOperationProductInComponentFields.PRODUCT).getId().equals(
-                            recordOutProduct.getBelongsToField(TrackingOperationProductInComponentFields.PRODUCT).getId())) {
-                        if (Objects.isNull(
-                                recordOutProduct.getDecimalField(TrackingOperationProductInComponentFields.USED_QUANTITY))) {
-                            ids.add(productNotInStock.getBelongsToField(TrackingOperationProductInComponentFields.PRODUCT).getId());
-                        } else if (productNotInStock.getDecimalField(TrackingOperationProductInComponentFields.USED_QUANTITY)
-                                .compareTo(
-                                        recordOutProduct.getDecimalField(TrackingOperationProductInComponentFields.USED_QUANTITY)
-                                                .add(productsNotInStock.get(warehouseFrom).get(productNotInStock))) > 0) {
-                            ids.add(productNotInStock.getBelongsToField(
-                                    TrackingOperationProductInComponentFields.PRODUCT).getId());
-                        }
-                        productInTrackingOperationProductOut = true;
-                        break;
-                    }
-                }
-                if (!productInTrackingOperationProductOut) {
-                    ids.add(productNotInStock.getBelongsToField(TrackingOperationProductInComponentFields.PRODUCT).getId());
-                }
-            }
 
+        ProductsStock stock = getStock(groupedRecordInProducts);
+        Map<Long, Entity> recordOutProductsByProduct = Maps.newHashMap();
+
+        for (Entity recordOutProduct : recordOutProducts) {
+            recordOutProductsByProduct.putIfAbsent(getProductId(recordOutProduct), recordOutProduct);
         }
-        return ids;
-    }
 
-    private Map<Entity, Map<Entity, BigDecimal>> findProductsNotInStock(Multimap<Long, Entity> groupedRecordInProducts) {
-        DataDefinition locationDD = dataDefinitionService.get("materialFlow", "location");
+        for (Map.Entry<Long, Entity> warehouseAndRecordInProduct : groupedRecordInProducts.entries()) {
+            Entity recordInProduct = warehouseAndRecordInProduct.getValue();
+            Long productId = getProductId(recordInProduct);
+            BigDecimal usedQuantity = BigDecimalUtils.convertNullToZero(recordInProduct
+                    .getDecimalField(TrackingOperationProductInComponentFields.USED_QUANTITY));
+            BigDecimal productStock = stock.getQuantity(warehouseAndRecordInProduct.getKey(), productId);
 
-        Map<Entity, Map<Entity, BigDecimal>> productsNotInStock = Maps.newHashMap();
-        for (Long warehouseId : groupedRecordInProducts.keySet()) {
-            Map<Entity, BigDecimal> productsNotInStockQuantities = Maps.newHashMap();
-            Entity warehouseFrom = locationDD.get(warehouseId);
-            Map<Long, BigDecimal> stockMap = getStock(groupedRecordInProducts, warehouseId, warehouseFrom);
-            for (Entity recordInProduct : groupedRecordInProducts.get(warehouseId)) {
-                BigDecimal productStock = stockMap.get(
-                        recordInProduct.getBelongsToField(TrackingOperationProductInComponentFields.PRODUCT).getId());
-                if (Objects.isNull(productStock)) {
-                    productsNotInStockQuantities.put(recordInProduct, BigDecimal.ZERO);
-                } else if (productStock.compareTo(recordInProduct
-                        .getDecimalField(TrackingOperationProductInComponentFields.USED_QUANTITY)) < 0) {
-                    productsNotInStockQuantities.put(recordInProduct, productStock);
-                }
+            if (Objects.isNull(productStock)) {
+                productStock = BigDecimal.ZERO;
+            } else if (productStock.compareTo(usedQuantity) >= 0) {
+                continue;
+            }
+
+            Entity recordOutProduct = recordOutProductsByProduct.get(productId);
+
+            if (Objects.isNull(recordOutProduct)) {
+                ids.add(productId);
+
+                continue;
             }
-            if (!productsNotInStockQuantities.isEmpty()) {
-                productsNotInStock.put(warehouseFrom, productsNotInStockQuantities);
+
+            BigDecimal producedQuantity = recordOutProduct
+                    .getDecimalField(TrackingOperationProductInComponentFields.USED_QUANTITY);
+
+            if (Objects.isNull(producedQuantity) || (usedQuantity.compareTo(producedQuantity.add(productStock)) > 0)) {
+                ids.add(productId);
             }
         }
-        return productsNotInStock;
+
+        return ids;
     }
 
-    private Map<Long, BigDecimal> getStock(Multimap<Long, Entity> groupedRecordInProducts, Long warehouseId, Entity warehouseFrom) {
-        return getQuantitiesForProductsAndLocation(
-                groupedRecordInProducts.get(warehouseId).stream()
-                        .map(p -> p.getBelongsToField(TrackingOperationProductInComponentFields.PRODUCT))
-                        .collect(Collectors.toList()), warehouseFrom);
+    /**
+     * Gets stock of all (warehouse, product) pairs of given record products, grouped by warehouse id, with a single query.
+     */
+    public ProductsStock getStock(final Multimap<Long, Entity> groupedRecordProducts) {
+        Multimap<Long, Long> productsIdsByWarehouse = HashMultimap.create();
+
+        for (Map.Entry<Long, Entity> warehouseAndRecordProduct : groupedRecordProducts.entries()) {
+            productsIdsByWarehouse.put(warehouseAndRecordProduct.getKey(), getProductId(warehouseAndRecordProduct.getValue()));
+        }
+
+        return getStock(productsIdsByWarehouse);
     }
 
     public Map<Long, BigDecimal> getQuantitiesForProductsAndLocation(final List<Entity> products, final Entity location) {
-        Map<Long, BigDecimal> quantities = Maps.newHashMap();
-        if (products.size() > 0) {
-            DataDefinition resourceDD = dataDefinitionService.get("materialFlowResources", "resource");
-            StringBuilder sb = new StringBuilder();
-            sb.append("select p.id as product, sum(r.quantity) as quantity ");
-            sb.append("from #materialFlowResources_resource as r ");
-            sb.append("join r.product as p ");
-            sb.append("join r.location as l ");
-            sb.append("group by p.id, l.id ");
-            sb.append("having p.id in (:productIds) ");
-            sb.append("and l.id = :locationId ");
-
-            SearchQueryBuilder sqb = resourceDD.find(sb.toString());
-            sqb.setParameter("locationId", location.getId());
-            sqb.setParameterList("productIds", products.stream().map(product -> product.getId()).collect(Collectors.toList()));
-            List<Entity> productsAndQuantities = sqb.list().getEntities();
-
-            productsAndQuantities.stream().forEach(
-                    productAndQuantity -> quantities.put((Long) productAndQuantity.getField("product"),
-                            productAndQuantity.getDecimalField("quantity")));
+        Multimap<Long, Long> productsIdsByWarehouse = HashMultimap.create();
+
+        productsIdsByWarehouse.putAll(location.getId(), products.stream().map(Entity::getId).collect(Collectors.toList()));
+
+        return Maps.newHashMap(getStock(productsIdsByWarehouse).getQuantities(location.getId()));
+    }
+
+    private ProductsStock getStock(final Multimap<Long, Long> productsIdsByWarehouse) {
+        ProductsStock stock = new ProductsStock();
+
+        if (productsIdsByWarehouse.isEmpty()) {
+            return stock;
         }
-        return quantities;
+
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT location_id, product_id, SUM(quantity) AS quantity ");
+        query.append("FROM materialflowresources_resource ");
+        query.append("WHERE location_id IN (:warehousesIds) AND product_id IN (:productsIds) ");
+        query.append("GROUP BY location_id, product_id");
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("warehousesIds", productsIdsByWarehouse.keySet());
+        params.put("productsIds", Sets.newHashSet(productsIdsByWarehouse.values()));
+
+        jdbcTemplate.query(query.toString(), params, resultSet -> {
+            long warehouseId = resultSet.getLong("location_id");
+            long productId = resultSet.getLong("product_id");
+
+            if (productsIdsByWarehouse.containsEntry(warehouseId, productId)) {
+                stock.add(warehouseId, productId, resultSet.getBigDecimal("quantity"));
+            }
+        });
+
+        return stock;
+    }
+
+    private Long getProductId(final Entity recordProduct) {
+        return recordProduct.getBelongsToField(TrackingOperationProductInComponentFields.PRODUCT).getId();
     }
 
     private Entity findProductionCountingQuantity(final Entity operationProductComponent, final Entity technology) {
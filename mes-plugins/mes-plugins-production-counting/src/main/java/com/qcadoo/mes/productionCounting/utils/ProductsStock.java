@@ -0,0 +1,72 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.utils;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.technologies.dto.QuantitiesAccumulator;
+
+/**
+ * Stock of products in warehouses (sum of quantities of their resources), looked up by warehouse and product ids. Quantities
+ * of each warehouse are kept in a {@link QuantitiesAccumulator}, so product ids aren't boxed when stock is filled and looked
+ * up.
+ */
+public class ProductsStock {
+
+    private final Map<Long, QuantitiesAccumulator> quantitiesByWarehouse = Maps.newHashMap();
+
+    void add(final long warehouseId, final long productId, final BigDecimal quantity) {
+        quantitiesByWarehouse.computeIfAbsent(warehouseId, id -> new QuantitiesAccumulator()).add(productId, quantity);
+    }
+
+    /**
+     * @return stock of product in warehouse or null, when there are no resources of product in warehouse
+     */
+    public BigDecimal getQuantity(final long warehouseId, final long productId) {
+        QuantitiesAccumulator quantities = quantitiesByWarehouse.get(warehouseId);
+
+        if (quantities == null) {
+            return null;
+        }
+
+        return quantities.get(productId);
+    }
+
+    /**
+     * @return stock of products in warehouse, keyed by product id
+     */
+    public Map<Long, BigDecimal> getQuantities(final long warehouseId) {
+        QuantitiesAccumulator quantities = quantitiesByWarehouse.get(warehouseId);
+
+        if (quantities == null) {
+            return Collections.emptyMap();
+        }
+
+        return Collections.unmodifiableMap(quantities.toMap());
+    }
+
+}
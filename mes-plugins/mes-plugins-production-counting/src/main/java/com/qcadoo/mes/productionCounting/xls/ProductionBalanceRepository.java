@@ -35,27 +35,23 @@ class ProductionBalanceRepository {
         query.append("MIN(o.plannedquantity) AS plannedQuantity, ");
         appendProducedQuantity(query);
         query.append("AS producedQuantity, ");
-        query.append("COALESCE(SUM(topoc.wastesquantity), 0) AS wastesQuantity, ");
+        query.append("COALESCE(SUM(obpq.wastesquantity), 0) AS wastesQuantity, ");
         query.append("COALESCE(prodWaste.producedWastes, 0) AS producedWastes, ");
         appendProducedQuantity(query);
         query.append("- MIN(o.plannedQuantity) AS deviation, ");
         query.append("prod.unit AS productUnit ");
         query.append("FROM orders_order o ");
         query.append("JOIN basic_product prod ON o.product_id = prod.id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.state = '02accepted' ");
-        query.append(
-                "LEFT JOIN productioncounting_trackingoperationproductoutcomponent topoc ON topoc.productiontracking_id = pt.id AND topoc.product_id = prod.id ");
+        appendProducedQuantitiesJoin(query);
         query.append("LEFT JOIN ");
         query.append(
-                "(SELECT pcq.order_id as orderId, wastePt.order_id AS wastePtOrderId, COALESCE(SUM(wasteTopoc.usedquantity), 0) AS producedWastes ");
+                "(SELECT pcq.order_id as orderId, COALESCE(SUM(wasteObpq.usedquantity), 0) AS producedWastes ");
         query.append("FROM basicproductioncounting_productioncountingquantity pcq ");
         query.append(
-                "LEFT JOIN productioncounting_trackingoperationproductoutcomponent wasteTopoc ON  wasteTopoc.product_id = pcq.product_id ");
-        query.append(
-                "LEFT JOIN productioncounting_productiontracking wastePt ON wasteTopoc.productiontracking_id = wastePt.id AND wastePt.state = '02accepted' ");
-        query.append("WHERE pcq.typeofmaterial = '04waste' AND pcq.role = '02produced' ");
-        query.append(
-                "GROUP BY orderId, wastePtOrderId) prodWaste ON prodWaste.orderId = o.id AND prodWaste.wastePtOrderId = o.id ");
+                "JOIN productioncounting_orderbalanceproductquantity wasteObpq ON wasteObpq.order_id = pcq.order_id ");
+        query.append("AND wasteObpq.product_id = pcq.product_id AND wasteObpq.role = '02produced' ");
+        query.append("WHERE pcq.order_id IN (:ordersIds) AND pcq.typeofmaterial = '04waste' AND pcq.role = '02produced' ");
+        query.append("GROUP BY orderId) prodWaste ON prodWaste.orderId = o.id ");
         appendWhereClause(query);
         query.append("GROUP BY orderNumber, productNumber, productName, productUnit, prodWaste.producedWastes ");
         query.append("ORDER BY orderNumber ");
@@ -65,7 +61,12 @@ class ProductionBalanceRepository {
     }
 
     private void appendProducedQuantity(StringBuilder query) {
-        query.append("COALESCE(SUM(topoc.usedquantity), 0) ");
+        query.append("COALESCE(SUM(obpq.usedquantity), 0) ");
+    }
+
+    private void appendProducedQuantitiesJoin(StringBuilder query) {
+        query.append("LEFT JOIN productioncounting_orderbalanceproductquantity obpq ");
+        query.append("ON obpq.order_id = o.id AND obpq.product_id = prod.id AND obpq.role = '02produced' ");
     }
 
     private void appendWhereClause(StringBuilder query) {
@@ -78,10 +79,8 @@ class ProductionBalanceRepository {
         appendMaterialCostsSelectionClause(query, entity);
         query.append("NULL AS operationNumber ");
         appendMaterialCostsFromClause(query, entity);
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.state = '02accepted' ");
-        query.append(
-                "LEFT JOIN productioncounting_trackingoperationproductincomponent topic ON topic.productiontracking_id = pt.id AND topic.product_id = p.id ");
-        query.append("GROUP BY o.id, o.number, p.number, p.name, p.unit, topic.wasteunit) ");
+        appendCumulatedUsedQuantitiesJoin(query);
+        query.append("GROUP BY o.id, o.number, p.number, p.name, p.unit, obpq.wasteunit) ");
         query.append("UNION ");
         appendForEachPlannedQuantities(query);
         appendMaterialCostsSelectionClause(query, entity);
@@ -90,17 +89,53 @@ class ProductionBalanceRepository {
         query.append("JOIN technologies_operation op ON q.operation_id = op.id ");
         query.append(
                 "JOIN technologies_technologyoperationcomponent toc ON toc.operation_id = op.id AND o.technology_id = toc.technology_id ");
-        query.append(
-                "LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.technologyoperationcomponent_id = toc.id AND pt.state = '02accepted' ");
-        query.append(
-                "LEFT JOIN productioncounting_trackingoperationproductincomponent topic ON topic.productiontracking_id = pt.id AND topic.product_id = p.id ");
-        query.append("GROUP BY o.id, o.number, op.number, p.number, p.name, p.unit, topic.wasteunit) ");
+        appendForEachUsedQuantitiesJoin(query);
+        query.append("GROUP BY o.id, o.number, op.number, p.number, p.name, p.unit, obpq.wasteunit) ");
         query.append("ORDER BY orderNumber, operationNumber, productNumber ");
 
         return jdbcTemplate.query(query.toString(), new MapSqlParameterSource("ordersIds", ordersIds),
                 BeanPropertyRowMapper.newInstance(MaterialCost.class));
     }
 
+    /*
+     * Accepted trackings without a component of the product add an empty row without waste unit, like they did when trackings
+     * were joined with their components directly.
+     */
+    private void appendCumulatedUsedQuantitiesJoin(StringBuilder query) {
+        query.append("LEFT JOIN (SELECT obpq.order_id, obpq.product_id, obpq.wasteunit, ");
+        query.append("obpq.usedquantity, obpq.wasteusedquantity ");
+        query.append("FROM productioncounting_orderbalanceproductquantity obpq ");
+        query.append("WHERE obpq.order_id IN (:ordersIds) AND obpq.role = '01used' ");
+        query.append("UNION ALL ");
+        query.append("SELECT q.order_id, q.product_id, NULL, NULL, NULL ");
+        query.append("FROM planned_quantity q ");
+        query.append("JOIN (SELECT obot.order_id, SUM(obot.trackingscount) AS trackingscount ");
+        query.append("FROM productioncounting_orderbalanceoperationtime obot ");
+        query.append("WHERE obot.order_id IN (:ordersIds) GROUP BY obot.order_id) obot ON obot.order_id = q.order_id ");
+        query.append("WHERE obot.trackingscount > (SELECT COALESCE(SUM(obpq.trackingscount), 0) ");
+        query.append("FROM productioncounting_orderbalanceproductquantity obpq ");
+        query.append("WHERE obpq.order_id = q.order_id AND obpq.product_id = q.product_id AND obpq.role = '01used')) obpq ");
+        query.append("ON obpq.order_id = o.id AND obpq.product_id = p.id ");
+    }
+
+    private void appendForEachUsedQuantitiesJoin(StringBuilder query) {
+        query.append("LEFT JOIN (SELECT obpq.order_id, obpq.technologyoperationcomponent_id, obpq.product_id, obpq.wasteunit, ");
+        query.append("obpq.usedquantity, obpq.wasteusedquantity ");
+        query.append("FROM productioncounting_orderbalanceproductquantity obpq ");
+        query.append("WHERE obpq.order_id IN (:ordersIds) AND obpq.role = '01used' ");
+        query.append("UNION ALL ");
+        query.append("SELECT obot.order_id, obot.technologyoperationcomponent_id, q.product_id, NULL, NULL, NULL ");
+        query.append("FROM planned_quantity q ");
+        query.append("JOIN technologies_technologyoperationcomponent toc ON toc.operation_id = q.operation_id ");
+        query.append("JOIN productioncounting_orderbalanceoperationtime obot ");
+        query.append("ON obot.order_id = q.order_id AND obot.technologyoperationcomponent_id = toc.id ");
+        query.append("WHERE obot.trackingscount > (SELECT COALESCE(SUM(obpq.trackingscount), 0) ");
+        query.append("FROM productioncounting_orderbalanceproductquantity obpq ");
+        query.append("WHERE obpq.order_id = obot.order_id AND obpq.technologyoperationcomponent_id = toc.id ");
+        query.append("AND obpq.product_id = q.product_id AND obpq.role = '01used')) obpq ");
+        query.append("ON obpq.order_id = o.id AND obpq.technologyoperationcomponent_id = toc.id AND obpq.product_id = p.id ");
+    }
+
     private void appendForEachPlannedQuantities(StringBuilder query) {
         query.append("(WITH planned_quantity (order_id, operation_id, product_id, quantity) AS (SELECT ");
         query.append("o.id AS orderId, ");
@@ -140,7 +175,7 @@ class ProductionBalanceRepository {
         query.append("p.number AS productNumber, ");
         query.append("p.name AS productName, ");
         query.append("p.unit AS productUnit, ");
-        query.append("topic.wasteunit AS usedWasteUnit, ");
+        query.append("obpq.wasteunit AS usedWasteUnit, ");
         appendPlannedQuantity(query);
         query.append("AS plannedQuantity, ");
         appendUsedQuantity(query);
@@ -157,7 +192,7 @@ class ProductionBalanceRepository {
         query.append("- ");
         appendPlannedCost(query, entity);
         query.append("AS valueDeviation, ");
-        query.append("COALESCE(SUM(topic.wasteusedquantity), 0) AS usedWasteQuantity, ");
+        query.append("COALESCE(SUM(obpq.wasteusedquantity), 0) AS usedWasteQuantity, ");
     }
 
     private void appendMaterialCostsFromClause(StringBuilder query, Entity entity) {
@@ -227,7 +262,7 @@ class ProductionBalanceRepository {
     }
 
     private void appendUsedQuantity(StringBuilder query) {
-        query.append("COALESCE(SUM(topic.usedquantity), 0) ");
+        query.append("COALESCE(SUM(obpq.usedquantity), 0) ");
     }
 
     List<PieceworkDetails> getPieceworkDetails(List<Long> ordersIds) {
@@ -235,10 +270,10 @@ class ProductionBalanceRepository {
         query.append("SELECT ");
         query.append("o.number AS orderNumber, ");
         query.append("op.number AS operationNumber, ");
-        query.append("COALESCE(SUM(pt.executedoperationcycles), 0) AS totalexecutedoperationcycles ");
+        query.append("COALESCE(SUM(obot.executedoperationcycles), 0) AS totalexecutedoperationcycles ");
         query.append("FROM orders_order o ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON o.id = pt.order_id AND pt.state = '02accepted' ");
-        query.append("LEFT JOIN technologies_technologyoperationcomponent toc ON pt.technologyoperationcomponent_id = toc.id ");
+        appendOperationTimesJoin(query);
+        query.append("LEFT JOIN technologies_technologyoperationcomponent toc ON obot.technologyoperationcomponent_id = toc.id ");
         query.append("LEFT JOIN technologies_operation op ON toc.operation_id = op.id ");
         appendWhereClause(query);
         query.append("AND o.typeofproductionrecording = '03forEach' ");
@@ -257,12 +292,11 @@ class ProductionBalanceRepository {
         query.append("stf.number AS staffNumber, ");
         query.append("stf.name AS staffName, ");
         query.append("stf.surname AS staffSurname, ");
-        query.append("COALESCE(SUM(swt.labortime), 0) AS laborTime ");
+        query.append("COALESCE(SUM(obst.labortime), 0) AS laborTime ");
         query.append("FROM orders_order o ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON o.id = pt.order_id AND pt.state = '02accepted' ");
-        query.append("LEFT JOIN productioncounting_staffworktime swt ON pt.id = swt.productionrecord_id ");
-        query.append("LEFT JOIN basic_staff stf ON swt.worker_id = stf.id ");
-        query.append("LEFT JOIN technologies_technologyoperationcomponent toc ON pt.technologyoperationcomponent_id = toc.id ");
+        query.append("LEFT JOIN productioncounting_orderbalancestafftime obst ON o.id = obst.order_id ");
+        query.append("LEFT JOIN basic_staff stf ON obst.worker_id = stf.id ");
+        query.append("LEFT JOIN technologies_technologyoperationcomponent toc ON obst.technologyoperationcomponent_id = toc.id ");
         query.append("LEFT JOIN technologies_operation op ON toc.operation_id = op.id ");
         appendWhereClause(query);
         query.append("GROUP BY orderNumber, operationNumber, staffNumber, staffName, staffSurname ");
@@ -333,7 +367,7 @@ class ProductionBalanceRepository {
         query.append("AS sumCostsDeviation ");
         query.append("FROM orders_order o ");
         query.append("JOIN planned_time plt ON plt.order_id = o.id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON o.id = pt.order_id AND pt.state = '02accepted' ");
+        appendOperationTimesJoin(query);
         query.append("CROSS JOIN basic_parameter bp ");
         query.append("GROUP BY orderId, orderNumber) ");
         query.append("UNION ");
@@ -341,11 +375,11 @@ class ProductionBalanceRepository {
         query.append("o.id AS orderId, ");
         query.append("o.number AS orderNumber, ");
         query.append("op.number AS operationNumber, ");
-        appendPlannedStaffTime(entity, query);
+        appendForEachPlannedStaffTime(entity, query);
         query.append("AS plannedStaffTime, ");
         appendRealStaffTime(query);
         query.append("AS realStaffTime, ");
-        appendPlannedMachineTime(entity, query);
+        appendForEachPlannedMachineTime(entity, query);
         query.append("AS plannedMachineTime, ");
         appendRealMachineTime(query);
         query.append("AS realMachineTime, ");
@@ -367,7 +401,7 @@ class ProductionBalanceRepository {
         query.append("AS machineCostsDeviation, ");
         query.append("COALESCE(MIN(pcor.runs / toc.numberofoperations * toc.pieceworkcost), 0) AS plannedPieceworkCosts, ");
         query.append(
-                "COALESCE(SUM(pt.executedoperationcycles) / MIN(toc.numberofoperations) * MIN(toc.pieceworkcost), 0) AS realPieceworkCosts, ");
+                "COALESCE(SUM(obot.executedoperationcycles) / MIN(toc.numberofoperations) * MIN(toc.pieceworkcost), 0) AS realPieceworkCosts, ");
         appendForEachPlannedStaffCosts(entity, query);
         query.append("+ ");
         appendForEachPlannedMachineCosts(entity, query);
@@ -385,8 +419,8 @@ class ProductionBalanceRepository {
         appendForEachPlannedMachineCosts(entity, query);
         query.append("AS sumCostsDeviation ");
         query.append("FROM orders_order o ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON o.id = pt.order_id AND pt.state = '02accepted' ");
-        query.append("LEFT JOIN technologies_technologyoperationcomponent toc ON pt.technologyoperationcomponent_id = toc.id ");
+        appendOperationTimesJoin(query);
+        query.append("LEFT JOIN technologies_technologyoperationcomponent toc ON obot.technologyoperationcomponent_id = toc.id ");
         query.append(
                 "LEFT JOIN basicproductioncounting_productioncountingoperationrun pcor ON pcor.order_id = o.id AND pcor.technologyoperationcomponent_id = toc.id ");
         query.append("LEFT JOIN technologies_operation op ON toc.operation_id = op.id ");
@@ -400,12 +434,16 @@ class ProductionBalanceRepository {
                 BeanPropertyRowMapper.newInstance(ProductionCost.class));
     }
 
+    private void appendOperationTimesJoin(StringBuilder query) {
+        query.append("LEFT JOIN productioncounting_orderbalanceoperationtime obot ON o.id = obot.order_id ");
+    }
+
     private void appendRealMachineTime(StringBuilder query) {
-        query.append("COALESCE(SUM(pt.machinetime), 0) ");
+        query.append("COALESCE(SUM(obot.machinetime), 0) ");
     }
 
     private void appendRealStaffTime(StringBuilder query) {
-        query.append("COALESCE(SUM(pt.labortime), 0) ");
+        query.append("COALESCE(SUM(obot.labortime), 0) ");
     }
 
     private void appendForEachRealMachineCosts(Entity entity, StringBuilder query) {
@@ -415,7 +453,7 @@ class ProductionBalanceRepository {
     }
 
     private void appendForEachPlannedMachineCosts(Entity entity, StringBuilder query) {
-        appendPlannedMachineTime(entity, query);
+        appendForEachPlannedMachineTime(entity, query);
         query.append("/ 3600 * ");
         appendForEachMachineHourCost(entity, query);
     }
@@ -427,7 +465,7 @@ class ProductionBalanceRepository {
     }
 
     private void appendForEachPlannedStaffCosts(Entity entity, StringBuilder query) {
-        appendPlannedStaffTime(entity, query);
+        appendForEachPlannedStaffTime(entity, query);
         query.append("/ 3600 * ");
         appendForEachStaffHourCost(entity, query);
     }
@@ -466,6 +504,19 @@ class ProductionBalanceRepository {
         query.append(") * toc.laborutilization), 0) ");
     }
 
+    // planned time of an operation is summed once per its accepted tracking, as it was when trackings were joined directly
+    private void appendForEachPlannedMachineTime(Entity entity, StringBuilder query) {
+        query.append("COALESCE(SUM((toc.tj * pcor.runs ");
+        appendTPZandAdditionalTime(entity, query);
+        query.append(") * toc.machineutilization * obot.trackingscount), 0) ");
+    }
+
+    private void appendForEachPlannedStaffTime(Entity entity, StringBuilder query) {
+        query.append("COALESCE(SUM((toc.tj * pcor.runs ");
+        appendTPZandAdditionalTime(entity, query);
+        query.append(") * toc.laborutilization * obot.trackingscount), 0) ");
+    }
+
     private void appendCumulatedStaffHourCost(StringBuilder query) {
         query.append("COALESCE(MIN(bp.averagelaborhourlycostpb), 0) ");
     }
@@ -531,9 +582,7 @@ class ProductionBalanceRepository {
         query.append("AS sellPrice ");
         query.append("FROM orders_order o ");
         query.append("JOIN basic_product prod ON o.product_id = prod.id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.state = '02accepted' ");
-        query.append(
-                "LEFT JOIN productioncounting_trackingoperationproductoutcomponent topoc ON topoc.productiontracking_id = pt.id AND topoc.product_id = prod.id ");
+        appendProducedQuantitiesJoin(query);
         query.append("LEFT JOIN grouped_material_cost gmc ON gmc.order_id = o.id ");
         query.append("JOIN grouped_production_cost gpc ON gpc.order_id = o.id ");
         appendWhereClause(query);
@@ -711,9 +760,7 @@ class ProductionBalanceRepository {
         query.append("AS sellPrice ");
         query.append("FROM orders_order o ");
         query.append("JOIN basic_product prod ON o.product_id = prod.id ");
-        query.append("LEFT JOIN productioncounting_productiontracking pt ON pt.order_id = o.id AND pt.state = '02accepted' ");
-        query.append(
-                "LEFT JOIN productioncounting_trackingoperationproductoutcomponent topoc ON topoc.productiontracking_id = pt.id AND topoc.product_id = prod.id ");
+        appendProducedQuantitiesJoin(query);
         query.append("JOIN order_balance_rec obr ON obr.order_id = o.id ");
         appendWhereClause(query);
         query.append("AND o.root_id IS NULL ");
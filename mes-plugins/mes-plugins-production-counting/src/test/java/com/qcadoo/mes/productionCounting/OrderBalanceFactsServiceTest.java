@@ -0,0 +1,132 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.qcadoo.mes.productionCounting.constants.ProductionTrackingFields;
+import com.qcadoo.model.api.Entity;
+
+public class OrderBalanceFactsServiceTest {
+
+    private static final Long L_ORDER_ID = 1L;
+
+    private static final Long L_PRODUCTION_TRACKING_ID = 21L;
+
+    private OrderBalanceFactsService orderBalanceFactsService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private Entity productionTracking, order;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        orderBalanceFactsService = new OrderBalanceFactsService();
+
+        ReflectionTestUtils.setField(orderBalanceFactsService, "jdbcTemplate", jdbcTemplate);
+
+        given(productionTracking.getId()).willReturn(L_PRODUCTION_TRACKING_ID);
+        given(productionTracking.getBelongsToField(ProductionTrackingFields.ORDER)).willReturn(order);
+        given(order.getId()).willReturn(L_ORDER_ID);
+    }
+
+    @Test
+    public final void shouldAddProductionTrackingToAggregatesOfItsOrder() {
+        // when
+        orderBalanceFactsService.addProductionTracking(productionTracking);
+
+        // then
+        List<String> queries = verifyUpdates(1);
+
+        assertTrue(startsWithAny(queries, "UPDATE productioncounting_orderbalanceproductquantity"));
+        assertTrue(startsWithAny(queries, "INSERT INTO productioncounting_orderbalanceoperationtime"));
+        assertTrue(startsWithAny(queries, "DELETE FROM productioncounting_orderbalancestafftime"));
+    }
+
+    @Test
+    public final void shouldSubtractProductionTrackingFromAggregatesOfItsOrder() {
+        // when
+        orderBalanceFactsService.subtractProductionTracking(productionTracking);
+
+        // then
+        verifyUpdates(-1);
+    }
+
+    @Test
+    public final void shouldNotChangeAggregatesForProductionTrackingWithoutOrder() {
+        // given
+        given(productionTracking.getBelongsToField(ProductionTrackingFields.ORDER)).willReturn(null);
+
+        // when
+        orderBalanceFactsService.addProductionTracking(productionTracking);
+
+        // then
+        verifyZeroInteractions(jdbcTemplate);
+    }
+
+    private List<String> verifyUpdates(final int sign) {
+        ArgumentCaptor<String> queryCaptor = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<MapSqlParameterSource> paramsCaptor = ArgumentCaptor.forClass(MapSqlParameterSource.class);
+
+        verify(jdbcTemplate).queryForList(anyString(), paramsCaptor.capture(), eq(Long.class));
+        verify(jdbcTemplate, atLeastOnce()).update(queryCaptor.capture(), paramsCaptor.capture());
+
+        for (MapSqlParameterSource params : paramsCaptor.getAllValues()) {
+            assertEquals(L_ORDER_ID, params.getValue("orderId"));
+            assertEquals(L_PRODUCTION_TRACKING_ID, params.getValue("productionTrackingId"));
+            assertEquals(sign, params.getValue("sign"));
+        }
+
+        assertEquals(9, queryCaptor.getAllValues().size());
+
+        return queryCaptor.getAllValues();
+    }
+
+    private boolean startsWithAny(final List<String> queries, final String prefix) {
+        return queries.stream().anyMatch(query -> query.startsWith(prefix));
+    }
+
+}
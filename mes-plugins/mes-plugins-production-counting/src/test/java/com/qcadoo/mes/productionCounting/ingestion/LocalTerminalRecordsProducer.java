@@ -0,0 +1,76 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.ingestion;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Stand-in for line terminals: produces counts for given order operations, as terminals would send them every few seconds.
+ */
+public class LocalTerminalRecordsProducer {
+
+    private final Random random;
+
+    private final List<Long[]> orderOperations = Lists.newArrayList();
+
+    public LocalTerminalRecordsProducer(final long seed) {
+        random = new Random(seed);
+    }
+
+    public LocalTerminalRecordsProducer withOrderOperation(final Long orderId, final Long technologyOperationComponentId,
+            final Long inputProductId, final Long outputProductId) {
+        orderOperations.add(new Long[] { orderId, technologyOperationComponentId, inputProductId, outputProductId });
+
+        return this;
+    }
+
+    public List<ProductionTrackingRecordDTO> produce(final int recordsCount) {
+        List<ProductionTrackingRecordDTO> records = Lists.newArrayList();
+
+        for (int i = 0; i < recordsCount; i++) {
+            Long[] orderOperation = orderOperations.get(random.nextInt(orderOperations.size()));
+
+            ProductionTrackingRecordDTO record = new ProductionTrackingRecordDTO();
+
+            record.setOrderId(orderOperation[0]);
+            record.setTechnologyOperationComponentId(orderOperation[1]);
+            record.setUsedQuantities(Maps.newHashMap());
+            record.getUsedQuantities().put(orderOperation[2], BigDecimal.valueOf(1 + random.nextInt(10)));
+            record.setProducedQuantities(Maps.newHashMap());
+            record.getProducedQuantities().put(orderOperation[3], BigDecimal.valueOf(1 + random.nextInt(10)));
+            record.setMachineTime(5);
+            record.setLaborTime(5);
+
+            records.add(record);
+        }
+
+        return records;
+    }
+
+}
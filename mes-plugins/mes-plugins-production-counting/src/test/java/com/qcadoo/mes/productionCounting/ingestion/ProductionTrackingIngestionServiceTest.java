@@ -0,0 +1,252 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.ingestion;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willAnswer;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.localization.api.TranslationService;
+import com.qcadoo.mes.newstates.StateChangeResults;
+import com.qcadoo.mes.newstates.StateChangeTransactions;
+import com.qcadoo.mes.newstates.StateExecutorService;
+import com.qcadoo.mes.orders.constants.OrderFields;
+import com.qcadoo.mes.orders.constants.OrdersConstants;
+import com.qcadoo.mes.orders.states.constants.OrderStateStringValues;
+import com.qcadoo.mes.productionCounting.constants.OrderFieldsPC;
+import com.qcadoo.mes.productionCounting.constants.ProductionCountingConstants;
+import com.qcadoo.mes.productionCounting.constants.TypeOfProductionRecording;
+import com.qcadoo.mes.productionCounting.hooks.helpers.OperationProductsExtractor;
+import com.qcadoo.mes.productionCounting.newstates.ProductionTrackingStateServiceMarker;
+import com.qcadoo.mes.productionCounting.states.constants.ProductionTrackingStateStringValues;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.DataDefinitionService;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.search.SearchCriteriaBuilder;
+import com.qcadoo.model.api.search.SearchCriterion;
+import com.qcadoo.model.api.search.SearchResult;
+
+public class ProductionTrackingIngestionServiceTest {
+
+    private static final Long L_ORDER_ID = 1L;
+
+    private static final Long L_OTHER_ORDER_ID = 2L;
+
+    private static final Long L_PRODUCTION_TRACKING_ID = 21L;
+
+    private static final Long L_OTHER_PRODUCTION_TRACKING_ID = 22L;
+
+    private ProductionTrackingIngestionService productionTrackingIngestionService;
+
+    @Mock
+    private DataDefinitionService dataDefinitionService;
+
+    @Mock
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    @Mock
+    private TranslationService translationService;
+
+    @Mock
+    private OperationProductsExtractor operationProductsExtractor;
+
+    @Mock
+    private OperationProductsExtractor.TrackingOperationProducts trackingOperationProducts;
+
+    @Mock
+    private StateExecutorService stateExecutorService;
+
+    @Mock
+    private StateChangeTransactions stateChangeTransactions;
+
+    @Mock
+    private ProductionTrackingIngestionMetrics productionTrackingIngestionMetrics;
+
+    @Mock
+    private DataDefinition orderDD, productionTrackingDD;
+
+    @Mock
+    private SearchCriteriaBuilder searchCriteriaBuilder;
+
+    @Mock
+    private SearchResult searchResult;
+
+    @Mock
+    private Entity order, otherOrder, productionTracking, otherProductionTracking, savedProductionTracking,
+            otherSavedProductionTracking;
+
+    @Mock
+    private StateChangeResults stateChangeResults;
+
+    @Before
+    public final void init() {
+        MockitoAnnotations.initMocks(this);
+
+        productionTrackingIngestionService = new ProductionTrackingIngestionService();
+
+        ReflectionTestUtils.setField(productionTrackingIngestionService, "dataDefinitionService", dataDefinitionService);
+        ReflectionTestUtils.setField(productionTrackingIngestionService, "jdbcTemplate", jdbcTemplate);
+        ReflectionTestUtils.setField(productionTrackingIngestionService, "translationService", translationService);
+        ReflectionTestUtils.setField(productionTrackingIngestionService, "operationProductsExtractor",
+                operationProductsExtractor);
+        ReflectionTestUtils.setField(productionTrackingIngestionService, "stateExecutorService", stateExecutorService);
+        ReflectionTestUtils.setField(productionTrackingIngestionService, "stateChangeTransactions", stateChangeTransactions);
+        ReflectionTestUtils.setField(productionTrackingIngestionService, "productionTrackingIngestionMetrics",
+                productionTrackingIngestionMetrics);
+
+        given(dataDefinitionService.get(OrdersConstants.PLUGIN_IDENTIFIER, OrdersConstants.MODEL_ORDER)).willReturn(orderDD);
+        given(dataDefinitionService.get(ProductionCountingConstants.PLUGIN_IDENTIFIER,
+                ProductionCountingConstants.MODEL_PRODUCTION_TRACKING)).willReturn(productionTrackingDD);
+
+        given(orderDD.find()).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.add(any(SearchCriterion.class))).willReturn(searchCriteriaBuilder);
+        given(searchCriteriaBuilder.list()).willReturn(searchResult);
+        given(searchResult.getEntities()).willReturn(Lists.newArrayList(order, otherOrder));
+
+        mockOrder(order, L_ORDER_ID);
+        mockOrder(otherOrder, L_OTHER_ORDER_ID);
+
+        given(productionTrackingDD.create()).willReturn(productionTracking, otherProductionTracking);
+        given(productionTrackingDD.save(productionTracking)).willReturn(savedProductionTracking);
+        given(productionTrackingDD.save(otherProductionTracking)).willReturn(otherSavedProductionTracking);
+
+        mockSavedProductionTracking(savedProductionTracking, L_PRODUCTION_TRACKING_ID);
+        mockSavedProductionTracking(otherSavedProductionTracking, L_OTHER_PRODUCTION_TRACKING_ID);
+
+        given(operationProductsExtractor.getProductsByModelName(any(Entity.class))).willReturn(trackingOperationProducts);
+
+        willAnswer(invocation -> {
+            ((Runnable) invocation.getArguments()[0]).run();
+
+            return null;
+        }).given(stateChangeTransactions).runInNewTransaction(any(Runnable.class));
+    }
+
+    private void mockOrder(final Entity order, final Long id) {
+        given(order.getId()).willReturn(id);
+        given(order.getStringField(OrderFields.STATE)).willReturn(OrderStateStringValues.IN_PROGRESS);
+        given(order.getStringField(OrderFieldsPC.TYPE_OF_PRODUCTION_RECORDING)).willReturn(
+                TypeOfProductionRecording.CUMULATED.getStringValue());
+    }
+
+    private void mockSavedProductionTracking(final Entity productionTracking, final Long id) {
+        given(productionTracking.getId()).willReturn(id);
+        given(productionTracking.isValid()).willReturn(true);
+        given(productionTracking.getGlobalErrors()).willReturn(Collections.emptyList());
+        given(productionTracking.getErrors()).willReturn(Collections.emptyMap());
+    }
+
+    @Test
+    public final void shouldKeepAcceptedProductionTrackings() {
+        // given
+        given(stateExecutorService.changeState(eq(ProductionTrackingStateServiceMarker.class), anyListOf(Entity.class),
+                eq(ProductionTrackingStateStringValues.ACCEPTED))).willReturn(stateChangeResults);
+        given(stateChangeResults.getSuccessfulIds()).willReturn(
+                Lists.newArrayList(L_PRODUCTION_TRACKING_ID, L_OTHER_PRODUCTION_TRACKING_ID));
+
+        // when
+        ProductionTrackingIngestionResult result = productionTrackingIngestionService.ingest(records());
+
+        // then
+        assertEquals(3, result.getAppliedRecords());
+        assertEquals(0, result.getRejectedRecords());
+        assertEquals(Lists.newArrayList(L_PRODUCTION_TRACKING_ID, L_OTHER_PRODUCTION_TRACKING_ID),
+                result.getProductionTrackingsIds());
+
+        verify(productionTrackingDD, never()).delete(Matchers.<Long> anyVararg());
+    }
+
+    @Test
+    public final void shouldDeleteProductionTrackingsWhichWereNotAccepted() {
+        // given
+        given(stateExecutorService.changeState(eq(ProductionTrackingStateServiceMarker.class), anyListOf(Entity.class),
+                eq(ProductionTrackingStateStringValues.ACCEPTED))).willReturn(stateChangeResults);
+        given(stateChangeResults.getSuccessfulIds()).willReturn(Lists.newArrayList(L_PRODUCTION_TRACKING_ID));
+        given(stateChangeResults.getEntity(L_OTHER_PRODUCTION_TRACKING_ID)).willReturn(otherSavedProductionTracking);
+
+        // when
+        ProductionTrackingIngestionResult result = productionTrackingIngestionService.ingest(records());
+
+        // then
+        assertEquals(2, result.getAppliedRecords());
+        assertEquals(1, result.getRejectedRecords());
+        assertEquals(Lists.newArrayList(L_PRODUCTION_TRACKING_ID), result.getProductionTrackingsIds());
+
+        verify(productionTrackingDD).delete(L_OTHER_PRODUCTION_TRACKING_ID);
+    }
+
+    @Test
+    public final void shouldKeepProductionTrackingsAcceptedBeforeAcceptanceFailed() {
+        // given
+        given(stateExecutorService.changeState(eq(ProductionTrackingStateServiceMarker.class), anyListOf(Entity.class),
+                anyString())).willThrow(new IllegalStateException());
+        given(jdbcTemplate.queryForList(anyString(), anyMapOf(String.class, Object.class), eq(Long.class))).willReturn(
+                Lists.newArrayList(L_PRODUCTION_TRACKING_ID));
+
+        // when
+        ProductionTrackingIngestionResult result = productionTrackingIngestionService.ingest(records());
+
+        // then
+        assertEquals(2, result.getAppliedRecords());
+        assertEquals(1, result.getRejectedRecords());
+        assertEquals(Lists.newArrayList(L_PRODUCTION_TRACKING_ID), result.getProductionTrackingsIds());
+
+        verify(productionTrackingDD).delete(L_OTHER_PRODUCTION_TRACKING_ID);
+        verify(productionTrackingDD, never()).delete(L_PRODUCTION_TRACKING_ID, L_OTHER_PRODUCTION_TRACKING_ID);
+    }
+
+    private List<ProductionTrackingRecordDTO> records() {
+        return Lists.newArrayList(record(L_ORDER_ID), record(L_ORDER_ID), record(L_OTHER_ORDER_ID));
+    }
+
+    private ProductionTrackingRecordDTO record(final Long orderId) {
+        ProductionTrackingRecordDTO record = new ProductionTrackingRecordDTO();
+
+        record.setOrderId(orderId);
+        record.setMachineTime(10);
+        record.setLaborTime(10);
+
+        return record;
+    }
+
+}
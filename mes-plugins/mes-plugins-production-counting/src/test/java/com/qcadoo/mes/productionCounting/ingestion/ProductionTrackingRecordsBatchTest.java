@@ -0,0 +1,164 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.productionCounting.ingestion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+public class ProductionTrackingRecordsBatchTest {
+
+    private static final Long L_ORDER_ID = 1L;
+
+    private static final Long L_OTHER_ORDER_ID = 2L;
+
+    private static final Long L_OPERATION_ID = 11L;
+
+    private static final Long L_INPUT_PRODUCT_ID = 101L;
+
+    private static final Long L_OUTPUT_PRODUCT_ID = 102L;
+
+    @Test
+    public final void shouldGroupRecordsPerOrderAndOperation() {
+        // given
+        List<ProductionTrackingRecordDTO> records = Lists.newArrayList(
+                record(L_ORDER_ID, L_OPERATION_ID, "2", "1"),
+                record(L_ORDER_ID, L_OPERATION_ID, "3", "1.5"),
+                record(L_ORDER_ID, null, "1", "1"),
+                record(L_OTHER_ORDER_ID, L_OPERATION_ID, "4", "2"));
+
+        records.get(1).setLastTracking(true);
+
+        // when
+        ProductionTrackingRecordsBatch batch = ProductionTrackingRecordsBatch.of(records);
+
+        // then
+        assertEquals(4, batch.getRecordsCount());
+        assertEquals(0, batch.getInvalidRecordsCount());
+        assertEquals(3, batch.getGroups().size());
+        assertEquals(Sets.newHashSet(L_ORDER_ID, L_OTHER_ORDER_ID), batch.getOrdersIds());
+        assertEquals(Sets.newHashSet(L_OPERATION_ID), batch.getTechnologyOperationComponentsIds());
+
+        ProductionTrackingRecordsBatch.Group group = batch.getGroups().iterator().next();
+
+        assertEquals(L_ORDER_ID, group.getOrderId());
+        assertEquals(L_OPERATION_ID, group.getTechnologyOperationComponentId());
+        assertEquals(2, group.getRecordsCount());
+        assertEquals(new BigDecimal("5"), group.getUsedQuantities().get(L_INPUT_PRODUCT_ID));
+        assertEquals(new BigDecimal("2.5"), group.getProducedQuantities().get(L_OUTPUT_PRODUCT_ID));
+        assertEquals(20, group.getMachineTime());
+        assertTrue(group.isLastTracking());
+    }
+
+    @Test
+    public final void shouldKeepRecordsWithoutOperationInSeparateGroup() {
+        // given
+        List<ProductionTrackingRecordDTO> records = Lists.newArrayList(record(L_ORDER_ID, null, "1", "1"),
+                record(L_ORDER_ID, null, "1", "1"));
+
+        // when
+        ProductionTrackingRecordsBatch batch = ProductionTrackingRecordsBatch.of(records);
+
+        // then
+        assertEquals(1, batch.getGroups().size());
+
+        ProductionTrackingRecordsBatch.Group group = batch.getGroups().iterator().next();
+
+        assertNull(group.getTechnologyOperationComponentId());
+        assertEquals(2, group.getRecordsCount());
+        assertFalse(group.isLastTracking());
+        assertTrue(batch.getTechnologyOperationComponentsIds().isEmpty());
+    }
+
+    @Test
+    public final void shouldSkipInvalidRecords() {
+        // given
+        ProductionTrackingRecordDTO withoutOrder = record(null, L_OPERATION_ID, "1", "1");
+        ProductionTrackingRecordDTO withNegativeQuantity = record(L_ORDER_ID, L_OPERATION_ID, "-1", "1");
+        ProductionTrackingRecordDTO withNegativeTime = record(L_ORDER_ID, L_OPERATION_ID, "1", "1");
+
+        withNegativeTime.setLaborTime(-5);
+
+        // when
+        ProductionTrackingRecordsBatch batch = ProductionTrackingRecordsBatch.of(Lists.newArrayList(withoutOrder,
+                withNegativeQuantity, withNegativeTime, record(L_ORDER_ID, L_OPERATION_ID, "1", "1")));
+
+        // then
+        assertEquals(4, batch.getRecordsCount());
+        assertEquals(3, batch.getInvalidRecordsCount());
+        assertEquals(1, batch.getGroups().size());
+    }
+
+    @Test
+    public final void shouldGroupRecordsOfLocalTerminals() {
+        // given
+        LocalTerminalRecordsProducer producer = new LocalTerminalRecordsProducer(17L)
+                .withOrderOperation(L_ORDER_ID, L_OPERATION_ID, L_INPUT_PRODUCT_ID, L_OUTPUT_PRODUCT_ID)
+                .withOrderOperation(L_ORDER_ID, 12L, L_OUTPUT_PRODUCT_ID, 103L)
+                .withOrderOperation(L_OTHER_ORDER_ID, null, L_INPUT_PRODUCT_ID, 104L);
+
+        List<ProductionTrackingRecordDTO> records = producer.produce(10000);
+
+        // when
+        ProductionTrackingRecordsBatch batch = ProductionTrackingRecordsBatch.of(records);
+
+        // then
+        Collection<ProductionTrackingRecordsBatch.Group> groups = batch.getGroups();
+
+        assertEquals(3, groups.size());
+        assertEquals(10000, groups.stream().mapToInt(ProductionTrackingRecordsBatch.Group::getRecordsCount).sum());
+        assertEquals(sumOfProducedQuantities(records), groups.stream()
+                .flatMap(group -> group.getProducedQuantities().values().stream()).reduce(BigDecimal.ZERO, BigDecimal::add));
+    }
+
+    private BigDecimal sumOfProducedQuantities(final List<ProductionTrackingRecordDTO> records) {
+        return records.stream().flatMap(record -> record.getProducedQuantities().values().stream())
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    private ProductionTrackingRecordDTO record(final Long orderId, final Long technologyOperationComponentId,
+            final String usedQuantity, final String producedQuantity) {
+        ProductionTrackingRecordDTO record = new ProductionTrackingRecordDTO();
+
+        record.setOrderId(orderId);
+        record.setTechnologyOperationComponentId(technologyOperationComponentId);
+        record.getUsedQuantities().put(L_INPUT_PRODUCT_ID, new BigDecimal(usedQuantity));
+        record.getProducedQuantities().put(L_OUTPUT_PRODUCT_ID, new BigDecimal(producedQuantity));
+        record.setMachineTime(10);
+        record.setLaborTime(10);
+
+        return record;
+    }
+
+}
@@ -0,0 +1,69 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.validators.ErrorMessage;
+import com.qcadoo.model.api.validators.GlobalMessage;
+
+/**
+ * Status and messages of a state change executed in background by {@link StateChangeQueue}.
+ */
+public class StateChangeProgress {
+
+    private final Long stateChangeId;
+
+    private final Long ownerId;
+
+    private volatile StateChangeStatus status = StateChangeStatus.IN_PROGRESS;
+
+    private volatile List<ErrorMessage> errors = Collections.emptyList();
+
+    private volatile List<GlobalMessage> messages = Collections.emptyList();
+
+    StateChangeProgress(final Long stateChangeId, final Long ownerId) {
+        this.stateChangeId = stateChangeId;
+        this.ownerId = ownerId;
+    }
+
+    void finish(final Entity owner, final StateChangeStatus status) {
+        List<ErrorMessage> ownerErrors = Lists.newArrayList(owner.getGlobalErrors());
+        ownerErrors.addAll(owner.getErrors().values());
+
+        this.errors = Collections.unmodifiableList(ownerErrors);
+        this.messages = Collections.unmodifiableList(Lists.newArrayList(owner.getGlobalMessages()));
+        this.status = status;
+    }
+
+    void fail() {
+        this.status = StateChangeStatus.FAILURE;
+    }
+
+    public Long getStateChangeId() {
+        return stateChangeId;
+    }
+
+    public Long getOwnerId() {
+        return ownerId;
+    }
+
+    public StateChangeStatus getStatus() {
+        return status;
+    }
+
+    public boolean isFinished() {
+        return !StateChangeStatus.IN_PROGRESS.equals(status);
+    }
+
+    public List<ErrorMessage> getErrors() {
+        return errors;
+    }
+
+    public List<GlobalMessage> getMessages() {
+        return messages;
+    }
+
+}
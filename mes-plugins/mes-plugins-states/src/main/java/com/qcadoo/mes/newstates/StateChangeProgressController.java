@@ -0,0 +1,63 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Maps;
+import com.qcadoo.localization.api.TranslationService;
+
+/**
+ * Lets clients poll state changes started by {@link StateExecutorService#changeStateInBackground}.
+ */
+@Controller
+@RequestMapping("/rest/stateChanges")
+public class StateChangeProgressController {
+
+    @Autowired
+    private StateChangeQueue stateChangeQueue;
+
+    @Autowired
+    private TranslationService translationService;
+
+    @RequestMapping(method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE, value = "{stateChangeId}")
+    public ResponseEntity<Map<String, Object>> getProgress(@PathVariable final Long stateChangeId) {
+        Optional<StateChangeProgress> maybeProgress = stateChangeQueue.getProgress(stateChangeId);
+
+        if (!maybeProgress.isPresent()) {
+            return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        }
+
+        return new ResponseEntity<>(describe(maybeProgress.get()), HttpStatus.OK);
+    }
+
+    private Map<String, Object> describe(final StateChangeProgress progress) {
+        Map<String, Object> description = Maps.newLinkedHashMap();
+
+        description.put("stateChangeId", progress.getStateChangeId());
+        description.put("ownerId", progress.getOwnerId());
+        description.put("status", progress.getStatus().getStringValue());
+        description.put("finished", progress.isFinished());
+        description.put("errors", progress.getErrors().stream()
+                .map(error -> translate(error.getMessage(), error.getVars())).collect(Collectors.toList()));
+        description.put("messages", progress.getMessages().stream()
+                .map(message -> translate(message.getMessage(), message.getVars())).collect(Collectors.toList()));
+
+        return description;
+    }
+
+    private String translate(final String messageKey, final String... args) {
+        return translationService.translate(messageKey, LocaleContextHolder.getLocale(), args);
+    }
+
+}
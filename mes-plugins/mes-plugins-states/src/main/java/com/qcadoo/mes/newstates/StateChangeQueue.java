@@ -0,0 +1,224 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+/**
+ * Bounded pool executing state changes off the request thread.
+ *
+ * State change entity is saved as IN_PROGRESS by the caller (which also keeps other changes of the same owner away) and
+ * handed over to a worker once the caller's transaction commits. Heavy transitions never run in the calling thread: when the
+ * queue is full, new changes are refused by {@link StateExecutorService#changeStateInBackground} and a change which still
+ * doesn't fit when its transaction commits is marked as FAILURE.
+ *
+ * Queue lives in memory only. Changes still waiting for a worker on shutdown are marked as FAILURE, so they don't block later
+ * state changes of their owners after restart.
+ *
+ * State services run by the queue can't rely on request scoped beans.
+ */
+@Service
+public class StateChangeQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StateChangeQueue.class);
+
+    private static final int WORKERS = 2;
+
+    private static final int QUEUE_CAPACITY = 200;
+
+    private static final int MAX_TRACKED_PROGRESSES = 1000;
+
+    private static final int SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private StateChangeTransactions stateChangeTransactions;
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(QUEUE_CAPACITY), new StateChangeThreadFactory());
+
+    private final Map<Long, StateChangeProgress> progresses = Collections
+            .synchronizedMap(new LinkedHashMap<Long, StateChangeProgress>() {
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<Long, StateChangeProgress> eldest) {
+                    return size() > MAX_TRACKED_PROGRESSES;
+                }
+
+            });
+
+    <M extends StateService> StateChangeProgress submit(final Class<M> serviceMarker, final Long ownerId,
+            final Long stateChangeId) {
+        StateChangeProgress progress = new StateChangeProgress(stateChangeId, ownerId);
+        progresses.put(stateChangeId, progress);
+
+        StateChangeTask<M> task = new StateChangeTask<>(serviceMarker, progress, SecurityContextHolder.getContext(),
+                LocaleContextHolder.getLocale());
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(final int status) {
+                    if (status == STATUS_COMMITTED) {
+                        enqueue(task);
+                    } else {
+                        progress.fail();
+                    }
+                }
+
+            });
+        } else {
+            enqueue(task);
+        }
+
+        return progress;
+    }
+
+    private void enqueue(final StateChangeTask<?> task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            LOG.warn(String.format("State change %d rejected, queue is full", task.progress.getStateChangeId()));
+
+            fail(task);
+        }
+    }
+
+    boolean isFull() {
+        return executor.getQueue().remainingCapacity() == 0;
+    }
+
+    public Optional<StateChangeProgress> getProgress(final Long stateChangeId) {
+        return Optional.fromNullable(progresses.get(stateChangeId));
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        List<Runnable> queuedTasks = Lists.newArrayList();
+
+        executor.getQueue().drainTo(queuedTasks);
+        executor.shutdown();
+
+        for (Runnable queuedTask : queuedTasks) {
+            fail((StateChangeTask<?>) queuedTask);
+        }
+
+        if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            LOG.warn(String.format("%d state changes still running on shutdown", executor.getActiveCount()));
+        }
+    }
+
+    private <M extends StateService> void execute(final StateChangeTask<M> task) {
+        SecurityContext previousSecurityContext = SecurityContextHolder.getContext();
+        Locale previousLocale = LocaleContextHolder.getLocale();
+
+        SecurityContextHolder.setContext(task.securityContext);
+        LocaleContextHolder.setLocale(task.locale);
+
+        StateExecutorService stateExecutorService = createStateExecutorService();
+
+        try {
+            stateChangeTransactions.runInNewTransaction(() -> stateExecutorService.continueChangeState(task.serviceMarker,
+                    task.progress));
+        } catch (RuntimeException exception) {
+            LOG.warn(String.format("Can't perform state change %d in background", task.progress.getStateChangeId()), exception);
+
+            fail(task);
+        } finally {
+            SecurityContextHolder.setContext(previousSecurityContext);
+            LocaleContextHolder.setLocale(previousLocale);
+        }
+    }
+
+    private <M extends StateService> void fail(final StateChangeTask<M> task) {
+        StateExecutorService stateExecutorService = createStateExecutorService();
+
+        try {
+            stateChangeTransactions.runInNewTransaction(() -> stateExecutorService.failChangeState(task.serviceMarker,
+                    task.progress.getStateChangeId()));
+        } catch (RuntimeException exception) {
+            LOG.warn(String.format("Can't mark state change %d as failed", task.progress.getStateChangeId()), exception);
+        } finally {
+            task.progress.fail();
+        }
+    }
+
+    private StateExecutorService createStateExecutorService() {
+        return applicationContext.getAutowireCapableBeanFactory().createBean(StateExecutorService.class);
+    }
+
+    private final class StateChangeTask<M extends StateService> implements Runnable {
+
+        private final Class<M> serviceMarker;
+
+        private final StateChangeProgress progress;
+
+        private final SecurityContext securityContext;
+
+        private final Locale locale;
+
+        private StateChangeTask(final Class<M> serviceMarker, final StateChangeProgress progress,
+                final SecurityContext securityContext, final Locale locale) {
+            this.serviceMarker = serviceMarker;
+            this.progress = progress;
+            this.securityContext = securityContext;
+            this.locale = locale;
+        }
+
+        @Override
+        public void run() {
+            execute(this);
+        }
+
+    }
+
+    private static final class StateChangeThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "state-change-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+
+    }
+
+}
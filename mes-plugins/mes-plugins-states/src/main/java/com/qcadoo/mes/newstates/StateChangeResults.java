@@ -0,0 +1,59 @@
+package com.qcadoo.mes.newstates;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.states.constants.StateChangeStatus;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Outcome of a state change performed for many entities at once, keyed by owner entity id in processing order.
+ */
+public class StateChangeResults {
+
+    private final Map<Long, Entity> entities = Maps.newLinkedHashMap();
+
+    private final Map<Long, StateChangeStatus> statuses = Maps.newLinkedHashMap();
+
+    void add(final Entity entity, final StateChangeStatus status) {
+        entities.put(entity.getId(), entity);
+        statuses.put(entity.getId(), status);
+    }
+
+    public Entity getEntity(final Long id) {
+        return entities.get(id);
+    }
+
+    public StateChangeStatus getStatus(final Long id) {
+        return statuses.get(id);
+    }
+
+    public Map<Long, StateChangeStatus> getStatuses() {
+        return Collections.unmodifiableMap(statuses);
+    }
+
+    public List<Long> getSuccessfulIds() {
+        return getIdsWithStatus(StateChangeStatus.SUCCESSFUL);
+    }
+
+    public List<Long> getFailedIds() {
+        return getIdsWithStatus(StateChangeStatus.FAILURE);
+    }
+
+    public boolean isSuccessful() {
+        return statuses.values().stream().allMatch(StateChangeStatus.SUCCESSFUL::equals);
+    }
+
+    public int size() {
+        return statuses.size();
+    }
+
+    private List<Long> getIdsWithStatus(final StateChangeStatus status) {
+        return statuses.entrySet().stream().filter(entry -> status.equals(entry.getValue())).map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+}
@@ -0,0 +1,19 @@
+package com.qcadoo.mes.newstates;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Runs parts of a bulk state change in their own transactions, so a long selection doesn't keep one transaction (and its
+ * locks) open until the last entity is processed.
+ */
+@Service
+public class StateChangeTransactions {
+
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void runInNewTransaction(final Runnable runnable) {
+        runnable.run();
+    }
+
+}
@@ -9,6 +9,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.apache.log4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,6 +23,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.qcadoo.mes.basic.ShiftsService;
 import com.qcadoo.mes.states.StateChangeEntityDescriber;
@@ -29,6 +31,7 @@ import com.qcadoo.mes.states.StateEnum;
 import com.qcadoo.mes.states.constants.StateChangeStatus;
 import com.qcadoo.mes.states.exception.AnotherChangeInProgressException;
 import com.qcadoo.mes.states.exception.StateTransitionNotAlloweException;
+import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.exception.EntityRuntimeException;
 import com.qcadoo.model.api.search.SearchCriteriaBuilder;
@@ -50,6 +53,8 @@ public class StateExecutorService {
 
     private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(StateExecutorService.class);
 
+    private static final int BULK_CHANGE_BATCH_SIZE = 50;
+
     @Autowired
     private ApplicationContext applicationContext;
 
@@ -59,8 +64,17 @@ public class StateExecutorService {
     @Autowired
     private SecurityService securityService;
 
+    @Autowired
+    private StateChangeTransactions stateChangeTransactions;
+
+    @Autowired
+    private StateChangeQueue stateChangeQueue;
+
     private ComponentMessagesHolder componentMessagesHolder;
 
+    // messages of a bulk change batch, published only when its transaction commits
+    private List<Runnable> deferredMessages;
+
     private static final Logger LOGGER = Logger.getLogger(StateExecutorService.class);
 
     public <M extends StateService> void changeState(Class<M> serviceMarker, final ViewDefinitionState view, String[] args) {
@@ -68,12 +82,10 @@ public class StateExecutorService {
 
         Optional<GridComponent> maybeGridComponent = view.tryFindComponentByReference("grid");
         if (maybeGridComponent.isPresent()) {
-            maybeGridComponent.get().getSelectedEntities().forEach(entity -> {
-                entity = entity.getDataDefinition().getMasterModelEntity(entity.getId());
-                entity = changeState(serviceMarker, entity, args[0]);
+            StateChangeResults results = changeState(serviceMarker,
+                    getMasterModelEntities(maybeGridComponent.get().getSelectedEntities()), args[0]);
 
-                copyMessages(entity);
-            });
+            results.getStatuses().keySet().forEach(id -> copyMessages(results.getEntity(id)));
 
         } else {
             Optional<FormComponent> maybeForm = view.tryFindComponentByReference("form");
@@ -91,20 +103,211 @@ public class StateExecutorService {
     public <M extends StateService> Entity changeState(Class<M> serviceMarker, Entity entity, String targetState) {
         List<M> services = lookupChangeStateServices(serviceMarker);
         StateChangeEntityDescriber describer = services.stream().findFirst().get().getChangeEntityDescriber();
+
+        return changeState(services, describer, entity, targetState, null, new StateChangeResults());
+    }
+
+    /**
+     * Changes state of many entities at once. State services are resolved and unfinished state changes are checked only once
+     * for all of them, then entities are processed in batches, each one in its own transaction.
+     *
+     * Batches are committed independently: when a batch is rolled back, all its entities are reported as failed, while
+     * changes of batches committed before it are kept.
+     *
+     * @param serviceMarker
+     *            marker of state services to run
+     * @param entities
+     *            owner entities, already read from their master model
+     * @param targetState
+     *            target state
+     * @return results of state change for each entity
+     */
+    public <M extends StateService> StateChangeResults changeState(Class<M> serviceMarker, List<Entity> entities,
+            String targetState) {
+        StateChangeResults results = new StateChangeResults();
+
+        if (entities.isEmpty()) {
+            return results;
+        }
+
+        List<M> services = lookupChangeStateServices(serviceMarker);
+        StateChangeEntityDescriber describer = services.stream().findFirst().get().getChangeEntityDescriber();
+        Set<Long> ownersWithUnfinishedStateChange = findOwnersWithUnfinishedStateChange(describer,
+                entities.stream().map(Entity::getId).collect(Collectors.toList()));
+
+        for (List<Entity> batch : Lists.partition(entities, BULK_CHANGE_BATCH_SIZE)) {
+            changeStateInBatch(services, describer, batch, targetState, ownersWithUnfinishedStateChange, results);
+        }
+
+        return results;
+    }
+
+    private <M extends StateService> void changeStateInBatch(List<M> services, StateChangeEntityDescriber describer,
+            List<Entity> batch, String targetState, Set<Long> ownersWithUnfinishedStateChange, StateChangeResults results) {
+        StateChangeResults batchResults = new StateChangeResults();
+        Map<Long, String> sourceStates = Maps.newHashMap();
+
+        batch.forEach(entity -> sourceStates.put(entity.getId(), entity.getStringField(describer.getOwnerStateFieldName())));
+
+        List<Runnable> batchMessages = Lists.newArrayList();
+        boolean committed = false;
+
+        deferredMessages = batchMessages;
+
+        try {
+            stateChangeTransactions.runInNewTransaction(() -> batch.forEach(entity -> changeState(services, describer, entity,
+                    targetState, ownersWithUnfinishedStateChange, batchResults)));
+
+            committed = true;
+        } catch (RuntimeException exception) {
+            LOG.warn(String.format("State change of %d entities was rolled back. Target state : %S", batch.size(), targetState),
+                    exception);
+        } finally {
+            deferredMessages = null;
+        }
+
+        if (committed) {
+            batchMessages.forEach(Runnable::run);
+            batchResults.getStatuses().forEach((id, status) -> results.add(batchResults.getEntity(id), status));
+
+            return;
+        }
+
+        for (Entity entity : batch) {
+            Entity failedEntity = Optional.fromNullable(batchResults.getEntity(entity.getId())).or(entity);
+
+            failedEntity = rollbackStateChange(failedEntity, sourceStates.get(entity.getId()));
+            failedEntity.addGlobalError("states.messages.change.failure.batchRolledBack");
+
+            results.add(failedEntity, StateChangeStatus.FAILURE);
+            message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+        }
+    }
+
+    /**
+     * Starts state change of given entity and leaves its execution to {@link StateChangeQueue}. Transition and unfinished state
+     * changes are checked right away, state change entity is saved as IN_PROGRESS and hooks are run by a queue worker after
+     * the current transaction commits. Change is rejected when the queue is full.
+     *
+     * @param serviceMarker
+     *            marker of state services to run
+     * @param entity
+     *            owner entity
+     * @param targetState
+     *            target state
+     * @return progress of state change, which can be polled for its status and messages
+     */
+    public <M extends StateService> StateChangeProgress changeStateInBackground(Class<M> serviceMarker, Entity entity,
+            String targetState) {
+        List<M> services = lookupChangeStateServices(serviceMarker);
+        StateChangeEntityDescriber describer = services.stream().findFirst().get().getChangeEntityDescriber();
         String sourceState = entity.getStringField(describer.getOwnerStateFieldName());
 
         Entity stateChangeEntity = buildStateChangeEntity(describer, entity, sourceState, targetState);
 
-        try {
+        if (stateChangeQueue.isFull()) {
+            return rejectChangeStateInBackground(entity, stateChangeEntity, "states.messages.change.failure.queueFull");
+        }
 
+        try {
             stateChangeEntity = saveStateChangeContext(entity, stateChangeEntity, describer, sourceState, targetState,
-                    StateChangeStatus.IN_PROGRESS);
+                    StateChangeStatus.IN_PROGRESS, null);
+        } catch (AnotherChangeInProgressException e) {
+            return rejectChangeStateInBackground(entity, stateChangeEntity,
+                    "states.messages.change.failure.anotherChangeInProgress");
+        } catch (StateTransitionNotAlloweException e) {
+            return rejectChangeStateInBackground(entity, stateChangeEntity,
+                    "states.messages.change.failure.transitionNotAllowed");
+        }
+
+        message("states.messages.change.paused", ComponentState.MessageType.INFO);
+        LOG.info(String.format("Change state queued. Entity name : %S id : %d. Target state : %S", entity.getDataDefinition()
+                .getName(), entity.getId(), targetState));
+
+        return stateChangeQueue.submit(serviceMarker, entity.getId(), stateChangeEntity.getId());
+    }
+
+    private StateChangeProgress rejectChangeStateInBackground(Entity entity, Entity stateChangeEntity, String cause) {
+        stateChangeEntity = saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+        message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
+        message(cause, ComponentState.MessageType.FAILURE);
+
+        StateChangeProgress progress = new StateChangeProgress(stateChangeEntity.getId(), entity.getId());
+        progress.fail();
+
+        return progress;
+    }
+
+    <M extends StateService> void continueChangeState(Class<M> serviceMarker, StateChangeProgress progress) {
+        List<M> services = lookupChangeStateServices(serviceMarker);
+        StateChangeEntityDescriber describer = services.stream().findFirst().get().getChangeEntityDescriber();
+
+        Entity stateChangeEntity = describer.getDataDefinition().get(progress.getStateChangeId());
+        Entity entity = describer.getOwnerDataDefinition().get(progress.getOwnerId());
+
+        StateChangeResults results = new StateChangeResults();
+        entity = changeState(services, describer, entity, stateChangeEntity, null, results);
+
+        progress.finish(entity, results.getStatus(entity.getId()));
+    }
+
+    <M extends StateService> void failChangeState(Class<M> serviceMarker, Long stateChangeId) {
+        List<M> services = lookupChangeStateServices(serviceMarker);
+        StateChangeEntityDescriber describer = services.stream().findFirst().get().getChangeEntityDescriber();
+
+        Entity stateChangeEntity = describer.getDataDefinition().get(stateChangeId);
+        if (stateChangeEntity != null) {
+            saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+        }
+    }
+
+    private List<Entity> getMasterModelEntities(final List<Entity> entities) {
+        if (entities.isEmpty()) {
+            return entities;
+        }
+
+        Entity first = entities.get(0);
+        DataDefinition dataDefinition = first.getDataDefinition();
+        DataDefinition masterDataDefinition = dataDefinition.getMasterModelEntity(first.getId()).getDataDefinition();
+
+        if (dataDefinition.equals(masterDataDefinition)) {
+            return entities;
+        }
+
+        List<Long> ids = entities.stream().map(Entity::getId).collect(Collectors.toList());
+        Map<Long, Entity> masterEntities = masterDataDefinition.find().add(SearchRestrictions.in("id", ids)).list()
+                .getEntities().stream().collect(Collectors.toMap(Entity::getId, entity -> entity));
+
+        return ids.stream().map(masterEntities::get).filter(entity -> entity != null).collect(Collectors.toList());
+    }
+
+    private <M extends StateService> Entity changeState(List<M> services, StateChangeEntityDescriber describer, Entity entity,
+            String targetState, Set<Long> ownersWithUnfinishedStateChange, StateChangeResults results) {
+        String sourceState = entity.getStringField(describer.getOwnerStateFieldName());
+
+        Entity stateChangeEntity = buildStateChangeEntity(describer, entity, sourceState, targetState);
+
+        return changeState(services, describer, entity, stateChangeEntity, ownersWithUnfinishedStateChange, results);
+    }
+
+    private <M extends StateService> Entity changeState(List<M> services, StateChangeEntityDescriber describer, Entity entity,
+            Entity stateChangeEntity, Set<Long> ownersWithUnfinishedStateChange, StateChangeResults results) {
+        String sourceState = stateChangeEntity.getStringField(describer.getSourceStateFieldName());
+        String targetState = stateChangeEntity.getStringField(describer.getTargetStateFieldName());
+
+        try {
+
+            if (stateChangeEntity.getId() == null) {
+                stateChangeEntity = saveStateChangeContext(entity, stateChangeEntity, describer, sourceState, targetState,
+                        StateChangeStatus.IN_PROGRESS, ownersWithUnfinishedStateChange);
+            }
 
             entity = performChangeState(services, entity, stateChangeEntity, describer);
 
             if (entity.isValid()) {
                 copyMessages(entity);
                 saveStateChangeEntity(stateChangeEntity, StateChangeStatus.SUCCESSFUL);
+                results.add(entity, StateChangeStatus.SUCCESSFUL);
                 message("states.messages.change.successful", ComponentState.MessageType.SUCCESS);
                 LOG.info(String.format("Change state successful. Entity name : %S id : %d. Target state : %S", entity
                         .getDataDefinition().getName(), entity.getId(), stateChangeEntity.getStringField(describer
@@ -112,6 +315,7 @@ public class StateExecutorService {
             } else {
                 saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
                 entity = rollbackStateChange(entity, sourceState);
+                results.add(entity, StateChangeStatus.FAILURE);
                 message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
                 LOG.info(String.format("Change state failure. Entity name : %S id : %d. Target state : %S", entity
                         .getDataDefinition().getName(), entity.getId(), stateChangeEntity.getStringField(describer
@@ -122,12 +326,14 @@ public class StateExecutorService {
             copyMessages(entityException.getEntity(), entity);
             entity = rollbackStateChange(entity, sourceState);
             saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            results.add(entity, StateChangeStatus.FAILURE);
             message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
             return entity;
 
         } catch (AnotherChangeInProgressException e) {
             entity = rollbackStateChange(entity, sourceState);
             saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            results.add(entity, StateChangeStatus.FAILURE);
             message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
             message("states.messages.change.failure.anotherChangeInProgress", ComponentState.MessageType.FAILURE);
             LOG.info(String.format("Another state change in progress. Entity name : %S id : %d. Target state : %S", entity
@@ -135,6 +341,7 @@ public class StateExecutorService {
         } catch (StateTransitionNotAlloweException e) {
             entity = rollbackStateChange(entity, sourceState);
             saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            results.add(entity, StateChangeStatus.FAILURE);
             message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
             message("states.messages.change.failure.transitionNotAllowed", ComponentState.MessageType.FAILURE);
             LOG.info(String.format("State change - transition not allowed. Entity name : %S id : %d. Target state : %S", entity
@@ -142,6 +349,7 @@ public class StateExecutorService {
         } catch (Exception exception) {
             entity = rollbackStateChange(entity, sourceState);
             saveStateChangeEntity(stateChangeEntity, StateChangeStatus.FAILURE);
+            results.add(entity, StateChangeStatus.FAILURE);
             message("states.messages.change.failure", ComponentState.MessageType.FAILURE);
             message("states.messages.change.failure.internalServerError", ComponentState.MessageType.FAILURE);
             LOG.info(String.format("State change exception. Entity name : %S id : %d. Target state : %S", entity
@@ -153,13 +361,17 @@ public class StateExecutorService {
     }
 
     private Entity saveStateChangeContext(Entity entity, Entity stateChangeEntity, StateChangeEntityDescriber describer,
-            String _sourceState, String _targetState, StateChangeStatus status) {
+            String _sourceState, String _targetState, StateChangeStatus status, Set<Long> ownersWithUnfinishedStateChange) {
         final StateEnum sourceState = describer.parseStateEnum(_sourceState);
         final StateEnum targetState = describer.parseStateEnum(_targetState);
         if (sourceState != null && !sourceState.canChangeTo(targetState)) {
             throw new StateTransitionNotAlloweException(sourceState, targetState);
         }
-        checkForUnfinishedStateChange(describer, entity);
+        if (ownersWithUnfinishedStateChange == null) {
+            checkForUnfinishedStateChange(describer, entity);
+        } else if (ownersWithUnfinishedStateChange.contains(entity.getId())) {
+            throw new AnotherChangeInProgressException();
+        }
         stateChangeEntity = saveStateChangeEntity(stateChangeEntity, status);
         return stateChangeEntity;
     }
@@ -321,16 +533,19 @@ public class StateExecutorService {
             return;
         }
 
-        for (ErrorMessage errorMessage : entity.getGlobalErrors()) {
-            componentMessagesHolder.addMessage(errorMessage);
-        }
-        for (ErrorMessage errorMessage : entity.getErrors().values()) {
-            componentMessagesHolder.addMessage(errorMessage);
-        }
+        List<ErrorMessage> errorMessages = Lists.newArrayList(entity.getGlobalErrors());
+        errorMessages.addAll(entity.getErrors().values());
+        List<GlobalMessage> globalMessages = Lists.newArrayList(entity.getGlobalMessages());
 
-        for (GlobalMessage globalMessage : entity.getGlobalMessages()) {
-            componentMessagesHolder.addMessage(globalMessage);
-        }
+        publish(() -> {
+            for (ErrorMessage errorMessage : errorMessages) {
+                componentMessagesHolder.addMessage(errorMessage);
+            }
+
+            for (GlobalMessage globalMessage : globalMessages) {
+                componentMessagesHolder.addMessage(globalMessage);
+            }
+        });
     }
 
     private void copyMessages(Entity entity) {
@@ -351,10 +566,34 @@ public class StateExecutorService {
 
     private void message(String msg, ComponentState.MessageType messageType) {
         if (componentMessagesHolder != null) {
-            componentMessagesHolder.addMessage(msg, messageType);
+            publish(() -> componentMessagesHolder.addMessage(msg, messageType));
         }
     }
 
+    private void publish(Runnable message) {
+        if (deferredMessages == null) {
+            message.run();
+        } else {
+            deferredMessages.add(message);
+        }
+    }
+
+    private Set<Long> findOwnersWithUnfinishedStateChange(final StateChangeEntityDescriber describer,
+            final List<Long> ownersIds) {
+        final String ownerFieldName = describer.getOwnerFieldName();
+        final String statusFieldName = describer.getStatusFieldName();
+        final Set<String> unfinishedStatuses = Sets.newHashSet(IN_PROGRESS.getStringValue(), PAUSED.getStringValue());
+
+        final SearchCriteriaBuilder searchCriteria = describer.getDataDefinition().find();
+        searchCriteria.createAlias(ownerFieldName, ownerFieldName);
+        searchCriteria.add(SearchRestrictions.in(ownerFieldName + ".id", ownersIds));
+        searchCriteria.add(SearchRestrictions.in(statusFieldName, unfinishedStatuses));
+
+        return searchCriteria.list().getEntities().stream()
+                .map(stateChangeEntity -> stateChangeEntity.getBelongsToField(ownerFieldName).getId())
+                .collect(Collectors.toSet());
+    }
+
     private void checkForUnfinishedStateChange(final StateChangeEntityDescriber describer, final Entity owner) {
         final String ownerFieldName = describer.getOwnerFieldName();
         final String statusFieldName = describer.getStatusFieldName();
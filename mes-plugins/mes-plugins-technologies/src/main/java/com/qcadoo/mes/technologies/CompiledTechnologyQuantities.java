@@ -0,0 +1,330 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentEntityType;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.states.constants.TechnologyState;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityTree;
+
+/**
+ * Technology tree (with referenced technologies) compiled for product quantities calculation: unit quantities of operation
+ * product components kept in an array and the list of multiplications done while traversing the tree. Evaluating it for a
+ * given quantity gives the same quantities, operation runs and non components as
+ * {@link ProductQuantitiesService#preloadProductQuantitiesAndOperationRuns} followed by
+ * {@link ProductQuantitiesService#traverseProductQuantitiesAndOperationRuns}, without touching the entities again.
+ */
+public final class CompiledTechnologyQuantities {
+
+    private static final String L_QUANTITY = "quantity";
+
+    private static final int GIVEN_QUANTITY_INDEX = -1;
+
+    private final OperationProductComponentHolder[] holders;
+
+    private final BigDecimal[] unitQuantities;
+
+    private final Long[] operationComponentIds;
+
+    private final Multiplication[] multiplications;
+
+    private final Set<OperationProductComponentHolder> nonComponents;
+
+    private final Set<Long> technologyIds;
+
+    private final boolean cacheable;
+
+    private CompiledTechnologyQuantities(final Compiler compiler) {
+        this.holders = compiler.holders.toArray(new OperationProductComponentHolder[compiler.holders.size()]);
+        this.unitQuantities = compiler.unitQuantities.toArray(new BigDecimal[compiler.unitQuantities.size()]);
+        this.operationComponentIds = compiler.operationComponentIds.toArray(new Long[compiler.operationComponentIds.size()]);
+        this.multiplications = compiler.multiplications.toArray(new Multiplication[compiler.multiplications.size()]);
+        this.nonComponents = ImmutableSet.copyOf(compiler.nonComponents);
+        this.technologyIds = ImmutableSet.copyOf(compiler.technologyIds);
+        this.cacheable = compiler.cacheable;
+    }
+
+    public static CompiledTechnologyQuantities compile(final Entity technology) {
+        Compiler compiler = new Compiler();
+
+        compiler.compile(technology);
+
+        return new CompiledTechnologyQuantities(compiler);
+    }
+
+    public void evaluate(final BigDecimal givenQuantity, final MathContext mathContext,
+            final OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer,
+            final Set<OperationProductComponentHolder> nonComponents, final Map<Long, BigDecimal> operationRuns) {
+        BigDecimal[] quantities = unitQuantities.clone();
+
+        for (Long operationComponentId : operationComponentIds) {
+            operationRuns.put(operationComponentId, BigDecimal.ONE);
+        }
+
+        for (Multiplication multiplication : multiplications) {
+            BigDecimal needed = (multiplication.neededIndex == GIVEN_QUANTITY_INDEX) ? givenQuantity
+                    : quantities[multiplication.neededIndex];
+            BigDecimal multiplier = needed.divide(quantities[multiplication.actualIndex], mathContext);
+
+            if (!multiplication.areProductQuantitiesDivisible) {
+                // It's intentional to round up the operation runs
+                multiplier = multiplier.setScale(0, RoundingMode.CEILING);
+            }
+
+            BigDecimal runs = multiplier;
+
+            if (!multiplication.isTjDivisible) {
+                runs = multiplier.setScale(0, RoundingMode.CEILING);
+            }
+
+            operationRuns.put(multiplication.operationComponentId, runs);
+
+            for (int index : multiplication.multipliedIndexes) {
+                quantities[index] = quantities[index].multiply(multiplier, mathContext).setScale(5, RoundingMode.CEILING);
+            }
+        }
+
+        for (int index = 0; index < holders.length; index++) {
+            if (quantities[index] != null) {
+                operationProductComponentWithQuantityContainer.put(holders[index], quantities[index]);
+            }
+        }
+
+        nonComponents.addAll(this.nonComponents);
+    }
+
+    /**
+     * @return true if neither the technology nor any of referenced technologies can be modified any more
+     */
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    public boolean dependsOn(final Long technologyId) {
+        return technologyIds.contains(technologyId);
+    }
+
+    private static final class Multiplication {
+
+        private final Long operationComponentId;
+
+        private final int neededIndex;
+
+        private final int actualIndex;
+
+        private final boolean areProductQuantitiesDivisible;
+
+        private final boolean isTjDivisible;
+
+        private final int[] multipliedIndexes;
+
+        private Multiplication(final Long operationComponentId, final int neededIndex, final int actualIndex,
+                final boolean areProductQuantitiesDivisible, final boolean isTjDivisible, final int[] multipliedIndexes) {
+            this.operationComponentId = operationComponentId;
+            this.neededIndex = neededIndex;
+            this.actualIndex = actualIndex;
+            this.areProductQuantitiesDivisible = areProductQuantitiesDivisible;
+            this.isTjDivisible = isTjDivisible;
+            this.multipliedIndexes = multipliedIndexes;
+        }
+
+    }
+
+    private static final class Compiler {
+
+        private final Map<OperationProductComponentHolder, Integer> indexes = Maps.newHashMap();
+
+        private final List<OperationProductComponentHolder> holders = Lists.newArrayList();
+
+        private final List<BigDecimal> unitQuantities = Lists.newArrayList();
+
+        private final List<Long> operationComponentIds = Lists.newArrayList();
+
+        private final List<Multiplication> multiplications = Lists.newArrayList();
+
+        private final Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+
+        private final Set<Long> technologyIds = Sets.newHashSet();
+
+        private boolean cacheable = true;
+
+        private void compile(final Entity technology) {
+            addTechnology(technology);
+
+            EntityTree operationComponents = technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
+            Entity root = operationComponents.getRoot();
+
+            if (root != null) {
+                preload(operationComponents);
+                traverse(technology, root, null);
+            }
+        }
+
+        private void addTechnology(final Entity technology) {
+            if (technology.getId() == null) {
+                cacheable = false;
+            } else {
+                technologyIds.add(technology.getId());
+            }
+
+            if (TechnologyState.DRAFT.equals(TechnologyState.of(technology))) {
+                cacheable = false;
+            }
+        }
+
+        private void preload(final EntityTree operationComponents) {
+            for (Entity operationComponent : operationComponents) {
+                if (isReferenceTechnology(operationComponent)) {
+                    Entity referenceTechnology = operationComponent
+                            .getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY);
+
+                    addTechnology(referenceTechnology);
+                    preload(referenceTechnology.getTreeField(TechnologyFields.OPERATION_COMPONENTS));
+
+                    continue;
+                }
+
+                preloadQuantities(operationComponent
+                        .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS));
+                preloadQuantities(operationComponent
+                        .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS));
+
+                operationComponentIds.add(operationComponent.getId());
+            }
+        }
+
+        private void preloadQuantities(final List<Entity> operationProductComponents) {
+            for (Entity operationProductComponent : operationProductComponents) {
+                unitQuantities.set(indexOf(operationProductComponent), operationProductComponent.getDecimalField(L_QUANTITY));
+            }
+        }
+
+        private void traverse(final Entity technology, final Entity operationComponent, final Entity previousOperationComponent) {
+            if (isReferenceTechnology(operationComponent)) {
+                Entity referenceTechnology = operationComponent
+                        .getBelongsToField(TechnologyOperationComponentFields.REFERENCE_TECHNOLOGY);
+
+                traverse(referenceTechnology, referenceTechnology.getTreeField(TechnologyFields.OPERATION_COMPONENTS).getRoot(),
+                        previousOperationComponent);
+
+                return;
+            }
+
+            List<Entity> operationProductOutComponents = operationComponent
+                    .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS);
+
+            if (previousOperationComponent == null) {
+                Long technologyProductId = technology.getBelongsToField(TechnologyFields.PRODUCT).getId();
+
+                for (Entity operationProductOutComponent : operationProductOutComponents) {
+                    if (operationProductOutComponent.getBelongsToField(OperationProductOutComponentFields.PRODUCT).getId()
+                            .equals(technologyProductId)) {
+                        addMultiplication(operationComponent, GIVEN_QUANTITY_INDEX, indexOf(operationProductOutComponent));
+
+                        break;
+                    }
+                }
+            } else {
+                for (Entity operationProductInComponent : previousOperationComponent
+                        .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS)) {
+                    Long productId = operationProductInComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT)
+                            .getId();
+
+                    for (Entity operationProductOutComponent : operationProductOutComponents) {
+                        if (operationProductOutComponent.getBelongsToField(OperationProductOutComponentFields.PRODUCT).getId()
+                                .equals(productId)) {
+                            addMultiplication(operationComponent, indexOf(operationProductInComponent),
+                                    indexOf(operationProductOutComponent));
+
+                            nonComponents.add(new OperationProductComponentHolder(operationProductInComponent));
+
+                            break;
+                        }
+                    }
+                }
+            }
+
+            for (Entity child : operationComponent.getHasManyField(TechnologyOperationComponentFields.CHILDREN)) {
+                traverse(technology, child, operationComponent);
+            }
+        }
+
+        private void addMultiplication(final Entity operationComponent, final int neededIndex, final int actualIndex) {
+            List<Integer> multipliedIndexes = Lists.newArrayList();
+
+            for (Entity operationProductInComponent : operationComponent
+                    .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS)) {
+                multipliedIndexes.add(indexOf(operationProductInComponent));
+            }
+            for (Entity operationProductOutComponent : operationComponent
+                    .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS)) {
+                multipliedIndexes.add(indexOf(operationProductOutComponent));
+            }
+
+            multiplications.add(new Multiplication(operationComponent.getId(), neededIndex, actualIndex,
+                    operationComponent.getBooleanField(TechnologyOperationComponentFields.ARE_PRODUCT_QUANTITIES_DIVISIBLE),
+                    operationComponent.getBooleanField(TechnologyOperationComponentFields.IS_TJ_DIVISIBLE),
+                    multipliedIndexes.stream().mapToInt(Integer::intValue).toArray()));
+        }
+
+        private int indexOf(final Entity operationProductComponent) {
+            OperationProductComponentHolder holder = new OperationProductComponentHolder(operationProductComponent);
+            Integer index = indexes.get(holder);
+
+            if (index == null) {
+                index = holders.size();
+
+                indexes.put(holder, index);
+                holders.add(holder);
+                unitQuantities.add(null);
+            }
+
+            return index;
+        }
+
+        private boolean isReferenceTechnology(final Entity operationComponent) {
+            return TechnologyOperationComponentEntityType.REFERENCE_TECHNOLOGY.getStringValue().equals(
+                    operationComponent.getStringField(TechnologyOperationComponentFields.ENTITY_TYPE));
+        }
+
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies;
+
+import org.springframework.stereotype.Service;
+
+import com.qcadoo.mes.basic.cache.TransactionalCache;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Cache of compiled technologies, keyed by technology id. Only technologies which (together with referenced technologies) are
+ * not drafts any more are kept, so entries have to be dropped only when technology state changes.
+ *
+ * Updating technology drops it together with technologies referencing it, see {@link TransactionalCache} for how invalidation
+ * interacts with the current transaction.
+ */
+@Service
+public class CompiledTechnologyQuantitiesCache {
+
+    private static final int MAX_SIZE = 1000;
+
+    private final TransactionalCache<Long, CompiledTechnologyQuantities> technologies = new TransactionalCache<>(MAX_SIZE);
+
+    public CompiledTechnologyQuantities get(final Entity technology) {
+        Long technologyId = technology.getId();
+
+        if (technologyId == null) {
+            return CompiledTechnologyQuantities.compile(technology);
+        }
+
+        return technologies.get(technologyId, () -> CompiledTechnologyQuantities.compile(technology),
+                CompiledTechnologyQuantities::isCacheable);
+    }
+
+    public void invalidate(final Entity technology) {
+        if (technology.getId() != null) {
+            invalidate(technology.getId());
+        }
+    }
+
+    public void invalidate(final Long technologyId) {
+        technologies.invalidateIf((id, compiledTechnology) -> technologyId.equals(id)
+                || compiledTechnology.dependsOn(technologyId));
+    }
+
+}
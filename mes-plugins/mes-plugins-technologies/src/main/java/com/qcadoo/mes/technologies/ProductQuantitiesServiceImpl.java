@@ -25,6 +25,7 @@ package com.qcadoo.mes.technologies;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -48,6 +49,8 @@ import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
 import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
 import com.qcadoo.mes.technologies.dto.ProductQuantitiesHolder;
+import com.qcadoo.mes.technologies.dto.QuantitiesAccumulator;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
 import com.qcadoo.model.api.DataDefinition;
 import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
@@ -72,6 +75,9 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    @Autowired
+    private CompiledTechnologyQuantitiesCache compiledTechnologyQuantitiesCache;
+
     @Override
     public ProductQuantitiesHolder getProductComponentQuantities(final Entity technology, final BigDecimal givenQuantity) {
         Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
@@ -207,29 +213,26 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     public OperationProductComponentWithQuantityContainer getProductComponentWithQuantitiesForTechnology(final Entity technology,
             final BigDecimal givenQuantity, final Map<Long, BigDecimal> operationRuns,
             final Set<OperationProductComponentHolder> nonComponents) {
-        OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer = new OperationProductComponentWithQuantityContainer();
+        return getProductComponentWithQuantitiesForTechnology(compiledTechnologyQuantitiesCache.get(technology), givenQuantity,
+                operationRuns, nonComponents);
+    }
 
-        EntityTree operationComponents = getOperationComponentsFromTechnology(technology);
-        Entity root = operationComponents.getRoot();
+    private OperationProductComponentWithQuantityContainer getProductComponentWithQuantitiesForTechnology(
+            final CompiledTechnologyQuantities compiledTechnology, final BigDecimal givenQuantity,
+            final Map<Long, BigDecimal> operationRuns, final Set<OperationProductComponentHolder> nonComponents) {
+        OperationProductComponentWithQuantityContainer operationProductComponentWithQuantityContainer = new OperationProductComponentWithQuantityContainer();
 
-        if (root != null) {
-            preloadProductQuantitiesAndOperationRuns(operationComponents, operationProductComponentWithQuantityContainer,
-                    operationRuns);
-            traverseProductQuantitiesAndOperationRuns(technology, givenQuantity, root, null,
-                    operationProductComponentWithQuantityContainer, nonComponents, operationRuns);
-        }
+        compiledTechnology.evaluate(givenQuantity, numberService.getMathContext(), operationProductComponentWithQuantityContainer,
+                nonComponents, operationRuns);
 
         return operationProductComponentWithQuantityContainer;
     }
 
-    private EntityTree getOperationComponentsFromTechnology(final Entity technology) {
-        return technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS);
-    }
-
     private OperationProductComponentWithQuantityContainer getProductComponentWithQuantitiesForOrders(final List<Entity> orders,
             final Map<Long, BigDecimal> operationRuns, final Set<OperationProductComponentHolder> nonComponents,
             final boolean onTheFly) {
         Map<Long, OperationProductComponentWithQuantityContainer> productComponentWithQuantitiesForOrders = Maps.newHashMap();
+        Map<Long, CompiledTechnologyQuantities> compiledTechnologies = Maps.newHashMap();
 
         for (Entity order : orders) {
             BigDecimal plannedQuantity = order.getDecimalField(L_PLANNED_QUANTITY);
@@ -240,8 +243,18 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
                 throw new IllegalStateException("Order doesn't contain technology.");
             }
 
-            productComponentWithQuantitiesForOrders.put(order.getId(),
-                    getProductComponentWithQuantitiesForTechnology(technology, plannedQuantity, operationRuns, nonComponents));
+            CompiledTechnologyQuantities compiledTechnology = compiledTechnologies.get(technology.getId());
+
+            if (compiledTechnology == null) {
+                compiledTechnology = compiledTechnologyQuantitiesCache.get(technology);
+
+                if (technology.getId() != null) {
+                    compiledTechnologies.put(technology.getId(), compiledTechnology);
+                }
+            }
+
+            productComponentWithQuantitiesForOrders.put(order.getId(), getProductComponentWithQuantitiesForTechnology(
+                    compiledTechnology, plannedQuantity, operationRuns, nonComponents));
         }
 
         return groupOperationProductComponentWithQuantities(productComponentWithQuantitiesForOrders);
@@ -257,19 +270,8 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
 
             for (Entry<OperationProductComponentHolder, BigDecimal> productComponentWithQuantity : operationProductComponentWithQuantityContainerForOrder
                     .getValue().asMap().entrySet()) {
-                OperationProductComponentHolder operationProductComponentHolder = productComponentWithQuantity.getKey();
-                BigDecimal quantity = productComponentWithQuantity.getValue();
-
-                if (operationProductComponentWithQuantityContainer.containsKey(operationProductComponentHolder)) {
-                    BigDecimal addedQuantity = operationProductComponentWithQuantityContainer
-                            .get(operationProductComponentHolder);
-
-                    quantity = quantity.add(addedQuantity, numberService.getMathContext());
-
-                    operationProductComponentWithQuantityContainer.put(operationProductComponentHolder, quantity);
-                } else {
-                    operationProductComponentWithQuantityContainer.put(operationProductComponentHolder, quantity);
-                }
+                operationProductComponentWithQuantityContainer.add(productComponentWithQuantity.getKey(),
+                        productComponentWithQuantity.getValue(), numberService.getMathContext());
             }
         }
 
@@ -543,7 +545,7 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
     private Map<Long, BigDecimal> getProductWithoutSubcontractingProduct(
             final OperationProductComponentWithQuantityContainer productComponentWithQuantities,
             final Set<OperationProductComponentHolder> nonComponents, final boolean onlyComponents, final boolean onlyMaterials) {
-        Map<Long, BigDecimal> productWithQuantities = Maps.newHashMap();
+        List<Entry<OperationProductComponentHolder, BigDecimal>> productComponentsWithQuantities = Lists.newArrayList();
 
         for (Entry<OperationProductComponentHolder, BigDecimal> productComponentWithQuantity : productComponentWithQuantities
                 .asMap().entrySet()) {
@@ -552,30 +554,57 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             if (onlyComponents && nonComponents.contains(operationProductComponentHolder)) {
                 continue;
             }
-            if (onlyMaterials) {
-                Entity product = operationProductComponentHolder.getProduct();
-                if (hasAcceptedMasterTechnology(product)) {
-                    continue;
-                }
+
+            productComponentsWithQuantities.add(productComponentWithQuantity);
+        }
+
+        Set<Long> productsWithAcceptedMasterTechnology = Collections.emptySet();
+
+        if (onlyMaterials) {
+            productsWithAcceptedMasterTechnology = getProductsWithAcceptedMasterTechnology(productComponentsWithQuantities);
+        }
+
+        QuantitiesAccumulator productWithQuantities = new QuantitiesAccumulator(productComponentsWithQuantities.size());
+
+        for (Entry<OperationProductComponentHolder, BigDecimal> productComponentWithQuantity : productComponentsWithQuantities) {
+            Long productId = productComponentWithQuantity.getKey().getProductId();
+
+            if (productsWithAcceptedMasterTechnology.contains(productId)) {
+                continue;
             }
 
-            addProductQuantitiesToList(productComponentWithQuantity, productWithQuantities);
+            productWithQuantities.add(productId, productComponentWithQuantity.getValue());
         }
 
-        return productWithQuantities;
+        return productWithQuantities.toMap();
     }
 
-    private boolean hasAcceptedMasterTechnology(final Entity product) {
+    private Set<Long> getProductsWithAcceptedMasterTechnology(
+            final List<Entry<OperationProductComponentHolder, BigDecimal>> productComponentsWithQuantities) {
+        Set<Long> productIds = Sets.newHashSet();
+
+        for (Entry<OperationProductComponentHolder, BigDecimal> productComponentWithQuantity : productComponentsWithQuantities) {
+            productIds.add(productComponentWithQuantity.getKey().getProductId());
+        }
+
+        Set<Long> productsWithAcceptedMasterTechnology = Sets.newHashSet();
+
+        if (productIds.isEmpty()) {
+            return productsWithAcceptedMasterTechnology;
+        }
+
         DataDefinition technologyDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
                 TechnologiesConstants.MODEL_TECHNOLOGY);
-        Entity masterTechnology = technologyDD
-                .find()
-                .add(SearchRestrictions.and(SearchRestrictions.belongsTo(TechnologyFields.PRODUCT, product),
-                        (SearchRestrictions.eq("state", "02accepted"))))
-                .add(SearchRestrictions.eq(TechnologyFields.MASTER, true)).setMaxResults(1).uniqueResult();
+        List<Entity> masterTechnologies = technologyDD.find()
+                .add(SearchRestrictions.in(TechnologyFields.PRODUCT + ".id", productIds))
+                .add(SearchRestrictions.eq(TechnologyFields.STATE, TechnologyStateStringValues.ACCEPTED))
+                .add(SearchRestrictions.eq(TechnologyFields.MASTER, true)).list().getEntities();
 
-        return masterTechnology != null;
+        for (Entity masterTechnology : masterTechnologies) {
+            productsWithAcceptedMasterTechnology.add(masterTechnology.getBelongsToField(TechnologyFields.PRODUCT).getId());
+        }
 
+        return productsWithAcceptedMasterTechnology;
     }
 
     @Override
@@ -583,15 +612,15 @@ public class ProductQuantitiesServiceImpl implements ProductQuantitiesService {
             final Map<Long, BigDecimal> productWithQuantities) {
         OperationProductComponentHolder operationProductComponentHolder = productComponentWithQuantity.getKey();
 
-        Entity product = operationProductComponentHolder.getProduct();
+        Long productId = operationProductComponentHolder.getProductId();
         BigDecimal newQuantity = productComponentWithQuantity.getValue();
 
-        BigDecimal oldQuantity = productWithQuantities.get(product.getId());
+        BigDecimal oldQuantity = productWithQuantities.get(productId);
         if (oldQuantity != null) {
             newQuantity = newQuantity.add(oldQuantity);
         }
 
-        productWithQuantities.put(product.getId(), newQuantity);
+        productWithQuantities.put(productId, newQuantity);
     }
 
     @Override
@@ -0,0 +1,144 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * Types of products used in technology operations (component, intermediate, final product, waste), keyed by product id.
+ *
+ * Products are classified the same way as by {@link TechnologyService#getProductType}: product going out of the root
+ * operation is a final product (if it's the technology product) or a waste, product going only in is a component, product
+ * going in and out is an intermediate and product going only out is a waste.
+ */
+public final class TechnologyProductTypes {
+
+    private static final int GOES_IN = 1;
+
+    private static final int GOES_OUT = 2;
+
+    private static final int GOES_OUT_IN_ROOT = 4;
+
+    private final Map<Long, String> productTypes;
+
+    private final boolean cacheable;
+
+    private TechnologyProductTypes(final Map<Long, String> productTypes, final boolean cacheable) {
+        this.productTypes = ImmutableMap.copyOf(productTypes);
+        this.cacheable = cacheable;
+    }
+
+    public String getProductType(final Long productId) {
+        String productType = productTypes.get(productId);
+
+        if (productType == null) {
+            return TechnologyService.L_00_UNRELATED;
+        }
+
+        return productType;
+    }
+
+    public Map<Long, String> getProductTypes() {
+        return productTypes;
+    }
+
+    /**
+     * @return true if the technology can't be modified any more
+     */
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    public static Builder builder(final Long technologyProductId, final boolean cacheable) {
+        return new Builder(technologyProductId, cacheable);
+    }
+
+    public static final class Builder {
+
+        private final Long technologyProductId;
+
+        private final boolean cacheable;
+
+        private final Map<Long, Integer> productFlags = Maps.newHashMap();
+
+        private Builder(final Long technologyProductId, final boolean cacheable) {
+            this.technologyProductId = technologyProductId;
+            this.cacheable = cacheable;
+        }
+
+        public Builder addIn(final Long productId) {
+            return addFlag(productId, GOES_IN);
+        }
+
+        public Builder addOut(final Long productId, final boolean isRoot) {
+            return addFlag(productId, isRoot ? GOES_OUT | GOES_OUT_IN_ROOT : GOES_OUT);
+        }
+
+        private Builder addFlag(final Long productId, final int flag) {
+            if (productId != null) {
+                productFlags.merge(productId, flag, (flags, newFlag) -> flags | newFlag);
+            }
+
+            return this;
+        }
+
+        public TechnologyProductTypes build() {
+            Map<Long, String> productTypes = Maps.newHashMapWithExpectedSize(productFlags.size());
+
+            for (Map.Entry<Long, Integer> productFlag : productFlags.entrySet()) {
+                productTypes.put(productFlag.getKey(), classify(productFlag.getKey(), productFlag.getValue()));
+            }
+
+            return new TechnologyProductTypes(productTypes, cacheable);
+        }
+
+        private String classify(final Long productId, final int flags) {
+            if ((flags & GOES_OUT_IN_ROOT) != 0) {
+                if (productId.equals(technologyProductId)) {
+                    return TechnologyService.L_03_FINAL_PRODUCT;
+                } else {
+                    return TechnologyService.L_04_WASTE;
+                }
+            }
+
+            boolean goesIn = (flags & GOES_IN) != 0;
+            boolean goesOut = (flags & GOES_OUT) != 0;
+
+            if (goesIn && !goesOut) {
+                return TechnologyService.L_01_COMPONENT;
+            }
+
+            if (goesIn) {
+                return TechnologyService.L_02_INTERMEDIATE;
+            }
+
+            return TechnologyService.L_04_WASTE;
+        }
+
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+import com.qcadoo.mes.basic.cache.TransactionalCache;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.states.constants.TechnologyState;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Cache of product types, keyed by technology id. Product types of all technology operations are read with one query; only
+ * technologies which are not drafts any more are kept, so entries have to be dropped only when technology state changes.
+ *
+ * Entries are removed on technology update, see {@link TransactionalCache} for how invalidation interacts with the current
+ * transaction.
+ */
+@Service
+public class TechnologyProductTypesCache {
+
+    private static final int MAX_SIZE = 1000;
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final TransactionalCache<Long, TechnologyProductTypes> technologies = new TransactionalCache<>(MAX_SIZE);
+
+    public TechnologyProductTypes get(final Entity technology) {
+        Long technologyId = technology.getId();
+
+        if (technologyId == null) {
+            return TechnologyProductTypes.builder(null, false).build();
+        }
+
+        return technologies.get(technologyId, () -> load(technology), TechnologyProductTypes::isCacheable);
+    }
+
+    private TechnologyProductTypes load(final Entity technology) {
+        Entity product = technology.getBelongsToField(TechnologyFields.PRODUCT);
+        boolean cacheable = !TechnologyState.DRAFT.equals(TechnologyState.of(technology));
+
+        TechnologyProductTypes.Builder builder = TechnologyProductTypes.builder((product == null) ? null : product.getId(),
+                cacheable);
+
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT opic.product_id AS productId, true AS goesIn, false AS goesOutInRoot ");
+        query.append("FROM technologies_operationproductincomponent opic ");
+        query.append("JOIN technologies_technologyoperationcomponent toc ON toc.id = opic.operationcomponent_id ");
+        query.append("WHERE toc.technology_id = :technologyId ");
+        query.append("UNION ALL ");
+        query.append("SELECT opoc.product_id AS productId, false AS goesIn, toc.parent_id IS NULL AS goesOutInRoot ");
+        query.append("FROM technologies_operationproductoutcomponent opoc ");
+        query.append("JOIN technologies_technologyoperationcomponent toc ON toc.id = opoc.operationcomponent_id ");
+        query.append("WHERE toc.technology_id = :technologyId");
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("technologyId", technology.getId());
+
+        jdbcTemplate.query(query.toString(), params, rs -> {
+            Long productId = rs.getLong("productId");
+
+            if (rs.wasNull()) {
+                return;
+            }
+
+            if (rs.getBoolean("goesIn")) {
+                builder.addIn(productId);
+            } else {
+                builder.addOut(productId, rs.getBoolean("goesOutInRoot"));
+            }
+        });
+
+        return builder.build();
+    }
+
+    public void invalidate(final Entity technology) {
+        if (technology.getId() != null) {
+            invalidate(technology.getId());
+        }
+    }
+
+    public void invalidate(final Long technologyId) {
+        technologies.invalidate(technologyId);
+    }
+
+}
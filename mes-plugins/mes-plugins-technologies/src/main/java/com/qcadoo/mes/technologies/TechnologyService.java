@@ -106,6 +106,9 @@ public class TechnologyService {
     @Autowired
     private TechnologyNameAndNumberGenerator technologyNameAndNumberGenerator;
 
+    @Autowired
+    private TechnologyProductTypesCache technologyProductTypesCache;
+
     public void copyCommentAndAttachmentFromLowerInstance(final Entity technologyOperationComponent, final String belongsToName) {
         Entity operation = technologyOperationComponent.getBelongsToField(belongsToName);
 
@@ -146,10 +149,6 @@ public class TechnologyService {
         return dataDefinitionService.get("orders", "order");
     }
 
-    private enum ProductDirection {
-        IN, OUT;
-    }
-
     public void loadProductsForReferencedTechnology(final ViewDefinitionState viewDefinitionState, final ComponentState state,
             final String[] args) {
         if (!(state instanceof TreeComponent)) {
@@ -263,65 +262,16 @@ public class TechnologyService {
         view.getComponentByReference(TechnologyFields.STATE).performEvent(view, "toggleEnabled");
     }
 
-    private boolean productComponentsContainProduct(final List<Entity> components, final Entity product) {
-        boolean contains = false;
-
-        for (Entity entity : components) {
-            if (entity.getBelongsToField(L_PRODUCT).getId().equals(product.getId())) {
-                contains = true;
-                break;
-            }
-        }
-
-        return contains;
-    }
-
-    private SearchCriteriaBuilder createSearchCriteria(final Entity product, final Entity technology,
-            final ProductDirection direction) {
-        String model = direction.equals(ProductDirection.IN) ? TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT
-                : TechnologiesConstants.MODEL_OPERATION_PRODUCT_OUT_COMPONENT;
-
-        DataDefinition dd = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER, model);
-
-        SearchCriteriaBuilder search = dd.find();
-        search.add(SearchRestrictions.eq("product.id", product.getId()));
-        search.createAlias(L_OPERATION_COMPONENT, L_OPERATION_COMPONENT);
-        search.add(SearchRestrictions.belongsTo("operationComponent.technology", technology));
-
-        return search;
-    }
-
     public String getProductType(final Entity product, final Entity technology) {
-        SearchCriteriaBuilder searchIns = createSearchCriteria(product, technology, ProductDirection.IN);
-        SearchCriteriaBuilder searchOuts = createSearchCriteria(product, technology, ProductDirection.OUT);
-        SearchCriteriaBuilder searchOutsForRoots = createSearchCriteria(product, technology, ProductDirection.OUT);
-        searchOutsForRoots.add(SearchRestrictions.isNull("operationComponent.parent"));
-
-        boolean goesIn = productComponentsContainProduct(searchIns.list().getEntities(), product);
-        boolean goesOut = productComponentsContainProduct(searchOuts.list().getEntities(), product);
-        boolean goesOutInAroot = productComponentsContainProduct(searchOutsForRoots.list().getEntities(), product);
-
-        if (goesOutInAroot) {
-            if (technology.getBelongsToField(L_PRODUCT).getId().equals(product.getId())) {
-                return L_03_FINAL_PRODUCT;
-            } else {
-                return L_04_WASTE;
-            }
-        }
-
-        if (goesIn && !goesOut) {
-            return L_01_COMPONENT;
-        }
-
-        if (goesIn && goesOut) {
-            return L_02_INTERMEDIATE;
-        }
-
-        if (!goesIn && goesOut) {
-            return L_04_WASTE;
-        }
+        return getProductTypes(technology).getProductType(product.getId());
+    }
 
-        return L_00_UNRELATED;
+    /**
+     * Returns types of all products of technology operations, read with one query and cached for non draft technologies.
+     * Use it instead of {@link #getProductType(Entity, Entity)} when types of many products of the same technology are needed.
+     */
+    public TechnologyProductTypes getProductTypes(final Entity technology) {
+        return technologyProductTypesCache.get(technology);
     }
 
     public void addOperationsFromSubtechnologiesToList(final EntityTree entityTree,
@@ -24,6 +24,7 @@
 package com.qcadoo.mes.technologies.dto;
 
 import java.math.BigDecimal;
+import java.math.MathContext;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -55,6 +56,22 @@ public class OperationProductComponentWithQuantityContainer {
         put(operationProductComponentHolder, quantity);
     }
 
+    /**
+     * Adds quantity to the quantity already kept for given holder (rounded with given math context), or puts it if there is no
+     * quantity yet. Null quantity leaves the kept quantity unchanged.
+     */
+    public void add(final OperationProductComponentHolder operationProductComponentHolder, final BigDecimal quantity,
+            final MathContext mathContext) {
+        if (quantity == null) {
+            operationProductComponentWithQuantities.putIfAbsent(operationProductComponentHolder, null);
+
+            return;
+        }
+
+        operationProductComponentWithQuantities.merge(operationProductComponentHolder, quantity,
+                (addedQuantity, newQuantity) -> newQuantity.add(addedQuantity, mathContext));
+    }
+
     public BigDecimal get(final OperationProductComponentHolder operationProductComponentHolder) {
         return operationProductComponentWithQuantities.get(operationProductComponentHolder);
     }
@@ -0,0 +1,274 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.dto;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Sums decimal quantities by long key (product or operation component id) without boxing keys on each add.
+ * 
+ * Keys are kept in an open addressing table. Sums are kept as unscaled long and scale while they fit, which gives exactly the
+ * same value and scale as adding them with {@link BigDecimal#add(BigDecimal)}; on overflow a slot falls back to BigDecimal.
+ * 
+ * Null quantity is kept only for a key without any quantity and later quantities replace it; adding null to a sum leaves it
+ * unchanged.
+ */
+public final class QuantitiesAccumulator {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private long[] keys;
+
+    private boolean[] used;
+
+    private long[] unscaledValues;
+
+    private int[] scales;
+
+    // used when slot sum doesn't fit unscaled long, null when only null quantity was added
+    private BigDecimal[] decimalValues;
+
+    private boolean[] decimal;
+
+    private int size;
+
+    public QuantitiesAccumulator() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public QuantitiesAccumulator(final int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(DEFAULT_CAPACITY, expectedSize * 2) - 1) << 1;
+
+        allocate(capacity);
+    }
+
+    public void add(final long key, final BigDecimal quantity) {
+        int slot = findSlot(key);
+
+        if (!used[slot]) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize();
+                slot = findSlot(key);
+            }
+
+            used[slot] = true;
+            keys[slot] = key;
+            size++;
+
+            set(slot, quantity);
+
+            return;
+        }
+
+        if (quantity == null) {
+            return;
+        }
+
+        if (decimal[slot]) {
+            if (decimalValues[slot] == null) {
+                set(slot, quantity);
+            } else {
+                decimalValues[slot] = quantity.add(decimalValues[slot]);
+            }
+
+            return;
+        }
+
+        if (!addUnscaled(slot, quantity)) {
+            decimal[slot] = true;
+            decimalValues[slot] = quantity.add(BigDecimal.valueOf(unscaledValues[slot], scales[slot]));
+        }
+    }
+
+    public void addAll(final Map<Long, BigDecimal> quantities) {
+        for (Map.Entry<Long, BigDecimal> quantity : quantities.entrySet()) {
+            add(quantity.getKey(), quantity.getValue());
+        }
+    }
+
+    public BigDecimal get(final long key) {
+        int slot = findSlot(key);
+
+        if (!used[slot]) {
+            return null;
+        }
+
+        return getValue(slot);
+    }
+
+    public boolean containsKey(final long key) {
+        return used[findSlot(key)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public Map<Long, BigDecimal> toMap() {
+        Map<Long, BigDecimal> quantities = Maps.newHashMapWithExpectedSize(size);
+
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (used[slot]) {
+                quantities.put(keys[slot], getValue(slot));
+            }
+        }
+
+        return quantities;
+    }
+
+    private void set(final int slot, final BigDecimal quantity) {
+        if ((quantity != null) && (quantity.scale() >= 0)) {
+            BigInteger unscaledValue = quantity.unscaledValue();
+
+            if (unscaledValue.bitLength() < Long.SIZE) {
+                decimal[slot] = false;
+                unscaledValues[slot] = unscaledValue.longValue();
+                scales[slot] = quantity.scale();
+
+                return;
+            }
+        }
+
+        decimal[slot] = true;
+        decimalValues[slot] = quantity;
+    }
+
+    private boolean addUnscaled(final int slot, final BigDecimal quantity) {
+        if (quantity.scale() < 0) {
+            return false;
+        }
+
+        BigInteger unscaledValue = quantity.unscaledValue();
+
+        if (unscaledValue.bitLength() >= Long.SIZE) {
+            return false;
+        }
+
+        long added = unscaledValue.longValue();
+        long current = unscaledValues[slot];
+        int addedScale = quantity.scale();
+        int currentScale = scales[slot];
+
+        try {
+            if (addedScale > currentScale) {
+                current = rescale(current, addedScale - currentScale);
+                currentScale = addedScale;
+            } else if (addedScale < currentScale) {
+                added = rescale(added, currentScale - addedScale);
+            }
+
+            unscaledValues[slot] = Math.addExact(current, added);
+            scales[slot] = currentScale;
+
+            return true;
+        } catch (ArithmeticException e) {
+            return false;
+        }
+    }
+
+    private long rescale(final long unscaledValue, final int scaleDifference) {
+        if (scaleDifference >= POWERS_OF_TEN.length) {
+            throw new ArithmeticException("Scale difference too big: " + scaleDifference);
+        }
+
+        return Math.multiplyExact(unscaledValue, POWERS_OF_TEN[scaleDifference]);
+    }
+
+    private BigDecimal getValue(final int slot) {
+        if (decimal[slot]) {
+            return decimalValues[slot];
+        }
+
+        return BigDecimal.valueOf(unscaledValues[slot], scales[slot]);
+    }
+
+    private int findSlot(final long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+
+        while (used[slot] && (keys[slot] != key)) {
+            slot = (slot + 1) & mask;
+        }
+
+        return slot;
+    }
+
+    private static int hash(final long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        long[] oldUnscaledValues = unscaledValues;
+        int[] oldScales = scales;
+        BigDecimal[] oldDecimalValues = decimalValues;
+        boolean[] oldDecimal = decimal;
+
+        allocate(oldKeys.length * 2);
+
+        for (int oldSlot = 0; oldSlot < oldKeys.length; oldSlot++) {
+            if (oldUsed[oldSlot]) {
+                int slot = findSlot(oldKeys[oldSlot]);
+
+                used[slot] = true;
+                keys[slot] = oldKeys[oldSlot];
+                unscaledValues[slot] = oldUnscaledValues[oldSlot];
+                scales[slot] = oldScales[oldSlot];
+                decimalValues[slot] = oldDecimalValues[oldSlot];
+                decimal[slot] = oldDecimal[oldSlot];
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        unscaledValues = new long[capacity];
+        scales = new int[capacity];
+        decimalValues = new BigDecimal[capacity];
+        decimal = new boolean[capacity];
+    }
+
+}
@@ -24,6 +24,8 @@
 package com.qcadoo.mes.technologies.hooks;
 
 import com.qcadoo.mes.states.service.StateChangeEntityBuilder;
+import com.qcadoo.mes.technologies.CompiledTechnologyQuantitiesCache;
+import com.qcadoo.mes.technologies.TechnologyProductTypesCache;
 import com.qcadoo.mes.technologies.TechnologyService;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
@@ -60,6 +62,12 @@ public class TechnologyModelHooks {
     @Autowired
     private TreeNumberingService treeNumberingService;
 
+    @Autowired
+    private CompiledTechnologyQuantitiesCache compiledTechnologyQuantitiesCache;
+
+    @Autowired
+    private TechnologyProductTypesCache technologyProductTypesCache;
+
     public void onCreate(final DataDefinition technologyDD, final Entity technology) {
         setInitialState(technology);
     }
@@ -79,6 +87,8 @@ public class TechnologyModelHooks {
 
     public void onUpdate(final DataDefinition technologyDD, final Entity technology) {
         performTreeNumbering(technologyDD, technology);
+        compiledTechnologyQuantitiesCache.invalidate(technology);
+        technologyProductTypesCache.invalidate(technology);
     }
 
     private void setInitialState(final Entity technology) {
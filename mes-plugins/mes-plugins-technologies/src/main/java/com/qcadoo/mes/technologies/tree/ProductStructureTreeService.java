@@ -25,12 +25,22 @@ package com.qcadoo.mes.technologies.tree;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.basic.constants.BasicConstants;
+import com.qcadoo.mes.technologies.constants.OperationProductInComponentFields;
+import com.qcadoo.mes.technologies.constants.OperationProductOutComponentFields;
 import com.qcadoo.mes.technologies.constants.TechnologiesConstants;
 import com.qcadoo.mes.technologies.constants.TechnologyFields;
 import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
@@ -39,6 +49,7 @@ import com.qcadoo.model.api.DataDefinitionService;
 import com.qcadoo.model.api.Entity;
 import com.qcadoo.model.api.EntityList;
 import com.qcadoo.model.api.EntityTree;
+import com.qcadoo.model.api.search.SearchOrders;
 import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.model.api.utils.EntityTreeUtilsService;
 import com.qcadoo.view.api.ComponentState.MessageType;
@@ -51,6 +62,16 @@ public class ProductStructureTreeService {
     @Autowired
     private DataDefinitionService dataDefinitionService;
 
+    /**
+     * Maximum number of technology levels loaded below the root technology.
+     */
+    private static final int MAX_TECHNOLOGY_DEPTH = 30;
+
+    /**
+     * Maximum number of product structure tree nodes.
+     */
+    private static final int MAX_NODES = 10000;
+
     private static final String L_TECHNOLOGY = "technology";
 
     private static final String L_OPERATION = "operation";
@@ -61,10 +82,6 @@ public class ProductStructureTreeService {
 
     private static final String L_NUMBER = "number";
 
-    private static final String L_OPERATION_PRODUCT_OUT_COMPONENTS = "operationProductOutComponents";
-
-    private static final String L_OPERATION_PRODUCT_IN_COMPONENTS = "operationProductInComponents";
-
     private static final String L_FINAL_PRODUCT = "finalProduct";
 
     private static final String L_INTERMEDIATE = "intermediate";
@@ -83,6 +100,8 @@ public class ProductStructureTreeService {
 
     private static final String L_STANDARD_PERFORMANCE_TECHNOLOGY = "standardPerformanceTechnology";
 
+    private static final String L_PRODUCT_STRUCTURE_FORM = "productStructureForm";
+
     private void addChild(final List<Entity> tree, final Entity child, final Entity parent, final String entityType) {
         child.setField("parent", parent);
         child.setId((long) tree.size() + 1);
@@ -93,45 +112,175 @@ public class ProductStructureTreeService {
         tree.add(child);
     }
 
-    private Entity findOperationForProductAndTechnology(final Entity product, final Entity technology) {
-        DataDefinition operationComponentsDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
-                TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT);
-        List<Entity> operations = operationComponentsDD.find().add(SearchRestrictions.belongsTo(L_TECHNOLOGY, technology)).list()
-                .getEntities();
-        for (Entity operation : operations) {
+    /**
+     * Loads operation components with their in and out product components of the given technology and of all technologies
+     * of its components, level by level. Each level is read with a few queries, regardless of number of technologies in it.
+     */
+    private StructureData loadStructureData(final Entity technology) {
+        StructureData data = new StructureData();
+
+        data.technologies.put(technology.getId(), technology);
 
-            Entity isResult = operation.getHasManyField(L_OPERATION_PRODUCT_OUT_COMPONENTS).find()
-                    .add(SearchRestrictions.belongsTo(L_PRODUCT, product)).setMaxResults(1).uniqueResult();
-            if (isResult != null) {
-                return operation;
+        Set<Long> technologyIds = Sets.newHashSet(technology.getId());
+
+        for (int depth = 0; !technologyIds.isEmpty(); depth++) {
+            if (depth > MAX_TECHNOLOGY_DEPTH) {
+                data.truncated = true;
+
+                break;
             }
+
+            Collection<Entity> operationComponents = loadOperationComponents(data, technologyIds);
+
+            Set<Long> productIds = loadProductComponents(data, operationComponents);
+
+            technologyIds = loadTechnologiesForProducts(data, productIds);
         }
-        return null;
+
+        return data;
     }
 
-    private Entity findOperationForProductWithinChildren(final Entity product, final Entity toc) {
-        List<Entity> operations = toc.getHasManyField(TechnologyOperationComponentFields.CHILDREN);
-        for (Entity operation : operations) {
+    private Collection<Entity> loadOperationComponents(final StructureData data, final Set<Long> technologyIds) {
+        List<Entity> operationComponents = getTechnologyOperationComponentDD().find()
+                .add(SearchRestrictions.in(TechnologyOperationComponentFields.TECHNOLOGY + ".id", technologyIds))
+                .addOrder(SearchOrders.asc("id")).list().getEntities();
+
+        for (Long technologyId : technologyIds) {
+            data.operationComponentsByTechnology.put(technologyId, Lists.newArrayList());
+        }
+
+        for (Entity operationComponent : operationComponents) {
+            Entity technology = operationComponent.getBelongsToField(TechnologyOperationComponentFields.TECHNOLOGY);
+            Entity parent = operationComponent.getBelongsToField(TechnologyOperationComponentFields.PARENT);
 
-            Entity isResult = operation.getHasManyField(L_OPERATION_PRODUCT_OUT_COMPONENTS).find()
-                    .add(SearchRestrictions.belongsTo(L_PRODUCT, product)).setMaxResults(1).uniqueResult();
-            if (isResult != null) {
-                return operation;
+            data.operationComponentsByTechnology.get(technology.getId()).add(operationComponent);
+
+            if (parent != null) {
+                data.childrenByOperationComponent.computeIfAbsent(parent.getId(), id -> Lists.newArrayList()).add(
+                        operationComponent);
             }
         }
-        return null;
+
+        for (List<Entity> children : data.childrenByOperationComponent.values()) {
+            children.sort((first, second) -> Integer.compare(getPriority(first), getPriority(second)));
+        }
+
+        return operationComponents;
+    }
+
+    private int getPriority(final Entity operationComponent) {
+        Object priority = operationComponent.getField(TechnologyOperationComponentFields.PRIORITY);
+
+        return (priority instanceof Number) ? ((Number) priority).intValue() : Integer.MAX_VALUE;
+    }
+
+    private Set<Long> loadProductComponents(final StructureData data, final Collection<Entity> operationComponents) {
+        Set<Long> inProductIds = Sets.newHashSet();
+
+        if (operationComponents.isEmpty()) {
+            return inProductIds;
+        }
+
+        Set<Long> operationComponentIds = Sets.newHashSet();
+
+        for (Entity operationComponent : operationComponents) {
+            operationComponentIds.add(operationComponent.getId());
+        }
+
+        List<Entity> productInComponents = loadProductComponents(TechnologiesConstants.MODEL_OPERATION_PRODUCT_IN_COMPONENT,
+                OperationProductInComponentFields.OPERATION_COMPONENT, operationComponentIds);
+        List<Entity> productOutComponents = loadProductComponents(TechnologiesConstants.MODEL_OPERATION_PRODUCT_OUT_COMPONENT,
+                OperationProductOutComponentFields.OPERATION_COMPONENT, operationComponentIds);
+
+        Set<Long> productIds = Sets.newHashSet();
+
+        for (Entity productInComponent : productInComponents) {
+            Entity product = productInComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT);
+
+            data.productInComponentsByOperationComponent.computeIfAbsent(
+                    productInComponent.getBelongsToField(OperationProductInComponentFields.OPERATION_COMPONENT).getId(),
+                    id -> Lists.newArrayList()).add(productInComponent);
+
+            if (product != null) {
+                inProductIds.add(product.getId());
+                productIds.add(product.getId());
+            }
+        }
+
+        for (Entity productOutComponent : productOutComponents) {
+            Entity product = productOutComponent.getBelongsToField(OperationProductOutComponentFields.PRODUCT);
+
+            data.productOutComponentsByOperationComponent.computeIfAbsent(
+                    productOutComponent.getBelongsToField(OperationProductOutComponentFields.OPERATION_COMPONENT).getId(),
+                    id -> Lists.newArrayList()).add(productOutComponent);
+
+            if (product != null) {
+                productIds.add(product.getId());
+            }
+        }
+
+        productIds.removeAll(data.products.keySet());
+
+        if (!productIds.isEmpty()) {
+            for (Entity product : dataDefinitionService.get(BasicConstants.PLUGIN_IDENTIFIER, BasicConstants.MODEL_PRODUCT)
+                    .find().add(SearchRestrictions.in("id", productIds)).list().getEntities()) {
+                data.products.put(product.getId(), product);
+            }
+        }
+
+        return inProductIds;
+    }
+
+    private List<Entity> loadProductComponents(final String modelName, final String operationComponentField,
+            final Set<Long> operationComponentIds) {
+        return dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER, modelName).find()
+                .add(SearchRestrictions.in(operationComponentField + ".id", operationComponentIds))
+                .addOrder(SearchOrders.asc("id")).list().getEntities();
     }
 
-    private Entity findTechnologyForProduct(final Entity product) {
+    private Set<Long> loadTechnologiesForProducts(final StructureData data, final Set<Long> productIds) {
+        productIds.removeAll(data.technologyByProduct.keySet());
+
+        Set<Long> technologyIds = Sets.newHashSet();
+
+        if (productIds.isEmpty()) {
+            return technologyIds;
+        }
+
         DataDefinition technologyDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
                 TechnologiesConstants.MODEL_TECHNOLOGY);
-        List<Entity> technologiesForProduct = technologyDD
+        List<Entity> technologiesForProducts = technologyDD
                 .find()
                 .add(SearchRestrictions.isNull(TechnologyFields.TECHNOLOGY_TYPE))
                 .add(SearchRestrictions.and(
-                        SearchRestrictions.belongsTo(L_PRODUCT, product),
+                        SearchRestrictions.in(L_PRODUCT + ".id", productIds),
                         SearchRestrictions.or(SearchRestrictions.eq("state", "02accepted"),
-                                SearchRestrictions.eq("state", "05checked")))).list().getEntities();
+                                SearchRestrictions.eq("state", "05checked")))).addOrder(SearchOrders.asc("id")).list()
+                .getEntities();
+
+        Map<Long, List<Entity>> technologiesByProduct = Maps.newHashMap();
+
+        for (Entity technology : technologiesForProducts) {
+            technologiesByProduct.computeIfAbsent(technology.getBelongsToField(L_PRODUCT).getId(), id -> Lists.newArrayList())
+                    .add(technology);
+        }
+
+        for (Long productId : productIds) {
+            Entity technology = chooseTechnology(technologiesByProduct.getOrDefault(productId, Collections.emptyList()));
+
+            data.technologyByProduct.put(productId, Optional.fromNullable(technology));
+
+            if (technology != null && !data.technologies.containsKey(technology.getId())) {
+                data.technologies.put(technology.getId(), technology);
+
+                technologyIds.add(technology.getId());
+            }
+        }
+
+        return technologyIds;
+    }
+
+    private Entity chooseTechnology(final List<Entity> technologiesForProduct) {
         Entity result = null;
         for (Entity technology : technologiesForProduct) {
             boolean isMaster = technology.getBooleanField("master");
@@ -148,39 +297,48 @@ public class ProductStructureTreeService {
         return result;
     }
 
-    private BigDecimal findQuantityOfProductInOperation(final Entity product, final Entity operation) {
-        EntityList outProducts = operation.getHasManyField(L_OPERATION_PRODUCT_OUT_COMPONENTS);
+    private void generateTreeForSubproducts(final StructureData data, final Entity operation, final Entity technology,
+            final List<Entity> tree, final Entity parent, final ViewDefinitionState view, final List<Long> usedTechnologies,
+            final Set<Long> operationsPath) {
+        if (!operationsPath.add(operation.getId())) {
+            data.truncated = true;
 
-        Entity productComponent = outProducts.find().add(SearchRestrictions.belongsTo(L_PRODUCT, product)).setMaxResults(1)
-                .uniqueResult();
-        if (productComponent != null) {
-            return productComponent.getDecimalField(L_QUANTITY);
-        }
-        EntityList inProducts = operation.getHasManyField(L_OPERATION_PRODUCT_IN_COMPONENTS);
-        productComponent = inProducts.find().add(SearchRestrictions.belongsTo(L_PRODUCT, product)).setMaxResults(1)
-                .uniqueResult();
-        if (productComponent != null) {
-            return productComponent.getDecimalField(L_QUANTITY);
+            return;
         }
-        return null;
-    }
 
-    private void generateTreeForSubproducts(final Entity operation, final Entity technology, final List<Entity> tree,
-            final Entity parent, final ViewDefinitionState view, final List<Long> usedTechnologies) {
-        EntityList productInComponents = operation.getHasManyField(L_OPERATION_PRODUCT_IN_COMPONENTS);
         DataDefinition treeNodeDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
                 TechnologiesConstants.MODEL_PRODUCT_STRUCTURE_TREE_NODE);
-        for (Entity productInComp : productInComponents) {
+        for (Entity productInComp : data.getProductInComponents(operation)) {
+            if (tree.size() >= MAX_NODES) {
+                data.truncated = true;
+
+                break;
+            }
+
             Entity child = treeNodeDD.create();
-            Entity product = productInComp.getBelongsToField(L_PRODUCT);
-            Entity subOperation = findOperationForProductWithinChildren(product, operation);
-            BigDecimal quantity = findQuantityOfProductInOperation(product, operation);
-            Entity subTechnology = findTechnologyForProduct(product);
+            Entity product = data.getProduct(productInComp.getBelongsToField(L_PRODUCT));
+            Entity subOperation = data.findOperationForProductWithinChildren(product, operation);
+            BigDecimal quantity = data.findQuantityOfProductInOperation(product, operation);
+
+            if (!data.isTechnologyForProductLoaded(product)) {
+                data.truncated = true;
+
+                continue;
+            }
+
+            Entity subTechnology = data.findTechnologyForProduct(product).orNull();
 
             if (subTechnology != null) {
                 if (!usedTechnologies.contains(subTechnology.getId())) {
                     if (subOperation == null) {
-                        Entity operationForTechnology = findOperationForProductAndTechnology(product, subTechnology);
+                        Entity operationForTechnology = data.findOperationForProductAndTechnology(product, subTechnology);
+
+                        if (operationForTechnology == null) {
+                            data.truncated = true;
+
+                            continue;
+                        }
+
                         Entity technologyGroup = subTechnology.getBelongsToField(TechnologyFields.TECHNOLOGY_GROUP);
                         BigDecimal standardPerformanceTechnology = subTechnology
                                 .getDecimalField(TechnologyFields.STANDARD_PERFORMANCE_TECHNOLOGY);
@@ -195,7 +353,8 @@ public class ProductStructureTreeService {
                         child.setField(L_STANDARD_PERFORMANCE_TECHNOLOGY, standardPerformanceTechnology);
                         addChild(tree, child, parent, L_COMPONENT);
                         usedTechnologies.add(subTechnology.getId());
-                        generateTreeForSubproducts(operationForTechnology, subTechnology, tree, child, view, usedTechnologies);
+                        generateTreeForSubproducts(data, operationForTechnology, subTechnology, tree, child, view,
+                                usedTechnologies, operationsPath);
                     } else {
 
                         child.setField(L_TECHNOLOGY, technology);
@@ -206,17 +365,18 @@ public class ProductStructureTreeService {
                         addChild(tree, child, parent, L_INTERMEDIATE);
                         if (view != null) {
                             FormComponent productStructureForm = (FormComponent) view
-                                    .getComponentByReference("productStructureForm");
+                                    .getComponentByReference(L_PRODUCT_STRUCTURE_FORM);
                             productStructureForm
                                     .addMessage(
                                             "technologies.technologyDetails.window.productStructure.productStructureForm.technologyAndOperationExists",
                                             MessageType.INFO, false,
                                             product.getStringField("number") + " " + product.getStringField("name"));
                         }
-                        generateTreeForSubproducts(subOperation, technology, tree, child, view, usedTechnologies);
+                        generateTreeForSubproducts(data, subOperation, technology, tree, child, view, usedTechnologies,
+                                operationsPath);
                     }
                 } else if (view != null) {
-                    FormComponent productStructureForm = (FormComponent) view.getComponentByReference("productStructureForm");
+                    FormComponent productStructureForm = (FormComponent) view.getComponentByReference(L_PRODUCT_STRUCTURE_FORM);
                     productStructureForm
                             .addMessage(
                                     "technologies.technologyDetails.window.productStructure.productStructureForm.duplicateProductForTechnology",
@@ -238,7 +398,8 @@ public class ProductStructureTreeService {
                     child.setField(L_DIVISION, subOperation.getBelongsToField(TechnologyOperationComponentFields.DIVISION));
 
                     addChild(tree, child, parent, L_INTERMEDIATE);
-                    generateTreeForSubproducts(subOperation, technology, tree, child, view, usedTechnologies);
+                    generateTreeForSubproducts(data, subOperation, technology, tree, child, view, usedTechnologies,
+                            operationsPath);
                 } else {
                     child.setField(L_OPERATION, operation);
                     child.setField(L_DIVISION, operation.getBelongsToField(TechnologyOperationComponentFields.DIVISION));
@@ -250,15 +411,18 @@ public class ProductStructureTreeService {
             }
         }
 
+        operationsPath.remove(operation.getId());
     }
 
     public EntityTree generateProductStructureTree(final ViewDefinitionState view, final Entity technology) {
+        StructureData data = loadStructureData(technology);
+
         DataDefinition treeNodeDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
                 TechnologiesConstants.MODEL_PRODUCT_STRUCTURE_TREE_NODE);
         Entity root = treeNodeDD.create();
         Entity product = technology.getBelongsToField(L_PRODUCT);
-        Entity operation = findOperationForProductAndTechnology(product, technology);
-        BigDecimal quantity = findQuantityOfProductInOperation(product, operation);
+        Entity operation = data.findOperationForProductAndTechnology(product, technology);
+        BigDecimal quantity = data.findQuantityOfProductInOperation(product, operation);
         Entity technologyGroup = technology.getBelongsToField(TechnologyFields.TECHNOLOGY_GROUP);
         BigDecimal standardPerformanceTechnology = technology.getDecimalField(TechnologyFields.STANDARD_PERFORMANCE_TECHNOLOGY);
         root.setField(L_TECHNOLOGY, technology);
@@ -275,7 +439,15 @@ public class ProductStructureTreeService {
         List<Long> usedTechnologies = new ArrayList<>();
         usedTechnologies.add(technology.getId());
 
-        generateTreeForSubproducts(operation, technology, productStructureList, root, view, usedTechnologies);
+        generateTreeForSubproducts(data, operation, technology, productStructureList, root, view, usedTechnologies,
+                Sets.newHashSet());
+
+        if (data.truncated && (view != null)) {
+            FormComponent productStructureForm = (FormComponent) view.getComponentByReference(L_PRODUCT_STRUCTURE_FORM);
+            productStructureForm.addMessage(
+                    "technologies.technologyDetails.window.productStructure.productStructureForm.structureTruncated",
+                    MessageType.INFO, false);
+        }
 
         return EntityTreeUtilsService.getDetachedEntityTree(productStructureList);
     }
@@ -336,4 +508,93 @@ public class ProductStructureTreeService {
         tree.add(child);
         return child;
     }
+
+    private DataDefinition getTechnologyOperationComponentDD() {
+        return dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
+                TechnologiesConstants.MODEL_TECHNOLOGY_OPERATION_COMPONENT);
+    }
+
+    private static final class StructureData {
+
+        private final Map<Long, Entity> technologies = Maps.newHashMap();
+
+        private final Map<Long, Entity> products = Maps.newHashMap();
+
+        private final Map<Long, Optional<Entity>> technologyByProduct = Maps.newHashMap();
+
+        private final Map<Long, List<Entity>> operationComponentsByTechnology = Maps.newHashMap();
+
+        private final Map<Long, List<Entity>> childrenByOperationComponent = Maps.newHashMap();
+
+        private final Map<Long, List<Entity>> productInComponentsByOperationComponent = Maps.newHashMap();
+
+        private final Map<Long, List<Entity>> productOutComponentsByOperationComponent = Maps.newHashMap();
+
+        private boolean truncated;
+
+        private Entity getProduct(final Entity product) {
+            return products.getOrDefault(product.getId(), product);
+        }
+
+        private List<Entity> getProductInComponents(final Entity operation) {
+            return productInComponentsByOperationComponent.getOrDefault(operation.getId(), Collections.emptyList());
+        }
+
+        private List<Entity> getProductOutComponents(final Entity operation) {
+            return productOutComponentsByOperationComponent.getOrDefault(operation.getId(), Collections.emptyList());
+        }
+
+        /**
+         * @return false if technologies of the product weren't loaded because of the depth limit
+         */
+        private boolean isTechnologyForProductLoaded(final Entity product) {
+            return technologyByProduct.containsKey(product.getId());
+        }
+
+        private Optional<Entity> findTechnologyForProduct(final Entity product) {
+            return technologyByProduct.getOrDefault(product.getId(), Optional.absent());
+        }
+
+        private Entity findOperationForProductAndTechnology(final Entity product, final Entity technology) {
+            for (Entity operation : operationComponentsByTechnology.getOrDefault(technology.getId(), Collections.emptyList())) {
+                if (findProductComponent(getProductOutComponents(operation), product) != null) {
+                    return operation;
+                }
+            }
+            return null;
+        }
+
+        private Entity findOperationForProductWithinChildren(final Entity product, final Entity toc) {
+            for (Entity operation : childrenByOperationComponent.getOrDefault(toc.getId(), Collections.emptyList())) {
+                if (findProductComponent(getProductOutComponents(operation), product) != null) {
+                    return operation;
+                }
+            }
+            return null;
+        }
+
+        private BigDecimal findQuantityOfProductInOperation(final Entity product, final Entity operation) {
+            Entity productComponent = findProductComponent(getProductOutComponents(operation), product);
+            if (productComponent != null) {
+                return productComponent.getDecimalField(L_QUANTITY);
+            }
+            productComponent = findProductComponent(getProductInComponents(operation), product);
+            if (productComponent != null) {
+                return productComponent.getDecimalField(L_QUANTITY);
+            }
+            return null;
+        }
+
+        private Entity findProductComponent(final List<Entity> productComponents, final Entity product) {
+            for (Entity productComponent : productComponents) {
+                Entity componentProduct = productComponent.getBelongsToField(L_PRODUCT);
+
+                if (componentProduct != null && componentProduct.getId().equals(product.getId())) {
+                    return productComponent;
+                }
+            }
+            return null;
+        }
+
+    }
 }
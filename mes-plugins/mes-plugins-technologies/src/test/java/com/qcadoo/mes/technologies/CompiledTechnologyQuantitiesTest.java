@@ -0,0 +1,200 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.technologies.constants.TechnologyFields;
+import com.qcadoo.mes.technologies.constants.TechnologyOperationComponentFields;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentHolder;
+import com.qcadoo.mes.technologies.dto.OperationProductComponentWithQuantityContainer;
+import com.qcadoo.mes.technologies.states.constants.TechnologyStateStringValues;
+import com.qcadoo.model.api.DataDefinition;
+import com.qcadoo.model.api.Entity;
+import com.qcadoo.model.api.EntityList;
+import com.qcadoo.model.api.EntityTree;
+
+public class CompiledTechnologyQuantitiesTest {
+
+    private static final MathContext MATH_CONTEXT = MathContext.DECIMAL64;
+
+    private DataDefinition productDD, inDD, outDD, operationComponentDD;
+
+    private Entity technology, rootOperation, childOperation;
+
+    private Entity rootOut, rootIn, childOut, childIn;
+
+    @Before
+    public void init() {
+        productDD = mock(DataDefinition.class);
+        inDD = mock(DataDefinition.class);
+        outDD = mock(DataDefinition.class);
+        operationComponentDD = mock(DataDefinition.class);
+        given(inDD.getName()).willReturn("operationProductInComponent");
+        given(outDD.getName()).willReturn("operationProductOutComponent");
+
+        Entity finalProduct = mockProduct(1L);
+        Entity intermediate = mockProduct(2L);
+        Entity material = mockProduct(3L);
+
+        rootOperation = mockOperationComponent(11L, false);
+        childOperation = mockOperationComponent(12L, false);
+
+        rootOut = mockProductComponent(outDD, rootOperation, finalProduct, "2");
+        rootIn = mockProductComponent(inDD, rootOperation, intermediate, "3");
+        childOut = mockProductComponent(outDD, childOperation, intermediate, "4");
+        childIn = mockProductComponent(inDD, childOperation, material, "1.5");
+
+        stubProductComponents(rootOperation, rootIn, rootOut, childOperation);
+        stubProductComponents(childOperation, childIn, childOut);
+
+        technology = mock(Entity.class);
+        given(technology.getId()).willReturn(1L);
+        given(technology.getStringField(TechnologyFields.STATE)).willReturn(TechnologyStateStringValues.ACCEPTED);
+        given(technology.getBelongsToField(TechnologyFields.PRODUCT)).willReturn(finalProduct);
+
+        EntityTree operationComponents = mock(EntityTree.class);
+        given(operationComponents.getRoot()).willReturn(rootOperation);
+        given(operationComponents.iterator()).willAnswer(invocation -> Arrays.asList(rootOperation, childOperation).iterator());
+        given(technology.getTreeField(TechnologyFields.OPERATION_COMPONENTS)).willReturn(operationComponents);
+    }
+
+    @Test
+    public final void shouldMultiplyQuantitiesAndRoundUpOperationRuns() {
+        // given
+        OperationProductComponentWithQuantityContainer quantities = new OperationProductComponentWithQuantityContainer();
+        Set<OperationProductComponentHolder> nonComponents = Sets.newHashSet();
+        Map<Long, BigDecimal> operationRuns = Maps.newHashMap();
+
+        // when
+        CompiledTechnologyQuantities compiledTechnology = CompiledTechnologyQuantities.compile(technology);
+        compiledTechnology.evaluate(new BigDecimal("7"), MATH_CONTEXT, quantities, nonComponents, operationRuns);
+
+        // then
+        assertTrue(compiledTechnology.isCacheable());
+        assertEquals(new BigDecimal("4"), operationRuns.get(11L));
+        assertEquals(new BigDecimal("3"), operationRuns.get(12L));
+        assertEquals(0, new BigDecimal("8").compareTo(quantities.get(rootOut)));
+        assertEquals(0, new BigDecimal("12").compareTo(quantities.get(rootIn)));
+        assertEquals(0, new BigDecimal("12").compareTo(quantities.get(childOut)));
+        assertEquals(0, new BigDecimal("4.5").compareTo(quantities.get(childIn)));
+        assertEquals(Collections.singleton(new OperationProductComponentHolder(rootIn)), nonComponents);
+    }
+
+    @Test
+    public final void shouldEvaluateSameCompiledTechnologyForManyQuantities() {
+        // given
+        CompiledTechnologyQuantities compiledTechnology = CompiledTechnologyQuantities.compile(technology);
+
+        for (String givenQuantity : Arrays.asList("7", "10", "1")) {
+            OperationProductComponentWithQuantityContainer quantities = new OperationProductComponentWithQuantityContainer();
+
+            // when
+            compiledTechnology.evaluate(new BigDecimal(givenQuantity), MATH_CONTEXT, quantities,
+                    Sets.<OperationProductComponentHolder> newHashSet(), Maps.<Long, BigDecimal> newHashMap());
+
+            // then
+            BigDecimal rootRuns = new BigDecimal(givenQuantity).divide(new BigDecimal("2"), MATH_CONTEXT)
+                    .setScale(0, RoundingMode.CEILING);
+            assertEquals(0, rootRuns.multiply(new BigDecimal("2")).compareTo(quantities.get(rootOut)));
+        }
+    }
+
+    @Test
+    public final void shouldNotBeCacheableWhenTechnologyIsDraft() {
+        // given
+        given(technology.getStringField(TechnologyFields.STATE)).willReturn(TechnologyStateStringValues.DRAFT);
+
+        // when
+        CompiledTechnologyQuantities compiledTechnology = CompiledTechnologyQuantities.compile(technology);
+
+        // then
+        assertFalse(compiledTechnology.isCacheable());
+        assertTrue(compiledTechnology.dependsOn(1L));
+    }
+
+    private Entity mockProduct(final Long id) {
+        Entity product = mock(Entity.class);
+        given(product.getId()).willReturn(id);
+        given(product.getDataDefinition()).willReturn(productDD);
+        return product;
+    }
+
+    private Entity mockOperationComponent(final Long id, final boolean divisible) {
+        Entity operationComponent = mock(Entity.class);
+        given(operationComponent.getId()).willReturn(id);
+        given(operationComponent.getDataDefinition()).willReturn(operationComponentDD);
+        given(operationComponent.getBooleanField(TechnologyOperationComponentFields.ARE_PRODUCT_QUANTITIES_DIVISIBLE))
+                .willReturn(divisible);
+        given(operationComponent.getBooleanField(TechnologyOperationComponentFields.IS_TJ_DIVISIBLE)).willReturn(divisible);
+        return operationComponent;
+    }
+
+    private Entity mockProductComponent(final DataDefinition dataDefinition, final Entity operationComponent,
+            final Entity product, final String quantity) {
+        Entity productComponent = mock(Entity.class);
+        given(productComponent.getDataDefinition()).willReturn(dataDefinition);
+        given(productComponent.getBelongsToField("operationComponent")).willReturn(operationComponent);
+        given(productComponent.getBelongsToField("product")).willReturn(product);
+        given(productComponent.getDecimalField("quantity")).willReturn(new BigDecimal(quantity));
+        return productComponent;
+    }
+
+    private void stubProductComponents(final Entity operationComponent, final Entity in, final Entity out,
+            final Entity... children) {
+        EntityList inComponents = mockEntityList(Collections.singletonList(in));
+        EntityList outComponents = mockEntityList(Collections.singletonList(out));
+        EntityList childrenList = mockEntityList(Arrays.asList(children));
+        given(operationComponent.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS))
+                .willReturn(inComponents);
+        given(operationComponent.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS))
+                .willReturn(outComponents);
+        given(operationComponent.getHasManyField(TechnologyOperationComponentFields.CHILDREN)).willReturn(childrenList);
+    }
+
+    private EntityList mockEntityList(final List<Entity> entities) {
+        EntityList entityList = mock(EntityList.class);
+        given(entityList.iterator()).willAnswer(invocation -> entities.iterator());
+        return entityList;
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TechnologyProductTypesTest {
+
+    private static final Long FINAL_PRODUCT_ID = 1L;
+
+    private static final Long INTERMEDIATE_ID = 2L;
+
+    private static final Long COMPONENT_ID = 3L;
+
+    private static final Long WASTE_ID = 4L;
+
+    private static final Long ROOT_WASTE_ID = 5L;
+
+    @Test
+    public final void shouldClassifyAllProductsOfTechnology() {
+        // given
+        TechnologyProductTypes.Builder builder = TechnologyProductTypes.builder(FINAL_PRODUCT_ID, true);
+
+        builder.addOut(FINAL_PRODUCT_ID, true).addOut(ROOT_WASTE_ID, true).addIn(INTERMEDIATE_ID);
+        builder.addOut(INTERMEDIATE_ID, false).addOut(WASTE_ID, false).addIn(COMPONENT_ID);
+
+        // when
+        TechnologyProductTypes productTypes = builder.build();
+
+        // then
+        assertEquals(TechnologyService.L_03_FINAL_PRODUCT, productTypes.getProductType(FINAL_PRODUCT_ID));
+        assertEquals(TechnologyService.L_02_INTERMEDIATE, productTypes.getProductType(INTERMEDIATE_ID));
+        assertEquals(TechnologyService.L_01_COMPONENT, productTypes.getProductType(COMPONENT_ID));
+        assertEquals(TechnologyService.L_04_WASTE, productTypes.getProductType(WASTE_ID));
+        assertEquals(TechnologyService.L_04_WASTE, productTypes.getProductType(ROOT_WASTE_ID));
+        assertEquals(5, productTypes.getProductTypes().size());
+        assertTrue(productTypes.isCacheable());
+    }
+
+    @Test
+    public final void shouldPreferRootOutputOverInput() {
+        // given
+        TechnologyProductTypes.Builder builder = TechnologyProductTypes.builder(FINAL_PRODUCT_ID, false);
+
+        builder.addIn(FINAL_PRODUCT_ID).addOut(FINAL_PRODUCT_ID, true).addIn(WASTE_ID).addOut(WASTE_ID, true);
+
+        // when
+        TechnologyProductTypes productTypes = builder.build();
+
+        // then
+        assertEquals(TechnologyService.L_03_FINAL_PRODUCT, productTypes.getProductType(FINAL_PRODUCT_ID));
+        assertEquals(TechnologyService.L_04_WASTE, productTypes.getProductType(WASTE_ID));
+    }
+
+    @Test
+    public final void shouldReturnUnrelatedForUnknownProduct() {
+        // given
+        TechnologyProductTypes productTypes = TechnologyProductTypes.builder(FINAL_PRODUCT_ID, true).addIn(null).build();
+
+        // when
+        String productType = productTypes.getProductType(COMPONENT_ID);
+
+        // then
+        assertEquals(TechnologyService.L_00_UNRELATED, productType);
+        assertTrue(productTypes.getProductTypes().isEmpty());
+    }
+
+}
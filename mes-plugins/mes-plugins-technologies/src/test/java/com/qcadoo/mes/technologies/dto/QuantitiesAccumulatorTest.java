@@ -0,0 +1,117 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.technologies.dto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+public class QuantitiesAccumulatorTest {
+
+    @Test
+    public final void shouldSumQuantitiesWithScaleOfBigDecimalAdd() {
+        // given
+        QuantitiesAccumulator quantities = new QuantitiesAccumulator();
+
+        // when
+        quantities.add(1L, new BigDecimal("1.5"));
+        quantities.add(1L, new BigDecimal("2.25000"));
+        quantities.add(2L, new BigDecimal("3"));
+
+        // then
+        assertEquals(new BigDecimal("3.75000"), quantities.get(1L));
+        assertEquals(new BigDecimal("3"), quantities.get(2L));
+        assertNull(quantities.get(3L));
+        assertFalse(quantities.containsKey(3L));
+        assertEquals(2, quantities.size());
+    }
+
+    @Test
+    public final void shouldFallBackToBigDecimalOnOverflow() {
+        // given
+        QuantitiesAccumulator quantities = new QuantitiesAccumulator();
+        BigDecimal big = BigDecimal.valueOf(Long.MAX_VALUE);
+
+        // when
+        quantities.add(1L, big);
+        quantities.add(1L, new BigDecimal("0.00001"));
+        quantities.add(1L, big);
+
+        // then
+        assertEquals(big.add(new BigDecimal("0.00001")).add(big), quantities.get(1L));
+    }
+
+    @Test
+    public final void shouldTolerateNullQuantities() {
+        // given
+        QuantitiesAccumulator quantities = new QuantitiesAccumulator();
+
+        // when
+        quantities.add(1L, null);
+        quantities.add(2L, null);
+        quantities.add(2L, new BigDecimal("2.5"));
+        quantities.add(2L, null);
+        quantities.add(3L, new BigDecimal("1"));
+        quantities.add(3L, null);
+
+        // then
+        assertTrue(quantities.containsKey(1L));
+        assertNull(quantities.get(1L));
+        assertEquals(new BigDecimal("2.5"), quantities.get(2L));
+        assertEquals(new BigDecimal("1"), quantities.get(3L));
+        assertEquals(3, quantities.size());
+    }
+
+    @Test
+    public final void shouldGiveSameResultsAsMapOfBigDecimals() {
+        // given
+        Random random = new Random(7);
+        QuantitiesAccumulator quantities = new QuantitiesAccumulator(2);
+        Map<Long, BigDecimal> expected = Maps.newHashMap();
+
+        // when
+        for (int i = 0; i < 5000; i++) {
+            long key = random.nextInt(500);
+            BigDecimal quantity = BigDecimal.valueOf(random.nextLong() >> random.nextInt(64), random.nextInt(8));
+
+            quantities.add(key, quantity);
+
+            BigDecimal oldQuantity = expected.get(key);
+            expected.put(key, (oldQuantity == null) ? quantity : quantity.add(oldQuantity));
+        }
+
+        // then
+        assertEquals(expected, quantities.toMap());
+    }
+
+}
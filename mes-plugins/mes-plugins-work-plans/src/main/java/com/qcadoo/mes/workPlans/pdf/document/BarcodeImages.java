@@ -0,0 +1,58 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.workPlans.pdf.document;
+
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+import com.lowagie.text.Image;
+import com.lowagie.text.pdf.Barcode128;
+import com.lowagie.text.pdf.PdfWriter;
+
+/**
+ * Barcode images of one PDF document, created once per code. Images are templates of the writer they were created with, so
+ * they can't be shared between documents.
+ */
+public class BarcodeImages {
+
+    private final PdfWriter pdfWriter;
+
+    private final Map<String, Image> images = Maps.newHashMap();
+
+    public BarcodeImages(final PdfWriter pdfWriter) {
+        this.pdfWriter = pdfWriter;
+    }
+
+    public Image getImage(final String code) {
+        return images.computeIfAbsent(code, this::createImage);
+    }
+
+    private Image createImage(final String code) {
+        Barcode128 code128 = new Barcode128();
+        code128.setCode(code);
+
+        return code128.createImageWithBarcode(pdfWriter.getDirectContent(), null, null);
+    }
+
+}
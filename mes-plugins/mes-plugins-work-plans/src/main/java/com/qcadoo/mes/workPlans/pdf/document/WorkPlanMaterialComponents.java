@@ -0,0 +1,129 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.workPlans.pdf.document;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.model.api.Entity;
+
+/**
+ * Material components of input products shown in work plan, read for all orders and products of work plan at once.
+ *
+ * Technology of a material component is the technology of child order producing the product or, when there is no such
+ * order, master technology of the product. Material components are the input products of that technology, which aren't
+ * produced by its operations.
+ */
+public class WorkPlanMaterialComponents {
+
+    private final WorkPlanMaterialComponentsService workPlanMaterialComponentsService;
+
+    private final Set<Long> orderIds = Sets.newHashSet();
+
+    private final Set<Long> productIds = Sets.newHashSet();
+
+    private final Map<Long, Map<Long, Long>> childOrderTechnologyIds = Maps.newHashMap();
+
+    private final Map<Long, Long> masterTechnologyIds = Maps.newHashMap();
+
+    private final Set<Long> technologyIds = Sets.newHashSet();
+
+    private final ListMultimap<Long, String> materialComponentNames = ArrayListMultimap.create();
+
+    WorkPlanMaterialComponents(final WorkPlanMaterialComponentsService workPlanMaterialComponentsService) {
+        this.workPlanMaterialComponentsService = workPlanMaterialComponentsService;
+    }
+
+    public List<String> getMaterialComponentNames(final Entity order, final Entity product) {
+        if (!orderIds.contains(order.getId()) || !productIds.contains(product.getId())) {
+            workPlanMaterialComponentsService.load(this, Collections.singleton(order.getId()),
+                    Collections.singleton(product.getId()));
+        }
+
+        Long technologyId = getTechnologyId(order.getId(), product.getId());
+
+        if (technologyId == null) {
+            return Collections.emptyList();
+        }
+
+        return materialComponentNames.get(technologyId);
+    }
+
+    private Long getTechnologyId(final Long orderId, final Long productId) {
+        Map<Long, Long> technologyIdsByProduct = childOrderTechnologyIds.get(orderId);
+
+        if (technologyIdsByProduct != null && technologyIdsByProduct.containsKey(productId)) {
+            return technologyIdsByProduct.get(productId);
+        }
+
+        return masterTechnologyIds.get(productId);
+    }
+
+    Set<Long> getOrderIds() {
+        return orderIds;
+    }
+
+    Set<Long> getProductIds() {
+        return productIds;
+    }
+
+    void addChildOrderTechnologyId(final Long orderId, final Long productId, final Long technologyId) {
+        Map<Long, Long> technologyIdsByProduct = childOrderTechnologyIds.computeIfAbsent(orderId, id -> Maps.newHashMap());
+
+        if (!technologyIdsByProduct.containsKey(productId)) {
+            technologyIdsByProduct.put(productId, technologyId);
+        }
+    }
+
+    void addMasterTechnologyId(final Long productId, final Long technologyId) {
+        masterTechnologyIds.putIfAbsent(productId, technologyId);
+    }
+
+    Set<Long> getResolvedTechnologyIds() {
+        Set<Long> technologyIds = Sets.newHashSet(masterTechnologyIds.values());
+
+        for (Map<Long, Long> technologyIdsByProduct : childOrderTechnologyIds.values()) {
+            technologyIds.addAll(technologyIdsByProduct.values());
+        }
+
+        technologyIds.remove(null);
+
+        return technologyIds;
+    }
+
+    Set<Long> getTechnologyIds() {
+        return technologyIds;
+    }
+
+    void addMaterialComponentName(final Long technologyId, final String productName) {
+        materialComponentNames.put(technologyId, productName);
+    }
+
+}
@@ -0,0 +1,174 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.workPlans.pdf.document;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.qcadoo.mes.workPlans.pdf.document.operation.grouping.container.GroupingContainer;
+import com.qcadoo.mes.workPlans.pdf.document.operation.grouping.holder.OrderOperationComponent;
+
+@Service
+public class WorkPlanMaterialComponentsService {
+
+    @Autowired
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    public WorkPlanMaterialComponents prefetch(final GroupingContainer groupingContainer) {
+        WorkPlanMaterialComponents materialComponents = new WorkPlanMaterialComponents(this);
+
+        Set<Long> orderIds = Sets.newHashSet();
+        Set<Long> operationComponentIds = Sets.newHashSet();
+
+        for (OrderOperationComponent orderOperationComponent : groupingContainer.getTitleToOperationComponent().values()) {
+            orderIds.add(orderOperationComponent.getOrder().getId());
+            operationComponentIds.add(orderOperationComponent.getOperationComponent().getId());
+        }
+
+        Set<Long> productIds = getProductIdsWithMaterialComponents(operationComponentIds);
+
+        if (!orderIds.isEmpty() && !productIds.isEmpty()) {
+            load(materialComponents, orderIds, productIds);
+        }
+
+        return materialComponents;
+    }
+
+    void load(final WorkPlanMaterialComponents materialComponents, final Collection<Long> orderIds,
+            final Collection<Long> productIds) {
+        Set<Long> newOrderIds = Sets.difference(Sets.newHashSet(orderIds), materialComponents.getOrderIds()).immutableCopy();
+        Set<Long> newProductIds = Sets.difference(Sets.newHashSet(productIds), materialComponents.getProductIds())
+                .immutableCopy();
+
+        Set<Long> loadedOrderIds = Sets.newHashSet(materialComponents.getOrderIds());
+
+        materialComponents.getOrderIds().addAll(newOrderIds);
+        materialComponents.getProductIds().addAll(newProductIds);
+
+        if (!newOrderIds.isEmpty() && !materialComponents.getProductIds().isEmpty()) {
+            loadChildOrderTechnologies(materialComponents, newOrderIds, materialComponents.getProductIds());
+        }
+        if (!newProductIds.isEmpty() && !loadedOrderIds.isEmpty()) {
+            loadChildOrderTechnologies(materialComponents, loadedOrderIds, newProductIds);
+        }
+        if (!newProductIds.isEmpty()) {
+            loadMasterTechnologies(materialComponents, newProductIds);
+        }
+
+        Set<Long> newTechnologyIds = Sets.difference(materialComponents.getResolvedTechnologyIds(),
+                materialComponents.getTechnologyIds()).immutableCopy();
+
+        if (!newTechnologyIds.isEmpty()) {
+            materialComponents.getTechnologyIds().addAll(newTechnologyIds);
+
+            loadMaterialComponentNames(materialComponents, newTechnologyIds);
+        }
+    }
+
+    private Set<Long> getProductIdsWithMaterialComponents(final Set<Long> operationComponentIds) {
+        if (operationComponentIds.isEmpty()) {
+            return Sets.newHashSet();
+        }
+
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT DISTINCT opic.product_id ");
+        query.append("FROM technologies_operationproductincomponent opic ");
+        query.append("WHERE opic.operationcomponent_id IN (:operationComponentIds) ");
+        query.append("AND opic.showmaterialcomponent = true");
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("operationComponentIds", operationComponentIds);
+
+        return Sets.newHashSet(jdbcTemplate.queryForList(query.toString(), params, Long.class));
+    }
+
+    private void loadChildOrderTechnologies(final WorkPlanMaterialComponents materialComponents, final Set<Long> orderIds,
+            final Set<Long> productIds) {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT o.parent_id AS orderId, o.product_id AS productId, o.technology_id AS technologyId ");
+        query.append("FROM orders_order o ");
+        query.append("WHERE o.parent_id IN (:orderIds) AND o.product_id IN (:productIds) ");
+        query.append("ORDER BY o.id");
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("orderIds", orderIds);
+        params.put("productIds", productIds);
+
+        jdbcTemplate.query(query.toString(), params, rs -> {
+            long technologyId = rs.getLong("technologyId");
+
+            materialComponents.addChildOrderTechnologyId(rs.getLong("orderId"), rs.getLong("productId"),
+                    rs.wasNull() ? null : technologyId);
+        });
+    }
+
+    private void loadMasterTechnologies(final WorkPlanMaterialComponents materialComponents, final Set<Long> productIds) {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT t.product_id AS productId, t.id AS technologyId ");
+        query.append("FROM technologies_technology t ");
+        query.append("WHERE t.master = true AND t.product_id IN (:productIds) ");
+        query.append("ORDER BY t.id");
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("productIds", productIds);
+
+        jdbcTemplate.query(query.toString(), params,
+                rs -> materialComponents.addMasterTechnologyId(rs.getLong("productId"), rs.getLong("technologyId")));
+    }
+
+    private void loadMaterialComponentNames(final WorkPlanMaterialComponents materialComponents, final Set<Long> technologyIds) {
+        StringBuilder query = new StringBuilder();
+
+        query.append("SELECT DISTINCT toc.technology_id AS technologyId, p.name AS productName ");
+        query.append("FROM technologies_operationproductincomponent opic ");
+        query.append("JOIN technologies_technologyoperationcomponent toc ON toc.id = opic.operationcomponent_id ");
+        query.append("JOIN basic_product p ON p.id = opic.product_id ");
+        query.append("WHERE toc.technology_id IN (:technologyIds) ");
+        query.append("AND NOT EXISTS (SELECT 1 FROM technologies_technologyoperationcomponent child ");
+        query.append("JOIN technologies_operationproductoutcomponent opoc ON opoc.operationcomponent_id = child.id ");
+        query.append("WHERE child.parent_id = toc.id AND opoc.product_id = opic.product_id) ");
+        query.append("ORDER BY toc.technology_id, p.name");
+
+        Map<String, Object> params = Maps.newHashMap();
+
+        params.put("technologyIds", technologyIds);
+
+        jdbcTemplate.query(query.toString(), params,
+                rs -> materialComponents.addMaterialComponentName(rs.getLong("technologyId"), rs.getString("productName")));
+    }
+
+}
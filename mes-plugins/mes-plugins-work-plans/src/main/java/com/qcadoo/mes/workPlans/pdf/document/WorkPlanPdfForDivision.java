@@ -32,7 +32,6 @@ import com.qcadoo.mes.basic.constants.ProductFields;
 import com.qcadoo.mes.columnExtension.constants.ColumnAlignment;
 import com.qcadoo.mes.orders.constants.OrderFields;
 import com.qcadoo.mes.technologies.BarcodeOperationComponentService;
-import com.qcadoo.mes.technologies.TechnologyService;
 import com.qcadoo.mes.technologies.constants.*;
 import com.qcadoo.mes.workPlans.constants.OperationProductInComponentFieldsWP;
 import com.qcadoo.mes.workPlans.constants.WorkPlanFields;
@@ -41,7 +40,6 @@ import com.qcadoo.mes.workPlans.pdf.document.operation.grouping.holder.OrderOper
 import com.qcadoo.mes.workPlans.pdf.document.operation.product.ProductDirection;
 import com.qcadoo.mes.workPlans.pdf.document.operation.product.column.OperationProductColumn;
 import com.qcadoo.model.api.*;
-import com.qcadoo.model.api.search.SearchRestrictions;
 import com.qcadoo.report.api.FontUtils;
 import com.qcadoo.report.api.pdf.HeaderAlignment;
 import com.qcadoo.report.api.pdf.PdfHelper;
@@ -75,10 +73,10 @@ public class WorkPlanPdfForDivision {
     private BarcodeOperationComponentService barcodeOperationComponentService;
 
     @Autowired
-    private DataDefinitionService dataDefinitionService;
+    private WorkPlanSectionsRenderer workPlanSectionsRenderer;
 
     @Autowired
-    private TechnologyService technologyService;
+    private WorkPlanMaterialComponentsService workPlanMaterialComponentsService;
 
     public void print(PdfWriter pdfWriter, GroupingContainer groupingContainer, Entity workPlan, Document document, Locale locale)
             throws DocumentException {
@@ -86,20 +84,27 @@ public class WorkPlanPdfForDivision {
         ListMultimap<String, OrderOperationComponent> titleToOperationComponent = groupingContainer
                 .getTitleToOperationComponent();
 
+        WorkPlanMaterialComponents materialComponents = workPlanMaterialComponentsService.prefetch(groupingContainer);
+
+        List<WorkPlanSection> sections = Lists.newArrayList();
+
         for (String title : titleToOperationComponent.keySet()) {
-            addWorkPlanTitle(document, workPlan, title, locale);
+            WorkPlanSection section = new WorkPlanSection();
+            addWorkPlanTitle(section, workPlan, title, locale);
             List<OrderOperationComponent> components = titleToOperationComponent.get(title);
             List<OrderOperationComponent> sorted = sortOrderOperationComponents(components);
-            addMainOrders(document, sorted, locale);
+            addMainOrders(section, sorted, locale);
             for (OrderOperationComponent orderOperationComponent : sorted) {
-                addOperationTable(pdfWriter, groupingContainer, document, orderOperationComponent, locale);
+                addOperationTable(section, groupingContainer, materialComponents, orderOperationComponent, locale);
 
             }
-            document.newPage();
+            sections.add(section);
         }
+
+        workPlanSectionsRenderer.render(pdfWriter, document, sections);
     }
 
-    private void addWorkPlanTitle(Document document, Entity workPlan, String title, Locale locale) throws DocumentException {
+    private void addWorkPlanTitle(WorkPlanSection section, Entity workPlan, String title, Locale locale) {
 
         PdfPTable headerTable = pdfHelper.createPanelTable(2);
 
@@ -121,23 +126,23 @@ public class WorkPlanPdfForDivision {
         headerTable.setSpacingAfter(4.0f);
         headerTable.addCell(titleCell);
         headerTable.addCell(divisionCell);
-        document.add(headerTable);
+        section.add(headerTable);
     }
 
-    private void addMainOrders(Document document, List<OrderOperationComponent> orderOperationComponents, Locale locale)
-            throws DocumentException {
+    private void addMainOrders(WorkPlanSection section, List<OrderOperationComponent> orderOperationComponents, Locale locale) {
         List<Entity> orders = getMainOrdersForOperationComponents(orderOperationComponents);
         for (Entity order : orders) {
             Entity product = order.getBelongsToField(OrderFields.PRODUCT);
             Paragraph mainOrder = new Paragraph(new Phrase(prepareMainOrderSummary(order, product, locale),
                     FontUtils.getDejavuBold9Dark()));
             mainOrder.setIndentationLeft(3f);
-            document.add(mainOrder);
+            section.add(mainOrder);
         }
     }
 
-    private void addOperationTable(PdfWriter pdfWriter, GroupingContainer groupingContainer, Document document,
-            OrderOperationComponent orderOperationComponent, Locale locale) throws DocumentException {
+    private void addOperationTable(WorkPlanSection section, GroupingContainer groupingContainer,
+            WorkPlanMaterialComponents materialComponents, OrderOperationComponent orderOperationComponent, Locale locale)
+            throws DocumentException {
 
         Map<Long, Map<OperationProductColumn, ColumnAlignment>> outputProductsMap = groupingContainer
                 .getOperationComponentIdProductOutColumnToAlignment();
@@ -172,22 +177,27 @@ public class WorkPlanPdfForDivision {
 
         addOrderSummary(headerCell, order, product, operationComponent);
 
-        addOperationProductsTable(inputCell, addMaterialComponents(operationProductInComponents(operationComponent), order),
+        addOperationProductsTable(inputCell,
+                addMaterialComponents(operationProductInComponents(operationComponent), order, materialComponents),
                 inputProductColumnAlignmentMap, ProductDirection.IN, locale);
         addOperationProductsTable(outputCell, operationProductOutComponents(operationComponent), outputProductColumnAlignmentMap,
                 ProductDirection.OUT, locale);
 
-        codeCell.addElement(createBarcode(pdfWriter, order, operationComponent));
-
-        float[] tableColumnWidths = new float[] { 70f, 70f, 10f };
-        table.setWidths(tableColumnWidths);
-        table.setTableEvent(null);
-        table.addCell(headerCell);
-        table.addCell(codeCell);
-        table.addCell(inputCell);
-        table.addCell(outputCell);
-        table.setKeepTogether(true);
-        document.add(table);
+        String code = barcodeOperationComponentService.getCodeFromBarcode(order, operationComponent);
+
+        section.add((document, barcodeImages) -> {
+            codeCell.addElement(barcodeImages.getImage(code));
+
+            float[] tableColumnWidths = new float[] { 70f, 70f, 10f };
+            table.setWidths(tableColumnWidths);
+            table.setTableEvent(null);
+            table.addCell(headerCell);
+            table.addCell(codeCell);
+            table.addCell(inputCell);
+            table.addCell(outputCell);
+            table.setKeepTogether(true);
+            document.add(table);
+        });
     }
 
     private void addOperationSummary(PdfPCell cell, Entity operationComponent) throws DocumentException {
@@ -294,51 +304,24 @@ public class WorkPlanPdfForDivision {
         cell.addElement(table);
     }
 
-    private List<Entity> addMaterialComponents(List<Entity> productComponents, Entity order) {
+    private List<Entity> addMaterialComponents(List<Entity> productComponents, Entity order,
+            WorkPlanMaterialComponents materialComponents) {
         for (Entity productComponent : productComponents) {
             if (productComponent.getBooleanField(OperationProductInComponentFieldsWP.SHOW_MATERIAL_COMPONENT)) {
                 Entity product = productComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT);
 
-                Entity technology = getTechnologyForComponent(productComponent, order);
-                if (technology != null) {
-                    Set<String> distinctProductNames = new HashSet<>();
-                    EntityList operationComponents = technology.getHasManyField(TechnologyFields.OPERATION_COMPONENTS);
-                    for (Entity operationComponent : operationComponents) {
-                        EntityList operationProductsInComponents = operationComponent
-                                .getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_IN_COMPONENTS);
-                        List<String> ProductNames = operationProductsInComponents.stream()
-                                .filter(opic -> !technologyService.isIntermediateProduct(opic))
-                                .map(opic -> opic.getBelongsToField(OperationProductInComponentFields.PRODUCT))
-                                .map(p -> p.getStringField(ProductFields.NAME)).collect(Collectors.toList());
-
-                        distinctProductNames.addAll(ProductNames);
-                    }
-                    if (!distinctProductNames.isEmpty()) {
-                        String name = product.getStringField(ProductFields.NAME) + "\n- "
-                                + String.join("\n- ", distinctProductNames);
-                        product.setField(ProductFields.NAME, name);
-                        productComponent.setField(OperationProductInComponentFields.PRODUCT, product);
-                    }
+                List<String> materialComponentNames = materialComponents.getMaterialComponentNames(order, product);
+                if (!materialComponentNames.isEmpty()) {
+                    String name = product.getStringField(ProductFields.NAME) + "\n- "
+                            + String.join("\n- ", materialComponentNames);
+                    product.setField(ProductFields.NAME, name);
+                    productComponent.setField(OperationProductInComponentFields.PRODUCT, product);
                 }
             }
         }
         return productComponents;
     }
 
-    private Entity getTechnologyForComponent(Entity productComponent, Entity order) {
-        Entity product = productComponent.getBelongsToField(OperationProductInComponentFields.PRODUCT);
-        List<Entity> productOrders = order.getDataDefinition().find().add(SearchRestrictions.belongsTo("parent", order))
-                .add(SearchRestrictions.belongsTo("product", product)).list().getEntities();
-        if (productOrders != null && !productOrders.isEmpty()) {
-            return productOrders.get(0).getBelongsToField(OrderFields.TECHNOLOGY);
-        } else {
-            DataDefinition technologyDD = dataDefinitionService.get(TechnologiesConstants.PLUGIN_IDENTIFIER,
-                    TechnologiesConstants.MODEL_TECHNOLOGY);
-            return technologyDD.find().add(SearchRestrictions.belongsTo(TechnologyFields.PRODUCT, product))
-                    .add(SearchRestrictions.eq(TechnologyFields.MASTER, true)).setMaxResults(1).uniqueResult();
-        }
-    }
-
     private List<Entity> operationProductOutComponents(Entity operationComponent) {
         return operationComponent.getHasManyField(TechnologyOperationComponentFields.OPERATION_PRODUCT_OUT_COMPONENTS);
     }
@@ -385,13 +368,6 @@ public class WorkPlanPdfForDivision {
         return ColumnAlignment.LEFT.equals(value) ? HeaderAlignment.LEFT : HeaderAlignment.RIGHT;
     }
 
-    private Image createBarcode(PdfWriter pdfWriter, Entity order, Entity operationComponent) throws DocumentException {
-        PdfContentByte cb = pdfWriter.getDirectContent();
-        Barcode128 code128 = new Barcode128();
-        code128.setCode(barcodeOperationComponentService.getCodeFromBarcode(order, operationComponent));
-        return code128.createImageWithBarcode(cb, null, null);
-    }
-
     private String prepareMainOrderSummary(Entity order, Entity product, Locale locale) {
 
         StringBuilder summary = new StringBuilder(translationService.translate("workPlans.workPlan.report.mainOrder", locale));
@@ -0,0 +1,62 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.workPlans.pdf.document;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.Element;
+
+/**
+ * Section of work plan, which starts on a new page. Its content is prepared up front, so that sections can be rendered
+ * independently of each other and of the database session.
+ */
+public class WorkPlanSection {
+
+    private final List<Part> parts = Lists.newArrayList();
+
+    public void add(final Element element) {
+        parts.add((document, barcodeImages) -> document.add(element));
+    }
+
+    public void add(final Part part) {
+        parts.add(part);
+    }
+
+    public void render(final Document document, final BarcodeImages barcodeImages) throws DocumentException {
+        for (Part part : parts) {
+            part.render(document, barcodeImages);
+        }
+    }
+
+    @FunctionalInterface
+    public interface Part {
+
+        void render(final Document document, final BarcodeImages barcodeImages) throws DocumentException;
+
+    }
+
+}
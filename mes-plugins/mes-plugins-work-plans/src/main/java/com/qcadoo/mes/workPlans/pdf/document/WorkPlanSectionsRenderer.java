@@ -0,0 +1,173 @@
+/**
+ * ***************************************************************************
+ * Copyright (c) 2010 Qcadoo Limited
+ * Project: Qcadoo MES
+ * Version: 1.4
+ * <p>
+ * This file is part of Qcadoo.
+ * <p>
+ * Qcadoo is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation; either version 3 of the License,
+ * or (at your option) any later version.
+ * <p>
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty
+ * of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Affero General Public License for more details.
+ * <p>
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ * ***************************************************************************
+ */
+package com.qcadoo.mes.workPlans.pdf.document;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Lists;
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.Rectangle;
+import com.lowagie.text.pdf.PdfContentByte;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfWriter;
+
+/**
+ * Renders work plan sections into the document. Each section is rendered concurrently into a separate PDF fragment with the
+ * page size and margins of the document, then pages of fragments are appended to the document in order of sections.
+ */
+@Component
+public class WorkPlanSectionsRenderer {
+
+    private static final int WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final int QUEUE_CAPACITY = 100;
+
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(WORKERS, WORKERS, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(QUEUE_CAPACITY), new WorkPlanSectionThreadFactory(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    public void render(final PdfWriter pdfWriter, final Document document, final List<WorkPlanSection> sections)
+            throws DocumentException {
+        if (sections.size() < 2) {
+            BarcodeImages barcodeImages = new BarcodeImages(pdfWriter);
+
+            for (WorkPlanSection section : sections) {
+                section.render(document, barcodeImages);
+                document.newPage();
+            }
+
+            return;
+        }
+
+        Rectangle pageSize = document.getPageSize();
+        float[] margins = new float[] { document.leftMargin(), document.rightMargin(), document.topMargin(),
+                document.bottomMargin() };
+
+        List<Future<byte[]>> fragments = Lists.newArrayListWithCapacity(sections.size());
+
+        try {
+            for (WorkPlanSection section : sections) {
+                fragments.add(executor.submit(() -> renderFragment(pageSize, margins, section)));
+            }
+
+            for (Future<byte[]> fragment : fragments) {
+                appendFragment(pdfWriter, document, getFragment(fragment));
+            }
+        } finally {
+            for (Future<byte[]> fragment : fragments) {
+                fragment.cancel(true);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private byte[] renderFragment(final Rectangle pageSize, final float[] margins, final WorkPlanSection section)
+            throws DocumentException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        Document fragment = new Document(new Rectangle(pageSize), margins[0], margins[1], margins[2], margins[3]);
+        PdfWriter fragmentWriter = PdfWriter.getInstance(fragment, outputStream);
+
+        fragment.open();
+        section.render(fragment, new BarcodeImages(fragmentWriter));
+        fragment.close();
+
+        return outputStream.toByteArray();
+    }
+
+    private byte[] getFragment(final Future<byte[]> fragment) throws DocumentException {
+        try {
+            return fragment.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException("Work plan rendering was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DocumentException) {
+                throw (DocumentException) e.getCause();
+            }
+
+            throw new IllegalStateException("Problem with rendering work plan section", e.getCause());
+        }
+    }
+
+    private void appendFragment(final PdfWriter pdfWriter, final Document document, final byte[] fragment)
+            throws DocumentException {
+        PdfReader reader;
+
+        try {
+            reader = new PdfReader(fragment);
+        } catch (IOException e) {
+            throw new DocumentException(e);
+        }
+
+        try {
+            PdfContentByte directContent = pdfWriter.getDirectContent();
+
+            for (int page = 1; page <= reader.getNumberOfPages(); page++) {
+                directContent.addTemplate(pdfWriter.getImportedPage(reader, page), 0, 0);
+                document.newPage();
+            }
+
+            pdfWriter.freeReader(reader);
+        } catch (IOException e) {
+            throw new DocumentException(e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static final class WorkPlanSectionThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable, "work-plan-section-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+
+    }
+
+}